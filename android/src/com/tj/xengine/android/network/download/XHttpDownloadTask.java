@@ -23,6 +23,11 @@ public class XHttpDownloadTask extends XBaseHttpDownloadTask {
         XLog.d(TAG, message);
     }
 
+    @Override
+    protected boolean isDebugLogEnabled() {
+        return XLog.isLoggable(XLog.DEBUG);
+    }
+
     @Override
     protected boolean checkStorageFull(String dir, long minSize) {
         return XStorageUtil.isFull(dir, minSize);
@@ -4,6 +4,9 @@ import android.util.Log;
 
 /**
  * 全局log类，简单封装一下，可以手动开关各个log级别的日志。
+ * 带格式参数的方法只在该级别的日志打开时才格式化字符串，
+ * 频繁调用的地方(例如下载循环中)应使用这些方法，或者先用{@link #isLoggable(int)}判断，
+ * 避免日志关闭时仍然拼接字符串。
  * Created by 赵之韵.
  * Email: ttxzmorln@163.com
  * Date: 11-11-13
@@ -11,27 +14,41 @@ import android.util.Log;
  */
 public abstract class XLog {
 
+    // 日志级别，与android.util.Log一致
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+
+    /**
+     * 输出日志的最低级别，默认输出DEBUG及以上的日志
+     */
+    private static volatile int level = DEBUG;
+
     /**
      * 是否打开Debug的标志
      */
-    private static boolean isDebugEnabled = true;
+    private static volatile boolean isDebugEnabled = true;
 
     /**
      * 是否打开Info的标志
      */
-    private static boolean isInfoEnabled = true;
+    private static volatile boolean isInfoEnabled = true;
 
     /**
      * 是否打开Error的标志
      */
-    private static boolean isErrorEnabled = true;
+    private static volatile boolean isErrorEnabled = true;
 
     /**
-     * 设置是否开启Debug
+     * 设置是否开启Debug，开启时如果最低级别高于DEBUG，同时降到DEBUG
      * @param enable
      */
     public static void setDebugEnabled(boolean enable) {
         isDebugEnabled = enable;
+        if (enable && level > DEBUG)
+            level = DEBUG;
     }
 
     /**
@@ -50,30 +67,103 @@ public abstract class XLog {
         isErrorEnabled = enable;
     }
 
+    /**
+     * 设置输出日志的最低级别，低于该级别的日志被忽略，默认为DEBUG
+     * @param minLevel VERBOSE、DEBUG、INFO、WARN或ERROR
+     */
+    public static void setLevel(int minLevel) {
+        level = minLevel;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    /**
+     * 判断该级别的日志是否会输出
+     */
+    public static boolean isLoggable(int logLevel) {
+        if (logLevel < level)
+            return false;
+        switch (logLevel) {
+            case DEBUG:
+                return isDebugEnabled;
+            case INFO:
+                return isInfoEnabled;
+            case ERROR:
+                return isErrorEnabled;
+            default:
+                return true;
+        }
+    }
+
+    public static void log(int logLevel, String tag, String msg) {
+        if(isLoggable(logLevel)) {
+            Log.println(logLevel, tag, msg);
+        }
+    }
+
+    /**
+     * 该级别的日志打开时，才用String.format()格式化并输出日志
+     */
+    public static void log(int logLevel, String tag, String format, Object arg) {
+        if(isLoggable(logLevel)) {
+            Log.println(logLevel, tag, String.format(format, arg));
+        }
+    }
+
+    public static void log(int logLevel, String tag, String format, Object arg1, Object arg2) {
+        if(isLoggable(logLevel)) {
+            Log.println(logLevel, tag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public static void log(int logLevel, String tag, String format, Object... args) {
+        if(isLoggable(logLevel)) {
+            Log.println(logLevel, tag, String.format(format, args));
+        }
+    }
+
+    /**
+     * 等同于Log.v
+     */
+    public static void v(String tag, String msg) {
+        log(VERBOSE, tag, msg);
+    }
+
     /**
      * 等同于Log.i
      */
     public static void i(String tag, String msg) {
-        if(isInfoEnabled) {
-            Log.i(tag, msg);
-        }
+        log(INFO, tag, msg);
     }
 
     /**
      * 等同于Log.d
      */
     public static void d(String tag, String msg) {
-        if(isDebugEnabled) {
-            Log.d(tag, msg);
-        }
+        log(DEBUG, tag, msg);
+    }
+
+    public static void d(String tag, String format, Object arg) {
+        log(DEBUG, tag, format, arg);
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        log(DEBUG, tag, format, arg1, arg2);
+    }
+
+    /**
+     * 等同于Log.w
+     */
+    public static void w(String tag, String msg) {
+        log(WARN, tag, msg);
     }
 
     /**
      * 等同于Log.e
      */
     public static void e(String tag, String msg) {
-        if(isErrorEnabled) {
-            Log.e(tag, msg);
-        }
+        log(ERROR, tag, msg);
     }
 }
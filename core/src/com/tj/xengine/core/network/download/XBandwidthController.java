@@ -0,0 +1,154 @@
+package com.tj.xengine.core.network.download;
+
+import com.tj.xengine.core.toolkit.limiter.XRateLimiter;
+import com.tj.xengine.core.toolkit.limiter.XTokenBucketLimiter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * 下载带宽控制器。
+ * 同时支持三个层级的带宽上限，所有上限都可以在运行时随时修改:
+ *      1.全局上限：同一个下载管理器的所有任务共享；
+ *      2.Host上限：同一个Host的所有任务共享；
+ *      3.任务上限：单个任务独享。
+ * 每次读取数据前，依次向任务、Host、全局三个限制器申请，
+ * 实际可读取的大小是三者中最小的，多申请的部分会归还给前面的限制器。
+ * 单位均为byte/s，小于等于0表示不限制。
+ * </pre>
+ */
+public class XBandwidthController {
+
+    private final XRateLimiter mGlobalLimiter;// 全局限制器
+    private final ConcurrentHashMap<String, XRateLimiter> mHostLimiters;// Host -> 限制器
+    private final ConcurrentHashMap<String, XRateLimiter> mTaskLimiters;// 任务Id -> 限制器
+
+    public XBandwidthController() {
+        mGlobalLimiter = new XTokenBucketLimiter(XRateLimiter.UNLIMITED);
+        mHostLimiters = new ConcurrentHashMap<String, XRateLimiter>();
+        mTaskLimiters = new ConcurrentHashMap<String, XRateLimiter>();
+    }
+
+    /**
+     * 设置全局带宽上限。
+     * @param bytesPerSecond 单位：byte/s，小于等于0表示不限制
+     */
+    public void setGlobalRate(long bytesPerSecond) {
+        mGlobalLimiter.setRate(bytesPerSecond);
+    }
+
+    public long getGlobalRate() {
+        return mGlobalLimiter.getRate();
+    }
+
+    /**
+     * 设置某个Host的带宽上限。
+     * @param host Host域名
+     * @param bytesPerSecond 单位：byte/s，小于等于0表示不限制
+     */
+    public void setHostRate(String host, long bytesPerSecond) {
+        setRate(mHostLimiters, host, bytesPerSecond);
+    }
+
+    public long getHostRate(String host) {
+        return getRate(mHostLimiters, host);
+    }
+
+    /**
+     * 设置某个任务的带宽上限。
+     * @param taskId 任务Id
+     * @param bytesPerSecond 单位：byte/s，小于等于0表示不限制
+     */
+    public void setTaskRate(String taskId, long bytesPerSecond) {
+        setRate(mTaskLimiters, taskId, bytesPerSecond);
+    }
+
+    public long getTaskRate(String taskId) {
+        return getRate(mTaskLimiters, taskId);
+    }
+
+    /**
+     * 申请读取数据的额度。
+     * 如果当前额度不足，会阻塞等待一小段时间，调用者应在循环中重新申请。
+     * @param host 当前任务的Host，可以为null
+     * @param taskId 当前任务的Id，可以为null
+     * @param bytes 希望读取的大小
+     * @return 返回实际允许读取的大小；返回0表示暂时没有额度
+     */
+    public int acquire(String host, String taskId, int bytes) {
+        XRateLimiter taskLimiter = taskId == null ? null : mTaskLimiters.get(taskId);
+        XRateLimiter hostLimiter = host == null ? null : mHostLimiters.get(host);
+
+        int granted = bytes;
+        if (taskLimiter != null) {
+            granted = taskLimiter.acquire(granted);
+            if (granted <= 0)
+                return 0;
+        }
+        if (hostLimiter != null) {
+            int hostGranted = hostLimiter.acquire(granted);
+            if (taskLimiter != null)
+                taskLimiter.refund(granted - hostGranted);
+            granted = hostGranted;
+            if (granted <= 0)
+                return 0;
+        }
+        int globalGranted = mGlobalLimiter.acquire(granted);
+        if (taskLimiter != null)
+            taskLimiter.refund(granted - globalGranted);
+        if (hostLimiter != null)
+            hostLimiter.refund(granted - globalGranted);
+        return globalGranted;
+    }
+
+    /**
+     * 归还没用完的额度(比如申请了16K，实际只读到4K)。
+     * @param host 当前任务的Host，可以为null
+     * @param taskId 当前任务的Id，可以为null
+     * @param bytes 归还的大小
+     */
+    public void refund(String host, String taskId, int bytes) {
+        if (bytes <= 0)
+            return;
+        XRateLimiter taskLimiter = taskId == null ? null : mTaskLimiters.get(taskId);
+        if (taskLimiter != null)
+            taskLimiter.refund(bytes);
+        XRateLimiter hostLimiter = host == null ? null : mHostLimiters.get(host);
+        if (hostLimiter != null)
+            hostLimiter.refund(bytes);
+        mGlobalLimiter.refund(bytes);
+    }
+
+    /**
+     * 清除某个任务的带宽设置(任务被删除时调用)。
+     */
+    public void removeTask(String taskId) {
+        if (taskId != null)
+            mTaskLimiters.remove(taskId);
+    }
+
+    private static void setRate(ConcurrentHashMap<String, XRateLimiter> limiters,
+                                String key, long bytesPerSecond) {
+        if (key == null)
+            return;
+        if (bytesPerSecond <= XRateLimiter.UNLIMITED) {
+            XRateLimiter limiter = limiters.remove(key);
+            if (limiter != null)
+                limiter.setRate(XRateLimiter.UNLIMITED);// 唤醒正在等待的线程尽快放行
+            return;
+        }
+        XRateLimiter limiter = limiters.get(key);
+        if (limiter == null) {
+            XRateLimiter newLimiter = new XTokenBucketLimiter(bytesPerSecond);
+            limiter = limiters.putIfAbsent(key, newLimiter);
+            if (limiter == null)
+                return;
+        }
+        limiter.setRate(bytesPerSecond);
+    }
+
+    private static long getRate(ConcurrentHashMap<String, XRateLimiter> limiters, String key) {
+        XRateLimiter limiter = key == null ? null : limiters.get(key);
+        return limiter == null ? XRateLimiter.UNLIMITED : limiter.getRate();
+    }
+}
@@ -1,25 +1,52 @@
 package com.tj.xengine.core.network.download;
 
 import com.tj.xengine.core.network.http.XHttp;
+import com.tj.xengine.core.network.http.XHttpAbortableResponse;
+import com.tj.xengine.core.network.http.XHttpChannelResponse;
 import com.tj.xengine.core.network.http.XHttpRequest;
 import com.tj.xengine.core.network.http.XHttpResponse;
 import com.tj.xengine.core.network.http.XHttpUtil;
+import com.tj.xengine.core.toolkit.filter.XFilter;
+import com.tj.xengine.core.toolkit.task.XProgressReporter;
 import com.tj.xengine.core.toolkit.task.runnable.XFiniteRetryRunnable;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryBackoff;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryBudget;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryListener;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryScheduler;
 import com.tj.xengine.core.toolkit.taskmgr.XBaseMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XSoftPreemptible;
+import com.tj.xengine.core.toolkit.pool.XAdaptiveBufferSizer;
+import com.tj.xengine.core.toolkit.pool.XBufferPool;
+import com.tj.xengine.core.toolkit.taskmgr.speed.calc.XRemainTimeCalculable;
 import com.tj.xengine.core.utils.XStringUtil;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 /**
- * 对单个文件进行单线程下载的http下载任务。
+ * 对单个文件进行下载的http下载任务。
  * 支持下载暂停后的断点续传;
- * 支持下载过出错后的重试。
+ * 支持下载过出错后的重试;
+ * 支持多线程分段下载(见{@link #setSegmentCount(int)})；
+ * 支持预分配文件和预留磁盘空间(见{@link #setPreallocate(boolean)})；
+ * 支持边下载边计算摘要，下载完成后校验(见{@link XDownloadBean#setExpectedDigest(String, String)})；
+ * 续传时通过If-Range和记录的校验信息(见{@link XDownloadValidator})判断服务器上的文件是否改变；
+ * 有镜像时同时从多个下载源下载不同的段(见{@link XDownloadSources})；
+ * 设置了缓存时，优先从缓存获取文件，下载成功后放入缓存(见{@link XDownloadCache})；
+ * 支持根据实测的读写情况调整缓冲区大小(见{@link #setAdaptiveBuffer(boolean)})。
  * Created by jasontujun on 2015/10/29.
  */
-public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownloadBean> {
+public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownloadBean>
+        implements XRemainTimeCalculable, XSoftPreemptible {
 
     private static final String TAG = XBaseHttpDownloadTask.class.getSimpleName();
 
@@ -39,14 +66,45 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
     public static final String ERROR_NO_CONTENT_LENGTH = "-0008";
     // 写文件时IO异常
     public static final String ERROR_IO_EXCEPTION = "-0009";
+    // 下载完成后文件的摘要与预期不一致
+    public static final String ERROR_DIGEST_MISMATCH = "-0010";
+    // 续传时服务器上的文件已改变(已删除临时文件，重试时重新下载)
+    public static final String ERROR_RESOURCE_CHANGED = "-0011";
+
+    public static final int FORCE_NONE = 0;// 不主动刷盘，由操作系统决定何时写入磁盘
+    public static final int FORCE_ON_COMPLETE = 1;// 下载完成时刷盘
+    public static final int FORCE_PERIODIC = 2;// 下载过程中定期刷盘，下载完成时也刷盘
 
     protected static final String DOWNLOADING_FILE_SUFFIX = ".downloading";// 下载过程中的临时文件后缀
     protected static final int MAX_RETRY_COUNT = 3;// 重试次数
     protected static final int DEFAULT_RETRY_INTERVAL = 30 * 1000;// 重试间隔(单位:毫秒)
     protected static final int BUFFER_SIZE = 16 * 1024;// 写文件的缓存大小
-    protected static final int PROGRESS_INTERVAL_TIME = 0;// 通知下载进度的时间间隔(单位:毫秒)
+    protected static final int MIN_BUFFER_SIZE = 4 * 1024;// 自适应时缓存大小的下限
+    protected static final int MAX_BUFFER_SIZE = 256 * 1024;// 自适应时缓存大小的上限
+    protected static final int PROGRESS_INTERVAL_TIME = 200;// 通知下载进度的时间间隔(单位:毫秒)
+    protected static final long PROGRESS_INTERVAL_SIZE = 8 * 1024;// 通知下载进度的数据量间隔
+    protected static final long MIN_SEGMENT_SIZE = 512 * 1024;// 分段下载时每段的最小大小
+    protected static final long SEGMENT_CHECK_INTERVAL = 200;// 分段下载时检查各段进度的间隔(单位:毫秒)
+    protected static final long META_SAVE_INTERVAL = 1000;// 分段下载时保存进度记录的间隔(单位:毫秒)
 
-    private DownloadFileRunnable mRunnable;
+    private volatile DownloadFileRunnable mRunnable;
+    private volatile long mCompleteSize;// 已下载大小(下载线程写，速度监视线程读)
+    private volatile XBandwidthController mBandwidthController;// 带宽控制器
+    private volatile XRetryScheduler mRetryScheduler;// 重试调度器
+    private volatile XRetryBudget mRetryBudget;// 重试预算
+    private volatile XRetryBackoff mRetryBackoff;// 重试间隔的退避策略
+    private volatile XRetryListener<? super XDownloadBean> mRetryListener;// 重试的监听者
+    private volatile int mSegmentCount = 1;// 分段下载的线程数
+    private volatile int mForceMode = FORCE_NONE;// 刷盘模式
+    private volatile long mForceInterval;// 定期刷盘的间隔(单位:毫秒)
+    private volatile boolean mPreallocate;// 是否预分配文件
+    private volatile boolean mAdaptiveBuffer;// 是否自适应调整缓冲区大小
+    private volatile XDiskReservation mDiskReservation;// 磁盘空间预留账本
+    private volatile XDownloadCache mDownloadCache;// 下载内容的缓存
+    private volatile XFilter<XDownloadBean> mStartFilter;// 启动过滤器
+    private volatile boolean mRetryOnDigestMismatch;// 摘要不一致时是否重新下载
+    private volatile XDownloadDigest mDigestCheckpoint;// 摘要的检查点，暂停后恢复下载时继续计算
+    private volatile boolean mRetryAfterError;// 最近一次失败后是否加回任务管理器
     protected XHttp mHttpClient;
 
     public XBaseHttpDownloadTask(XDownloadBean bean, XHttp httpClient) {
@@ -61,6 +119,154 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
 
     protected abstract void log(String message);
 
+    /**
+     * 是否输出下载过程中的调试日志(例如进度日志)，关闭时不拼接日志字符串。
+     * 默认关闭，子类可以重写此方法，根据日志级别返回。
+     */
+    protected boolean isDebugLogEnabled() {
+        return false;
+    }
+
+    /**
+     * 设置带宽控制器，读取数据前会先向其申请额度。
+     * 一般由下载管理器统一设置，可以在下载过程中修改。
+     * @param controller 为null表示不限制带宽
+     */
+    public void setBandwidthController(XBandwidthController controller) {
+        mBandwidthController = controller;
+    }
+
+    public XBandwidthController getBandwidthController() {
+        return mBandwidthController;
+    }
+
+    /**
+     * 设置重试调度器，两次重试之间释放下载线程。
+     * 一般由下载管理器统一设置，下次启动任务时生效。
+     * @param scheduler 为null表示在下载线程中等待重试
+     */
+    public void setRetryScheduler(XRetryScheduler scheduler) {
+        mRetryScheduler = scheduler;
+    }
+
+    /**
+     * 设置重试预算，一般由下载管理器统一设置，下次启动任务时生效。
+     * @param budget 为null表示不限制
+     */
+    public void setRetryBudget(XRetryBudget budget) {
+        mRetryBudget = budget;
+    }
+
+    /**
+     * 设置重试的监听者，下载线程内部每次重试时回调。
+     * 一般由下载管理器统一设置，下次启动任务时生效。
+     * @param listener 为null表示不监听
+     */
+    public void setRetryListener(XRetryListener<? super XDownloadBean> listener) {
+        mRetryListener = listener;
+    }
+
+    /**
+     * 设置重试间隔的退避策略。
+     * @param backoff 为null表示使用{@link #getRetryIntervalTime(long)}的固定间隔
+     */
+    public void setRetryBackoff(XRetryBackoff backoff) {
+        mRetryBackoff = backoff;
+    }
+
+    /**
+     * 设置分段下载的线程数，下次启动任务时生效。
+     * 服务器支持Range请求且返回了文件总大小时，把文件分为多段，每段用一个连接并行下载，
+     * 某段下载完后，把剩余最多的段拆成两段继续下载；各段的进度保存在.meta文件中，用于断点续传。
+     * 注意：需要事先指定文件名；已经按单线程下载了部分数据的文件，继续按单线程下载。
+     * @param count 小于等于1表示单线程下载
+     */
+    public void setSegmentCount(int count) {
+        mSegmentCount = Math.max(count, 1);
+    }
+
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * 设置下载数据的刷盘模式，下次启动任务时生效。
+     * 刷盘越频繁，进程或系统崩溃后丢失的数据越少，但写入速度越慢。
+     * 分段下载时，定期刷盘后才保存进度记录，记录的进度不会超过已刷盘的数据。
+     * @param mode FORCE_NONE(默认)、FORCE_ON_COMPLETE或FORCE_PERIODIC
+     * @param interval 定期刷盘的间隔(单位:毫秒)，只在FORCE_PERIODIC模式下有效
+     */
+    public void setForceMode(int mode, long interval) {
+        mForceMode = mode;
+        mForceInterval = Math.max(interval, 0);
+    }
+
+    public int getForceMode() {
+        return mForceMode;
+    }
+
+    /**
+     * 设置是否预分配文件，下次启动任务时生效。
+     * 开启后，获取到文件总大小时：
+     * 1.检查存储空间是否足够下载剩余的全部数据，不够立即以ERROR_NO_SPACE结束；
+     * 2.在磁盘空间预留账本中预留剩余的下载大小(见{@link #setDiskReservation(XDiskReservation)})；
+     * 3.服务器支持Range请求时，把临时文件一次性扩展到总大小，按位置写入，进度保存在.meta文件中。
+     * 注意：文件扩展使用RandomAccessFile.setLength()，在多数文件系统上不会立即占用磁盘块，
+     * 所以需要通过预留账本保证空间。
+     */
+    public void setPreallocate(boolean preallocate) {
+        mPreallocate = preallocate;
+    }
+
+    /**
+     * 设置是否根据实测的读写情况调整缓冲区大小，下次启动任务时生效。
+     * 开启后，缓冲区从{@link #getBufferSize()}开始，
+     * 在{@link #getMinBufferSize()}和{@link #getMaxBufferSize()}之间调整：
+     * 链路快时扩大，减少read和write的调用次数；链路慢或写入慢时缩小，不长时间占用大缓冲区。
+     * 调整时从缓冲区池中换缓冲区(见{@link XAdaptiveBufferSizer})。
+     * 注意：响应提供了通道、直接从通道传输到文件时不使用缓冲区，不做调整。
+     */
+    public void setAdaptiveBuffer(boolean adaptive) {
+        mAdaptiveBuffer = adaptive;
+    }
+
+    public boolean isAdaptiveBuffer() {
+        return mAdaptiveBuffer;
+    }
+
+    /**
+     * 设置磁盘空间预留账本，一般由下载管理器统一设置，所有任务共享。
+     * @param reservation 为null表示只检查自身需要的空间
+     */
+    public void setDiskReservation(XDiskReservation reservation) {
+        mDiskReservation = reservation;
+    }
+
+    /**
+     * 设置下载内容的缓存，一般由下载管理器统一设置，所有任务共享。
+     * @param cache 为null表示不使用缓存
+     */
+    public void setDownloadCache(XDownloadCache cache) {
+        mDownloadCache = cache;
+    }
+
+    /**
+     * 设置启动过滤器，一般由下载管理器设置。
+     * filter.doFilter()返回null时拒绝启动，比如等待其他任务下载相同内容的跟随任务。
+     * @param filter 为null表示不过滤
+     */
+    public void setStartFilter(XFilter<XDownloadBean> filter) {
+        mStartFilter = filter;
+    }
+
+    /**
+     * 设置下载完成后摘要与预期不一致时，是否删除临时文件并重新下载(占用一次重试次数)。
+     * 默认直接以ERROR_DIGEST_MISMATCH结束。
+     */
+    public void setRetryOnDigestMismatch(boolean retry) {
+        mRetryOnDigestMismatch = retry;
+    }
+
     /**
      * 检查容量是否已满。
      * 子类可以重写此方法。
@@ -107,6 +313,30 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
         return BUFFER_SIZE;
     }
 
+    /**
+     * 获取自适应调整时缓冲区大小的下限。
+     * 子类可以重写此方法。
+     */
+    protected int getMinBufferSize() {
+        return MIN_BUFFER_SIZE;
+    }
+
+    /**
+     * 获取自适应调整时缓冲区大小的上限，不超过{@link XBufferPool#MAX_CAPACITY}。
+     * 子类可以重写此方法。
+     */
+    protected int getMaxBufferSize() {
+        return MAX_BUFFER_SIZE;
+    }
+
+    /**
+     * 获取下载缓冲区所在的缓冲区池，默认使用全局共享的缓冲区池。
+     * 子类可以重写此方法。
+     */
+    protected XBufferPool getBufferPool() {
+        return XBufferPool.getInstance();
+    }
+
     /**
      * 获取通知下载进度的时间间隔(单位:毫秒)。
      * 子类可以重写此方法。
@@ -115,6 +345,14 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
         return PROGRESS_INTERVAL_TIME;
     }
 
+    /**
+     * 获取通知下载进度的数据量间隔，与时间间隔同时满足时才通知进度。
+     * 子类可以重写此方法。
+     */
+    protected long getProgressIntervalSize() {
+        return PROGRESS_INTERVAL_SIZE;
+    }
+
     /**
      * 一旦任务最终执行失败，是否添加回执行队列中。
      * 子类可以重写此方法。
@@ -126,6 +364,8 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
     /**
      * 异步执行下载任务。
      * 子类可以重写此方法，实现自定义的异步执行方式。
+     * 分段下载的下载线程和探测下载源的请求也通过此方法执行，
+     * 交给有界线程池时，线程数应不少于分段数+1，否则多出的下载线程要等待空闲的线程。
      * @return 返回异步执行任务的Future队形，可以空。
      * 如果返回的Future不为空，则会用于暂停Runnable执行。
      */
@@ -158,9 +398,17 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
     protected final boolean onStart() {
         if (mRunnable != null)
             return false;
+        final XFilter<XDownloadBean> startFilter = mStartFilter;
+        if (startFilter != null && startFilter.doFilter(getBean()) == null)
+            return false;
 
+        // 重新开始计算进度，避免沿用上次运行(可能已重置或重新下载)的值
+        mCompleteSize = 0;
         // 创建Runnable但不执行
         mRunnable = new DownloadFileRunnable(getRetryCount());
+        mRunnable.setRetryScheduler(mRetryScheduler);
+        mRunnable.setRetryBudget(mRetryBudget);
+        mRunnable.setRetryListener(mRetryListener);
         Future future = asyncExecute(mRunnable);
         mRunnable.setFuture(future);
         return true;
@@ -182,6 +430,7 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
             mRunnable.cancel();
             mRunnable = null;
         }
+        mCompleteSize = 0;
         return true;
     }
 
@@ -194,30 +443,82 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
     @Override
     protected final boolean onEndError(String errorCode, boolean retry) {
         mRunnable = null;
+        mRetryAfterError = retry;
+        return true;
+    }
+
+    /**
+     * 最近一次失败后，是否会加回任务管理器等待重新执行(见{@link #backToDownloadMgr()})。
+     */
+    public boolean isRetryAfterError() {
+        return mRetryAfterError;
+    }
+
+    @Override
+    public long getBytesInFlight() {
+        DownloadFileRunnable runnable = mRunnable;
+        return runnable == null ? 0 : runnable.mBuffered;
+    }
+
+    @Override
+    public boolean drain(Runnable onDrained) {
+        DownloadFileRunnable runnable = mRunnable;
+        if (runnable == null || onDrained == null)
+            return false;
+        runnable.mDrainCallback = onDrained;
         return true;
     }
 
     @Override
     public long getCompleteSize() {
+        if (mCompleteSize > 0)
+            return mCompleteSize;
         return  XStringUtil.isEmpty(getBean().getFileName()) ? 0 :
                 new File(getBean().getFolder(), getBean().getFileName()).length();
     }
 
+    @Override
+    public long getTotalSize() {
+        return getBean().getTotalSize();
+    }
+
 
     private class DownloadFileRunnable extends XFiniteRetryRunnable<XDownloadBean> {
 
         private String mUrl;
+        private String mHost;// 下载url的Host，用于按Host限制带宽
         private File mDownloadingFile;// 下载存储的本地文件
-        private Future mFuture;// 在暂停线程时用于中断阻塞的Future对象
+        private volatile Future mFuture;// 在暂停线程时用于中断阻塞的Future对象
         private String errorCode;// 错误码
         private int mBufferSize;
-        private byte[] mBuffer;// 写文件的缓存数组
+        private int mMaxBufferSize;// 缓冲区可能达到的最大大小
+        private XBufferPool mBufferPool;
+        private ByteBuffer mBuffer;// 写文件的缓冲区(direct，从缓冲区池中申请)
+        private volatile int mBuffered;// 缓冲区中未写入文件的数据量
+        private volatile Runnable mDrainCallback;// 软抢占时，数据落盘后的回调
+        private volatile String mSegmentError;// 分段下载时，下载线程的错误码
+        private volatile XDownloadDigest mDigest;// 边下载边计算的摘要(不校验时为null)
+        private boolean mFromCache;// 是否是从缓存获取的文件
         private boolean isDownloadSuccess;
+        private int mForceMode;
+        private long mForceInterval;
+        private boolean mPreallocate;
+        private boolean mAdaptiveBuffer;
+        private RandomAccessFile mFile;// 临时下载文件，重试时继续使用，结束后关闭
+        private FileChannel mFileChannel;
 
         protected DownloadFileRunnable(long max) {
             super(max);
             isDownloadSuccess = false;
-            mBufferSize = getBufferSize();
+            mBufferPool = getBufferPool();
+            mBufferSize = XBufferPool.getCapacity(getBufferSize());
+            mForceMode = XBaseHttpDownloadTask.this.mForceMode;
+            mForceInterval = XBaseHttpDownloadTask.this.mForceInterval;
+            mPreallocate = XBaseHttpDownloadTask.this.mPreallocate;
+            mAdaptiveBuffer = XBaseHttpDownloadTask.this.mAdaptiveBuffer;
+            mMaxBufferSize = mAdaptiveBuffer ? Math.max(mBufferSize,
+                    XBufferPool.getCapacity(Math.min(getMaxBufferSize(), XBufferPool.MAX_CAPACITY)))
+                    : mBufferSize;
         }
 
         public void setFuture(Future future) {
@@ -227,12 +528,24 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
         @Override
         public void cancel() {
             super.cancel();
-            if (mFuture != null)
-                mFuture.cancel(true);
+            Future<?> future = mFuture;
+            if (future != null)
+                future.cancel(true);
+        }
+
+        @Override
+        protected Future<?> executeRetry(XRetryScheduler scheduler, Runnable retry) {
+            // 重试也交给asyncExecute()执行，并更新mFuture，保证cancel()能中断重试
+            Future<?> future = asyncExecute(retry);
+            mFuture = future;
+            return future;
         }
 
         @Override
         public long getRetryInterval(long retryCount) {
+            final XRetryBackoff backoff = mRetryBackoff;
+            if (backoff != null)
+                return backoff.getInterval(retryCount);
             return getRetryIntervalTime(retryCount);
         }
 
@@ -256,6 +569,7 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                 errorCode = ERROR_NO_URL;
                 return false;
             }
+            mHost = XStringUtil.getHost(mUrl);
             // 如果文件名已指定，则创建文件夹和临时下载文件(带临时后缀的)
             mDownloadingFile = null;
             if (!XStringUtil.isEmpty(bean.getFileName())) {
@@ -269,8 +583,9 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                 bean.setDownloadingSuffix(getDownloadingFileSuffix());
                 log("下载路径为:" + mDownloadingFile.getAbsolutePath());
             }
-            // 创建缓冲区
-            mBuffer = new byte[mBufferSize];
+            // 申请缓冲区
+            if (mBuffer == null)
+                mBuffer = mBufferPool.acquireDirect(mBufferSize);
             return true;
         }
 
@@ -285,16 +600,37 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
 
         @Override
         public boolean onRepeatExecute(XDownloadBean bean) {
-            // 已下载大小
+            // 缓存中有相同的内容，直接从缓存获取
+            if (copyFromCache(bean))
+                return true;
+            // 分段下载(有进度记录时，继续分段下载)
+            if (mDownloadingFile != null) {
+                File metaFile = getMetaFile();
+                if (getSegmentCount() > 1 || mPreallocate || XDownloadMeta.exists(metaFile)
+                        || getSourceUrls(bean).size() > 1) {
+                    Boolean result = downloadBySegments(bean, metaFile);
+                    if (result != null)
+                        return result;
+                }
+            }
+            // 已下载大小(单线程下载按顺序写入，文件大小就是断点；
+            // 预分配或分段下载的文件在删除进度记录之前已被重命名或删除，不会走到这里)
             long downloadSize = 0;
             if (mDownloadingFile != null && mDownloadingFile.exists()) {
                 downloadSize = mDownloadingFile.length();
             }
+            mCompleteSize = downloadSize;
             log("已经下载大小(起始位置):" + downloadSize);
+            // 续传时带上校验信息，服务器上的文件已改变时会返回200和完整的文件
+            XDownloadValidator validator = downloadSize > 0 ?
+                    XDownloadValidator.load(getValidatorFile()) : null;
             XHttpRequest request = mHttpClient.newRequest(mUrl)
                     .setMethod(XHttpRequest.Method.GET);
             if (downloadSize != 0) {
-                request.addHeader("Range", "bytes=" + downloadSize + "-");
+                request.addHeader(XHttp.RANGE, "bytes=" + downloadSize + "-");
+                String ifRange = validator == null ? null : validator.getIfRange();
+                if (ifRange != null)
+                    request.addHeader(XHttp.IF_RANGE, ifRange);
             }
             XHttpResponse response = null;
             try {
@@ -315,8 +651,22 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                 log("下载请求[" + mUrl + "]返回状态码:" + statusCode);
                 // 服务器返回416，表示服务器不能满足客户在请求中指定的Range头
                 if (statusCode == 416) {
+                    long[] contentRange = XHttpUtil.parseContentRange(
+                            XHttpUtil.getFirstHeader(response, XHttp.CONTENT_RANGE));
+                    long remoteSize = contentRange != null ? contentRange[2] :
+                            (validator != null ? validator.getTotalSize() : -1);
+                    if (downloadSize > 0 && remoteSize > 0 && remoteSize != downloadSize) {
+                        // 本地数据与服务器上的文件大小不一致，文件已改变
+                        log("下载请求[" + mUrl + "]服务器上的文件大小为" + remoteSize + "，重新下载");
+                        discardDownloadingFile();
+                        errorCode = ERROR_RESOURCE_CHANGED;
+                        return false;
+                    }
                     if (downloadSize > 0) {
-                        // 很可能是已经下完，立即终止下载
+                        // 很可能是已经下完，校验摘要后立即终止下载
+                        Boolean digestResult = checkDigest(bean, downloadSize);
+                        if (digestResult != null)
+                            return digestResult;
                         bean.setTotalSize(downloadSize);
                         XBaseHttpDownloadTask.this.notifyDoing(downloadSize);// 通知进度
                         isDownloadSuccess = true;
@@ -327,12 +677,32 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                     }
                 }
                 // 错误返回码，重新请求
-                if (statusCode < 200 && statusCode >= 300) {
+                if (statusCode < 200 || statusCode >= 300) {
                     log("下载请求[" + mUrl + "]返回状态码错误，准备下次重试");
                     errorCode = ERROR_STATUS_CODE;
                     return false;
                 }
 
+                if (downloadSize > 0) {
+                    long[] contentRange = statusCode == 206 ? XHttpUtil.parseContentRange(
+                            XHttpUtil.getFirstHeader(response, XHttp.CONTENT_RANGE)) : null;
+                    if (statusCode != 206) {
+                        // 服务器不支持Range请求，或者文件已改变(If-Range)，返回了完整的文件，从头写入
+                        log("下载请求[" + mUrl + "]服务器返回了完整的文件，丢弃已下载的数据");
+                        discardDownloadingFile();
+                        downloadSize = 0;
+                        mCompleteSize = 0;
+                    } else if ((contentRange != null && contentRange[0] != downloadSize)
+                            || (validator != null && !validator.isSameResource(XDownloadValidator
+                            .fromResponse(response, contentRange != null ? contentRange[2] : -1)))) {
+                        // 返回的数据不是从断点开始的，或者服务器不支持If-Range且文件已改变
+                        log("下载请求[" + mUrl + "]续传的数据与本地数据不匹配，重新下载");
+                        discardDownloadingFile();
+                        errorCode = ERROR_RESOURCE_CHANGED;
+                        return false;
+                    }
+                }
+
                 InputStream inputStream = response.getContent();
                 // http没返回InputStream
                 if (inputStream == null) {
@@ -358,6 +728,9 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                     if (length <= 0) {
                         if (downloadSize > 0) {
                             // 很可能已经下完了..
+                            Boolean digestResult = checkDigest(bean, downloadSize);
+                            if (digestResult != null)
+                                return digestResult;
                             bean.setTotalSize(downloadSize);
                             XBaseHttpDownloadTask.this.notifyDoing(downloadSize);// 通知进度
                             isDownloadSuccess = true;
@@ -383,6 +756,9 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                         finalFile.delete();// 否则删除，重新下载
                     }
                 }
+                // 预分配模式下，先检查并预留剩余下载大小的空间
+                if (!isChunked && mPreallocate && !reserveSpace(bean, totalSize - downloadSize))
+                    return true;
 
                 // 如果文件名未指定，则从url和Content-Disposition中获取文件名
                 if (mDownloadingFile == null) {
@@ -405,55 +781,126 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                     bean.setDownloadingSuffix(getDownloadingFileSuffix());
                     log("[非指定]下载路径为:" + mDownloadingFile.getAbsolutePath());
                 }
+                // 记录校验信息，用于之后的续传
+                if (validator == null || statusCode != 206)
+                    XDownloadValidator.fromResponse(response, totalSize).save(getValidatorFile());
                 // 写入文件
-                FileOutputStream os = null;
-                BufferedInputStream bis = null;
+                ReadableByteChannel source = null;
                 try {
-                    bis = new BufferedInputStream(inputStream);
-                    os = new FileOutputStream(mDownloadingFile, true);
-                    int bufferStart = 0;// 之前read读取的数据量
+                    FileChannel channel = openFileChannel();
+                    mDigest = prepareDigest(bean, downloadSize);
+                    // 响应提供了通道时，直接从通道传输到文件，不经过缓冲区(需要计算摘要时除外)
+                    ReadableByteChannel contentChannel = mDigest == null
+                            && response instanceof XHttpChannelResponse ?
+                            ((XHttpChannelResponse) response).getContentChannel() : null;
+                    source = contentChannel != null ? contentChannel : Channels.newChannel(inputStream);
+                    ByteBuffer buffer = mBuffer;
+                    buffer.clear();
+                    // 自适应调整缓冲区大小(直接从通道传输时不使用缓冲区)
+                    XAdaptiveBufferSizer sizer = mAdaptiveBuffer && contentChannel == null ?
+                            newBufferSizer(buffer.capacity()) : null;
+                    long filePosition = downloadSize;// 下一次写入文件的位置
                     int numRead = 0;// 一次read读取的数据量
-                    // 用于控制刷新进度的变量
-                    long curUpdateTime = 0;
-                    long lastUpdateTime = 0;
+                    // 按时间和数据量节流进度通知，循环中不分配对象
+                    XProgressReporter progress = new XProgressReporter(
+                            getProgressIntervalTime(), getProgressIntervalSize());
+                    long lastForceTime = System.currentTimeMillis();
                     while (true) {
-                        if (!isRunning()) {// 如果被中断，则整体退出
+                        if (!isRunning()) {// 如果被中断，先把已读取的数据写入文件，再整体退出
+                            filePosition += flushBuffer(channel, buffer, filePosition);
+                            mBuffered = 0;
                             log("Is Cancelled2");
                             return false;
                         }
-                        numRead = bis.read(mBuffer, bufferStart, mBufferSize - bufferStart);
+                        // 软抢占：把已读取的数据写入文件后，通知任务管理器切换
+                        final Runnable drainCallback = mDrainCallback;
+                        if (drainCallback != null) {
+                            mDrainCallback = null;
+                            filePosition += flushBuffer(channel, buffer, filePosition);
+                            mBuffered = 0;
+                            drainCallback.run();
+                            continue;
+                        }
+                        final int room = buffer.remaining();
+                        int toRead = room;
+                        // 如果限制了带宽，则先申请额度，只读取额度以内的数据
+                        final XBandwidthController bandwidth = mBandwidthController;
+                        if (bandwidth != null) {
+                            toRead = bandwidth.acquire(mHost, getId(), toRead);
+                            if (toRead <= 0)
+                                continue;// 暂时没有额度，回到循环开头检查是否被中断
+                        }
+                        if (contentChannel != null) {
+                            long transferred = channel.transferFrom(source, filePosition, toRead);
+                            numRead = transferred > 0 ? (int) transferred : -1;
+                            if (numRead > 0)
+                                filePosition += numRead;
+                        } else {
+                            buffer.limit(buffer.position() + toRead);
+                            numRead = source.read(buffer);
+                            buffer.limit(buffer.capacity());
+                            if (sizer != null)
+                                sizer.onRead(numRead, room);
+                        }
+                        if (bandwidth != null)// 归还没用完的额度
+                            bandwidth.refund(mHost, getId(), numRead == -1 ? toRead : toRead - numRead);
                         // 已经没有数据了，退出循环
                         if (numRead == -1) {
-                            if (bufferStart > 0) {// buffer未填充满，但已经没数据了，则写入文件
-                                os.write(mBuffer, 0, bufferStart);
-                            }
+                            // buffer未填充满，但已经没数据了，则写入文件
+                            filePosition += flushBuffer(channel, buffer, filePosition);
+                            mBuffered = 0;
                             break;
                         }
                         downloadSize = downloadSize + numRead;// 递增已下载大小
+                        mCompleteSize = downloadSize;
                         // buffer未填满
-                        if (numRead + bufferStart < mBufferSize) {
-                            bufferStart = numRead + bufferStart;
+                        if (contentChannel == null && buffer.hasRemaining()) {
+                            mBuffered = buffer.position();
+                            continue;
                         }
                         // buffer已填满，则写入文件
-                        else {
-                            os.write(mBuffer, 0, mBufferSize);
-                            bufferStart = 0;// buffer重新开始填充
-
-                            if (!isChunked) {
-                                log("下载请求[" + mUrl + "]已下载大小:" + downloadSize + ", " +
-                                        (int) (100 * (double) downloadSize / (double) totalSize) + "%");
-                            } else {
-                                log("下载请求[" + mUrl + "]已下载大小[chunked模式]:" + downloadSize);
+                        long writeStart = sizer != null ? System.nanoTime() : 0;
+                        filePosition += flushBuffer(channel, buffer, filePosition);
+                        mBuffered = 0;
+                        // 根据本块的读写情况调整缓冲区大小(缓冲区此时为空)
+                        if (sizer != null) {
+                            int size = sizer.onWrite(System.nanoTime() - writeStart);
+                            if (size != buffer.capacity()) {
+                                mBufferPool.release(mBuffer);
+                                mBuffer = mBufferPool.acquireDirect(size);
+                                buffer = mBuffer;
                             }
-                            // 为了防止过于频繁通知进度，间隔大于指定时长，才进行进度通知
-                            curUpdateTime = System.currentTimeMillis();
-                            if (curUpdateTime - lastUpdateTime >= getProgressIntervalTime()) {
-                                lastUpdateTime = curUpdateTime;
-                                XBaseHttpDownloadTask.this.notifyDoing(downloadSize);// 通知进度
+                        }
+
+                        // 为了防止过于频繁通知进度，间隔大于指定时长和数据量，才进行进度通知
+                        if (progress.shouldReport(downloadSize)) {
+                            if (isDebugLogEnabled()) {
+                                if (!isChunked) {
+                                    log("下载请求[" + mUrl + "]已下载大小:" + downloadSize + ", " +
+                                            (int) (100 * (double) downloadSize / (double) totalSize) + "%");
+                                } else {
+                                    log("下载请求[" + mUrl + "]已下载大小[chunked模式]:" + downloadSize);
+                                }
+                            }
+                            XBaseHttpDownloadTask.this.notifyDoing(downloadSize);// 通知进度
+                            if (!isChunked)
+                                updateReservation(totalSize - downloadSize);
+                        }
+                        // 定期刷盘(只在该模式下读取时钟)
+                        if (mForceMode == FORCE_PERIODIC) {
+                            long now = System.currentTimeMillis();
+                            if (now - lastForceTime >= mForceInterval) {
+                                lastForceTime = now;
+                                channel.force(false);
                             }
                         }
                     }
                     // 判断是否下载完成
+                    if (isChunked || mDownloadingFile.length() >= totalSize) {
+                        Boolean digestResult = checkDigest(bean, mDownloadingFile.length());
+                        if (digestResult != null)
+                            return digestResult;
+                    }
                     if (isChunked) {
                         bean.setTotalSize(mDownloadingFile.length());
                         XBaseHttpDownloadTask.this.notifyDoing(mDownloadingFile.length());// 通知进度
@@ -469,26 +916,13 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                 } catch (IOException e) {
                     e.printStackTrace();
                     errorCode = ERROR_IO_EXCEPTION;
-                    // 可能是存储空间已满,无法创建或写文件,错误结束
-                    log("IO异常,检测容量是否已满？");
-                    if (checkStorageFull(bean.getFolder(), mBufferSize)) {
-                        log("存储已满，无法继续下载..");
-                        errorCode = ERROR_NO_SPACE;
-                        isDownloadSuccess = false;
-                        return true;// 存储已满，立即中断下载
-                    }
-                    // 可能是IO异常(USB占用无法写),无法创建或读写文件,错误结束
-                    log("检测本地读写IO是否异常？");
-                    if (!checkIO(bean.getFolder())) {
-                        log("检测结果:IO异常..");
-                        errorCode = ERROR_IO_ERROR;
-                        isDownloadSuccess = false;
-                        return true;// 本地IO操作出现问题，中断下载
-                    }
+                    if (checkLocalError(bean))
+                        return true;// 本地存储出现问题，立即中断下载
                 } finally {
+                    saveDigestCheckpoint();
                     try {
-                        if (bis != null)
-                            bis.close();
+                        if (source != null)
+                            source.close();
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -497,14 +931,527 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
-                    try {
-                        if (os != null)
-                            os.close();
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                }
+                return false;
+            } finally {
+                if (response != null)
+                    response.consumeContent();
+            }
+        }
+
+        /**
+         * 从缓存获取文件到最终下载位置。
+         * @return 缓存中有相同的内容且获取成功返回true，否则返回false
+         */
+        private boolean copyFromCache(XDownloadBean bean) {
+            final XDownloadCache cache = mDownloadCache;
+            if (cache == null || XStringUtil.isEmpty(bean.getFileName()))
+                return false;
+            File cachedFile = cache.get(bean);
+            if (cachedFile == null)
+                return false;
+            File finalFile = new File(bean.getFolder(), bean.getFileName());
+            if (!cache.copyTo(cachedFile, finalFile))
+                return false;
+            log("下载请求[" + mUrl + "]从缓存获取:" + cachedFile.getAbsolutePath());
+            bean.setTotalSize(finalFile.length());
+            XBaseHttpDownloadTask.this.notifyDoing(finalFile.length());// 通知进度
+            mFromCache = true;
+            isDownloadSuccess = true;
+            return true;
+        }
+
+        private File getMetaFile() {
+            return new File(mDownloadingFile.getPath() + XDownloadMeta.META_FILE_SUFFIX);
+        }
+
+        private File getValidatorFile() {
+            return new File(mDownloadingFile.getPath() + XDownloadValidator.VALIDATOR_FILE_SUFFIX);
+        }
+
+        private File getDigestFile() {
+            return new File(mDownloadingFile.getPath() + XDownloadDigest.DIGEST_FILE_SUFFIX);
+        }
+
+        /**
+         * 准备摘要：从检查点(内存中或.digest文件中)继续，并从文件中补算检查点之后已写入的数据。
+         * @param end 从文件开头起连续写入的数据量
+         * @return 不需要校验或算法不支持时返回null
+         */
+        private XDownloadDigest prepareDigest(XDownloadBean bean, long end) throws IOException {
+            if (XStringUtil.isEmpty(bean.getExpectedDigest()))
+                return null;
+            String algorithm = bean.getDigestAlgorithm();
+            XDownloadDigest digest = mDigestCheckpoint;
+            if (digest != null && digest.getAlgorithm().equalsIgnoreCase(algorithm)
+                    && digest.getOffset() <= end)
+                digest = digest.copy();
+            else
+                digest = XDownloadDigest.load(getDigestFile(), algorithm);
+            if (digest == null || digest.getOffset() > end)
+                digest = XDownloadDigest.create(algorithm);
+            if (digest == null) {
+                log("不支持的摘要算法" + algorithm + "，不校验摘要");
+                return null;
+            }
+            if (digest.getOffset() < end) {
+                log("从文件中补算摘要:" + digest.getOffset() + "-" + end);
+                digest.catchUp(openFileChannel(), end, mBuffer);
+            }
+            return digest;
+        }
+
+        /**
+         * 保存摘要的检查点。
+         */
+        private void saveDigestCheckpoint() {
+            final XDownloadDigest digest = mDigest;
+            if (digest == null || mDownloadingFile == null)
+                return;
+            mDigestCheckpoint = digest.copy();
+            digest.save(getDigestFile());
+        }
+
+        /**
+         * 下载完成后校验摘要。
+         * @param end 文件大小
+         * @return 校验通过(或不需要校验)返回null；否则已设置错误码，返回onRepeatExecute()的返回值
+         */
+        private Boolean checkDigest(XDownloadBean bean, long end) {
+            String expected = bean.getExpectedDigest();
+            if (XStringUtil.isEmpty(expected))
+                return null;
+            String actual;
+            try {
+                XDownloadDigest digest = mDigest;
+                if (digest == null)
+                    digest = mDigest = prepareDigest(bean, end);
+                if (digest == null)
+                    return null;
+                digest.catchUp(openFileChannel(), end, mBuffer);
+                actual = digest.getHexDigest();
+            } catch (IOException e) {
+                e.printStackTrace();
+                errorCode = ERROR_IO_EXCEPTION;
+                return checkLocalError(bean);
+            }
+            if (expected.equalsIgnoreCase(actual))
+                return null;
+            log("下载请求[" + mUrl + "]摘要不一致，预期:" + expected + "，实际:" + actual);
+            errorCode = ERROR_DIGEST_MISMATCH;
+            isDownloadSuccess = false;
+            discardDownloadingFile();
+            return !mRetryOnDigestMismatch;
+        }
+
+        /**
+         * 删除临时下载文件及其进度记录、校验信息和摘要检查点，之后重新下载。
+         */
+        private void discardDownloadingFile() {
+            closeFileChannel(false);
+            mDownloadingFile.delete();
+            XDownloadMeta.delete(getMetaFile());
+            getValidatorFile().delete();
+            getDigestFile().delete();
+            mDigest = null;
+            mDigestCheckpoint = null;
+        }
+
+        /**
+         * 检查存储空间是否足够下载剩余的数据，并在预留账本中预留。
+         * @return 空间不足返回false，此时已设置错误码
+         */
+        private boolean reserveSpace(XDownloadBean bean, long remainSize) {
+            remainSize = Math.max(remainSize, 0);
+            if (checkStorageFull(bean.getFolder(), remainSize)) {
+                log("存储空间不足以下载剩余的" + remainSize + "字节");
+                errorCode = ERROR_NO_SPACE;
+                isDownloadSuccess = false;
+                return false;
+            }
+            final XDiskReservation reservation = mDiskReservation;
+            if (reservation != null && getId() != null
+                    && !reservation.tryReserve(getId(), bean.getFolder(), remainSize)) {
+                log("存储空间已被其他下载任务预留，无法下载剩余的" + remainSize + "字节");
+                errorCode = ERROR_NO_SPACE;
+                isDownloadSuccess = false;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 更新预留的大小。
+         */
+        private void updateReservation(long remainSize) {
+            final XDiskReservation reservation = mDiskReservation;
+            if (mPreallocate && reservation != null && getId() != null)
+                reservation.update(getId(), remainSize);
+        }
+
+        /**
+         * 释放预留的空间。
+         */
+        private void releaseReservation() {
+            final XDiskReservation reservation = mDiskReservation;
+            if (mPreallocate && reservation != null && getId() != null)
+                reservation.release(getId());
+        }
+
+        /**
+         * 把缓冲区归还给缓冲区池。
+         */
+        private void releaseBuffer() {
+            if (mBuffer != null) {
+                mBufferPool.release(mBuffer);
+                mBuffer = null;
+            }
+        }
+
+        /**
+         * 打开临时下载文件，同一次执行的多次重试使用同一个文件通道。
+         */
+        private FileChannel openFileChannel() throws IOException {
+            if (mFileChannel == null) {
+                mFile = new RandomAccessFile(mDownloadingFile, "rw");
+                mFileChannel = mFile.getChannel();
+            }
+            return mFileChannel;
+        }
+
+        /**
+         * 关闭临时下载文件。
+         * @param force 是否在关闭前刷盘
+         */
+        private void closeFileChannel(boolean force) {
+            if (mFileChannel == null)
+                return;
+            try {
+                if (force)
+                    mFileChannel.force(true);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mFile = null;
+            mFileChannel = null;
+        }
+
+        /**
+         * 创建调整缓冲区大小的策略，每个读写循环各用一个。
+         */
+        private XAdaptiveBufferSizer newBufferSizer(int initialSize) {
+            return new XAdaptiveBufferSizer(getMinBufferSize(), mMaxBufferSize, initialSize);
+        }
+
+        /**
+         * 把缓冲区中的数据写入文件的指定位置，并清空缓冲区。
+         * @return 写入的数据量
+         */
+        private int flushBuffer(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            buffer.flip();
+            final XDownloadDigest digest = mDigest;
+            if (digest != null)
+                digest.update(position, buffer);
+            int written = 0;
+            while (buffer.hasRemaining())
+                written += channel.write(buffer, position + written);
+            buffer.clear();
+            return written;
+        }
+
+        /**
+         * IO异常后，检查是不是本地存储的问题。
+         * @return 存储已满或本地IO异常返回true(不需要重试)，否则返回false
+         */
+        private boolean checkLocalError(XDownloadBean bean) {
+            // 可能是存储空间已满,无法创建或写文件,错误结束
+            log("IO异常,检测容量是否已满？");
+            if (checkStorageFull(bean.getFolder(), mBufferSize)) {
+                log("存储已满，无法继续下载..");
+                errorCode = ERROR_NO_SPACE;
+                isDownloadSuccess = false;
+                return true;
+            }
+            // 可能是IO异常(USB占用无法写),无法创建或读写文件,错误结束
+            log("检测本地读写IO是否异常？");
+            if (!checkIO(bean.getFolder())) {
+                log("检测结果:IO异常..");
+                errorCode = ERROR_IO_ERROR;
+                isDownloadSuccess = false;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 分段下载。
+         * @return 不满足分段下载的条件(服务器不支持Range请求或文件太小等)返回null，
+         * 改为单线程下载；否则返回值同{@link #onRepeatExecute(XDownloadBean)}
+         */
+        private Boolean downloadBySegments(XDownloadBean bean, File metaFile) {
+            List<String> urls = getSourceUrls(bean);
+            long[] latencies = new long[urls.size()];
+            XDownloadValidator[] validators = null;
+            XDownloadMeta meta = XDownloadMeta.load(metaFile);
+            if (meta != null && !meta.getUrl().equals(String.valueOf(bean.getUrl())))
+                meta = null;
+            if (meta == null) {
+                if (XDownloadMeta.exists(metaFile)) {
+                    // 进度记录残缺或url已改变，临时文件中的数据不可信，重新下载
+                    log("下载请求[" + mUrl + "]分段进度记录无效，重新下载");
+                    discardDownloadingFile();
+                }
+                if (getSegmentCount() <= 1 && !mPreallocate && urls.size() <= 1)
+                    return null;
+                // 已经按单线程下载了部分数据，继续单线程下载
+                if (mDownloadingFile.exists() && mDownloadingFile.length() > 0)
+                    return null;
+                validators = probeSources(urls, latencies);
+                if (validators == null || !isRunning())
+                    return false;
+                // url不可用时，以第一个可用的镜像为准
+                long totalSize = -1;
+                for (XDownloadValidator validator : validators) {
+                    if (validator != null) {
+                        totalSize = validator.getTotalSize();
+                        break;
                     }
                 }
+                // 文件太小时不分段，不预分配时改为单线程下载
+                int count = (int) Math.min(Math.max(getSegmentCount(), urls.size()),
+                        totalSize / MIN_SEGMENT_SIZE);
+                if (totalSize <= 0 || (count <= 1 && !mPreallocate))
+                    return null;
+                // 最终下载文件已存在，且文件大小等于服务器指定大小，直接结束下载
+                File finalFile = new File(bean.getFolder(), bean.getFileName());
+                if (finalFile.exists() && finalFile.length() >= totalSize) {
+                    bean.setTotalSize(totalSize);
+                    XBaseHttpDownloadTask.this.notifyDoing(finalFile.length());// 通知进度
+                    isDownloadSuccess = true;
+                    return true;
+                }
+                finalFile.delete();
+                meta = XDownloadMeta.create(String.valueOf(bean.getUrl()), totalSize, count, validators[0]);
+                // 先保存进度记录，再创建临时文件，否则崩溃后无法区分单线程下载的数据
+                if (!meta.save(metaFile))
+                    return null;
+            } else if (urls.size() > 1) {
+                validators = probeSources(urls, latencies);
+                if (validators == null || !isRunning())
+                    return false;
+            }
+            // 只使用文件大小与进度记录一致的下载源，url使用进度记录中的校验信息
+            XDownloadSources sources = new XDownloadSources();
+            for (int i = 0; i < urls.size(); i++) {
+                XDownloadValidator validator = validators == null ? null : validators[i];
+                if (validators != null && (validator == null
+                        || validator.getTotalSize() != meta.getTotalSize())) {
+                    log("下载请求[" + urls.get(i) + "]不可用或文件大小不一致，不使用该下载源");
+                    continue;
+                }
+                sources.add(urls.get(i), latencies[i], i == 0 ? meta.getValidator() : validator);
+            }
+            if (sources.size() == 0) {
+                errorCode = ERROR_NO_RESPONSE;
                 return false;
+            }
+            bean.setTotalSize(meta.getTotalSize());
+            mCompleteSize = meta.getCompleteSize();
+            log("下载请求[" + mUrl + "]分段下载，已经下载大小:" + mCompleteSize);
+            if (mPreallocate && !reserveSpace(bean, meta.getTotalSize() - mCompleteSize))
+                return true;
+
+            mSegmentError = null;
+            int count = Math.max(getSegmentCount(), sources.size());
+            CountDownLatch latch = new CountDownLatch(count);
+            List<SegmentWorker> workers = new ArrayList<SegmentWorker>(count);
+            try {
+                FileChannel channel = openFileChannel();
+                if (mFile.length() != meta.getTotalSize())
+                    mFile.setLength(meta.getTotalSize());
+                mDigest = prepareDigest(bean, meta.getContiguousSize());
+                for (int i = 0; i < count; i++) {
+                    SegmentWorker worker = new SegmentWorker(meta, sources, channel, latch);
+                    workers.add(worker);
+                    asyncExecute(worker);
+                }
+                XProgressReporter progress = new XProgressReporter(
+                        getProgressIntervalTime(), getProgressIntervalSize());
+                long lastSaveTime = System.currentTimeMillis();
+                while (!latch.await(SEGMENT_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (!isRunning() || mSegmentError != null)
+                        break;
+                    // 软抢占：分段下载时数据直接写入文件，立即通知任务管理器切换
+                    final Runnable drainCallback = mDrainCallback;
+                    if (drainCallback != null) {
+                        mDrainCallback = null;
+                        drainCallback.run();
+                    }
+                    long now = System.currentTimeMillis();
+                    mCompleteSize = meta.getCompleteSize();
+                    if (progress.shouldReport(mCompleteSize)) {
+                        XBaseHttpDownloadTask.this.notifyDoing(mCompleteSize);// 通知进度
+                        updateReservation(meta.getTotalSize() - mCompleteSize);
+                    }
+                    if (now - lastSaveTime >= META_SAVE_INTERVAL) {
+                        lastSaveTime = now;
+                        // 定期刷盘模式下，先刷盘再保存进度
+                        if (mForceMode == FORCE_PERIODIC)
+                            channel.force(false);
+                        meta.save(metaFile);
+                    }
+                }
+            } catch (InterruptedException e) {
+                log("Is Cancelled3");
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                e.printStackTrace();
+                mSegmentError = ERROR_IO_EXCEPTION;
+            } finally {
+                // 停止所有下载线程，等它们退出后再保存进度和关闭文件
+                for (SegmentWorker worker : workers)
+                    worker.stop();
+                for (int i = workers.size(); i < count; i++)
+                    latch.countDown();
+                awaitWorkers(latch);
+            }
+
+            mCompleteSize = meta.getCompleteSize();
+            if (urls.size() > 1)
+                log("下载请求[" + mUrl + "]各下载源:" + sources);
+            if (ERROR_RESOURCE_CHANGED.equals(mSegmentError)) {
+                log("下载请求[" + mUrl + "]服务器上的文件已改变，重新下载");
+                discardDownloadingFile();
+                errorCode = ERROR_RESOURCE_CHANGED;
+                return false;
+            }
+            if (meta.isComplete()) {
+                Boolean digestResult = checkDigest(bean, meta.getTotalSize());
+                if (digestResult != null)
+                    return digestResult;
+                // 进度记录在临时文件重命名之后才删除(见onPostExecute())，
+                // 否则崩溃后会留下没有进度记录的预分配文件，被当成按顺序写入的数据续传
+                meta.save(metaFile);
+                XBaseHttpDownloadTask.this.notifyDoing(mCompleteSize);// 通知进度
+                isDownloadSuccess = true;
+                return true;
+            }
+            meta.save(metaFile);
+            saveDigestCheckpoint();
+            if (!isRunning())
+                return false;
+            errorCode = mSegmentError != null ? mSegmentError : ERROR_IO_EXCEPTION;
+            log("下载请求[" + mUrl + "]分段下载失败，errorCode:" + errorCode);
+            return ERROR_IO_EXCEPTION.equals(errorCode) && checkLocalError(bean);
+        }
+
+        /**
+         * 等待所有下载线程退出。下载线程已被停止，正在读取的响应已被中止，很快就会退出。
+         * 等待期间不响应中断，中断标识留给调用者处理。
+         */
+        private void awaitWorkers(CountDownLatch latch) {
+            boolean interrupted = false;
+            for (;;) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        /**
+         * 中止响应，不读取剩余的内容；响应不支持中止时只能释放。
+         */
+        private void abortResponse(XHttpResponse response) {
+            if (response instanceof XHttpAbortableResponse)
+                ((XHttpAbortableResponse) response).abort();
+            else
+                response.consumeContent();
+        }
+
+        /**
+         * 获取所有下载源的url：url在前，之后是镜像(去掉空的和重复的)。
+         */
+        private List<String> getSourceUrls(XDownloadBean bean) {
+            List<String> urls = new ArrayList<String>();
+            urls.add(mUrl);
+            List<String> mirrors = bean.getMirrors();
+            if (mirrors != null) {
+                for (String mirror : mirrors) {
+                    if (!XStringUtil.isEmpty(mirror) && !urls.contains(mirror))
+                        urls.add(mirror);
+                }
+            }
+            return urls;
+        }
+
+        /**
+         * 同时探测各个下载源，获取文件总大小、校验信息和延迟。
+         * @param latencies 返回各个下载源的延迟(毫秒)
+         * @return 各个下载源的校验信息，不可用的下载源为null；等待时被中断返回null
+         */
+        private XDownloadValidator[] probeSources(final List<String> urls, final long[] latencies) {
+            final XDownloadValidator[] validators = new XDownloadValidator[urls.size()];
+            if (urls.size() == 1) {
+                long start = System.currentTimeMillis();
+                validators[0] = requestValidator(urls.get(0));
+                latencies[0] = System.currentTimeMillis() - start;
+                return validators;
+            }
+            final CountDownLatch latch = new CountDownLatch(urls.size());
+            for (int i = 0; i < urls.size(); i++) {
+                final int index = i;
+                asyncExecute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            long start = System.currentTimeMillis();
+                            validators[index] = requestValidator(urls.get(index));
+                            latencies[index] = System.currentTimeMillis() - start;
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                log("Is Cancelled4");
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return validators;
+        }
+
+        /**
+         * 请求文件的第一个字节，判断服务器是否支持Range请求，并获取文件总大小和校验信息。
+         * @return 不支持Range请求或无法获取总大小返回null
+         */
+        private XDownloadValidator requestValidator(String url) {
+            XHttpRequest request = mHttpClient.newRequest(url)
+                    .setMethod(XHttpRequest.Method.GET);
+            request.addHeader(XHttp.RANGE, "bytes=0-0");
+            XHttpResponse response = null;
+            try {
+                response = mHttpClient.execute(request);
+                if (response == null || response.getStatusCode() != 206)
+                    return null;
+                // Content-Range: bytes 0-0/总大小
+                long[] contentRange = XHttpUtil.parseContentRange(
+                        XHttpUtil.getFirstHeader(response, XHttp.CONTENT_RANGE));
+                if (contentRange == null || contentRange[2] <= 0)
+                    return null;
+                return XDownloadValidator.fromResponse(response, contentRange[2]);
             } finally {
                 if (response != null)
                     response.consumeContent();
@@ -513,7 +1460,15 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
 
         @Override
         public void onPostExecute(XDownloadBean bean) {
-            mBuffer = null;// 回收缓存数组
+            if (isDownloadSuccess && mDownloadingFile != null) {
+                getValidatorFile().delete();
+                getDigestFile().delete();
+                mDigestCheckpoint = null;
+            }
+            releaseBuffer();
+            releaseReservation();
+            // 重命名之前关闭文件，下载成功时按刷盘模式刷盘
+            closeFileChannel(isDownloadSuccess && mForceMode != FORCE_NONE);
             if (isDownloadSuccess) {
                 // 将临时后缀去掉
                 if (!XStringUtil.isEmpty(getDownloadingFileSuffix()) &&
@@ -523,6 +1478,14 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
                     log("下载请求[" + mUrl + "]下载结束，成功!最终下载文件为:" +
                             (result ? finalFile.getAbsolutePath() : mDownloadingFile.getAbsolutePath()));
                 }
+                // 临时文件已重命名(或不需要重命名)之后，才删除分段下载的进度记录
+                if (mDownloadingFile != null && (XStringUtil.isEmpty(getDownloadingFileSuffix())
+                        || !mDownloadingFile.exists()))
+                    XDownloadMeta.delete(getMetaFile());
+                // 放入缓存
+                final XDownloadCache cache = mDownloadCache;
+                if (cache != null && !mFromCache && !XStringUtil.isEmpty(bean.getFileName()))
+                    cache.put(bean, new File(bean.getFolder(), bean.getFileName()));
                 // 执行自定义的后续处理逻辑
                 errorCode = postDownload(bean);
                 if (XStringUtil.isEmpty(errorCode)) {
@@ -543,7 +1506,195 @@ public abstract class XBaseHttpDownloadTask extends XBaseMgrTaskExecutor<XDownlo
         @Override
         public void onCancelled(XDownloadBean bean) {
             log("下载请求[" + mUrl + "]下载中断..");
-            mBuffer = null;// 回收缓存数组
+            releaseBuffer();
+            releaseReservation();
+            closeFileChannel(false);
+        }
+
+        /**
+         * 分段下载的下载线程，每次领取一段，选择一个下载源用一个Range请求下载，
+         * 并写入临时文件的对应位置，直到没有可以领取的段。
+         * 下载源出错时，还有其他下载源的话放弃当前段，换下载源继续。
+         */
+        private class SegmentWorker implements Runnable {
+
+            private final XDownloadMeta mMeta;
+            private final XDownloadSources mSources;
+            private final FileChannel mChannel;
+            private final CountDownLatch mLatch;
+            private ByteBuffer mSegmentBuffer;
+            private volatile boolean mStopped;
+            private volatile XHttpResponse mResponse;// 正在读取的响应，停止时中止以中断阻塞的读取
+
+            SegmentWorker(XDownloadMeta meta, XDownloadSources sources,
+                          FileChannel channel, CountDownLatch latch) {
+                mMeta = meta;
+                mSources = sources;
+                mChannel = channel;
+                mLatch = latch;
+            }
+
+            void stop() {
+                mStopped = true;
+                XHttpResponse response = mResponse;
+                if (response != null)
+                    abortResponse(response);
+            }
+
+            private boolean isStopped() {
+                return mStopped || !isRunning();
+            }
+
+            @Override
+            public void run() {
+                mSegmentBuffer = mBufferPool.acquireDirect(mBufferSize);
+                try {
+                    while (!isStopped()) {
+                        XDownloadSources.Source source = mSources.acquire();
+                        if (source == null)
+                            break;
+                        XDownloadMeta.Segment segment = mMeta.next(MIN_SEGMENT_SIZE, mMaxBufferSize,
+                                mSources.getSpeed(source));
+                        if (segment == null) {
+                            mSources.release(source);
+                            break;
+                        }
+                        String error;
+                        try {
+                            error = download(segment, source);
+                        } catch (IOException e) {
+                            if (isStopped())
+                                break;
+                            e.printStackTrace();
+                            error = ERROR_IO_EXCEPTION;
+                        } finally {
+                            mSources.release(source);
+                        }
+                        if (error == null || isStopped())
+                            continue;
+                        // 还有其他下载源时，放弃当前段，换下载源继续下载
+                        if (!mSources.onFailure(source, ERROR_RESOURCE_CHANGED.equals(error))) {
+                            mSegmentError = error;
+                            break;
+                        }
+                        log("下载请求[" + mUrl + "]下载源[" + source.getUrl() + "]出错:" + error + "，换其他下载源");
+                        mMeta.release(segment);
+                    }
+                } finally {
+                    mBufferPool.release(mSegmentBuffer);
+                    mSegmentBuffer = null;
+                    mLatch.countDown();
+                }
+            }
+
+            /**
+             * 从下载源下载一段。
+             * @return 下载完成、被停止或下载源被停用(已放弃该段)返回null，出错返回错误码
+             */
+            private String download(XDownloadMeta.Segment segment, XDownloadSources.Source source)
+                    throws IOException {
+                long position = mMeta.getPosition(segment);
+                long end = mMeta.getEnd(segment);
+                XHttpRequest request = mHttpClient.newRequest(source.getUrl())
+                        .setMethod(XHttpRequest.Method.GET);
+                request.addHeader(XHttp.RANGE, "bytes=" + position + "-" + (end - 1));
+                XDownloadValidator validator = source.getValidator();
+                String ifRange = validator == null ? null : validator.getIfRange();
+                if (ifRange != null)
+                    request.addHeader(XHttp.IF_RANGE, ifRange);
+                XHttpResponse response = mHttpClient.execute(request);
+                if (response == null)
+                    return ERROR_NO_RESPONSE;
+                mResponse = response;
+                try {
+                    if (isStopped())
+                        return null;
+                    int statusCode = response.getStatusCode();
+                    if (statusCode != 206) {
+                        log("下载请求[" + source.getUrl() + "]分段返回状态码:" + statusCode);
+                        // 返回200说明文件已改变(If-Range)或服务器不再支持Range请求
+                        return statusCode == 200 || statusCode == 416 ?
+                                ERROR_RESOURCE_CHANGED : ERROR_STATUS_CODE;
+                    }
+                    long[] contentRange = XHttpUtil.parseContentRange(
+                            XHttpUtil.getFirstHeader(response, XHttp.CONTENT_RANGE));
+                    if ((contentRange != null && (contentRange[0] != position
+                            || (contentRange[2] > 0 && contentRange[2] != mMeta.getTotalSize())))
+                            || (validator != null && !validator.isSameResource(
+                            XDownloadValidator.fromResponse(response, -1)))) {
+                        log("下载请求[" + source.getUrl() + "]分段返回的数据与进度记录不匹配");
+                        return ERROR_RESOURCE_CHANGED;
+                    }
+                    InputStream inputStream = response.getContent();
+                    if (inputStream == null)
+                        return ERROR_NO_INPUT_STREAM;
+                    ReadableByteChannel input = Channels.newChannel(inputStream);
+                    ByteBuffer buffer = mSegmentBuffer;
+                    XAdaptiveBufferSizer sizer = mAdaptiveBuffer ? newBufferSizer(buffer.capacity()) : null;
+                    // 该段可能被其他线程拆分，每次写入前重新计算可写入的数据量
+                    while (position < mMeta.getEnd(segment)) {
+                        if (isStopped())
+                            return null;
+                        // 下载源因为过慢或出错被停用，放弃该段，由其他下载源继续
+                        if (!mSources.isEnabled(source)) {
+                            mMeta.release(segment);
+                            return null;
+                        }
+                        int toRead = buffer.capacity();
+                        final XBandwidthController bandwidth = mBandwidthController;
+                        if (bandwidth != null) {
+                            toRead = bandwidth.acquire(source.getHost(), getId(), toRead);
+                            if (toRead <= 0)
+                                continue;
+                        }
+                        buffer.clear();
+                        buffer.limit(toRead);
+                        long readStart = System.nanoTime();
+                        int numRead = input.read(buffer);
+                        mSources.onData(source, numRead, System.nanoTime() - readStart);
+                        mMeta.setRate(segment, mSources.getSpeed(source));
+                        if (sizer != null)
+                            sizer.onRead(numRead, buffer.capacity());
+                        if (bandwidth != null)
+                            bandwidth.refund(source.getHost(), getId(), numRead == -1 ? toRead : toRead - numRead);
+                        if (numRead == -1)
+                            throw new EOFException("segment closed at " + position);
+                        int length = mMeta.claim(segment, numRead);
+                        buffer.flip();
+                        buffer.limit(length);
+                        long writeStart = sizer != null ? System.nanoTime() : 0;
+                        while (buffer.hasRemaining())
+                            mChannel.write(buffer, position + buffer.position());
+                        long writeNanos = sizer != null ? System.nanoTime() - writeStart : 0;
+                        mMeta.advance(segment, length);
+                        // 正好接着摘要已计算到的位置时，顺便计算摘要
+                        final XDownloadDigest digest = mDigest;
+                        if (digest != null) {
+                            buffer.position(0);
+                            digest.update(position, buffer);
+                        }
+                        position += length;
+                        // 根据本次的读写情况调整缓冲区大小
+                        if (sizer != null) {
+                            int size = sizer.onWrite(writeNanos);
+                            if (size != buffer.capacity()) {
+                                mBufferPool.release(mSegmentBuffer);
+                                mSegmentBuffer = mBufferPool.acquireDirect(size);
+                                buffer = mSegmentBuffer;
+                            }
+                        }
+                    }
+                    return null;
+                } finally {
+                    mResponse = null;
+                    // 没有读完请求的范围(段被拆分、停止或出错)时中止响应，
+                    // 否则释放时会读完剩余的内容，被拆走的部分就下载了两次
+                    if (position < end)
+                        abortResponse(response);
+                    else
+                        response.consumeContent();
+                }
+            }
         }
     }
 }
@@ -1,14 +1,37 @@
 package com.tj.xengine.core.network.download;
 
 import com.tj.xengine.core.network.http.XHttp;
+import com.tj.xengine.core.toolkit.filter.XBaseFilter;
+import com.tj.xengine.core.toolkit.filter.XFilter;
+import com.tj.xengine.core.toolkit.task.XBaseTaskExecutor;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryBackoff;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryBudget;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryListener;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryScheduler;
+import com.tj.xengine.core.toolkit.taskmgr.XAsyncTaskMgrListener;
+import com.tj.xengine.core.toolkit.taskmgr.XCostAwarePreemption;
+import com.tj.xengine.core.toolkit.taskmgr.XDeadlineScheduler;
 import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
 import com.tj.xengine.core.toolkit.taskmgr.XTaskMgr;
 import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
+import com.tj.xengine.core.toolkit.taskmgr.lease.XLeaseCoordinator;
+import com.tj.xengine.core.toolkit.taskmgr.lease.XLeaseFilter;
+import com.tj.xengine.core.toolkit.taskmgr.metrics.XTaskMetrics;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgr;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XQuotaParallelMgr;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XTaskQuota;
+import com.tj.xengine.core.toolkit.taskmgr.serial.XPreemptiveSerialMgr;
+import com.tj.xengine.core.toolkit.taskmgr.store.XTaskStore;
+import com.tj.xengine.core.toolkit.taskmgr.store.XTaskStoreListener;
 import com.tj.xengine.core.utils.XStringUtil;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -18,6 +41,12 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * 子类可以继承XDownloadBean并覆盖{@link XDownloadBean#getId()}方法，以修改此行为。
  * 2.子类可以继承XHttpDownloader并覆盖{@link #createTaskMgr()}方法，以自定义任务管理器。
  * 3.子类可以继承XHttpDownloader并覆盖{@link #createTask(XDownloadBean)}方法，以自定义下载任务。
+ * 4.设置了缓存({@link #setDownloadCache(XDownloadCache)})后，相同内容(缓存key相同)的任务共享一次下载：
+ * 后添加的任务(跟随任务)照常进入任务管理器(会被持久化)，但处于停止状态，不会被自动执行
+ * (下载任务是XBaseHttpDownloadTask时，跟随任务在得到结果前拒绝启动)；
+ * 正在下载的任务成功后，跟随任务重新排队，执行时从缓存获取，不再下载；
+ * 正在下载的任务失败后还会重试时，跟随任务继续等待，不再重试时跟随任务一起失败；
+ * 正在下载的任务被删除时，第一个跟随任务接着下载。
  * Created by jasontujun on 2015/10/29.
  */
 public abstract class XBaseHttpDownloader {
@@ -28,6 +57,42 @@ public abstract class XBaseHttpDownloader {
     protected XTaskMgr<XMgrTaskExecutor<XDownloadBean>, XDownloadBean> mTaskMgr;
     // 监听者列表
     protected List<Listener> mListeners;
+    // 注册在任务管理器上的内部监听(开启异步回调后是包装后的异步监听)
+    protected XTaskMgrListener<XDownloadBean> mInnerListener;
+    // 带宽控制器
+    protected XBandwidthController mBandwidthController;
+    // 重试调度器、重试预算、重试退避策略(为null表示不启用)
+    protected volatile XRetryScheduler mRetryScheduler;
+    protected volatile XRetryBudget mRetryBudget;
+    protected volatile XRetryListener<? super XDownloadBean> mRetryListener;
+    protected volatile XRetryBackoff mRetryBackoff;
+    // 分段下载的线程数
+    protected volatile int mSegmentCount = 1;
+    // 刷盘模式和定期刷盘的间隔
+    protected volatile int mForceMode = XBaseHttpDownloadTask.FORCE_NONE;
+    protected volatile long mForceInterval;
+    // 是否预分配文件，以及所有任务共享的磁盘空间预留账本
+    protected volatile boolean mPreallocate;
+    protected volatile boolean mRetryOnDigestMismatch;
+    // 是否自适应调整缓冲区大小
+    protected volatile boolean mAdaptiveBuffer;
+    protected XDiskReservation mDiskReservation;
+    // 下载内容的缓存(为null表示不使用)
+    protected volatile XDownloadCache mDownloadCache;
+    // 共享下载：缓存key -> 正在下载的任务，以及等待其结果的跟随任务(由mInFlight的锁保护)
+    private final Map<String, XDownloadBean> mInFlight = new HashMap<String, XDownloadBean>();
+    private final Map<String, List<XDownloadBean>> mFollowers = new HashMap<String, List<XDownloadBean>>();
+    // 下载任务的启动过滤器，拒绝启动跟随任务
+    private final XFilter<XDownloadBean> mFollowerFilter = new XBaseFilter<XDownloadBean>() {
+        @Override
+        public XDownloadBean doFilter(XDownloadBean source) {
+            return isFollower(source.getId()) ? null : source;
+        }
+    };
+    // 任务持久化的监听(未设置持久化存储时为null)
+    protected XTaskStoreListener<XDownloadBean> mStoreListener;
+    // 任务统计(未开启时为null)
+    protected volatile XTaskMetrics<XDownloadBean> mMetrics;
 
     public XBaseHttpDownloader(XHttp http) {
         mHttpClient = http;
@@ -37,9 +102,14 @@ public abstract class XBaseHttpDownloader {
     private void init() {
         // 初始化监听集合
         mListeners = new CopyOnWriteArrayList<Listener>();
+        // 初始化带宽控制器(默认不限速)
+        mBandwidthController = new XBandwidthController();
+        // 初始化磁盘空间预留账本
+        mDiskReservation = new XDiskReservation();
         // 注册对任务管理器的内部监听
         mTaskMgr = createTaskMgr();
-        mTaskMgr.registerListener(new InnerListener());
+        mInnerListener = new InnerListener();
+        mTaskMgr.registerListener(mInnerListener);
     }
 
     /**
@@ -52,48 +122,242 @@ public abstract class XBaseHttpDownloader {
      */
     protected abstract XMgrTaskExecutor<XDownloadBean> createTask(XDownloadBean bean);
 
+    /**
+     * 创建下载任务，并为其设置下载管理器级别的共享组件。
+     */
+    private XMgrTaskExecutor<XDownloadBean> newTask(XDownloadBean bean) {
+        XMgrTaskExecutor<XDownloadBean> task = createTask(bean);
+        if (task instanceof XBaseHttpDownloadTask) {
+            XBaseHttpDownloadTask downloadTask = (XBaseHttpDownloadTask) task;
+            downloadTask.setBandwidthController(mBandwidthController);
+            downloadTask.setRetryScheduler(mRetryScheduler);
+            downloadTask.setRetryBudget(mRetryBudget);
+            downloadTask.setRetryListener(mRetryListener);
+            downloadTask.setRetryBackoff(mRetryBackoff);
+            downloadTask.setSegmentCount(mSegmentCount);
+            downloadTask.setForceMode(mForceMode, mForceInterval);
+            downloadTask.setPreallocate(mPreallocate);
+            downloadTask.setAdaptiveBuffer(mAdaptiveBuffer);
+            downloadTask.setRetryOnDigestMismatch(mRetryOnDigestMismatch);
+            downloadTask.setDiskReservation(mDiskReservation);
+            downloadTask.setDownloadCache(mDownloadCache);
+            downloadTask.setStartFilter(mFollowerFilter);
+        }
+        return task;
+    }
+
+    /**
+     * 添加一个任务。设置了缓存且相同的内容正在下载时，作为跟随任务等待其结果。
+     */
+    private boolean addNewTask(XDownloadBean bean) {
+        final XDownloadCache cache = mDownloadCache;
+        if (cache == null)
+            return mTaskMgr.addTask(newTask(bean));
+        String key = cache.getKey(bean);
+        boolean isLeader = false;
+        boolean isFollower = false;
+        synchronized (mInFlight) {
+            XDownloadBean leader = mInFlight.get(key);
+            if (leader != null && !leader.getId().equals(bean.getId())
+                    && !XStringUtil.isEmpty(bean.getFileName())) {
+                // 添加进任务管理器前先登记，任务管理器在停止它之前也无法启动它
+                mFollowers.get(key).add(bean);
+                isFollower = true;
+            } else if (leader == null && key != null) {
+                mInFlight.put(key, bean);
+                mFollowers.put(key, new ArrayList<XDownloadBean>());
+                isLeader = true;
+            }
+        }
+        // 不持有mInFlight的锁调用任务管理器，避免与任务管理器的回调互相等待
+        if (!mTaskMgr.addTask(newTask(bean))) {
+            if (isLeader)
+                promoteFollowers(takeFollowers(bean));
+            else if (isFollower)
+                unfollow(key, bean);
+            return false;
+        }
+        if (isFollower)
+            follow(key, bean);
+        return true;
+    }
+
+    /**
+     * 已登记并添加进任务管理器的跟随任务，改为停止状态(不会被自动执行)，等待正在下载的任务的结果。
+     * 登记期间任务拒绝启动(见mFollowerFilter)，所以停止前不会被启动。
+     */
+    private void follow(String key, final XDownloadBean bean) {
+        mTaskMgr.stopTasks(new XBaseFilter<XDownloadBean>() {
+            @Override
+            public XDownloadBean doFilter(XDownloadBean source) {
+                return bean.getId().equals(source.getId()) ? source : null;
+            }
+        });
+        synchronized (mInFlight) {
+            if (indexOf(mFollowers.get(key), bean) >= 0)
+                return;
+        }
+        // 添加期间正在下载的任务已经结束，停止的任务需要重新排队
+        requeue(bean);
+    }
+
+    /**
+     * 取消登记跟随任务(添加进任务管理器失败)。
+     */
+    private void unfollow(String key, XDownloadBean bean) {
+        synchronized (mInFlight) {
+            List<XDownloadBean> followers = mFollowers.get(key);
+            int index = indexOf(followers, bean);
+            if (index >= 0)
+                followers.remove(index);
+        }
+    }
+
+    /**
+     * 在跟随任务中查找同一个对象(同一个id可能重复添加)。
+     * @return 不存在返回-1
+     */
+    private static int indexOf(List<XDownloadBean> followers, XDownloadBean bean) {
+        if (followers == null)
+            return -1;
+        for (int i = 0; i < followers.size(); i++) {
+            if (followers.get(i) == bean)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 任务是否是等待结果的跟随任务。
+     */
+    private boolean isFollower(String id) {
+        synchronized (mInFlight) {
+            for (List<XDownloadBean> followers : mFollowers.values()) {
+                for (XDownloadBean follower : followers) {
+                    if (follower.getId().equals(id))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 跟随任务重新排队，由任务管理器正常调度(执行时缓存中有内容则直接获取)。
+     * 通过删除再添加实现，对所有任务管理器都适用。
+     */
+    private void requeue(XDownloadBean bean) {
+        if (mTaskMgr.getTaskById(bean.getId()) == null)
+            return;// 已被删除
+        mTaskMgr.removeTaskById(bean.getId());
+        bean.setStatus(XTaskBean.STATUS_TODO);
+        mTaskMgr.addTask(newTask(bean));
+    }
+
+    /**
+     * 取出任务的跟随任务，该任务不再是正在下载的任务。
+     * @return 该任务没有跟随任务时返回null
+     */
+    private List<XDownloadBean> takeFollowers(XDownloadBean bean) {
+        final XDownloadCache cache = mDownloadCache;
+        if (cache == null)
+            return null;
+        String key = cache.getKey(bean);
+        synchronized (mInFlight) {
+            XDownloadBean leader = mInFlight.get(key);
+            if (leader == null || !leader.getId().equals(bean.getId()))
+                return null;
+            mInFlight.remove(key);
+            return mFollowers.remove(key);
+        }
+    }
+
+    /**
+     * 正在下载的任务被删除后，跟随任务重新添加，第一个成为正在下载的任务。
+     */
+    private void promoteFollowers(List<XDownloadBean> followers) {
+        if (followers == null)
+            return;
+        for (XDownloadBean follower : followers) {
+            if (mTaskMgr.getTaskById(follower.getId()) == null)
+                continue;// 已被删除
+            mTaskMgr.removeTaskById(follower.getId());
+            follower.setStatus(XTaskBean.STATUS_TODO);
+            addNewTask(follower);
+        }
+    }
+
+    /**
+     * 删除跟随任务。
+     */
+    private void removeFollower(String id) {
+        synchronized (mInFlight) {
+            for (List<XDownloadBean> followers : mFollowers.values()) {
+                Iterator<XDownloadBean> iterator = followers.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().getId().equals(id))
+                        iterator.remove();
+                }
+            }
+        }
+    }
+
     public boolean addTask(XDownloadBean bean) {
-        return mTaskMgr.addTask(createTask(bean));
+        return addNewTask(bean);
     }
 
     public boolean addTask(String url, String folder) {
         XDownloadBean bean = new XDownloadBean(url, folder);
-        return mTaskMgr.addTask(createTask(bean));
+        return addNewTask(bean);
     }
 
     public boolean addTask(String url, String folder, String fileName) {
         XDownloadBean bean = new XDownloadBean(url, folder, fileName);
-        return mTaskMgr.addTask(createTask(bean));
+        return addNewTask(bean);
     }
 
     public void addTasks(List<String> urls, List<String> folders) {
         List<XMgrTaskExecutor<XDownloadBean>> tasks = new ArrayList<XMgrTaskExecutor<XDownloadBean>>();
         for (int i = 0; i < urls.size(); i++) {
             XDownloadBean bean = new XDownloadBean(urls.get(i), folders.get(i));
-            tasks.add(createTask(bean));
+            if (mDownloadCache != null)
+                addNewTask(bean);
+            else
+                tasks.add(newTask(bean));
         }
-        mTaskMgr.addTasks(tasks);
+        if (tasks.size() > 0)
+            mTaskMgr.addTasks(tasks);
     }
 
     public void addTasks(List<String> urls, List<String> folders, List<String> fileNames) {
         List<XMgrTaskExecutor<XDownloadBean>> tasks = new ArrayList<XMgrTaskExecutor<XDownloadBean>>();
         for (int i = 0; i < urls.size(); i++) {
             XDownloadBean bean = new XDownloadBean(urls.get(i), folders.get(i), fileNames.get(i));
-            tasks.add(createTask(bean));
+            if (mDownloadCache != null)
+                addNewTask(bean);
+            else
+                tasks.add(newTask(bean));
         }
-        mTaskMgr.addTasks(tasks);
+        if (tasks.size() > 0)
+            mTaskMgr.addTasks(tasks);
     }
 
     public void removeTask(String id) {
+        removeFollower(id);
         mTaskMgr.removeTaskById(id);
+        mBandwidthController.removeTask(id);
     }
 
     public void removeTask(List<String> ids) {
+        for (String id : ids)
+            removeFollower(id);
         mTaskMgr.removeTasksById(ids);
+        for (String id : ids)
+            mBandwidthController.removeTask(id);
     }
 
     public void removeTask(XDownloadBean bean) {
-        mTaskMgr.removeTaskById(bean.getId());
+        removeTask(bean.getId());
     }
 
     public boolean startDownload() {
@@ -128,14 +392,274 @@ public abstract class XBaseHttpDownloader {
         return mTaskMgr.stop(id);
     }
 
+    /**
+     * 批量停止符合条件的下载任务(filter.doFilter()不返回null的任务)，包括等待中的任务。
+     * 被停止的任务不会再自动下载，直到对其调用startDownload(id)或resumeDownload(id)。
+     * @return 返回被停止的任务数
+     */
+    public int stopDownload(XFilter<XDownloadBean> filter) {
+        return mTaskMgr.stopTasks(filter);
+    }
+
+    /**
+     * 批量删除符合条件的下载任务(filter.doFilter()不返回null的任务)。
+     * 任务很多时分批处理，不会长时间阻塞其他操作。
+     * @return 返回被删除的任务数
+     */
+    public int removeTask(XFilter<XDownloadBean> filter) {
+        return mTaskMgr.removeTasksByFilter(filter);
+    }
+
     public void stopAndClear() {
+        synchronized (mInFlight) {
+            mInFlight.clear();
+            mFollowers.clear();
+        }
         mTaskMgr.stopAndReset();
+        if (mStoreListener != null)
+            mStoreListener.getStore().clear();
+    }
+
+    /**
+     * 从持久化存储中恢复下载任务，并把之后的任务变化同步写入该存储。
+     * 恢复的任务按原有顺序加入等待队列，并保持记录的状态：
+     * 出错的任务仍然是出错状态(不会自动下载，直到再次启动)，
+     * 进程退出时正在下载或等待下载的任务会重新等待下载。
+     * 注意：此方法应该在添加其他任务之前调用，且只能调用一次。
+     * @param store 任务的持久化存储，如new XFileTaskStore(path, new XDownloadBeanCodec())
+     * @return 返回恢复的任务数量
+     */
+    public int restoreFrom(XTaskStore<XDownloadBean> store) {
+        if (mStoreListener != null)
+            return 0;
+        List<XDownloadBean> beans = store.load();
+        List<XMgrTaskExecutor<XDownloadBean>> tasks =
+                new ArrayList<XMgrTaskExecutor<XDownloadBean>>(beans.size());
+        List<XMgrTaskExecutor<XDownloadBean>> errorTasks =
+                new ArrayList<XMgrTaskExecutor<XDownloadBean>>();
+        for (XDownloadBean bean : beans) {
+            XMgrTaskExecutor<XDownloadBean> task = newTask(bean);
+            tasks.add(task);
+            if (bean.getStatus() == XTaskBean.STATUS_ERROR)
+                errorTasks.add(task);
+        }
+        mTaskMgr.addTasks(tasks);
+        // 添加时任务管理器会把状态重置为TODO，恢复记录的出错状态
+        for (XMgrTaskExecutor<XDownloadBean> task : errorTasks) {
+            if (task.getTaskMgr() != null && task.getStatus() == XTaskBean.STATUS_TODO)
+                task.setStatus(XTaskBean.STATUS_ERROR);
+        }
+        // 恢复完成后再注册，避免恢复的任务被重复写入
+        mStoreListener = new XTaskStoreListener<XDownloadBean>(store);
+        mTaskMgr.registerListener(mStoreListener);
+        return tasks.size();
+    }
+
+    /**
+     * 获取当前使用的任务持久化存储，未设置时返回null。
+     */
+    public XTaskStore<XDownloadBean> getTaskStore() {
+        return mStoreListener == null ? null : mStoreListener.getStore();
     }
 
     public void setAutoRunning(boolean auto) {
         mTaskMgr.setAutoRunning(auto);
     }
 
+    /**
+     * 获取带宽控制器，可以在运行时设置全局、Host、单任务的带宽上限。
+     */
+    public XBandwidthController getBandwidthController() {
+        return mBandwidthController;
+    }
+
+    /**
+     * 添加分组配额，比如限制每个Host的并发下载数：
+     * addTaskQuota(new XTaskQuota&lt;XDownloadBean&gt;(new XHostGrouper(), 2))
+     * 只有实现了XQuotaParallelMgr的任务管理器支持分组配额。
+     * @return 任务管理器支持分组配额返回true；否则返回false
+     * @see XHostGrouper
+     */
+    public boolean addTaskQuota(XTaskQuota<XDownloadBean> quota) {
+        if (!(mTaskMgr instanceof XQuotaParallelMgr))
+            return false;
+        ((XQuotaParallelMgr<XDownloadBean>) mTaskMgr).addTaskQuota(quota);
+        return true;
+    }
+
+    /**
+     * 开启下载任务的统计：排队时间、运行时间、速度、重试次数、各错误码的次数等。
+     * 已经开启时直接返回原来的统计收集器。
+     * @see XTaskMetrics#snapshot()
+     */
+    public synchronized XTaskMetrics<XDownloadBean> enableMetrics() {
+        if (mMetrics == null) {
+            mMetrics = new XTaskMetrics<XDownloadBean>();
+            mTaskMgr.registerListener(mMetrics);
+        }
+        return mMetrics;
+    }
+
+    /**
+     * 获取下载任务的统计收集器。
+     * @return 未开启统计时返回null
+     */
+    public XTaskMetrics<XDownloadBean> getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 与其他进程(使用同一个协调器目录)协同下载：
+     * 每个任务只会被一个进程下载，进程退出或卡死后，其任务由其他进程接着下载。
+     * 注意：会替换当前的任务过滤器(原有的过滤器依然生效)。
+     * @param coordinator 租约协调器，比如XFileLeaseCoordinator
+     * @return 返回设置的租约过滤器，调用其detach()可以取消协同
+     */
+    public XLeaseFilter<XDownloadBean> setLeaseCoordinator(XLeaseCoordinator coordinator) {
+        XLeaseFilter<XDownloadBean> filter =
+                new XLeaseFilter<XDownloadBean>(coordinator, mTaskMgr.getTaskFilter());
+        filter.attach(mTaskMgr);
+        return filter;
+    }
+
+    /**
+     * 按截止时间调度下载任务，见XDownloadBean#setDeadline()。
+     * 只有并行的任务管理器支持截止时间调度。
+     * @return 任务管理器支持截止时间调度返回true；否则返回false
+     * @see XDeadlineScheduler#getMissCount()
+     */
+    public boolean setDeadlineScheduler(XDeadlineScheduler<XDownloadBean> scheduler) {
+        if (!(mTaskMgr instanceof XParallelMgr))
+            return false;
+        scheduler.attach((XParallelMgr<XDownloadBean>) mTaskMgr);
+        return true;
+    }
+
+    /**
+     * 考虑切换代价地处理startDownload(id)：正在下载的任务刚启动不久，
+     * 或切换代价相对运行时间太大时，推迟切换；切换前先把已读取的数据写入文件。
+     * 只有实现了XPreemptiveSerialMgr的线性任务管理器支持抢占策略。
+     * @return 任务管理器支持抢占策略返回true；否则返回false
+     */
+    public boolean setPreemptionPolicy(XCostAwarePreemption<XDownloadBean> policy) {
+        if (!(mTaskMgr instanceof XPreemptiveSerialMgr))
+            return false;
+        policy.attach((XPreemptiveSerialMgr<XDownloadBean>) mTaskMgr);
+        return true;
+    }
+
+    /**
+     * 启用定时重试：下载失败后释放下载线程，由调度器按退避策略定时重新执行，
+     * 并且所有下载任务共享一个重试预算，服务器持续出错时迅速停止重试。
+     * 注意：只对之后添加的任务生效。
+     * @param scheduler 重试调度器，为null表示在下载线程中等待重试
+     * @param backoff 重试间隔的退避策略，为null表示使用固定间隔
+     * @param budget 重试预算，为null表示不限制
+     */
+    public void setRetryPolicy(XRetryScheduler scheduler,
+                               XRetryBackoff backoff, XRetryBudget budget) {
+        mRetryScheduler = scheduler;
+        mRetryBackoff = backoff;
+        mRetryBudget = budget;
+    }
+
+    /**
+     * 设置重试的监听者，下载线程内部每次重试时回调(例如XTaskMetrics)。
+     * 注意：只对之后添加的任务生效。
+     * @param listener 为null表示不监听
+     */
+    public void setRetryListener(XRetryListener<? super XDownloadBean> listener) {
+        mRetryListener = listener;
+    }
+
+    /**
+     * 设置每个任务分段下载的线程数。
+     * 注意：只对之后添加的任务生效。
+     * @param count 小于等于1表示单线程下载
+     * @see XBaseHttpDownloadTask#setSegmentCount(int)
+     */
+    public void setSegmentCount(int count) {
+        mSegmentCount = Math.max(count, 1);
+    }
+
+    /**
+     * 设置下载数据的刷盘模式。
+     * 注意：只对之后添加的任务生效。
+     * @see XBaseHttpDownloadTask#setForceMode(int, long)
+     */
+    public void setForceMode(int mode, long interval) {
+        mForceMode = mode;
+        mForceInterval = interval;
+    }
+
+    /**
+     * 设置是否预分配文件。开启后，所有任务通过同一个账本预留磁盘空间，
+     * 同时下载的多个任务不会超额占用同一个存储。
+     * 注意：只对之后添加的任务生效。
+     * @see XBaseHttpDownloadTask#setPreallocate(boolean)
+     */
+    public void setPreallocate(boolean preallocate) {
+        mPreallocate = preallocate;
+    }
+
+    /**
+     * 设置是否根据实测的读写情况调整缓冲区大小。
+     * 注意：只对之后添加的任务生效。
+     * @see XBaseHttpDownloadTask#setAdaptiveBuffer(boolean)
+     */
+    public void setAdaptiveBuffer(boolean adaptive) {
+        mAdaptiveBuffer = adaptive;
+    }
+
+    /**
+     * 设置摘要不一致时是否删除临时文件并重新下载。
+     * 注意：只对之后添加的任务生效。
+     * @see XBaseHttpDownloadTask#setRetryOnDigestMismatch(boolean)
+     */
+    public void setRetryOnDigestMismatch(boolean retry) {
+        mRetryOnDigestMismatch = retry;
+    }
+
+    /**
+     * 设置下载内容的缓存：下载前先从缓存获取，下载成功后放入缓存，并且相同内容的任务共享一次下载。
+     * 注意：应该在添加任务之前调用。
+     * @param cache 为null表示不使用缓存
+     * @see XDownloadCache
+     */
+    public void setDownloadCache(XDownloadCache cache) {
+        mDownloadCache = cache;
+    }
+
+    public XDownloadCache getDownloadCache() {
+        return mDownloadCache;
+    }
+
+    public XDiskReservation getDiskReservation() {
+        return mDiskReservation;
+    }
+
+    /**
+     * 设置是否异步回调监听者。
+     * 开启后，所有Listener的回调都在一个独立的分发线程中执行，不会拖慢下载线程；
+     * 下载进度和速度只保留每个任务的最新值，启动、完成、失败等事件按顺序回调。
+     * 关闭(默认)时，Listener的回调直接在下载线程中执行。
+     */
+    public synchronized void setAsyncDispatch(boolean async) {
+        if (async == (mInnerListener instanceof XAsyncTaskMgrListener))
+            return;
+        XTaskMgrListener<XDownloadBean> oldListener = mInnerListener;
+        if (async) {
+            mInnerListener = new XAsyncTaskMgrListener<XDownloadBean>(oldListener);
+        } else {
+            XAsyncTaskMgrListener<XDownloadBean> asyncListener =
+                    (XAsyncTaskMgrListener<XDownloadBean>) oldListener;
+            asyncListener.shutdown();
+            mInnerListener = asyncListener.getListener();
+        }
+        mTaskMgr.registerListener(mInnerListener);
+        mTaskMgr.unregisterListener(oldListener);
+    }
+
     public void registerListener(Listener listener) {
         if (!mListeners.contains(listener))
             mListeners.add(listener);
@@ -147,6 +671,7 @@ public abstract class XBaseHttpDownloader {
 
     /**
      * 下载管理器的监听接口。
+     * 只关心部分回调时，建议继承{@link ListenerAdapter}。
      */
     public interface Listener {
 
@@ -160,6 +685,14 @@ public abstract class XBaseHttpDownloader {
          */
         void onStop(String id);
 
+        /**
+         * 批量停止下载的回调函数，stopDownload(filter)只回调一次此方法。
+         * 注意：此方法是后来新增的，已有的实现可以改为继承{@link ListenerAdapter}，
+         * 其默认实现逐个回调onStop()。
+         * @param ids 被停止的任务Id列表
+         */
+        void onStopBatch(List<String> ids);
+
         /**
          * 所有任务都暂停的回调。
          * remove、stop等操作会触发此回调。
@@ -177,6 +710,12 @@ public abstract class XBaseHttpDownloader {
          */
         void onSpeedUpdate(String id, long speed);
 
+        /**
+         * 下载中更新预估剩余时间的回调函数，剩余时间未知时不回调。
+         * @param remainTime 剩余时间，单位：毫秒
+         */
+        void onRemainTimeUpdate(String id, long remainTime);
+
         /**
          * 下载成功结束的回调函数。
          */
@@ -193,6 +732,45 @@ public abstract class XBaseHttpDownloader {
         void onFinishAll();
     }
 
+    /**
+     * Listener的空实现，只关心部分回调时继承此类，只重写需要的方法。
+     */
+    public static abstract class ListenerAdapter implements Listener {
+
+        @Override
+        public void onStart(String id) {}
+
+        @Override
+        public void onStop(String id) {}
+
+        @Override
+        public void onStopBatch(List<String> ids) {
+            for (String id : ids)
+                onStop(id);
+        }
+
+        @Override
+        public void onStopAll() {}
+
+        @Override
+        public void onDownloading(String id, long completeSize, long totalSize) {}
+
+        @Override
+        public void onSpeedUpdate(String id, long speed) {}
+
+        @Override
+        public void onRemainTimeUpdate(String id, long remainTime) {}
+
+        @Override
+        public void onComplete(String id, File file) {}
+
+        @Override
+        public void onError(String id, String errorCode, File file) {}
+
+        @Override
+        public void onFinishAll() {}
+    }
+
 
     private class InnerListener implements XTaskMgrListener<XDownloadBean> {
         @Override
@@ -207,12 +785,13 @@ public abstract class XBaseHttpDownloader {
 
         @Override
         public void onRemove(XDownloadBean task) {
-
+            promoteFollowers(takeFollowers(task));
         }
 
         @Override
         public void onRemoveAll(List<XDownloadBean> tasks) {
-
+            for (XDownloadBean task : tasks)
+                promoteFollowers(takeFollowers(task));
         }
 
         @Override
@@ -229,6 +808,16 @@ public abstract class XBaseHttpDownloader {
             }
         }
 
+        @Override
+        public void onStopBatch(List<XDownloadBean> beans) {
+            List<String> ids = new ArrayList<String>(beans.size());
+            for (XDownloadBean bean : beans)
+                ids.add(bean.getId());
+            for (Listener listener : mListeners) {
+                listener.onStopBatch(ids);
+            }
+        }
+
         @Override
         public void onStopAll() {
             for (Listener listener : mListeners) {
@@ -252,9 +841,16 @@ public abstract class XBaseHttpDownloader {
 
         @Override
         public void onComplete(XDownloadBean bean) {
+            File file = new File(bean.getFolder(), bean.getFileName());
             for (Listener listener : mListeners) {
-                listener.onComplete(bean.getId(), new File(bean.getFolder(), bean.getFileName()));
+                listener.onComplete(bean.getId(), file);
             }
+            // 跟随任务重新排队，在各自的下载线程中从缓存获取
+            List<XDownloadBean> followers = takeFollowers(bean);
+            if (followers == null)
+                return;
+            for (XDownloadBean follower : followers)
+                requeue(follower);
         }
 
         @Override
@@ -266,6 +862,29 @@ public abstract class XBaseHttpDownloader {
                 }
                 listener.onError(bean.getId(), errorCode, file);
             }
+            // 正在下载的任务还会重试，跟随任务继续等待
+            XMgrTaskExecutor<XDownloadBean> task = mTaskMgr.getTaskById(bean.getId());
+            if (task instanceof XBaseHttpDownloadTask
+                    && ((XBaseHttpDownloadTask) task).isRetryAfterError())
+                return;
+            List<XDownloadBean> followers = takeFollowers(bean);
+            if (followers == null)
+                return;
+            for (XDownloadBean follower : followers) {
+                // 跟随任务改为出错状态，之后可以单独启动
+                XMgrTaskExecutor<XDownloadBean> followerTask = mTaskMgr.getTaskById(follower.getId());
+                if (followerTask instanceof XBaseTaskExecutor
+                        && ((XBaseTaskExecutor<?>) followerTask).compareAndSetStatus(
+                        XTaskBean.STATUS_DEFAULT, XTaskBean.STATUS_ERROR)) {
+                    // 直接修改的状态不经过任务管理器的回调，同步写入持久化存储
+                    XTaskStore<XDownloadBean> store = getTaskStore();
+                    if (store != null)
+                        store.updateStatus(follower.getId(), XTaskBean.STATUS_ERROR);
+                }
+                for (Listener listener : mListeners) {
+                    listener.onError(follower.getId(), errorCode, null);
+                }
+            }
         }
 
         @Override
@@ -274,5 +893,12 @@ public abstract class XBaseHttpDownloader {
                 listener.onSpeedUpdate(bean.getId(), speed);
             }
         }
+
+        @Override
+        public void onRemainTimeUpdate(XDownloadBean bean, long remainTime) {
+            for (Listener listener : mListeners) {
+                listener.onRemainTimeUpdate(bean.getId(), remainTime);
+            }
+        }
     }
 }
@@ -0,0 +1,114 @@
+package com.tj.xengine.core.network.download;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 下载管理器级别的磁盘空间预留账本。
+ * 预分配模式下，任务获取到文件总大小后，先在账本中预留剩余的下载大小，
+ * 同一存储上的可用空间要扣除其他任务已预留(还没写入)的大小，
+ * 避免多个任务同时下载时，各自检查都通过，最后一起把磁盘写满。
+ * 1.任务下载过程中不断更新预留的大小(剩余的下载大小)；
+ * 2.任务结束或暂停后释放预留。
+ * 注意：默认按总容量区分不同的存储(总容量相同的存储视为同一个，偏保守)，
+ * 子类可以重写{@link #getStorageKey(File)}。
+ * </pre>
+ */
+public class XDiskReservation {
+
+    private final Map<String, Reservation> mReservations;// 任务Id -> 预留
+
+    public XDiskReservation() {
+        mReservations = new HashMap<String, Reservation>();
+    }
+
+    /**
+     * 尝试预留空间。
+     * @param taskId 任务Id，重复预留时替换原来的预留
+     * @param dir 下载目录
+     * @param bytes 需要预留的大小
+     * @return 可用空间(扣除其他任务的预留后)足够返回true，否则返回false
+     */
+    public synchronized boolean tryReserve(String taskId, String dir, long bytes) {
+        File file = new File(dir);
+        String storageKey = getStorageKey(file);
+        long reserved = 0;
+        for (Map.Entry<String, Reservation> entry : mReservations.entrySet()) {
+            if (!entry.getKey().equals(taskId)
+                    && entry.getValue().storageKey.equals(storageKey))
+                reserved += entry.getValue().bytes;
+        }
+        if (getUsableSpace(file) - reserved < bytes)
+            return false;
+        mReservations.put(taskId, new Reservation(storageKey, bytes));
+        return true;
+    }
+
+    /**
+     * 更新任务预留的大小(已写入磁盘的部分不再需要预留)。
+     * @param bytes 剩余需要预留的大小
+     */
+    public synchronized void update(String taskId, long bytes) {
+        Reservation reservation = mReservations.get(taskId);
+        if (reservation != null)
+            reservation.bytes = Math.max(bytes, 0);
+    }
+
+    /**
+     * 释放任务的预留。
+     */
+    public synchronized void release(String taskId) {
+        mReservations.remove(taskId);
+    }
+
+    /**
+     * 获取目录所在存储上所有任务预留的总大小。
+     */
+    public synchronized long getReserved(String dir) {
+        String storageKey = getStorageKey(new File(dir));
+        long reserved = 0;
+        for (Reservation reservation : mReservations.values()) {
+            if (reservation.storageKey.equals(storageKey))
+                reserved += reservation.bytes;
+        }
+        return reserved;
+    }
+
+    /**
+     * 获取目录所在存储的标识，标识相同的目录视为在同一个存储上。
+     * 子类可以重写此方法。
+     */
+    protected String getStorageKey(File dir) {
+        return String.valueOf(getExistingDir(dir).getTotalSpace());
+    }
+
+    /**
+     * 获取目录所在存储的可用空间。
+     * 子类可以重写此方法。
+     */
+    protected long getUsableSpace(File dir) {
+        return getExistingDir(dir).getUsableSpace();
+    }
+
+    /**
+     * 目录还没创建时，使用最近的已存在的上级目录。
+     */
+    private static File getExistingDir(File dir) {
+        File file = dir.getAbsoluteFile();
+        while (!file.exists() && file.getParentFile() != null)
+            file = file.getParentFile();
+        return file;
+    }
+
+    private static class Reservation {
+        final String storageKey;
+        long bytes;
+
+        Reservation(String storageKey, long bytes) {
+            this.storageKey = storageKey;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,13 +1,15 @@
 package com.tj.xengine.core.network.download;
 
-import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.task.XDeadlineBean;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by jasontujun on 2015/10/29.
  */
-public class XDownloadBean implements XTaskBean, Serializable {
+public class XDownloadBean implements XDeadlineBean, Serializable {
 
     private static final long serialVersionUID = -7276732366418609011L;
 
@@ -19,6 +21,10 @@ public class XDownloadBean implements XTaskBean, Serializable {
     private int status;
     private int type;
     private long totalSize;
+    private long deadline;
+    private String digestAlgorithm;
+    private String expectedDigest;
+    private ArrayList<String> mirrors;
 
     public XDownloadBean() {
     }
@@ -90,6 +96,19 @@ public class XDownloadBean implements XTaskBean, Serializable {
         this.totalSize = totalSize;
     }
 
+    @Override
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * 设置下载的截止时间。
+     * @param deadline System.currentTimeMillis()的时间点，NO_DEADLINE表示没有截止时间
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
     public String getDownloadingSuffix() {
         return downloadingSuffix;
     }
@@ -97,4 +116,44 @@ public class XDownloadBean implements XTaskBean, Serializable {
     public void setDownloadingSuffix(String downloadingSuffix) {
         this.downloadingSuffix = downloadingSuffix;
     }
+
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public String getExpectedDigest() {
+        return expectedDigest;
+    }
+
+    /**
+     * 设置文件的预期摘要，下载过程中边下载边计算，下载完成后校验。
+     * @param algorithm 摘要算法，见XDownloadDigest.MD5、SHA_256、CRC32C
+     * @param digest 十六进制的摘要(不区分大小写)，为null表示不校验
+     */
+    public void setExpectedDigest(String algorithm, String digest) {
+        this.digestAlgorithm = algorithm;
+        this.expectedDigest = digest;
+    }
+
+    /**
+     * 获取镜像url(内容与url相同的其他下载地址)。
+     * @return 没有镜像时返回null
+     */
+    public List<String> getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * 设置镜像url。有镜像时按分段下载，同时从url和各个镜像下载不同的段。
+     * @see XDownloadSources
+     */
+    public void setMirrors(List<String> mirrors) {
+        this.mirrors = mirrors == null ? null : new ArrayList<String>(mirrors);
+    }
+
+    public void addMirror(String mirror) {
+        if (mirrors == null)
+            mirrors = new ArrayList<String>();
+        mirrors.add(mirror);
+    }
 }
@@ -0,0 +1,252 @@
+package com.tj.xengine.core.network.download;
+
+import com.tj.xengine.core.utils.XFileUtil;
+import com.tj.xengine.core.utils.XStringUtil;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * <pre>
+ * 下载内容的本地缓存，按容量上限淘汰最久没用过的文件(LRU)。
+ * 1.下载成功后，文件以硬链接(不支持时复制)的方式放入缓存，
+ *   以url为key，设置了预期摘要的同时以摘要为key；
+ * 2.之后下载相同的内容(设置了预期摘要时按摘要查找，否则按url查找)，
+ *   即使url或下载目录不同，也直接从缓存硬链接或复制到目标位置，不再下载；
+ * 3.缓存目录中每个文件旁边有一个.keys文件记录其key，重启后扫描目录恢复缓存，
+ *   文件的修改时间作为最近使用时间。
+ * 注意：
+ * 1.以url为key时不检查服务器上的文件是否改变，需要时请设置预期摘要或清空缓存；
+ * 2.硬链接的文件与缓存共享数据，不要原地修改下载的文件，
+ *   否则请关闭硬链接{@link #setUseHardLink(boolean)}。
+ * 线程安全。
+ * </pre>
+ */
+public class XDownloadCache {
+
+    private static final String KEYS_SUFFIX = ".keys";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String KEY_SEPARATOR = "\n";
+
+    private final File mDir;
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Entry> mEntries;// 文件名 -> 缓存项，按访问顺序排列
+    private final Map<String, Entry> mKeys;// key -> 缓存项
+    private long mSize;
+    private volatile boolean mUseHardLink = true;
+
+    /**
+     * @param dir 缓存目录
+     * @param maxBytes 缓存的容量上限
+     */
+    public XDownloadCache(String dir, long maxBytes) {
+        mDir = new File(dir);
+        mMaxBytes = maxBytes;
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        mKeys = new HashMap<String, Entry>();
+        if (!mDir.exists())
+            mDir.mkdirs();
+        load();
+    }
+
+    /**
+     * 扫描缓存目录，按文件的修改时间恢复缓存项的使用顺序。
+     */
+    private void load() {
+        File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+        List<Entry> entries = new ArrayList<Entry>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)) {
+                file.delete();// 上次没放完的文件
+                continue;
+            }
+            if (!name.endsWith(KEYS_SUFFIX))
+                continue;
+            File data = new File(mDir, name.substring(0, name.length() - KEYS_SUFFIX.length()));
+            String keys = XFileUtil.file2String(file);
+            if (!data.exists() || XStringUtil.isEmpty(keys)) {
+                file.delete();
+                data.delete();
+                continue;
+            }
+            entries.add(new Entry(data, Arrays.asList(keys.split(KEY_SEPARATOR))));
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                long l = lhs.file.lastModified();
+                long r = rhs.file.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (Entry entry : entries)
+            register(entry);
+        evict();
+    }
+
+    /**
+     * 设置是否优先使用硬链接，默认为true。关闭后总是复制文件。
+     */
+    public void setUseHardLink(boolean useHardLink) {
+        mUseHardLink = useHardLink;
+    }
+
+    /**
+     * 获取查找缓存用的key：设置了预期摘要时为"算法:摘要"，否则为url。
+     */
+    public String getKey(XDownloadBean bean) {
+        if (!XStringUtil.isEmpty(bean.getExpectedDigest()))
+            return getDigestKey(bean);
+        return bean.getUrl();
+    }
+
+    private static String getDigestKey(XDownloadBean bean) {
+        return String.valueOf(bean.getDigestAlgorithm()).toLowerCase(Locale.US)
+                + ":" + bean.getExpectedDigest().toLowerCase(Locale.US);
+    }
+
+    /**
+     * 查找缓存的文件，并标记为最近使用。
+     * @return 没有缓存时返回null
+     */
+    public synchronized File get(XDownloadBean bean) {
+        String key = getKey(bean);
+        Entry entry = key == null ? null : mKeys.get(key);
+        if (entry == null)
+            return null;
+        if (!entry.file.exists()) {
+            remove(entry);
+            return null;
+        }
+        mEntries.get(entry.file.getName());// 更新访问顺序
+        entry.file.setLastModified(System.currentTimeMillis());
+        return entry.file;
+    }
+
+    /**
+     * 把下载成功的文件放入缓存，超过容量上限时淘汰最久没用过的文件。
+     * @param file 下载成功的文件
+     * @return 放入成功返回true；文件超过容量上限或放入失败返回false
+     */
+    public boolean put(XDownloadBean bean, File file) {
+        if (XStringUtil.isEmpty(bean.getUrl()) || !file.exists() || file.length() > mMaxBytes)
+            return false;
+        List<String> keys = new ArrayList<String>();
+        keys.add(bean.getUrl());
+        if (!XStringUtil.isEmpty(bean.getExpectedDigest()))
+            keys.add(getDigestKey(bean));
+        String name = XStringUtil.str2md5(keys.get(keys.size() - 1));
+        File tmp = new File(mDir, name + TMP_SUFFIX);
+        tmp.delete();
+        if (!copyTo(file, tmp))
+            return false;
+        synchronized (this) {
+            Entry old = mEntries.get(name);
+            if (old != null)
+                remove(old);
+            File data = new File(mDir, name);
+            data.delete();
+            if (!tmp.renameTo(data)
+                    || !XFileUtil.string2File(XStringUtil.list2String(keys, KEY_SEPARATOR),
+                    new File(mDir, name + KEYS_SUFFIX))) {
+                tmp.delete();
+                data.delete();
+                return false;
+            }
+            data.setLastModified(System.currentTimeMillis());
+            register(new Entry(data, keys));
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * 把文件硬链接(不支持或关闭硬链接时复制)到目标位置，目标文件已存在时覆盖。
+     * @return 成功返回true，否则返回false
+     */
+    public boolean copyTo(File source, File target) {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.exists())
+            parent.mkdirs();
+        if (target.exists() && !target.delete())
+            return false;
+        if (mUseHardLink && createLink(source, target))
+            return true;
+        return XFileUtil.copyFile(source, target);
+    }
+
+    /**
+     * 创建硬链接。默认通过反射调用java.nio.file.Files.createLink()(Java 7、Android 8.0以上)，
+     * 子类可以重写此方法。
+     * @return 创建成功返回true；不支持或失败返回false
+     */
+    protected boolean createLink(File source, File target) {
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> filesClass = Class.forName("java.nio.file.Files");
+            Method toPath = File.class.getMethod("toPath");
+            Method createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+            createLink.invoke(null, toPath.invoke(target), toPath.invoke(source));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 获取缓存文件的总大小。
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * 清空缓存。
+     */
+    public synchronized void clear() {
+        for (Entry entry : new ArrayList<Entry>(mEntries.values()))
+            remove(entry);
+    }
+
+    private void register(Entry entry) {
+        mEntries.put(entry.file.getName(), entry);
+        for (String key : entry.keys)
+            mKeys.put(key, entry);
+        mSize += entry.size;
+    }
+
+    private void remove(Entry entry) {
+        mEntries.remove(entry.file.getName());
+        for (String key : entry.keys) {
+            if (mKeys.get(key) == entry)
+                mKeys.remove(key);
+        }
+        mSize -= entry.size;
+        entry.file.delete();
+        new File(mDir, entry.file.getName() + KEYS_SUFFIX).delete();
+    }
+
+    /**
+     * 淘汰最久没用过的文件，直到不超过容量上限。
+     */
+    private void evict() {
+        while (mSize > mMaxBytes && !mEntries.isEmpty())
+            remove(mEntries.values().iterator().next());
+    }
+
+    private static class Entry {
+        final File file;
+        final List<String> keys;
+        final long size;
+
+        Entry(File file, List<String> keys) {
+            this.file = file;
+            this.keys = keys;
+            this.size = file.length();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.tj.xengine.core.network.download;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <pre>
+ * 下载过程中边下载边计算的文件摘要，支持MD5、SHA-256和CRC32C。
+ * 1.摘要只能按文件顺序计算，offset表示已计算到的位置，
+ *   只有从offset开始的数据才会被计算，其他位置的数据被忽略，之后再从文件中补算；
+ * 2.暂停或重试时，通过copy()保存检查点，恢复下载时从检查点继续计算；
+ * 3.CRC32C的状态可以保存到文件中，进程重启后也能从检查点继续计算，
+ *   MD5和SHA-256的状态无法导出，进程重启后需要从文件中重新计算已下载的部分。
+ * 线程安全。
+ * </pre>
+ */
+public class XDownloadDigest {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA_256 = "SHA-256";
+    public static final String CRC32C = "CRC32C";
+
+    public static final String DIGEST_FILE_SUFFIX = ".digest";// 检查点文件的后缀
+
+    private static final int VERSION = 1;
+    private static final int[] CRC32C_TABLE = createCrc32cTable();
+
+    private final String mAlgorithm;
+    private final MessageDigest mDigest;// MD5、SHA-256
+    private int mCrc;// CRC32C(未取反的中间值)
+    private long mOffset;// 已计算到的位置
+
+    private XDownloadDigest(String algorithm, MessageDigest digest, int crc, long offset) {
+        mAlgorithm = algorithm;
+        mDigest = digest;
+        mCrc = crc;
+        mOffset = offset;
+    }
+
+    /**
+     * 创建从文件开头计算的摘要。
+     * @return 不支持的算法返回null
+     */
+    public static XDownloadDigest create(String algorithm) {
+        if (CRC32C.equalsIgnoreCase(algorithm))
+            return new XDownloadDigest(CRC32C, null, 0xFFFFFFFF, 0);
+        try {
+            return new XDownloadDigest(algorithm, MessageDigest.getInstance(algorithm), 0, 0);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 读取保存的检查点。
+     * @return 文件不存在、内容残缺或算法不一致返回null
+     */
+    public static XDownloadDigest load(File file, String algorithm) {
+        if (file == null || !file.exists() || !CRC32C.equalsIgnoreCase(algorithm))
+            return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != VERSION || !CRC32C.equals(in.readUTF()))
+                return null;
+            long offset = in.readLong();
+            int crc = in.readInt();
+            return offset < 0 ? null : new XDownloadDigest(CRC32C, null, crc, offset);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 保存检查点。
+     * @return 保存成功返回true；算法的状态无法导出(MD5、SHA-256)或保存失败返回false
+     */
+    public synchronized boolean save(File file) {
+        if (mDigest != null)
+            return false;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(file));
+            out.writeInt(VERSION);
+            out.writeUTF(mAlgorithm);
+            out.writeLong(mOffset);
+            out.writeInt(mCrc);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public String getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    /**
+     * 获取已计算到的位置。
+     */
+    public synchronized long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * 计算文件中position位置开始的数据。
+     * @param position 数据在文件中的位置
+     * @param data 数据(position到limit之间)，不会改变data的position
+     * @return position等于已计算到的位置时计算并返回true，否则忽略并返回false
+     */
+    public synchronized boolean update(long position, ByteBuffer data) {
+        if (position != mOffset)
+            return false;
+        // 计算后恢复position，而不是复制一个ByteBuffer，避免每次计算都分配对象
+        int start = data.position();
+        int end = data.limit();
+        if (mDigest != null) {
+            mDigest.update(data);
+            data.position(start);
+        } else {
+            int crc = mCrc;
+            for (int i = start; i < end; i++)
+                crc = CRC32C_TABLE[(crc ^ data.get(i)) & 0xFF] ^ (crc >>> 8);
+            mCrc = crc;
+        }
+        mOffset += end - start;
+        return true;
+    }
+
+    /**
+     * 从文件中补算已计算到的位置到end之间的数据。
+     * @param buffer 读文件的缓冲区
+     */
+    public synchronized void catchUp(FileChannel channel, long end, ByteBuffer buffer)
+            throws IOException {
+        while (mOffset < end) {
+            buffer.clear();
+            if (end - mOffset < buffer.capacity())
+                buffer.limit((int) (end - mOffset));
+            int numRead = channel.read(buffer, mOffset);
+            if (numRead <= 0)
+                throw new EOFException("digest catch up at " + mOffset);
+            buffer.flip();
+            update(mOffset, buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 获取当前数据的摘要(不影响之后继续计算)。
+     * @return 小写的十六进制字符串
+     */
+    public synchronized String getHexDigest() {
+        byte[] bytes;
+        if (mDigest != null) {
+            try {
+                bytes = ((MessageDigest) mDigest.clone()).digest();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            int crc = ~mCrc;
+            bytes = new byte[]{(byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc};
+        }
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 复制当前状态，作为检查点。
+     * @return 算法不支持复制时返回null
+     */
+    public synchronized XDownloadDigest copy() {
+        if (mDigest == null)
+            return new XDownloadDigest(mAlgorithm, null, mCrc, mOffset);
+        try {
+            return new XDownloadDigest(mAlgorithm, (MessageDigest) mDigest.clone(), 0, mOffset);
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * CRC32C(Castagnoli)的查找表，多项式0x82F63B78(反转)。
+     */
+    private static int[] createCrc32cTable() {
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++)
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+            table[i] = crc;
+        }
+        return table;
+    }
+}
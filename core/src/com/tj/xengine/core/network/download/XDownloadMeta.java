@@ -0,0 +1,350 @@
+package com.tj.xengine.core.network.download;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <pre>
+ * 分段下载的进度记录，保存在临时下载文件旁边的.meta文件中，用于断点续传。
+ * 1.文件按[start, end)划分为若干段，每段记录已写入文件的位置position；
+ * 2.某段下载完后，先领取还没有线程下载的段，没有的话，
+ *   把预计最晚下完的段拆成两段，后半段交给空闲的线程(工作窃取)，
+ *   双方的速度已知时按速度比例拆分，否则从中间拆分；
+ * 3.保存时先写临时文件(.tmp)并刷盘，再重命名覆盖原记录，进程崩溃不会留下残缺的记录；
+ *   不支持覆盖时改为先删除再重命名，此时崩溃只会留下.tmp文件，读取时从中恢复；
+ * 4.同时记录文件的校验信息，续传时判断服务器上的文件是否改变。
+ * 注意：每段只能由一个线程写入，position只在数据写入文件后才前移，
+ * 所以记录的进度不会超过实际写入的数据。
+ * </pre>
+ */
+public class XDownloadMeta {
+
+    public static final String META_FILE_SUFFIX = ".meta";// 进度记录文件的后缀
+
+    private static final int VERSION = 2;// 版本2增加了校验信息
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final String mUrl;
+    private final long mTotalSize;
+    private final XDownloadValidator mValidator;
+    private final List<Segment> mSegments;
+
+    private XDownloadMeta(String url, long totalSize, XDownloadValidator validator,
+                          List<Segment> segments) {
+        mUrl = url;
+        mTotalSize = totalSize;
+        mValidator = validator;
+        mSegments = segments;
+    }
+
+    /**
+     * 把文件平均划分为若干段。
+     * @param url 下载url
+     * @param totalSize 文件总大小
+     * @param count 分段数
+     * @param validator 文件的校验信息，可以为null
+     */
+    public static XDownloadMeta create(String url, long totalSize, int count,
+                                       XDownloadValidator validator) {
+        count = (int) Math.max(Math.min(count, totalSize), 1);
+        List<Segment> segments = new ArrayList<Segment>(count);
+        long size = totalSize / count;
+        long start = 0;
+        for (int i = 0; i < count; i++) {
+            long end = i == count - 1 ? totalSize : start + size;
+            segments.add(new Segment(start, end, start));
+            start = end;
+        }
+        return new XDownloadMeta(url, totalSize, validator, segments);
+    }
+
+    /**
+     * 进度记录文件(或保存到一半的临时文件)是否存在。
+     */
+    public static boolean exists(File file) {
+        return file.exists() || getTmpFile(file).exists();
+    }
+
+    /**
+     * 删除进度记录文件及其临时文件。
+     */
+    public static void delete(File file) {
+        file.delete();
+        getTmpFile(file).delete();
+    }
+
+    private static File getTmpFile(File file) {
+        return new File(file.getPath() + TMP_SUFFIX);
+    }
+
+    /**
+     * 读取进度记录文件。
+     * 记录不存在或残缺时，尝试从上次保存留下的临时文件中恢复。
+     * @return 文件不存在或内容残缺返回null
+     */
+    public static XDownloadMeta load(File file) {
+        if (file == null)
+            return null;
+        XDownloadMeta meta = read(file);
+        if (meta != null)
+            return meta;
+        // 上次保存时删除了原记录，但没来得及重命名
+        File tmpFile = getTmpFile(file);
+        meta = read(tmpFile);
+        if (meta != null && !tmpFile.renameTo(file)) {
+            file.delete();
+            tmpFile.renameTo(file);
+        }
+        return meta;
+    }
+
+    private static XDownloadMeta read(File file) {
+        if (!file.exists())
+            return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int version = in.readInt();
+            if (version != 1 && version != VERSION)
+                return null;
+            String url = in.readUTF();
+            long totalSize = in.readLong();
+            XDownloadValidator validator = version >= 2 && in.readBoolean() ?
+                    XDownloadValidator.read(in) : null;
+            int count = in.readInt();
+            if (totalSize <= 0 || count <= 0)
+                return null;
+            List<Segment> segments = new ArrayList<Segment>(count);
+            for (int i = 0; i < count; i++) {
+                long start = in.readLong();
+                long end = in.readLong();
+                long position = in.readLong();
+                if (start < 0 || end > totalSize || position < start || position > end)
+                    return null;
+                segments.add(new Segment(start, end, position));
+            }
+            return new XDownloadMeta(url, totalSize, validator, segments);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 保存到进度记录文件。
+     * @return 保存成功返回true，否则返回false
+     */
+    public synchronized boolean save(File file) {
+        File tmpFile = getTmpFile(file);
+        DataOutputStream out = null;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(tmpFile);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(VERSION);
+            out.writeUTF(mUrl);
+            out.writeLong(mTotalSize);
+            out.writeBoolean(mValidator != null);
+            if (mValidator != null)
+                mValidator.write(out);
+            out.writeInt(mSegments.size());
+            for (Segment segment : mSegments) {
+                out.writeLong(segment.mStart);
+                out.writeLong(segment.mEnd);
+                out.writeLong(segment.mPosition);
+            }
+            // 先刷盘再重命名，避免重命名后记录的内容还没有写入磁盘
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            out = null;
+            // 重命名覆盖原记录，部分平台不支持覆盖时，才先删除原记录
+            if (tmpFile.renameTo(file))
+                return true;
+            file.delete();
+            return tmpFile.renameTo(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /**
+     * 获取文件的校验信息。
+     * @return 没有记录时返回null
+     */
+    public XDownloadValidator getValidator() {
+        return mValidator;
+    }
+
+    /**
+     * 获取已写入文件的数据量。
+     */
+    public synchronized long getCompleteSize() {
+        long size = 0;
+        for (Segment segment : mSegments)
+            size += segment.mPosition - segment.mStart;
+        return size;
+    }
+
+    /**
+     * 获取从文件开头起连续写入的数据量。
+     */
+    public synchronized long getContiguousSize() {
+        List<Segment> segments = new ArrayList<Segment>(mSegments);
+        Collections.sort(segments, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment lhs, Segment rhs) {
+                return lhs.mStart < rhs.mStart ? -1 : (lhs.mStart == rhs.mStart ? 0 : 1);
+            }
+        });
+        long size = 0;
+        for (Segment segment : segments) {
+            if (segment.mStart != size)
+                break;
+            size = segment.mPosition;
+            if (segment.mPosition < segment.mEnd)
+                break;
+        }
+        return size;
+    }
+
+    public synchronized boolean isComplete() {
+        for (Segment segment : mSegments) {
+            if (segment.mPosition < segment.mEnd)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 为空闲的下载线程分配一段。
+     * 优先分配还没有线程下载的段；没有的话，把预计最晚下完的段拆成两段，分配后半段。
+     * @param minSize 拆分后每段的最小大小
+     * @param margin 正在下载的段，position之后预留给其当前读取的数据量
+     * @param rate 空闲线程的下载速度，未知时为0
+     * @return 没有可分配的段返回null
+     */
+    public synchronized Segment next(long minSize, long margin, double rate) {
+        Segment latest = null;
+        long latestRemain = 0;
+        double latestTime = 0;
+        for (Segment segment : mSegments) {
+            if (segment.mPosition >= segment.mEnd)
+                continue;
+            if (!segment.mAssigned) {
+                segment.mAssigned = true;
+                segment.mRate = rate;
+                return segment;
+            }
+            long remain = segment.mEnd - segment.mPosition - margin;
+            if (remain < 2 * minSize)
+                continue;
+            // 速度未知时按与空闲线程相同估计
+            double time = remain / (segment.mRate > 0 ? segment.mRate : (rate > 0 ? rate : 1));
+            if (time > latestTime) {
+                latest = segment;
+                latestRemain = remain;
+                latestTime = time;
+            }
+        }
+        if (latest == null)
+            return null;
+        long size = rate > 0 && latest.mRate > 0 ?
+                (long) (latestRemain * (rate / (rate + latest.mRate))) : latestRemain / 2;
+        size = Math.max(Math.min(size, latestRemain - minSize), minSize);
+        long mid = latest.mEnd - size;
+        Segment segment = new Segment(mid, latest.mEnd, mid);
+        segment.mAssigned = true;
+        segment.mRate = rate;
+        latest.mEnd = mid;
+        mSegments.add(segment);
+        return segment;
+    }
+
+    /**
+     * 获取该段已写入文件的位置。
+     */
+    public synchronized long getPosition(Segment segment) {
+        return segment.mPosition;
+    }
+
+    /**
+     * 获取该段的结束位置(不包含)。
+     */
+    public synchronized long getEnd(Segment segment) {
+        return segment.mEnd;
+    }
+
+    /**
+     * 下载线程读取到数据后，计算可以写入该段的数据量(该段可能已被拆分)。
+     * @param length 读取到的数据量
+     */
+    public synchronized int claim(Segment segment, int length) {
+        return (int) Math.max(Math.min(length, segment.mEnd - segment.mPosition), 0);
+    }
+
+    /**
+     * 更新正在下载该段的线程的速度，用于拆分时估计该段的剩余时间。
+     */
+    public synchronized void setRate(Segment segment, double rate) {
+        segment.mRate = rate;
+    }
+
+    /**
+     * 下载线程放弃该段(例如下载源被停用)，之后可以重新分配给其他下载线程。
+     */
+    public synchronized void release(Segment segment) {
+        segment.mAssigned = false;
+    }
+
+    /**
+     * 数据写入文件后，前移该段的位置。
+     * @param length 写入的数据量
+     */
+    public synchronized void advance(Segment segment, int length) {
+        segment.mPosition += length;
+    }
+
+    /**
+     * 文件中的一段，所有字段由XDownloadMeta的锁保护。
+     */
+    public static class Segment {
+        private final long mStart;
+        private long mEnd;// 拆分后会变小
+        private long mPosition;// 已写入文件的位置
+        private boolean mAssigned;// 是否已分配给下载线程(不保存)
+        private double mRate;// 正在下载该段的线程的速度，未知时为0(不保存)
+
+        Segment(long start, long end, long position) {
+            mStart = start;
+            mEnd = end;
+            mPosition = position;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.tj.xengine.core.network.download;
+
+import com.tj.xengine.core.utils.XStringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * 分段下载时的下载源(url和各个镜像)集合，按实测速度为下载线程分配下载源。
+ * 1.下载线程每领取一段，就选择"速度/(正在使用的线程数+1)"最大的下载源，
+ *   所以各个下载源上的线程数与其速度成正比；拆分段时也按速度比例拆分
+ *   (见{@link XDownloadMeta#next(long, long, double)})，快的下载源领取到更多的数据；
+ * 2.还没有速度数据的下载源，没有线程在用时优先尝试，多个时按探测的延迟排序；
+ * 3.连续失败MAX_FAILURES次、返回的文件与记录不一致，或者速度低于最快的下载源的SLOW_RATIO，
+ *   就停用该下载源，正在使用它的下载线程放弃当前段，由其他下载源继续下载；
+ * 4.至少保留一个下载源，最后一个下载源出错时整个下载出错，由任务的重试机制处理。
+ * 注意：镜像只比较文件大小，内容是否一致建议通过摘要校验。
+ * 线程安全。
+ * </pre>
+ */
+public class XDownloadSources {
+
+    public static final int MAX_FAILURES = 2;// 连续失败多少次后停用
+    public static final double SLOW_RATIO = 0.2;// 速度低于最快的下载源的多少倍时停用
+    public static final long MIN_SAMPLE_BYTES = 256 * 1024;// 下载了多少数据后速度才可信
+    public static final long MIN_SAMPLE_NANOS = 500L * 1000 * 1000;// 或者读取了多长时间后速度才可信
+
+    private final List<Source> mSources;
+
+    public XDownloadSources() {
+        mSources = new ArrayList<Source>();
+    }
+
+    /**
+     * 添加下载源。
+     * @param url 下载地址
+     * @param latency 探测的延迟(毫秒)，未探测时为0
+     * @param validator 该下载源的校验信息，可以为null
+     */
+    public synchronized void add(String url, long latency, XDownloadValidator validator) {
+        mSources.add(new Source(url, latency, validator));
+    }
+
+    /**
+     * 获取可用的下载源个数。
+     */
+    public synchronized int size() {
+        int count = 0;
+        for (Source source : mSources) {
+            if (!source.mDisabled)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * 为下载线程选择一个下载源，用完后必须调用{@link #release(Source)}。
+     * @return 没有可用的下载源返回null
+     */
+    public synchronized Source acquire() {
+        double averageSpeed = 0;
+        int sampled = 0;
+        for (Source source : mSources) {
+            if (!source.mDisabled && source.isSampled()) {
+                averageSpeed += source.getSpeed();
+                sampled++;
+            }
+        }
+        averageSpeed = sampled > 0 ? averageSpeed / sampled : 1;
+        Source best = null;
+        double bestScore = -1;
+        for (Source source : mSources) {
+            if (source.mDisabled)
+                continue;
+            double speed;
+            if (source.isSampled())
+                speed = source.getSpeed();
+            else if (source.mActive == 0)
+                speed = Double.MAX_VALUE / 2;// 还没有速度数据，先尝试一次
+            else
+                speed = averageSpeed;
+            double score = speed / (source.mActive + 1);
+            if (score > bestScore || (score == bestScore && source.mLatency < best.mLatency)) {
+                best = source;
+                bestScore = score;
+            }
+        }
+        if (best != null)
+            best.mActive++;
+        return best;
+    }
+
+    /**
+     * 下载线程不再使用该下载源。
+     */
+    public synchronized void release(Source source) {
+        source.mActive--;
+    }
+
+    /**
+     * 记录从下载源读取到的数据，并停用明显过慢的下载源。
+     * @param bytes 读取到的数据量
+     * @param nanos 读取花费的时间(纳秒)
+     */
+    public synchronized void onData(Source source, int bytes, long nanos) {
+        if (bytes <= 0)
+            return;
+        source.mBytes += bytes;
+        source.mNanos += Math.max(nanos, 1);
+        source.mFailures = 0;
+        if (!source.isSampled())
+            return;
+        double bestSpeed = 0;
+        for (Source other : mSources) {
+            if (!other.mDisabled && other.isSampled())
+                bestSpeed = Math.max(bestSpeed, other.getSpeed());
+        }
+        for (Source other : mSources) {
+            if (!other.mDisabled && other.isSampled() && size() > 1
+                    && other.getSpeed() < bestSpeed * SLOW_RATIO)
+                other.mDisabled = true;
+        }
+    }
+
+    /**
+     * 记录下载源出错。
+     * @param fatal 是否是不可恢复的错误(例如文件不一致)，是的话立即停用
+     * @return 还有其他可用的下载源，可以继续下载返回true；否则返回false
+     */
+    public synchronized boolean onFailure(Source source, boolean fatal) {
+        int others = source.mDisabled ? size() : size() - 1;
+        if (others <= 0)
+            return false;
+        source.mFailures++;
+        if (fatal || source.mFailures >= MAX_FAILURES)
+            source.mDisabled = true;
+        return true;
+    }
+
+    /**
+     * 获取下载源单个连接的速度(字节/纳秒)。
+     * @return 数据量还不足以估计速度时返回0
+     */
+    public synchronized double getSpeed(Source source) {
+        return source.isSampled() ? source.getSpeed() : 0;
+    }
+
+    /**
+     * 判断下载源是否可用(没被停用)。
+     */
+    public synchronized boolean isEnabled(Source source) {
+        return !source.mDisabled;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Source source : mSources) {
+            if (builder.length() > 0)
+                builder.append(", ");
+            builder.append(source.mUrl)
+                    .append("[").append(source.mBytes).append("B, ")
+                    .append((long) (source.getSpeed() * 1000000000L)).append("B/s")
+                    .append(source.mDisabled ? ", disabled]" : "]");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 一个下载源，可变字段由XDownloadSources的锁保护。
+     */
+    public static class Source {
+        private final String mUrl;
+        private final String mHost;
+        private final long mLatency;
+        private final XDownloadValidator mValidator;
+        private int mActive;// 正在使用的下载线程数
+        private int mFailures;// 连续失败的次数
+        private long mBytes;// 已读取的数据量
+        private long mNanos;// 读取花费的总时间(各线程之和)
+        private boolean mDisabled;
+
+        Source(String url, long latency, XDownloadValidator validator) {
+            mUrl = url;
+            mHost = XStringUtil.getHost(url);
+            mLatency = latency;
+            mValidator = validator;
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public String getHost() {
+            return mHost;
+        }
+
+        public XDownloadValidator getValidator() {
+            return mValidator;
+        }
+
+        private boolean isSampled() {
+            return mBytes >= MIN_SAMPLE_BYTES || (mBytes > 0 && mNanos >= MIN_SAMPLE_NANOS);
+        }
+
+        /**
+         * 单个连接的速度(字节/纳秒)。
+         */
+        private double getSpeed() {
+            return mNanos > 0 ? (double) mBytes / mNanos : 0;
+        }
+    }
+}
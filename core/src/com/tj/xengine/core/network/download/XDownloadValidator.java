@@ -0,0 +1,147 @@
+package com.tj.xengine.core.network.download;
+
+import com.tj.xengine.core.network.http.XHttp;
+import com.tj.xengine.core.network.http.XHttpResponse;
+import com.tj.xengine.core.network.http.XHttpUtil;
+import com.tj.xengine.core.utils.XStringUtil;
+
+import java.io.*;
+
+/**
+ * <pre>
+ * 断点续传时用于判断服务器上的文件是否改变的校验信息(ETag、Last-Modified和总大小)。
+ * 1.第一次收到响应时记录校验信息，单线程下载时保存在临时下载文件旁边的.validator文件中，
+ *   分段下载时保存在进度记录(.meta文件)中；
+ * 2.续传时用{@link #getIfRange()}作为If-Range请求头，文件改变时服务器返回200和完整的文件；
+ * 3.服务器不支持If-Range时，用{@link #isSameResource(XDownloadValidator)}比较响应的校验信息。
+ * </pre>
+ */
+public class XDownloadValidator {
+
+    public static final String VALIDATOR_FILE_SUFFIX = ".validator";// 校验信息文件的后缀
+
+    private static final int VERSION = 1;
+
+    private final String mETag;
+    private final String mLastModified;
+    private final long mTotalSize;// 未知时为-1
+
+    public XDownloadValidator(String eTag, String lastModified, long totalSize) {
+        mETag = eTag;
+        mLastModified = lastModified;
+        mTotalSize = totalSize;
+    }
+
+    /**
+     * 从响应头中获取校验信息。
+     * @param totalSize 文件总大小，未知时为-1
+     */
+    public static XDownloadValidator fromResponse(XHttpResponse response, long totalSize) {
+        return new XDownloadValidator(XHttpUtil.getFirstHeader(response, XHttp.ETAG),
+                XHttpUtil.getFirstHeader(response, XHttp.LAST_MODIFIED), totalSize);
+    }
+
+    /**
+     * 读取校验信息文件。
+     * @return 文件不存在或内容残缺返回null
+     */
+    public static XDownloadValidator load(File file) {
+        if (file == null || !file.exists())
+            return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != VERSION)
+                return null;
+            return read(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 保存到校验信息文件。
+     * @return 保存成功返回true，否则返回false
+     */
+    public boolean save(File file) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(file));
+            out.writeInt(VERSION);
+            write(out);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    static XDownloadValidator read(DataInput in) throws IOException {
+        String eTag = in.readUTF();
+        String lastModified = in.readUTF();
+        long totalSize = in.readLong();
+        return new XDownloadValidator(eTag.length() == 0 ? null : eTag,
+                lastModified.length() == 0 ? null : lastModified, totalSize);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(mETag == null ? "" : mETag);
+        out.writeUTF(mLastModified == null ? "" : mLastModified);
+        out.writeLong(mTotalSize);
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /**
+     * 获取If-Range请求头的值：优先使用强ETag，其次使用Last-Modified。
+     * @return 没有可用的校验信息返回null
+     */
+    public String getIfRange() {
+        if (!XStringUtil.isEmpty(mETag) && !mETag.startsWith("W/"))
+            return mETag;
+        if (!XStringUtil.isEmpty(mLastModified))
+            return mLastModified;
+        return null;
+    }
+
+    /**
+     * 判断是否是服务器上的同一个文件。双方都有的校验信息必须一致，没有可比较的信息时视为同一个文件。
+     */
+    public boolean isSameResource(XDownloadValidator other) {
+        if (other == null)
+            return true;
+        if (!XStringUtil.isEmpty(mETag) && !XStringUtil.isEmpty(other.mETag)
+                && !mETag.equals(other.mETag))
+            return false;
+        if (!XStringUtil.isEmpty(mLastModified) && !XStringUtil.isEmpty(other.mLastModified)
+                && !mLastModified.equals(other.mLastModified))
+            return false;
+        return mTotalSize <= 0 || other.mTotalSize <= 0 || mTotalSize == other.mTotalSize;
+    }
+}
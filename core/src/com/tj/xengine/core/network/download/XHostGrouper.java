@@ -0,0 +1,18 @@
+package com.tj.xengine.core.network.download;
+
+import com.tj.xengine.core.toolkit.taskmgr.XTaskGrouper;
+import com.tj.xengine.core.utils.XStringUtil;
+
+/**
+ * <pre>
+ * 按下载url的Host分组的任务分组器。
+ * 配合XTaskQuota使用，可以限制同一个服务器的并发下载数。
+ * </pre>
+ */
+public class XHostGrouper implements XTaskGrouper<XDownloadBean> {
+
+    @Override
+    public String getGroup(XDownloadBean task) {
+        return XStringUtil.getHost(task.getUrl());
+    }
+}
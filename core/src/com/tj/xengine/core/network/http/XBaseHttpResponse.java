@@ -2,6 +2,7 @@ package com.tj.xengine.core.network.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 import java.util.Map;
 
@@ -12,11 +13,12 @@ import java.util.Map;
  * Time: 下午6:31
  * To change this template use File | Settings | File Templates.
  */
-public abstract class XBaseHttpResponse implements XHttpResponse {
+public abstract class XBaseHttpResponse implements XHttpChannelResponse, XHttpAbortableResponse {
 
     private int mStatusCode;
     private Map<String, List<String>> mAllHeaders;
     private InputStream mInputStream;
+    private ReadableByteChannel mContentChannel;
     private long mContentLength;
     private List<String> mRedirectLocations;
 
@@ -37,6 +39,13 @@ public abstract class XBaseHttpResponse implements XHttpResponse {
         mInputStream = inputStream;
     }
 
+    /**
+     * 设置响应内容的通道，客户端能直接提供通道时设置，同时也要设置InputStream。
+     */
+    public void setContentChannel(ReadableByteChannel channel) {
+        mContentChannel = channel;
+    }
+
     public void setContentLength(long contentLength) {
         mContentLength = contentLength;
     }
@@ -68,8 +77,19 @@ public abstract class XBaseHttpResponse implements XHttpResponse {
         return mInputStream;
     }
 
+    @Override
+    public ReadableByteChannel getContentChannel() {
+        return mContentChannel;
+    }
+
     @Override
     public void consumeContent() {
+        if (mContentChannel != null)
+            try {
+                mContentChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         if (mInputStream != null)
             try {
                 mInputStream.close();
@@ -78,6 +98,26 @@ public abstract class XBaseHttpResponse implements XHttpResponse {
             }
     }
 
+    /**
+     * 关闭内容，不读取剩余的内容。子类需要断开底层的连接。
+     * 中止时连接可能已经断开，关闭时的异常不需要处理。
+     */
+    @Override
+    public void abort() {
+        if (mContentChannel != null)
+            try {
+                mContentChannel.close();
+            } catch (IOException e) {
+                // 中止时忽略
+            }
+        if (mInputStream != null)
+            try {
+                mInputStream.close();
+            } catch (IOException e) {
+                // 中止时忽略
+            }
+    }
+
     @Override
     public long getContentLength() {
         return mContentLength;
@@ -21,6 +21,11 @@ public interface XHttp {
     String CONTENT_ENCODING = "Content-Encoding";
     String CONTENT_TRANSFER_ENC = "Content-Transfer-Encoding";
     String CONTENT_DISPOSITION = "Content-Disposition";
+    String CONTENT_RANGE = "Content-Range";
+    String RANGE = "Range";
+    String IF_RANGE = "If-Range";
+    String ETAG = "ETag";
+    String LAST_MODIFIED = "Last-Modified";
     String EXPECT_DIRECTIVE = "Expect";
     String CONN_DIRECTIVE = "Connection";
     String TARGET_HOST = "Host";
@@ -0,0 +1,17 @@
+package com.tj.xengine.core.network.http;
+
+/**
+ * <pre>
+ * 可以中止的Http响应。
+ * consumeContent()释放连接前会读完剩余的内容，以便复用连接；
+ * 只需要部分内容时(比如分段下载的段被拆分或停止)，用abort()直接断开连接。
+ * </pre>
+ */
+public interface XHttpAbortableResponse extends XHttpResponse {
+
+    /**
+     * 中止响应：断开连接，不再读取剩余的内容。
+     * 可以在其他线程中调用，以中断正在阻塞的读取。
+     */
+    void abort();
+}
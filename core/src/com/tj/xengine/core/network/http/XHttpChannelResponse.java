@@ -0,0 +1,19 @@
+package com.tj.xengine.core.network.http;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * <pre>
+ * 可以以通道(ReadableByteChannel)的形式读取内容的Http响应。
+ * 下载时如果响应提供了通道，直接用FileChannel.transferFrom()写入文件，
+ * 不经过用户态的缓冲区。
+ * </pre>
+ */
+public interface XHttpChannelResponse extends XHttpResponse {
+
+    /**
+     * 获取响应的内容（以ReadableByteChannel的形式）
+     * @return 不支持时返回null，此时使用{@link #getContent()}
+     */
+    ReadableByteChannel getContentChannel();
+}
@@ -6,6 +6,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
+import java.util.Map;
 
 /**
  * XHttp的工具类。
@@ -150,4 +152,54 @@ public abstract class XHttpUtil {
         return changed ? (XStringUtil.isEmpty(encoding) ? new String(bos.toByteArray())
                 : new String(bos.toByteArray(), encoding)) : source;
     }
+
+    /**
+     * 获取响应头的第一个值，响应头的名称不区分大小写。
+     * @return 没有该响应头返回null
+     */
+    public static String getFirstHeader(XHttpResponse response, String name) {
+        List<String> values = response.getHeader(name);
+        if (values == null) {
+            Map<String, List<String>> headers = response.getAllHeaders();
+            if (headers == null)
+                return null;
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey())) {
+                    values = entry.getValue();
+                    break;
+                }
+            }
+        }
+        return (values != null && values.size() > 0) ? values.get(0) : null;
+    }
+
+    /**
+     * 解析Content-Range响应头，格式为"bytes 开始-结束/总大小"(416响应为"bytes *&#47;总大小")。
+     * @return 返回{开始, 结束(包含), 总大小}，未知(*)的部分为-1；格式错误返回null
+     */
+    public static long[] parseContentRange(String contentRange) {
+        if (XStringUtil.isEmpty(contentRange))
+            return null;
+        String value = contentRange.trim();
+        if (value.regionMatches(true, 0, "bytes", 0, 5))
+            value = value.substring(5).trim();
+        int dash = value.indexOf('-');
+        int slash = value.indexOf('/');
+        if (slash < 0 || (dash >= 0 && slash <= dash))
+            return null;
+        try {
+            long start = -1;
+            long end = -1;
+            if (dash > 0) {
+                start = Long.parseLong(value.substring(0, dash).trim());
+                end = Long.parseLong(value.substring(dash + 1, slash).trim());
+            } else if (!"*".equals(value.substring(0, slash).trim())) {
+                return null;
+            }
+            String total = value.substring(slash + 1).trim();
+            return new long[]{start, end, "*".equals(total) ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 }
@@ -14,6 +14,8 @@ import java.util.List;
  */
 public class XHttpFileHandler implements XHttpHandler<File> {
 
+    private static final int BUFFER_SIZE = 16 * 1024;// 写文件的缓存大小(从全局的缓冲区池中申请)
+
     private boolean mOverride;// 是否重复覆盖
     private String mUrl;
     private String mFolder;
@@ -74,7 +76,7 @@ public class XHttpFileHandler implements XHttpHandler<File> {
         }
 
         // 写文件
-        if (!XFileUtil.stream2File(is, file)) {
+        if (!XFileUtil.stream2File(is, file, BUFFER_SIZE)) {
             file.delete();
             response.consumeContent();
             return null;
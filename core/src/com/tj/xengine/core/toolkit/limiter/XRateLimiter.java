@@ -0,0 +1,45 @@
+package com.tj.xengine.core.toolkit.limiter;
+
+/**
+ * <pre>
+ * 速率限制器接口。
+ * 以"许可"为单位控制速率，比如用于限制带宽时，一个许可代表一个byte。
+ * </pre>
+ */
+public interface XRateLimiter {
+
+    /**
+     * 无限制的速率
+     */
+    long UNLIMITED = 0;
+
+    /**
+     * 申请许可。
+     * 如果当前没有足够的许可，会阻塞等待一小段时间(不超过一个补充周期)，
+     * 所以调用者可以在两次申请之间检查是否被中断。
+     * @param permits 希望申请的许可数
+     * @return 返回实际获得的许可数，取值范围[0, permits]；
+     * 返回0表示等待后仍没有可用许可(或线程被中断)，调用者应该稍后重新申请
+     */
+    int acquire(int permits);
+
+    /**
+     * 归还没有用完的许可。
+     * 比如申请了16K的许可，但实际只读取了4K数据，应该归还剩下的12K。
+     * @param permits 归还的许可数
+     */
+    void refund(int permits);
+
+    /**
+     * 设置速率，运行时可随时修改，立即生效。
+     * @param permitsPerSecond 每秒的许可数；小于等于0表示不限制
+     * @see #UNLIMITED
+     */
+    void setRate(long permitsPerSecond);
+
+    /**
+     * 获取当前速率。
+     * @return 返回每秒的许可数；不限制时返回{@link #UNLIMITED}
+     */
+    long getRate();
+}
@@ -0,0 +1,114 @@
+package com.tj.xengine.core.toolkit.limiter;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <pre>
+ * 基于令牌桶算法的速率限制器。
+ * 1.令牌按照设定速率持续补充，桶的容量只有burstTime时长的令牌量，
+ *   所以即使长时间空闲，也只能瞬间消耗少量令牌，不会出现大块突发；
+ * 2.令牌不足时，只等待凑够一个"最小分片"的令牌(容量的1/4)，
+ *   而不是等凑够全部申请量，调用者会以小块、均匀的节奏读写，
+ *   而不是读一大块再长时间sleep；
+ * 3.每次最多等待一个补充周期就返回，调用者可以及时响应暂停。
+ * </pre>
+ */
+public class XTokenBucketLimiter implements XRateLimiter {
+
+    public static final long DEFAULT_BURST_TIME = 100;// 默认桶容量对应的时长(单位:毫秒)
+
+    private final long mBurstTime;// 桶容量对应的时长(单位:毫秒)
+    private long mRate;// 速率(单位:许可/秒)
+    private double mCapacity;// 桶容量
+    private double mTokens;// 当前令牌数
+    private long mLastRefillTime;// 上次补充令牌的时间(单位:纳秒)
+
+    public XTokenBucketLimiter(long permitsPerSecond) {
+        this(permitsPerSecond, DEFAULT_BURST_TIME);
+    }
+
+    public XTokenBucketLimiter(long permitsPerSecond, long burstTime) {
+        mBurstTime = burstTime > 0 ? burstTime : DEFAULT_BURST_TIME;
+        mLastRefillTime = System.nanoTime();
+        setRate(permitsPerSecond);
+    }
+
+    @Override
+    public synchronized void setRate(long permitsPerSecond) {
+        refill(System.nanoTime());
+        mRate = Math.max(permitsPerSecond, UNLIMITED);
+        mCapacity = Math.max(mRate * mBurstTime / 1000.0, 1);
+        mTokens = Math.min(mTokens, mCapacity);
+    }
+
+    @Override
+    public synchronized long getRate() {
+        return mRate;
+    }
+
+    @Override
+    public int acquire(int permits) {
+        if (permits <= 0)
+            return 0;
+
+        long waitNanos;
+        synchronized (this) {
+            if (mRate == UNLIMITED)
+                return permits;
+            refill(System.nanoTime());
+            int granted = take(permits);
+            if (granted > 0)
+                return granted;
+            // 令牌不足，计算凑够一个最小分片需要的时间
+            double need = minChunk(permits) - mTokens;
+            waitNanos = (long) (need * 1000000000L / mRate);
+        }
+        LockSupport.parkNanos(Math.min(waitNanos, mBurstTime * 1000000L));
+        if (Thread.currentThread().isInterrupted())
+            return 0;
+        synchronized (this) {
+            if (mRate == UNLIMITED)
+                return permits;
+            refill(System.nanoTime());
+            return take(permits);
+        }
+    }
+
+    @Override
+    public synchronized void refund(int permits) {
+        if (permits <= 0 || mRate == UNLIMITED)
+            return;
+        mTokens = Math.min(mTokens + permits, mCapacity);
+    }
+
+    /**
+     * 按流逝的时间补充令牌。
+     */
+    private void refill(long now) {
+        long elapsed = now - mLastRefillTime;
+        mLastRefillTime = now;
+        if (elapsed <= 0 || mRate == UNLIMITED)
+            return;
+        mTokens = Math.min(mTokens + elapsed * (double) mRate / 1000000000L, mCapacity);
+    }
+
+    /**
+     * 如果令牌数够一个最小分片，则取出尽可能多的令牌。
+     * @return 返回取出的令牌数；不够一个最小分片时返回0
+     */
+    private int take(int permits) {
+        if (mTokens < minChunk(permits))
+            return 0;
+        int granted = (int) Math.min(permits, mTokens);
+        mTokens -= granted;
+        return granted;
+    }
+
+    /**
+     * 最小分片：桶容量的1/4，且不超过申请量。
+     * 避免令牌一够1个就放行，导致大量极小的读写。
+     */
+    private double minChunk(int permits) {
+        return Math.max(Math.min(permits, mCapacity / 4), 1);
+    }
+}
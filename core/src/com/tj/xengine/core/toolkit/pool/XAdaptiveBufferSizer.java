@@ -0,0 +1,103 @@
+package com.tj.xengine.core.toolkit.pool;
+
+/**
+ * <pre>
+ * 根据实测的读写情况，在上下限之间调整读写缓冲区大小的策略。
+ * 每写入一块数据(一个缓冲区)判断一次：
+ * 1.多数read都读满了请求的空间，或者填满一个缓冲区的时间短于FAST_FILL_NANOS，
+ *   说明数据来得比缓冲区快，扩大一倍，减少read和write的调用次数；
+ * 2.填满一个缓冲区的时间长于SLOW_FILL_NANOS，并且平均每次read的数据量不到缓冲区的1/8，
+ *   说明链路较慢，大缓冲区只会长时间占用内存，连续SHRINK_THRESHOLD次后缩小一半；
+ * 3.一次write的时间长于SLOW_WRITE_NANOS时立即缩小一半，
+ *   避免单次写入阻塞太久，影响暂停和软抢占的响应。
+ * 大小总是XBufferPool的某一级(2的幂)，调整时从缓冲区池中换一个缓冲区，不会新分配内存。
+ * 非线程安全，每个读写线程各用一个。
+ * </pre>
+ */
+public class XAdaptiveBufferSizer {
+
+    public static final long FAST_FILL_NANOS = 2L * 1000 * 1000;// 填满缓冲区短于2ms时扩大
+    public static final long SLOW_FILL_NANOS = 200L * 1000 * 1000;// 填满缓冲区长于200ms时考虑缩小
+    public static final long SLOW_WRITE_NANOS = 50L * 1000 * 1000;// 单次write长于50ms时缩小
+    public static final int SHRINK_THRESHOLD = 2;// 连续几次判断为慢才缩小
+
+    private final int mMinSize;
+    private final int mMaxSize;
+    private int mSize;
+    private int mReads;// 本块的read次数
+    private int mFullReads;// 本块读满请求空间的read次数
+    private long mReadBytes;// 本块read到的数据量
+    private long mLastWriteTime;// 上一块写入完成的时间(单位:纳秒)
+    private int mShrinkCount;// 连续判断为慢的次数
+
+    /**
+     * @param minSize 缓冲区大小的下限
+     * @param maxSize 缓冲区大小的上限(不超过XBufferPool.MAX_CAPACITY)
+     * @param initialSize 初始大小
+     */
+    public XAdaptiveBufferSizer(int minSize, int maxSize, int initialSize) {
+        mMaxSize = XBufferPool.getCapacity(Math.min(Math.max(maxSize, 1), XBufferPool.MAX_CAPACITY));
+        mMinSize = Math.min(XBufferPool.getCapacity(Math.max(minSize, 1)), mMaxSize);
+        mSize = Math.min(Math.max(XBufferPool.getCapacity(Math.max(initialSize, 1)), mMinSize), mMaxSize);
+        mLastWriteTime = System.nanoTime();
+    }
+
+    /**
+     * 获取当前建议的缓冲区大小。
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * 记录一次read。
+     * @param numRead 读到的数据量，-1表示没有数据了
+     * @param room 缓冲区中可供读取的空间(不受带宽限制等因素裁剪)
+     */
+    public void onRead(int numRead, int room) {
+        if (numRead <= 0)
+            return;
+        mReads++;
+        mReadBytes += numRead;
+        if (numRead >= room)
+            mFullReads++;
+    }
+
+    /**
+     * 写入一块数据后，根据本块的读写情况调整缓冲区大小。
+     * @param writeNanos 本次write花费的时间(单位:纳秒)
+     * @return 调整后建议的缓冲区大小
+     */
+    public int onWrite(long writeNanos) {
+        long now = System.nanoTime();
+        long fillNanos = now - mLastWriteTime - writeNanos;
+        mLastWriteTime = now;
+        int reads = mReads;
+        int fullReads = mFullReads;
+        long readBytes = mReadBytes;
+        mReads = 0;
+        mFullReads = 0;
+        mReadBytes = 0;
+        if (reads == 0)
+            return mSize;
+        if (writeNanos > SLOW_WRITE_NANOS) {
+            mShrinkCount = 0;
+            mSize = Math.max(mSize >> 1, mMinSize);
+        } else if (fullReads * 2 >= reads || fillNanos < FAST_FILL_NANOS) {
+            mShrinkCount = 0;
+            mSize = Math.min(mSize << 1, mMaxSize);
+        } else if (fillNanos > SLOW_FILL_NANOS && readBytes / reads < mSize / 8) {
+            if (++mShrinkCount >= SHRINK_THRESHOLD) {
+                mShrinkCount = 0;
+                mSize = Math.max(mSize >> 1, mMinSize);
+            }
+        } else {
+            mShrinkCount = 0;
+        }
+        return mSize;
+    }
+}
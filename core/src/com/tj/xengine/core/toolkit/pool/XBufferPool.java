@@ -0,0 +1,203 @@
+package com.tj.xengine.core.toolkit.pool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 按大小分级的缓冲区池，分别缓存堆内数组(byte[])和直接内存(direct ByteBuffer)。
+ * 1.申请的大小向上取整到2的幂(不小于MIN_CAPACITY)，同一级的缓冲区互相复用；
+ * 2.超过MAX_CAPACITY的申请直接分配，归还时丢弃；
+ * 3.池中缓存的总大小有上限，超过上限时归还的缓冲区直接丢弃，交给GC回收。
+ * 使用方式:
+ *      byte[] buffer = XBufferPool.getInstance().acquireHeap(16 * 1024);
+ *      try {
+ *          ...
+ *      } finally {
+ *          XBufferPool.getInstance().release(buffer);
+ *      }
+ * 注意：归还后不能再使用该缓冲区，同一个缓冲区也不能归还两次。
+ * </pre>
+ */
+public class XBufferPool {
+
+    public static final int MIN_CAPACITY = 1024;// 最小的一级，1K
+    public static final int MAX_CAPACITY = 1024 * 1024;// 最大的一级，1M
+    public static final long DEFAULT_MAX_HEAP_BYTES = 8 * 1024 * 1024;// 默认最多缓存8M的堆内数组
+    public static final long DEFAULT_MAX_DIRECT_BYTES = 16 * 1024 * 1024;// 默认最多缓存16M的直接内存
+
+    private static final int MIN_SHIFT = 10;// MIN_CAPACITY = 1 << MIN_SHIFT
+    private static final int CLASS_COUNT = 11;// 1K ~ 1M
+
+    private static class SingletonHolder {
+        final static XBufferPool INSTANCE = new XBufferPool(
+                DEFAULT_MAX_HEAP_BYTES, DEFAULT_MAX_DIRECT_BYTES);
+    }
+
+    /**
+     * 获取全局共享的缓冲区池。
+     */
+    public static XBufferPool getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    private final List<Queue<byte[]>> mHeapBuffers;
+    private final List<Queue<ByteBuffer>> mDirectBuffers;
+    private final AtomicLong mHeapBytes;// 池中缓存的堆内数组总大小
+    private final AtomicLong mDirectBytes;// 池中缓存的直接内存总大小
+    private final AtomicLong mAllocateCount;// 因池中没有可用的缓冲区而新分配的次数
+    private final long mMaxHeapBytes;
+    private final long mMaxDirectBytes;
+
+    /**
+     * @param maxHeapBytes 最多缓存的堆内数组总大小
+     * @param maxDirectBytes 最多缓存的直接内存总大小
+     */
+    public XBufferPool(long maxHeapBytes, long maxDirectBytes) {
+        mMaxHeapBytes = Math.max(maxHeapBytes, 0);
+        mMaxDirectBytes = Math.max(maxDirectBytes, 0);
+        mHeapBuffers = new ArrayList<Queue<byte[]>>(CLASS_COUNT);
+        mDirectBuffers = new ArrayList<Queue<ByteBuffer>>(CLASS_COUNT);
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            mHeapBuffers.add(new ConcurrentLinkedQueue<byte[]>());
+            mDirectBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+        mHeapBytes = new AtomicLong();
+        mDirectBytes = new AtomicLong();
+        mAllocateCount = new AtomicLong();
+    }
+
+    /**
+     * 获取申请size大小时，实际分配的缓冲区大小。
+     */
+    public static int getCapacity(int size) {
+        if (size > MAX_CAPACITY)
+            return size;
+        return MIN_CAPACITY << getClassIndex(size);
+    }
+
+    /**
+     * 获取大小所在的级别。
+     */
+    private static int getClassIndex(int size) {
+        if (size <= MIN_CAPACITY)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * 获取大小恰好为某一级的缓冲区所在的级别。
+     * @return 不是某一级的大小返回-1
+     */
+    private static int getExactClassIndex(int capacity) {
+        if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY
+                || Integer.bitCount(capacity) != 1)
+            return -1;
+        return getClassIndex(capacity);
+    }
+
+    /**
+     * 申请堆内数组。
+     * @param size 需要的大小
+     * @return 返回长度不小于size的数组(内容不确定)
+     */
+    public byte[] acquireHeap(int size) {
+        if (size > MAX_CAPACITY) {
+            mAllocateCount.incrementAndGet();
+            return new byte[size];
+        }
+        int index = getClassIndex(size);
+        byte[] buffer = mHeapBuffers.get(index).poll();
+        if (buffer != null) {
+            mHeapBytes.addAndGet(-buffer.length);
+            return buffer;
+        }
+        mAllocateCount.incrementAndGet();
+        return new byte[MIN_CAPACITY << index];
+    }
+
+    /**
+     * 归还堆内数组，超过缓存上限或不是从池中申请的大小时直接丢弃。
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null)
+            return;
+        int index = getExactClassIndex(buffer.length);
+        if (index < 0)
+            return;
+        if (mHeapBytes.addAndGet(buffer.length) > mMaxHeapBytes) {
+            mHeapBytes.addAndGet(-buffer.length);
+            return;
+        }
+        mHeapBuffers.get(index).offer(buffer);
+    }
+
+    /**
+     * 申请直接内存。
+     * @param size 需要的大小
+     * @return 返回容量不小于size的缓冲区(已clear，内容不确定)
+     */
+    public ByteBuffer acquireDirect(int size) {
+        if (size > MAX_CAPACITY) {
+            mAllocateCount.incrementAndGet();
+            return ByteBuffer.allocateDirect(size);
+        }
+        int index = getClassIndex(size);
+        ByteBuffer buffer = mDirectBuffers.get(index).poll();
+        if (buffer != null) {
+            mDirectBytes.addAndGet(-buffer.capacity());
+            buffer.clear();
+            return buffer;
+        }
+        mAllocateCount.incrementAndGet();
+        return ByteBuffer.allocateDirect(MIN_CAPACITY << index);
+    }
+
+    /**
+     * 归还直接内存，超过缓存上限或不是从池中申请的大小时直接丢弃。
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect())
+            return;
+        int index = getExactClassIndex(buffer.capacity());
+        if (index < 0)
+            return;
+        if (mDirectBytes.addAndGet(buffer.capacity()) > mMaxDirectBytes) {
+            mDirectBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+        mDirectBuffers.get(index).offer(buffer);
+    }
+
+    /**
+     * 获取池中缓存的缓冲区总大小(堆内数组和直接内存之和)。
+     */
+    public long getRetainedBytes() {
+        return mHeapBytes.get() + mDirectBytes.get();
+    }
+
+    /**
+     * 获取因池中没有可用的缓冲区而新分配的次数，可用于观察复用的效果。
+     */
+    public long getAllocateCount() {
+        return mAllocateCount.get();
+    }
+
+    /**
+     * 清空池中缓存的所有缓冲区。
+     */
+    public void clear() {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            byte[] heap;
+            while ((heap = mHeapBuffers.get(i).poll()) != null)
+                mHeapBytes.addAndGet(-heap.length);
+            ByteBuffer direct;
+            while ((direct = mDirectBuffers.get(i).poll()) != null)
+                mDirectBytes.addAndGet(-direct.capacity());
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.tj.xengine.core.toolkit.task;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * <pre>
  * 普通任务执行器的抽象类。
@@ -12,9 +14,18 @@ package com.tj.xengine.core.toolkit.task;
  *      abort = TODO/DOING -> DONE
  *      endSuccess = DOING -> DONE
  *      endError = DOING -> ERROR
+ *    状态转换由转换表{@link #getTransitions()}声明，不加锁：
+ *    行为先通过CAS把状态标记为"转换中"，执行回调方法后再写入最终状态，
+ *    同一时刻只有一个转换在进行，其他线程的转换会等待它结束后再判断
+ *    (先短暂自旋，超过次数后阻塞等待，转换结束时被唤醒)。
+ *    每次成功的转换只回调一次监听。
+ *    start成功后，其他线程的转换等待onStart监听返回后再进行，
+ *    保证监听先收到onStart，再收到之后的回调(在onStart监听中同步调用的行为除外)，
+ *    所以onStart监听中不能阻塞等待其他线程调用该任务的行为方法。
  * 2.子类继承时，重写五个行为的回调方法即可：
  *      onStart(),onPause(),onAbort(),onEndSuccess(),onEndError()
- * 3.不允许在onStart()等5个自定义回调方法中，同步调用start()等5个行为方法；
+ * 3.不允许在onStart()等5个自定义回调方法中，同步调用start()等5个行为方法，
+ *   否则抛出IllegalStateException；
  * User: jasontujun
  * Date: 13-9-27
  * Time: 上午10:03
@@ -23,9 +34,37 @@ package com.tj.xengine.core.toolkit.task;
 public abstract class XBaseTaskExecutor<B extends XTaskBean>
         implements XTaskExecutor<B> {
 
+    /**
+     * 普通任务的状态转换表。
+     */
+    public static final XTransitionTable BASE_TRANSITIONS = XTransitionTable.builder()
+            .add(XTransitionTable.ACTION_START, XTaskBean.STATUS_DOING,
+                    XTaskBean.STATUS_TODO, XTaskBean.STATUS_ERROR)
+            .add(XTransitionTable.ACTION_PAUSE, XTaskBean.STATUS_TODO,
+                    XTaskBean.STATUS_DOING)
+            .add(XTransitionTable.ACTION_ABORT, XTaskBean.STATUS_DONE,
+                    XTaskBean.STATUS_TODO, XTaskBean.STATUS_DOING)
+            .add(XTransitionTable.ACTION_END_SUCCESS, XTaskBean.STATUS_DONE,
+                    XTaskBean.STATUS_DOING)
+            .add(XTransitionTable.ACTION_END_ERROR, XTaskBean.STATUS_ERROR,
+                    XTaskBean.STATUS_DOING)
+            .build();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<XBaseTaskExecutor> STATUS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(XBaseTaskExecutor.class, "mStatus");
+
+    private static final int BUSY = 1 << 20;// 转换中的标记，叠加在起始状态上
+    private static final int BUSY_THRESHOLD = BUSY / 2;
+    private static final int SPIN_LIMIT = 64;// 超过后阻塞等待转换结束
+
     private volatile int mStatus;// 状态
+    private Thread mOwner;// 正在执行转换的线程，只用于检测回调方法中的重入
+    private volatile Thread mStartNotifier;// 正在回调onStart监听的线程
+    private final Object mTransitionLock = new Object();// 等待转换结束的锁
+    private volatile int mWaiters;// 阻塞等待转换结束的线程数
     private B mBean;// 任务数据
-    private XTaskListener<B> mListener;
+    private volatile XTaskListener<B> mListener;
 
     public XBaseTaskExecutor(B bean) {
         mBean = bean;
@@ -47,15 +86,47 @@ public abstract class XBaseTaskExecutor<B extends XTaskBean>
         return mBean.getId();
     }
 
+    /**
+     * 强制设置状态。如果有正在进行的转换，等待其结束后再设置。
+     * 在回调方法中调用时，只修改任务数据的状态，最终状态由本次转换决定。
+     */
     @Override
-    public synchronized void setStatus(int status) {
-        mStatus = status;
-        mBean.setStatus(status);
+    public void setStatus(int status) {
+        int spins = 0;
+        for (;;) {
+            int current = mStatus;
+            if (current >= BUSY_THRESHOLD) {
+                if (mOwner == Thread.currentThread()) {
+                    mBean.setStatus(status);
+                    return;
+                }
+                spins = backOff(spins);
+                continue;
+            }
+            if (STATUS_UPDATER.compareAndSet(this, current, status)) {
+                mBean.setStatus(status);
+                return;
+            }
+        }
     }
 
     @Override
     public int getStatus() {
-        return mStatus;
+        int status = mStatus;
+        return status >= BUSY_THRESHOLD ? status - BUSY : status;
+    }
+
+    /**
+     * 无锁地修改状态：只有当前状态等于expect时，才修改为update。
+     * 用于任务管理器在不加锁的情况下认领或重置任务。
+     * 有正在进行的转换时，直接返回false。
+     * @return 修改成功返回true；当前状态不等于expect返回false
+     */
+    public boolean compareAndSetStatus(int expect, int update) {
+        if (!STATUS_UPDATER.compareAndSet(this, expect, update))
+            return false;
+        mBean.setStatus(update);
+        return true;
     }
 
     @Override
@@ -68,89 +139,232 @@ public abstract class XBaseTaskExecutor<B extends XTaskBean>
         return mListener;
     }
 
-    @Override
-    public boolean start(int... preStatus) {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_TODO
-                    && getStatus() != XTaskBean.STATUS_ERROR
-                    && (preStatus.length == 0
-                    || getStatus() != preStatus[0]))
-                return false;
+    /**
+     * 获取状态转换表。子类定义自己的状态机时重写此方法，
+     * 返回值必须是不变的(比如静态常量)。
+     */
+    protected XTransitionTable getTransitions() {
+        return BASE_TRANSITIONS;
+    }
+
+    /**
+     * 开始一次状态转换：当前状态允许执行该行为(或等于extraFrom)时，
+     * 把状态标记为转换中，之后必须调用{@link #endTransition(int)}结束。
+     * 如果有其他线程的转换正在进行，等待其结束后再判断。
+     * @param action 行为，见XTransitionTable.ACTION_XXX
+     * @param extraFrom 额外允许的起始状态，没有则为XTransitionTable.NO_TRANSITION
+     * @return 成功返回起始状态；不允许执行返回XTransitionTable.NO_TRANSITION
+     */
+    protected final int beginTransition(int action, int extraFrom) {
+        XTransitionTable transitions = getTransitions();
+        int spins = 0;
+        for (;;) {
+            int status = mStatus;
+            if (status >= BUSY_THRESHOLD) {
+                if (mOwner == Thread.currentThread())
+                    throw new IllegalStateException("task action called inside callback");
+                spins = backOff(spins);
+                continue;
+            }
+            // 先读状态再读回调线程，和start()的写入顺序相反
+            if (isNotifyingStart()) {
+                spins = backOff(spins);
+                continue;
+            }
+            if (!transitions.canTransit(action, status) && status != extraFrom)
+                return XTransitionTable.NO_TRANSITION;
+            if (STATUS_UPDATER.compareAndSet(this, status, status + BUSY)) {
+                mOwner = Thread.currentThread();
+                return status;
+            }
+        }
+    }
 
-            if (!onStart())
-                return false;
+    /**
+     * 结束当前线程开始的状态转换，写入最终状态。
+     * @param status 最终状态，转换失败时传入起始状态
+     */
+    protected final void endTransition(int status) {
+        mOwner = null;
+        mBean.setStatus(status);
+        mStatus = status;
+        wakeWaiters();
+    }
 
-            setStatus(XTaskBean.STATUS_DOING);
+    /**
+     * 唤醒阻塞等待的线程。
+     * 调用前先写状态再读等待数，和awaitTransition()的顺序相反，保证不会漏掉唤醒。
+     */
+    private void wakeWaiters() {
+        if (mWaiters > 0) {
+            synchronized (mTransitionLock) {
+                mTransitionLock.notifyAll();
+            }
         }
-        if (mListener != null)
-            mListener.onStart(getBean());
-        return true;
     }
 
-    @Override
-    public boolean pause(int... postStatus) {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_DOING)
-                return false;
+    /**
+     * 其他线程是否正在回调onStart监听。
+     */
+    private boolean isNotifyingStart() {
+        Thread notifier = mStartNotifier;
+        return notifier != null && notifier != Thread.currentThread();
+    }
+
+    /**
+     * 获取行为在转换表中的目标状态。
+     */
+    protected final int getTarget(int action) {
+        return getTransitions().getTarget(action);
+    }
 
-            if (!onPause())
-                return false;
+    /**
+     * 等待其他线程的转换结束。
+     * 转换通常很短，先让出CPU自旋有限次，超过后阻塞等待，由endTransition()唤醒。
+     */
+    private int backOff(int spins) {
+        if (spins < SPIN_LIMIT) {
+            Thread.yield();
+            return spins + 1;
+        }
+        awaitTransition();
+        return spins;
+    }
 
-            if (postStatus.length > 0) {
-                setStatus(postStatus[0]);
-            } else {
-                setStatus(XTaskBean.STATUS_TODO);
+    private void awaitTransition() {
+        boolean interrupted = false;
+        synchronized (mTransitionLock) {
+            mWaiters++;
+            try {
+                while (mStatus >= BUSY_THRESHOLD || isNotifyingStart()) {
+                    try {
+                        mTransitionLock.wait();
+                    } catch (InterruptedException e) {
+                        // 转换必须等到结束，中断标识留给调用者处理
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                mWaiters--;
             }
         }
-        if (mListener != null)
-            mListener.onPause(getBean());
-        return true;
+        if (interrupted)
+            Thread.currentThread().interrupt();
     }
 
     @Override
-    public boolean abort() {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_TODO
-                    && getStatus() != XTaskBean.STATUS_DOING)
-                return false;
+    public boolean start(int... preStatus) {
+        int from = beginTransition(XTransitionTable.ACTION_START,
+                preStatus.length > 0 ? preStatus[0] : XTransitionTable.NO_TRANSITION);
+        if (from == XTransitionTable.NO_TRANSITION)
+            return false;
+
+        boolean success = false;
+        XTaskListener<B> listener = null;
+        try {
+            success = onStart();
+        } finally {
+            if (success) {
+                // 在结束转换前标记，onStart()中启动的线程等onStart监听返回后再结束任务
+                listener = mListener;
+                if (listener != null)
+                    mStartNotifier = Thread.currentThread();
+            }
+            endTransition(success ? getTarget(XTransitionTable.ACTION_START) : from);
+        }
+        if (!success)
+            return false;
+        if (listener != null) {
+            try {
+                listener.onStart(getBean());
+            } finally {
+                mStartNotifier = null;
+                wakeWaiters();
+            }
+        }
+        return true;
+    }
 
-            if (!onAbort())
-                return false;
+    @Override
+    public boolean pause(int... postStatus) {
+        int from = beginTransition(XTransitionTable.ACTION_PAUSE, XTransitionTable.NO_TRANSITION);
+        if (from == XTransitionTable.NO_TRANSITION)
+            return false;
+
+        boolean success = false;
+        try {
+            success = onPause();
+        } finally {
+            if (!success)
+                endTransition(from);
+            else if (postStatus.length > 0)
+                endTransition(postStatus[0]);
+            else
+                endTransition(getTarget(XTransitionTable.ACTION_PAUSE));
+        }
+        if (!success)
+            return false;
+        XTaskListener<B> listener = mListener;
+        if (listener != null)
+            listener.onPause(getBean());
+        return true;
+    }
 
-            setStatus(XTaskBean.STATUS_DONE);
+    @Override
+    public boolean abort() {
+        int from = beginTransition(XTransitionTable.ACTION_ABORT, XTransitionTable.NO_TRANSITION);
+        if (from == XTransitionTable.NO_TRANSITION)
+            return false;
+
+        boolean success = false;
+        try {
+            success = onAbort();
+        } finally {
+            endTransition(success ? getTarget(XTransitionTable.ACTION_ABORT) : from);
         }
-        if (mListener != null)
-            mListener.onAbort(getBean());
+        if (!success)
+            return false;
+        XTaskListener<B> listener = mListener;
+        if (listener != null)
+            listener.onAbort(getBean());
         return true;
     }
 
     public boolean endSuccess() {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_DOING)
-                return false;
-
-            if (!onEndSuccess())
-                return false;
-
-            setStatus(XTaskBean.STATUS_DONE);
+        int from = beginTransition(XTransitionTable.ACTION_END_SUCCESS, XTransitionTable.NO_TRANSITION);
+        if (from == XTransitionTable.NO_TRANSITION)
+            return false;
+
+        boolean success = false;
+        try {
+            success = onEndSuccess();
+        } finally {
+            endTransition(success ? getTarget(XTransitionTable.ACTION_END_SUCCESS) : from);
         }
-        if (mListener != null)
-            mListener.onComplete(getBean());
+        if (!success)
+            return false;
+        XTaskListener<B> listener = mListener;
+        if (listener != null)
+            listener.onComplete(getBean());
         return true;
     }
 
     public boolean endError(String errorCode, boolean retry) {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_DOING)
-                return false;
-
-            if (!onEndError(errorCode, retry))
-                return false;
-
-            setStatus(XTaskBean.STATUS_ERROR);
+        int from = beginTransition(XTransitionTable.ACTION_END_ERROR, XTransitionTable.NO_TRANSITION);
+        if (from == XTransitionTable.NO_TRANSITION)
+            return false;
+
+        boolean success = false;
+        try {
+            success = onEndError(errorCode, retry);
+        } finally {
+            endTransition(success ? getTarget(XTransitionTable.ACTION_END_ERROR) : from);
         }
-        if (mListener != null)
-            mListener.onError(getBean(), errorCode, retry);
+        if (!success)
+            return false;
+        XTaskListener<B> listener = mListener;
+        if (listener != null)
+            listener.onError(getBean(), errorCode, retry);
         return true;
     }
 
@@ -158,8 +372,9 @@ public abstract class XBaseTaskExecutor<B extends XTaskBean>
      * 通知外部任务正在执行的进度
      */
     public void notifyDoing(long completeSize) {
-        if (mListener != null)
-            mListener.onDoing(getBean(), completeSize);
+        XTaskListener<B> listener = mListener;
+        if (listener != null)
+            listener.onDoing(getBean(), completeSize);
     }
 
     /**
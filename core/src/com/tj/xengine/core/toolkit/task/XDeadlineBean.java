@@ -0,0 +1,20 @@
+package com.tj.xengine.core.toolkit.task;
+
+/**
+ * <pre>
+ * 带截止时间的任务数据接口。
+ * 配合XDeadlineScheduler使用，截止时间越早的任务越优先执行。
+ * </pre>
+ * @see com.tj.xengine.core.toolkit.taskmgr.XDeadlineScheduler
+ */
+public interface XDeadlineBean extends XTaskBean {
+
+    public static final long NO_DEADLINE = 0;// 没有截止时间
+
+    /**
+     * 获取任务的截止时间。
+     * @return 返回截止时间(System.currentTimeMillis()的时间点，单位:毫秒)；
+     * 没有截止时间返回NO_DEADLINE
+     */
+    long getDeadline();
+}
@@ -28,12 +28,13 @@ public abstract class XEvolvableTaskExecutor<B extends XTaskBean>
 
     /**
      * 进化成另一个任务。
+     * 进化后的任务先设置好监听再发布，之后的行为方法都转发给它。
      */
-    protected synchronized void evolve(XBaseTaskExecutor<B> evolvedTask) {
-        mEvolvedTask = evolvedTask;
-        if (mEvolvedTask != null) {
-            mEvolvedTask.setListener(new EvolvedListener(getListener()));
+    protected void evolve(XBaseTaskExecutor<B> evolvedTask) {
+        if (evolvedTask != null) {
+            evolvedTask.setListener(new EvolvedListener(getListener()));
         }
+        mEvolvedTask = evolvedTask;
     }
 
     /**
@@ -44,23 +45,26 @@ public abstract class XEvolvableTaskExecutor<B extends XTaskBean>
     }
 
     @Override
-    public synchronized void setStatus(int status) {
+    public void setStatus(int status) {
         super.setStatus(status);
-        if (mEvolvedTask != null)
-            mEvolvedTask.setStatus(status);
+        XBaseTaskExecutor<B> evolvedTask = mEvolvedTask;
+        if (evolvedTask != null)
+            evolvedTask.setStatus(status);
     }
 
     @Override
     public void setListener(XTaskListener<B> listener) {
         super.setListener(listener);
-        if (mEvolvedTask != null)
-            mEvolvedTask.setListener(new EvolvedListener(listener));
+        XBaseTaskExecutor<B> evolvedTask = mEvolvedTask;
+        if (evolvedTask != null)
+            evolvedTask.setListener(new EvolvedListener(listener));
     }
 
     @Override
     public boolean start(int... preStatus) {
-        if (mEvolvedTask != null) {
-            return mEvolvedTask.start(preStatus);
+        XBaseTaskExecutor<B> evolvedTask = mEvolvedTask;
+        if (evolvedTask != null) {
+            return evolvedTask.start(preStatus);
         } else {
             return super.start(preStatus);
         }
@@ -68,8 +72,9 @@ public abstract class XEvolvableTaskExecutor<B extends XTaskBean>
 
     @Override
     public boolean pause(int... postStatus) {
-        if (mEvolvedTask != null) {
-            return mEvolvedTask.pause(postStatus);
+        XBaseTaskExecutor<B> evolvedTask = mEvolvedTask;
+        if (evolvedTask != null) {
+            return evolvedTask.pause(postStatus);
         } else {
             return super.pause(postStatus);
         }
@@ -77,8 +82,9 @@ public abstract class XEvolvableTaskExecutor<B extends XTaskBean>
 
     @Override
     public boolean abort() {
-        if (mEvolvedTask != null) {
-            return mEvolvedTask.abort();
+        XBaseTaskExecutor<B> evolvedTask = mEvolvedTask;
+        if (evolvedTask != null) {
+            return evolvedTask.abort();
         } else {
             return super.abort();
         }
@@ -86,8 +92,9 @@ public abstract class XEvolvableTaskExecutor<B extends XTaskBean>
 
     @Override
     public boolean endSuccess() {
-        if (mEvolvedTask != null) {
-            return mEvolvedTask.endSuccess();
+        XBaseTaskExecutor<B> evolvedTask = mEvolvedTask;
+        if (evolvedTask != null) {
+            return evolvedTask.endSuccess();
         } else {
             return super.endSuccess();
         }
@@ -95,8 +102,9 @@ public abstract class XEvolvableTaskExecutor<B extends XTaskBean>
 
     @Override
     public boolean endError(String errorCode, boolean retry) {
-        if (mEvolvedTask != null) {
-            return mEvolvedTask.endError(errorCode, retry);
+        XBaseTaskExecutor<B> evolvedTask = mEvolvedTask;
+        if (evolvedTask != null) {
+            return evolvedTask.endError(errorCode, retry);
         } else {
             return super.endError(errorCode, retry);
         }
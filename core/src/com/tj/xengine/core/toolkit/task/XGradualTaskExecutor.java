@@ -18,6 +18,7 @@ package com.tj.xengine.core.toolkit.task;
  * 2.子类继承时，重写五个行为的回调方法即可：
  *      onStart(),onPause(),onAbort(),onEndSuccess(),onEndError()
  * 3.不允许在onStart()等5个自定义回调方法中，同步调用start()等7个行为方法；
+ * 4.状态转换与XBaseTaskExecutor一样不加锁，转换表见{@link #GRADUAL_TRANSITIONS}；
  * User: jasontujun
  * Date: 13-9-27
  * Time: 上午10:03
@@ -26,7 +27,27 @@ package com.tj.xengine.core.toolkit.task;
 public abstract class XGradualTaskExecutor<B extends XTaskBean>
         extends XBaseTaskExecutor<B> {
 
-    private Integer mPostPauseStatus;// 暂停后的外部设置值
+    /**
+     * 渐变式任务的状态转换表。
+     */
+    public static final XTransitionTable GRADUAL_TRANSITIONS = XTransitionTable.builder()
+            .add(XTransitionTable.ACTION_START, XTaskBean.STATUS_STARTING,
+                    XTaskBean.STATUS_TODO, XTaskBean.STATUS_ERROR)
+            .add(XTransitionTable.ACTION_START_FINISH, XTaskBean.STATUS_DOING,
+                    XTaskBean.STATUS_STARTING)
+            .add(XTransitionTable.ACTION_PAUSE, XTaskBean.STATUS_PAUSING,
+                    XTaskBean.STATUS_DOING, XTaskBean.STATUS_STARTING)
+            .add(XTransitionTable.ACTION_PAUSE_FINISH, XTaskBean.STATUS_TODO,
+                    XTaskBean.STATUS_PAUSING)
+            .add(XTransitionTable.ACTION_ABORT, XTaskBean.STATUS_DONE,
+                    XTaskBean.STATUS_TODO, XTaskBean.STATUS_DOING, XTaskBean.STATUS_STARTING)
+            .add(XTransitionTable.ACTION_END_SUCCESS, XTaskBean.STATUS_DONE,
+                    XTaskBean.STATUS_DOING)
+            .add(XTransitionTable.ACTION_END_ERROR, XTaskBean.STATUS_ERROR,
+                    XTaskBean.STATUS_DOING, XTaskBean.STATUS_STARTING)
+            .build();
+
+    private Integer mPostPauseStatus;// 暂停后的外部设置值，只在转换中读写
 
     public XGradualTaskExecutor(B bean) {
         super(bean);
@@ -36,42 +57,35 @@ public abstract class XGradualTaskExecutor<B extends XTaskBean>
         super(bean, status);
     }
 
+    @Override
+    protected XTransitionTable getTransitions() {
+        return GRADUAL_TRANSITIONS;
+    }
+
     @Override
     public final boolean start(int... preStatus) {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_TODO
-                    && getStatus() != XTaskBean.STATUS_ERROR
-                    && (preStatus.length == 0
-                    || getStatus() != preStatus[0]))
-                return false;
-
-            if (!onStart()) // 启动失败，直接结束
-                return false;
-
-            // 设置成STARTING状态，并回调
-            setStatus(XTaskBean.STATUS_STARTING);
-        }
-        if (getListener() != null)
-            getListener().onStart(getBean());
-        return true;
+        // 设置成STARTING状态，并回调
+        return super.start(preStatus);
     }
 
     @Override
     public final boolean pause(int... postStatus) {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_DOING
-                    && getStatus() != XTaskBean.STATUS_STARTING)
-                return false;
+        int from = beginTransition(XTransitionTable.ACTION_PAUSE, XTransitionTable.NO_TRANSITION);
+        if (from == XTransitionTable.NO_TRANSITION)
+            return false;
 
+        boolean success = false;
+        try {
             if (postStatus.length > 0) {
                 mPostPauseStatus = postStatus[0];
             }
-            if (!onPause())// 暂停失败，直接结束
-                return false;
-
-            // 设置成PAUSING状态，并回调
-            setStatus(XTaskBean.STATUS_PAUSING);
+            success = onPause();// 暂停失败，直接结束
+        } finally {
+            // 设置成PAUSING状态
+            endTransition(success ? getTarget(XTransitionTable.ACTION_PAUSE) : from);
         }
+        if (!success)
+            return false;
         // PAUSING算是DOING的一种特殊状态，所以调用onDoing()来回调监听
         notifyDoing(-1);
         return true;
@@ -79,51 +93,15 @@ public abstract class XGradualTaskExecutor<B extends XTaskBean>
 
     @Override
     public final boolean abort() {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_TODO
-                    && getStatus() != XTaskBean.STATUS_DOING
-                    && getStatus() != XTaskBean.STATUS_STARTING)
-                return false;
-
-            if (!onAbort())
-                return false;
-
-            setStatus(XTaskBean.STATUS_DONE);
-        }
-        if (getListener() != null)
-            getListener().onAbort(getBean());
-        return true;
+        return super.abort();
     }
 
     public final boolean endSuccess() {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_DOING)
-                return false;
-
-            if (!onEndSuccess())
-                return false;
-
-            setStatus(XTaskBean.STATUS_DONE);
-        }
-        if (getListener() != null)
-            getListener().onComplete(getBean());
-        return true;
+        return super.endSuccess();
     }
 
     public final boolean endError(String errorCode, boolean retry) {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_DOING
-                    && getStatus() != XTaskBean.STATUS_STARTING)
-                return false;
-
-            if (!onEndError(errorCode, retry))
-                return false;
-
-            setStatus(XTaskBean.STATUS_ERROR);
-        }
-        if (getListener() != null)
-            getListener().onError(getBean(), errorCode, retry);
-        return true;
+        return super.endError(errorCode, retry);
     }
 
     /**
@@ -132,12 +110,11 @@ public abstract class XGradualTaskExecutor<B extends XTaskBean>
      * @return
      */
     public final boolean startFinish() {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_STARTING)
-                return false;
+        int from = beginTransition(XTransitionTable.ACTION_START_FINISH, XTransitionTable.NO_TRANSITION);
+        if (from == XTransitionTable.NO_TRANSITION)
+            return false;
 
-            setStatus(XTaskBean.STATUS_DOING);
-        }
+        endTransition(getTarget(XTransitionTable.ACTION_START_FINISH));
         notifyDoing(-1);
         return true;
     }
@@ -148,19 +125,20 @@ public abstract class XGradualTaskExecutor<B extends XTaskBean>
      * @return
      */
     public final boolean pauseFinish() {
-        synchronized (this) {
-            if (getStatus() != XTaskBean.STATUS_PAUSING)
-                return false;
-
-            if (mPostPauseStatus != null) {
-                setStatus(mPostPauseStatus);
-                mPostPauseStatus = null;
-            } else {
-                setStatus(XTaskBean.STATUS_TODO);
-            }
+        int from = beginTransition(XTransitionTable.ACTION_PAUSE_FINISH, XTransitionTable.NO_TRANSITION);
+        if (from == XTransitionTable.NO_TRANSITION)
+            return false;
+
+        if (mPostPauseStatus != null) {
+            int postStatus = mPostPauseStatus;
+            mPostPauseStatus = null;
+            endTransition(postStatus);
+        } else {
+            endTransition(getTarget(XTransitionTable.ACTION_PAUSE_FINISH));
         }
-        if (getListener() != null)
-            getListener().onPause(getBean());
+        XTaskListener<B> listener = getListener();
+        if (listener != null)
+            listener.onPause(getBean());
         return true;
     }
 
@@ -0,0 +1,57 @@
+package com.tj.xengine.core.toolkit.task;
+
+/**
+ * <pre>
+ * 按时间和数据量节流的进度通知判断器，用于在频繁更新进度的循环中(例如每读取一块数据)
+ * 决定是否通知进度。
+ * 1.距离上次通知的数据量达到minBytes，并且时间间隔达到intervalMillis时，才需要通知；
+ * 2.先比较数据量，数据量达到后才读取时钟，intervalMillis为0时不读取时钟；
+ * 3.不分配任何对象，可以放在下载循环中调用。
+ * 两个阈值都为0时，每次都需要通知。
+ * 非线程安全，只能由一个线程使用。
+ * </pre>
+ */
+public class XProgressReporter {
+
+    private final long mIntervalMillis;// 两次通知的最小时间间隔(单位:毫秒)
+    private final long mMinBytes;// 两次通知之间的最小数据量
+    private long mLastTime;// 上次通知的时间(单位:毫秒)
+    private long mLastSize;// 上次通知时的进度
+
+    /**
+     * @param intervalMillis 两次通知的最小时间间隔(单位:毫秒)，0表示不限制
+     * @param minBytes 两次通知之间的最小数据量，0表示不限制
+     */
+    public XProgressReporter(long intervalMillis, long minBytes) {
+        mIntervalMillis = Math.max(intervalMillis, 0);
+        mMinBytes = Math.max(minBytes, 0);
+        mLastTime = Long.MIN_VALUE / 2;
+        mLastSize = Long.MIN_VALUE / 2;
+    }
+
+    /**
+     * 判断当前进度是否需要通知，需要的话记录为最近一次通知。
+     * @param completeSize 当前进度
+     * @return 需要通知返回true，否则返回false
+     */
+    public boolean shouldReport(long completeSize) {
+        if (completeSize - mLastSize < mMinBytes)
+            return false;
+        if (mIntervalMillis > 0) {
+            long now = System.currentTimeMillis();
+            if (now - mLastTime < mIntervalMillis)
+                return false;
+            mLastTime = now;
+        }
+        mLastSize = completeSize;
+        return true;
+    }
+
+    /**
+     * 重置状态(例如重新开始下载时)，下一次判断只要满足数据量阈值就需要通知。
+     */
+    public void reset() {
+        mLastTime = Long.MIN_VALUE / 2;
+        mLastSize = Long.MIN_VALUE / 2;
+    }
+}
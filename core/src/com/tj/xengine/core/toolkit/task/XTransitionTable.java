@@ -0,0 +1,111 @@
+package com.tj.xengine.core.toolkit.task;
+
+/**
+ * <pre>
+ * 任务状态机的转换表(不可变)。
+ * 每个行为对应一个目标状态和一组允许的起始状态，
+ * 任务执行器根据转换表判断行为能否执行，以及执行后的状态。
+ * 使用方式:
+ *      XTransitionTable table = XTransitionTable.builder()
+ *              .add(XTransitionTable.ACTION_START, XTaskBean.STATUS_DOING,
+ *                      XTaskBean.STATUS_TODO, XTaskBean.STATUS_ERROR)
+ *              ...
+ *              .build();
+ * 注意：状态的取值范围是-1~62。
+ * </pre>
+ * @see XBaseTaskExecutor#BASE_TRANSITIONS
+ * @see XGradualTaskExecutor#GRADUAL_TRANSITIONS
+ */
+public final class XTransitionTable {
+
+    public static final int ACTION_START = 0;
+    public static final int ACTION_PAUSE = 1;
+    public static final int ACTION_ABORT = 2;
+    public static final int ACTION_END_SUCCESS = 3;
+    public static final int ACTION_END_ERROR = 4;
+    public static final int ACTION_START_FINISH = 5;
+    public static final int ACTION_PAUSE_FINISH = 6;
+    private static final int ACTION_COUNT = 7;
+
+    public static final int NO_TRANSITION = Integer.MIN_VALUE;// 行为不存在
+
+    private static final int MIN_STATUS = -1;
+    private static final int MAX_STATUS = 62;
+
+    private final int[] mTargets;// 行为 -> 目标状态
+    private final long[] mSources;// 行为 -> 允许的起始状态(按位)
+
+    private XTransitionTable(int[] targets, long[] sources) {
+        mTargets = targets;
+        mSources = sources;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 获取行为的目标状态。
+     * @return 转换表中没有该行为返回NO_TRANSITION
+     */
+    public int getTarget(int action) {
+        if (action < 0 || action >= ACTION_COUNT)
+            return NO_TRANSITION;
+        return mTargets[action];
+    }
+
+    /**
+     * 判断在from状态下能否执行行为。
+     */
+    public boolean canTransit(int action, int from) {
+        if (action < 0 || action >= ACTION_COUNT
+                || from < MIN_STATUS || from > MAX_STATUS)
+            return false;
+        return (mSources[action] & bit(from)) != 0;
+    }
+
+    private static long bit(int status) {
+        return 1L << (status - MIN_STATUS);
+    }
+
+    public static class Builder {
+
+        private final int[] targets;
+        private final long[] sources;
+
+        Builder() {
+            targets = new int[ACTION_COUNT];
+            sources = new long[ACTION_COUNT];
+            for (int i = 0; i < ACTION_COUNT; i++)
+                targets[i] = NO_TRANSITION;
+        }
+
+        /**
+         * 添加一个行为。
+         * @param action 行为
+         * @param target 目标状态
+         * @param from 允许的起始状态
+         */
+        public Builder add(int action, int target, int... from) {
+            if (action < 0 || action >= ACTION_COUNT)
+                throw new IllegalArgumentException("unknown action " + action);
+            checkStatus(target);
+            targets[action] = target;
+            sources[action] = 0;
+            for (int status : from) {
+                checkStatus(status);
+                sources[action] |= bit(status);
+            }
+            return this;
+        }
+
+        public XTransitionTable build() {
+            return new XTransitionTable(targets.clone(), sources.clone());
+        }
+
+        private static void checkStatus(int status) {
+            if (status < MIN_STATUS || status > MAX_STATUS)
+                throw new IllegalArgumentException("status out of range " + status);
+        }
+    }
+}
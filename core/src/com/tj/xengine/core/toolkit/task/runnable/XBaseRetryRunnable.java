@@ -0,0 +1,199 @@
+package com.tj.xengine.core.toolkit.task.runnable;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <pre>
+ * XRetryRunnable的公共实现，包含执行和重试流程。
+ * 子类只需要通过nextRetry()决定失败后还能不能重试。
+ * 设置了XRetryScheduler后，等待中的重试由调度器计时，
+ * 到时间后通过executeRetry()重新执行；
+ * 子类可以重写executeRetry()，把重试交给自己的线程池，以便cancel()能中断重试。
+ * 设置了XRetryListener后，每次决定重试时都会回调，可用于统计内部的重试次数。
+ * </pre>
+ */
+public abstract class XBaseRetryRunnable<T> implements XRetryRunnable<T> {
+
+    private volatile boolean isRunning;
+    private volatile XRetryScheduler mRetryScheduler;// 重试调度器
+    private volatile XRetryBudget mRetryBudget;// 重试预算
+    private volatile XRetryListener<? super T> mRetryListener;// 重试的监听者
+    private volatile PendingRetry mPendingRetry;// 等待中的重试
+    private boolean mPrepared;// 是否已执行过onPreExecute()
+
+    protected XBaseRetryRunnable() {
+        isRunning = true;
+    }
+
+    @Override
+    public void setRetryScheduler(XRetryScheduler scheduler) {
+        mRetryScheduler = scheduler;
+    }
+
+    @Override
+    public void setRetryBudget(XRetryBudget budget) {
+        mRetryBudget = budget;
+    }
+
+    /**
+     * 设置重试的监听者。
+     * @param listener 为null表示不监听
+     */
+    public void setRetryListener(XRetryListener<? super T> listener) {
+        mRetryListener = listener;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    @Override
+    public void cancel() {
+        isRunning = false;
+        // 如果正在等待重试，则取消等待，直接结束
+        PendingRetry pending = mPendingRetry;
+        if (pending != null && pending.cancel())
+            onCancelled(getBean());
+    }
+
+    /**
+     * onRepeatExecute()失败后调用，记录一次失败。
+     * @return 还能继续重试返回true；否则返回false
+     */
+    protected abstract boolean nextRetry();
+
+    /**
+     * 到时间后重新执行重试(在调度器的计时线程中调用，必须立即返回)。
+     * 默认交给重试调度器的Executor执行。
+     * @param scheduler 重试调度器
+     * @param retry 重新执行的Runnable
+     * @return 返回执行重试的Future，可以为null
+     */
+    protected Future<?> executeRetry(XRetryScheduler scheduler, Runnable retry) {
+        return scheduler.execute(retry);
+    }
+
+    /**
+     * 等待重试。
+     * @return 如果交给了重试调度器，当前线程应该立即退出，返回true；
+     * 如果在当前线程中等待完毕，返回false
+     */
+    private boolean waitForRetry(T bean) throws InterruptedException {
+        long interval = Math.max(getRetryInterval(getRetryCount()), 0);
+        XRetryScheduler scheduler = mRetryScheduler;
+        if (scheduler == null) {
+            Thread.sleep(interval);
+            return false;
+        }
+        // 释放当前线程，到时间后由调度器重新执行run()
+        PendingRetry pending = new PendingRetry(scheduler);
+        mPendingRetry = pending;
+        pending.mTimer = scheduler.delay(pending.mFire, interval);
+        // 如果交给调度器的同时被中断了，由认领成功的一方负责回调onCancelled()
+        if (!isRunning && pending.cancel())
+            onCancelled(bean);
+        return true;
+    }
+
+    @Override
+    public final void run() {
+        T bean = getBean();
+
+        if (!mPrepared) {
+            // 准备活动
+            if (!onPreExecute(bean)) {
+                if (!isRunning) {
+                    onCancelled(bean);
+                } else {
+                    onPreExecuteError(bean);
+                }
+                return;
+            }
+            mPrepared = true;
+        } else {
+            // 由重试调度器重新执行
+            mPendingRetry = null;
+        }
+
+        // 核心重试逻辑
+        while (isRunning) {
+            // 如果任务执行完成或者外部中断，则退出循环
+            if (onRepeatExecute(bean)) {
+                if (mRetryBudget != null)
+                    mRetryBudget.onSuccess();
+                break;
+            }
+            if (!isRunning)
+                break;
+            // 如果执行失败，判断能否再次执行
+            if (!nextRetry())
+                break;
+            // 重试预算耗尽，不再重试
+            if (mRetryBudget != null && !mRetryBudget.tryRetry())
+                break;
+            XRetryListener<? super T> listener = mRetryListener;
+            if (listener != null)
+                listener.onRetry(bean, getRetryCount());
+            try {
+                if (waitForRetry(bean))
+                    return;
+            } catch (InterruptedException e) {
+                // 恢复中断标识，结束重试
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // 结束
+        if (isRunning)
+            onPostExecute(bean);// 正常结束情况下，调用onPostExecute
+        else
+            onCancelled(bean);// 被中断情况下，调用onCancelled
+    }
+
+    /**
+     * 一次等待中的重试。
+     * 重新执行和cancel()通过mClaimed竞争，只有一方能成功，
+     * 保证重试要么执行run()，要么回调一次onCancelled()。
+     */
+    private class PendingRetry implements Runnable {
+
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+        private final Runnable mFire;// 到时间后在计时线程中执行
+        private volatile Future<?> mTimer;
+        private volatile Future<?> mExecution;
+
+        PendingRetry(final XRetryScheduler scheduler) {
+            mFire = new Runnable() {
+                @Override
+                public void run() {
+                    if (!mClaimed.get())
+                        mExecution = executeRetry(scheduler, PendingRetry.this);
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            if (mClaimed.compareAndSet(false, true))
+                XBaseRetryRunnable.this.run();
+        }
+
+        /**
+         * @return 取消成功返回true(此时不会再执行run())；重试已开始执行返回false
+         */
+        boolean cancel() {
+            if (!mClaimed.compareAndSet(false, true))
+                return false;
+            Future<?> timer = mTimer;
+            if (timer != null)
+                timer.cancel(false);
+            Future<?> execution = mExecution;
+            if (execution != null)
+                execution.cancel(false);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.tj.xengine.core.toolkit.task.runnable;
+
+import java.util.Random;
+
+/**
+ * <pre>
+ * 带随机抖动的指数退避策略，用于计算重试间隔。
+ * 第n次重试的间隔 = min(初始间隔 * 倍数^(n-1), 最大间隔) * (1 - 抖动比例 * 随机数[0,1))
+ * 随机抖动可以避免大量任务在同一时刻一起重试，冲垮刚恢复的服务器。
+ * </pre>
+ */
+public class XRetryBackoff {
+
+    public static final long DEFAULT_INITIAL_INTERVAL = 1000;// 默认初始间隔(单位:毫秒)
+    public static final long DEFAULT_MAX_INTERVAL = 30 * 1000;// 默认最大间隔(单位:毫秒)
+    public static final double DEFAULT_MULTIPLIER = 2;// 默认倍数
+    public static final double DEFAULT_JITTER = 0.5;// 默认抖动比例
+
+    private final long mInitialInterval;
+    private final long mMaxInterval;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final Random mRandom;
+
+    public XRetryBackoff() {
+        this(DEFAULT_INITIAL_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_MULTIPLIER, DEFAULT_JITTER);
+    }
+
+    /**
+     * @param initialInterval 第一次重试的间隔(单位:毫秒)
+     * @param maxInterval 最大间隔(单位:毫秒)
+     * @param multiplier 每次重试间隔的增长倍数(不小于1)
+     * @param jitter 抖动比例(0~1)，0表示不抖动，1表示在[0,间隔)之间完全随机
+     */
+    public XRetryBackoff(long initialInterval, long maxInterval,
+                         double multiplier, double jitter) {
+        mInitialInterval = Math.max(initialInterval, 0);
+        mMaxInterval = Math.max(maxInterval, mInitialInterval);
+        mMultiplier = Math.max(multiplier, 1);
+        mJitter = Math.max(0, Math.min(jitter, 1));
+        mRandom = new Random();
+    }
+
+    /**
+     * 计算重试间隔。
+     * @param retryCount 当前重试次数(从1开始，小于1或无限重试时按1计算)
+     * @return 返回重试间隔(单位:毫秒)
+     */
+    public long getInterval(long retryCount) {
+        double interval = mInitialInterval;
+        for (long i = 1; i < retryCount && interval < mMaxInterval; i++)
+            interval = interval * mMultiplier;
+        interval = Math.min(interval, mMaxInterval);
+        double random;
+        synchronized (mRandom) {
+            random = mRandom.nextDouble();
+        }
+        return (long) (interval * (1 - mJitter * random));
+    }
+}
@@ -0,0 +1,72 @@
+package com.tj.xengine.core.toolkit.task.runnable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <pre>
+ * 重试预算，一般由一个任务管理器下的所有任务共享。
+ * 采用令牌计数(与gRPC的重试限流相同)：
+ * 1.令牌初始为上限值，每次执行失败消耗1个令牌，每次执行成功返还一定比例的令牌；
+ * 2.只有令牌数大于上限的一半时，才允许重试；
+ * 这样单个任务偶尔失败可以正常重试，而服务器持续出错导致大量任务失败时，
+ * 重试会被迅速限制住，不会让重试占满线程和带宽。
+ * 线程安全。
+ * </pre>
+ */
+public class XRetryBudget {
+
+    public static final int DEFAULT_MAX_TOKENS = 10;// 默认令牌上限
+    public static final float DEFAULT_TOKEN_RATIO = 0.1f;// 默认每次成功返还的令牌数
+
+    private static final int SCALE = 1000;// 令牌按千分之一计数，以支持小数返还
+
+    private final int mMaxTokens;// 令牌上限(已放大)
+    private final int mTokenRatio;// 每次成功返还的令牌(已放大)
+    private final AtomicInteger mTokens;// 当前令牌数(已放大)
+
+    public XRetryBudget() {
+        this(DEFAULT_MAX_TOKENS, DEFAULT_TOKEN_RATIO);
+    }
+
+    /**
+     * @param maxTokens 令牌上限
+     * @param tokenRatio 每次执行成功返还的令牌数
+     */
+    public XRetryBudget(int maxTokens, float tokenRatio) {
+        mMaxTokens = Math.max(maxTokens, 1) * SCALE;
+        mTokenRatio = Math.max((int) (tokenRatio * SCALE), 0);
+        mTokens = new AtomicInteger(mMaxTokens);
+    }
+
+    /**
+     * 执行失败时调用，消耗1个令牌，并判断是否允许重试。
+     * @return 允许重试返回true；否则返回false
+     */
+    public boolean tryRetry() {
+        while (true) {
+            int tokens = mTokens.get();
+            int newTokens = Math.max(tokens - SCALE, 0);
+            if (mTokens.compareAndSet(tokens, newTokens))
+                return newTokens > mMaxTokens / 2;
+        }
+    }
+
+    /**
+     * 执行成功时调用，返还令牌。
+     */
+    public void onSuccess() {
+        while (true) {
+            int tokens = mTokens.get();
+            int newTokens = Math.min(tokens + mTokenRatio, mMaxTokens);
+            if (tokens == newTokens || mTokens.compareAndSet(tokens, newTokens))
+                return;
+        }
+    }
+
+    /**
+     * 获取当前令牌数。
+     */
+    public float getTokens() {
+        return (float) mTokens.get() / SCALE;
+    }
+}
@@ -0,0 +1,18 @@
+package com.tj.xengine.core.toolkit.task.runnable;
+
+/**
+ * <pre>
+ * 重试的监听者。
+ * XBaseRetryRunnable每次决定重试(onRepeatExecute()失败、还有重试次数和预算)时回调，
+ * 在等待重试间隔之前，在执行重试的线程中调用，实现时必须立即返回。
+ * </pre>
+ */
+public interface XRetryListener<T> {
+
+    /**
+     * 即将进行一次重试。
+     * @param bean 数据对象
+     * @param retryCount 当前的重试次数(如果是无限重试的，则该值为-1)
+     */
+    void onRetry(T bean, long retryCount);
+}
@@ -6,9 +6,11 @@ package com.tj.xengine.core.toolkit.task.runnable;
  *      1.前期准备工作，执行一次onPreExecute()
  *      2.核心逻辑，多次重试执行onRepeatExecute()
  *        如果执行完成不再重试，则返回true，否则返回false
- *      3.如果是正常结束的(onRepeatExecute返回true或达到重试最大上限)，
+ *      3.如果是正常结束的(onRepeatExecute返回true、达到重试最大上限或重试预算耗尽)，
  *        则最后回调onPostExecute()
  *      4.如果是被中断的(调用cancel())，则最后回调onCancelled()
+ *      5.默认在两次重试之间sleep等待；设置了XRetryScheduler后，
+ *        等待期间会释放线程，到时间后由调度器重新执行run()
  * User: jasontujun
  * Date: 14-4-14
  * Time: 下午8:40
@@ -33,6 +35,20 @@ public interface XRetryRunnable<T> extends Runnable {
      */
     long getRetryInterval(long retryCount);
 
+    /**
+     * 设置重试调度器。
+     * @param scheduler 为null表示在当前线程中sleep等待重试
+     * @see XRetryScheduler
+     */
+    void setRetryScheduler(XRetryScheduler scheduler);
+
+    /**
+     * 设置重试预算，预算耗尽时不再重试。
+     * @param budget 为null表示不限制
+     * @see XRetryBudget
+     */
+    void setRetryBudget(XRetryBudget budget);
+
     /**
      * 判断任务是否在运行
      * @return 如果正在运行，返回true;否则返回false.
@@ -0,0 +1,104 @@
+package com.tj.xengine.core.toolkit.task.runnable;
+
+import java.util.concurrent.*;
+
+/**
+ * <pre>
+ * 重试调度器。
+ * XRetryRunnable设置了调度器后，两次重试之间不再sleep占用线程，
+ * 而是把下一次执行交给调度器，到时间后再由Executor重新执行。
+ * 1.所有等待中的重试共用一个定时线程(守护线程)，只负责计时；
+ * 2.到时间的重试优先交给任务自己的线程池执行(见XBaseRetryRunnable#executeRetry())，
+ *   否则交给调度器的Executor执行，默认是一个线程数有上限的守护线程池；
+ * 3.一个调度器可以被多个任务(比如同一个任务管理器下的所有任务)共享。
+ * </pre>
+ */
+public class XRetryScheduler {
+
+    public static final int DEFAULT_POOL_SIZE =
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2);// 默认线程池的线程数上限
+    private static final long KEEP_ALIVE = 30;// 默认线程池的空闲线程存活时间(单位:秒)
+
+    private final ScheduledExecutorService mTimer;// 计时线程
+    private final Executor mExecutor;// 执行到时重试的Executor
+    private final ExecutorService mDefaultExecutor;// 调度器自己创建的默认线程池
+
+    public XRetryScheduler() {
+        this(null);
+    }
+
+    /**
+     * @param executor 执行到时重试的Executor，为null则使用默认的线程池
+     */
+    public XRetryScheduler(Executor executor) {
+        mDefaultExecutor = executor != null ? null : createDefaultExecutor();
+        mExecutor = executor != null ? executor : mDefaultExecutor;
+        mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "XRetryScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE,
+                KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "XRetryScheduler-worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * 在指定时间后重新执行runnable。
+     * @param runnable 要重新执行的任务
+     * @param delay 延迟时间(单位:毫秒)
+     * @return 返回等待中的重试，在重试开始执行前调用cancel()可以取消
+     */
+    public Future<?> schedule(final Runnable runnable, long delay) {
+        return delay(new Runnable() {
+            @Override
+            public void run() {
+                execute(runnable);
+            }
+        }, delay);
+    }
+
+    /**
+     * 在指定时间后，在计时线程中执行runnable(必须立即返回)。
+     */
+    Future<?> delay(Runnable runnable, long delay) {
+        return mTimer.schedule(runnable, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 执行到时间的重试。
+     * @return 返回执行重试的Future，调用cancel(true)可以中断重试
+     */
+    protected Future<?> execute(Runnable runnable) {
+        if (mExecutor instanceof ExecutorService)
+            return ((ExecutorService) mExecutor).submit(runnable);
+        FutureTask<Object> future = new FutureTask<Object>(runnable, null);
+        mExecutor.execute(future);
+        return future;
+    }
+
+    /**
+     * 关闭调度器，所有等待中的重试都不会再执行。
+     * 已经开始执行的重试不受影响。
+     */
+    public void shutdown() {
+        mTimer.shutdownNow();
+        if (mDefaultExecutor != null)
+            mDefaultExecutor.shutdown();
+    }
+}
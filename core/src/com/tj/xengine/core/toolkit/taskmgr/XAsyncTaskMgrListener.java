@@ -0,0 +1,429 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <pre>
+ * 异步分发回调的任务管理器监听，包装一个真正的监听者。
+ * 所有回调都在一个独立的分发线程中执行，执行任务的线程只负责投递事件，
+ * 监听者执行再慢，也不会拖慢任务本身。
+ * 1.添加、删除、启动、停止、完成、失败等生命周期事件，按发生顺序逐个分发；
+ *   投递从不等待(任务管理器可能在加锁的情况下回调)，这类事件频率很低，不会无限堆积；
+ * 2.进度、速度、剩余时间等高频事件不排队，每个任务只保留最新的值，
+ *   分发线程来不及处理时，中间的值会被合并掉；
+ *   队列中的事件超过容量时，进度事件改为放入溢出集合，稍后再分发；
+ * 3.分发某个任务的停止(包括批量停止)、完成、失败、删除事件之前，会先分发该任务尚未分发的最新进度，
+ *   保证监听者不会在onComplete()之后还收到旧的进度；
+ *   完成、失败、删除之后才到达的进度会被丢弃，直到该任务再次添加或启动。
+ * 不再使用时，需要调用{@link #shutdown()}结束分发线程。
+ * </pre>
+ */
+public class XAsyncTaskMgrListener<T extends XTaskBean> implements XTaskMgrListener<T> {
+
+    public static final int DEFAULT_CAPACITY = 1024;// 默认事件队列容量
+
+    private static final int EVENT_ADD = 1;
+    private static final int EVENT_ADD_ALL = 2;
+    private static final int EVENT_REMOVE = 3;
+    private static final int EVENT_REMOVE_ALL = 4;
+    private static final int EVENT_START = 5;
+    private static final int EVENT_STOP = 6;
+    private static final int EVENT_STOP_ALL = 7;
+    private static final int EVENT_FINISH_ALL = 8;
+    private static final int EVENT_COMPLETE = 9;
+    private static final int EVENT_ERROR = 10;
+    private static final int EVENT_PROGRESS = 11;
+    private static final int EVENT_STOP_BATCH = 12;
+    private static final int EVENT_SHUTDOWN = 13;
+
+    private static final int DIRTY_DOING = 1;
+    private static final int DIRTY_SPEED = 2;
+    private static final int DIRTY_REMAIN = 4;
+
+    private final XTaskMgrListener<T> mListener;// 真正的监听者
+    private final int mCapacity;// 事件队列容量(只限制进度事件)
+    private final BlockingQueue<Event> mQueue;// 事件队列
+    private final ConcurrentMap<Object, ProgressSlot> mSlots;// 每个任务最新的进度(任务Id -> 进度)
+    private final ConcurrentLinkedQueue<ProgressSlot> mOverflow;// 队列满时没能投递的进度
+    private final LinkedList<Object> mFinished;// 已结束任务的进度(只在分发线程中访问)
+    private final Thread mDispatcher;// 分发线程
+    private volatile boolean mRunning;
+
+    public XAsyncTaskMgrListener(XTaskMgrListener<T> listener) {
+        this(listener, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param listener 真正的监听者
+     * @param capacity 事件队列容量，超过后进度事件不再排队；
+     *                 同时也是保留的已结束任务进度的数量上限
+     */
+    public XAsyncTaskMgrListener(XTaskMgrListener<T> listener, int capacity) {
+        mListener = listener;
+        mCapacity = Math.max(capacity, 16);
+        mQueue = new LinkedBlockingQueue<Event>();
+        mSlots = new ConcurrentHashMap<Object, ProgressSlot>();
+        mOverflow = new ConcurrentLinkedQueue<ProgressSlot>();
+        mFinished = new LinkedList<Object>();
+        mRunning = true;
+        mDispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, "XAsyncTaskMgrListener");
+        mDispatcher.setDaemon(true);
+        mDispatcher.start();
+    }
+
+    /**
+     * 获取被包装的监听者。
+     */
+    public XTaskMgrListener<T> getListener() {
+        return mListener;
+    }
+
+    /**
+     * 结束分发线程。调用之前已经投递的事件会先全部分发完，之后的事件会被丢弃。
+     */
+    public void shutdown() {
+        if (!mRunning)
+            return;
+        mRunning = false;
+        mQueue.offer(new Event(EVENT_SHUTDOWN, null));
+    }
+
+    @Override
+    public void onAdd(T task) {
+        reopen(task);
+        post(new Event(EVENT_ADD, task));
+    }
+
+    @Override
+    public void onAddAll(List<T> tasks) {
+        Event event = new Event(EVENT_ADD_ALL, null);
+        event.tasks = tasks;
+        post(event);
+    }
+
+    @Override
+    public void onRemove(T task) {
+        Event event = new Event(EVENT_REMOVE, task);
+        event.slot = close(task);
+        post(event);
+    }
+
+    @Override
+    public void onRemoveAll(List<T> tasks) {
+        for (T task : tasks)
+            close(task);
+        Event event = new Event(EVENT_REMOVE_ALL, null);
+        event.tasks = tasks;
+        post(event);
+    }
+
+    @Override
+    public void onStart(T task) {
+        reopen(task);
+        post(new Event(EVENT_START, task));
+    }
+
+    @Override
+    public void onStop(T task) {
+        post(new Event(EVENT_STOP, task));
+    }
+
+    @Override
+    public void onStopBatch(List<T> tasks) {
+        Event event = new Event(EVENT_STOP_BATCH, null);
+        event.tasks = tasks;
+        post(event);
+    }
+
+    @Override
+    public void onStopAll() {
+        post(new Event(EVENT_STOP_ALL, null));
+    }
+
+    @Override
+    public void onFinishAll() {
+        post(new Event(EVENT_FINISH_ALL, null));
+    }
+
+    @Override
+    public void onDoing(T task, long completeSize) {
+        ProgressSlot slot = getSlot(task);
+        if (slot.closed)
+            return;
+        slot.completeSize = completeSize;
+        markDirty(slot, DIRTY_DOING);
+    }
+
+    @Override
+    public void onComplete(T task) {
+        Event event = new Event(EVENT_COMPLETE, task);
+        event.slot = close(task);
+        post(event);
+    }
+
+    @Override
+    public void onError(T task, String errorCode) {
+        Event event = new Event(EVENT_ERROR, task);
+        event.slot = close(task);
+        event.errorCode = errorCode;
+        post(event);
+    }
+
+    @Override
+    public void onSpeedUpdate(T task, long speed) {
+        ProgressSlot slot = getSlot(task);
+        if (slot.closed)
+            return;
+        slot.speed = speed;
+        markDirty(slot, DIRTY_SPEED);
+    }
+
+    @Override
+    public void onRemainTimeUpdate(T task, long remainTime) {
+        ProgressSlot slot = getSlot(task);
+        if (slot.closed)
+            return;
+        slot.remainTime = remainTime;
+        markDirty(slot, DIRTY_REMAIN);
+    }
+
+    private static Object getKey(XTaskBean task) {
+        String taskId = task.getId();
+        return taskId != null ? taskId : task;
+    }
+
+    private ProgressSlot getSlot(T task) {
+        Object key = getKey(task);
+        ProgressSlot slot = mSlots.get(key);
+        if (slot == null) {
+            slot = new ProgressSlot(task);
+            ProgressSlot old = mSlots.putIfAbsent(key, slot);
+            if (old != null)
+                slot = old;
+        }
+        return slot;
+    }
+
+    /**
+     * 任务结束(完成、失败、删除)，之后到达的进度不再投递。
+     * @return 返回任务当前的进度
+     */
+    private ProgressSlot close(T task) {
+        ProgressSlot slot = getSlot(task);
+        slot.closed = true;
+        return slot;
+    }
+
+    /**
+     * 任务再次添加或启动，丢弃上次结束时留下的进度。
+     */
+    private void reopen(T task) {
+        Object key = getKey(task);
+        ProgressSlot slot = mSlots.get(key);
+        if (slot != null && slot.closed)
+            mSlots.remove(key, slot);
+    }
+
+    /**
+     * 标记进度有更新。只有从"无更新"变成"有更新"时才投递一次事件，
+     * 分发之前的多次更新会被合并成最新的一次。
+     */
+    private void markDirty(ProgressSlot slot, int flag) {
+        if (!mRunning)
+            return;
+        while (true) {
+            int dirty = slot.dirty.get();
+            if (slot.dirty.compareAndSet(dirty, dirty | flag)) {
+                if (dirty != 0)
+                    return;// 已经在等待分发
+                break;
+            }
+        }
+        Event event = new Event(EVENT_PROGRESS, slot.task);
+        event.slot = slot;
+        // 高频事件不堆积，队列超过容量时放入溢出队列，由分发线程稍后处理
+        if (mQueue.size() >= mCapacity || !mQueue.offer(event))
+            mOverflow.offer(slot);
+    }
+
+    /**
+     * 投递生命周期事件。从不等待，可以在持有任务管理器的锁时调用。
+     */
+    private void post(Event event) {
+        if (!mRunning)
+            return;
+        mQueue.offer(event);
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            try {
+                Event event = mQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (event != null && event.type == EVENT_SHUTDOWN)
+                    break;
+                if (event != null)
+                    dispatch(event);
+                flushOverflow();
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                e.printStackTrace();// 监听者的异常不能终止分发线程
+            }
+        }
+        // shutdown()之前投递的事件都在EVENT_SHUTDOWN之前，已经分发完，最后分发溢出的进度
+        try {
+            flushOverflow();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flushOverflow() {
+        ProgressSlot slot;
+        while ((slot = mOverflow.poll()) != null)
+            flush(slot);
+    }
+
+    private void dispatch(Event event) {
+        // 任务停止或结束前，先分发该任务尚未分发的最新进度
+        // (结束事件使用投递时的进度，任务在分发之前又重新启动也不会混淆)
+        if (event.type == EVENT_STOP || event.type == EVENT_COMPLETE
+                || event.type == EVENT_ERROR || event.type == EVENT_REMOVE) {
+            ProgressSlot slot = event.slot != null ? event.slot : mSlots.get(getKey(event.task));
+            if (slot != null)
+                flush(slot);
+        }
+        switch (event.type) {
+            case EVENT_ADD:
+                mListener.onAdd(event.task);
+                break;
+            case EVENT_ADD_ALL:
+                mListener.onAddAll(event.tasks);
+                break;
+            case EVENT_REMOVE:
+                finish(event.task, event.slot);
+                mListener.onRemove(event.task);
+                break;
+            case EVENT_REMOVE_ALL:
+                for (T task : event.tasks) {
+                    ProgressSlot slot = mSlots.get(getKey(task));
+                    if (slot != null)
+                        flush(slot);
+                    finish(task, slot);
+                }
+                mListener.onRemoveAll(event.tasks);
+                break;
+            case EVENT_START:
+                mListener.onStart(event.task);
+                break;
+            case EVENT_STOP:
+                mListener.onStop(event.task);
+                break;
+            case EVENT_STOP_BATCH:
+                for (T task : event.tasks) {
+                    ProgressSlot slot = mSlots.get(getKey(task));
+                    if (slot != null)
+                        flush(slot);
+                }
+                mListener.onStopBatch(event.tasks);
+                break;
+            case EVENT_STOP_ALL:
+                mListener.onStopAll();
+                break;
+            case EVENT_FINISH_ALL:
+                mListener.onFinishAll();
+                break;
+            case EVENT_COMPLETE:
+                finish(event.task, event.slot);
+                mListener.onComplete(event.task);
+                break;
+            case EVENT_ERROR:
+                finish(event.task, event.slot);
+                mListener.onError(event.task, event.errorCode);
+                break;
+            case EVENT_PROGRESS:
+                flush(event.slot);
+                break;
+        }
+    }
+
+    /**
+     * 分发任务的结束事件之后调用，之后到达的进度都被丢弃。
+     * 已结束的进度最多保留mCapacity个，超过后删除最早结束的。
+     */
+    private void finish(T task, ProgressSlot slot) {
+        if (slot == null || !slot.closed)
+            return;
+        slot.finished = true;
+        Object key = getKey(task);
+        if (mSlots.get(key) != slot)
+            return;// 任务已经重新启动
+        mFinished.add(key);
+        while (mFinished.size() > mCapacity) {
+            Object oldKey = mFinished.poll();
+            ProgressSlot old = mSlots.get(oldKey);
+            if (old != null && old.finished)
+                mSlots.remove(oldKey, old);
+        }
+    }
+
+    /**
+     * 分发进度的最新值。
+     */
+    private void flush(ProgressSlot slot) {
+        int dirty = slot.dirty.getAndSet(0);
+        if (slot.finished)
+            return;
+        if ((dirty & DIRTY_DOING) != 0)
+            mListener.onDoing(slot.task, slot.completeSize);
+        if ((dirty & DIRTY_SPEED) != 0)
+            mListener.onSpeedUpdate(slot.task, slot.speed);
+        if ((dirty & DIRTY_REMAIN) != 0)
+            mListener.onRemainTimeUpdate(slot.task, slot.remainTime);
+    }
+
+    /**
+     * 单个任务最新的进度、速度、剩余时间。
+     */
+    private class ProgressSlot {
+        final T task;
+        final AtomicInteger dirty = new AtomicInteger();// 有更新但未分发的值
+        volatile boolean closed;// 已投递结束事件
+        volatile boolean finished;// 已分发结束事件(只在分发线程中修改)
+        volatile long completeSize;
+        volatile long speed;
+        volatile long remainTime;
+
+        ProgressSlot(T task) {
+            this.task = task;
+        }
+    }
+
+    private class Event {
+        final int type;
+        final T task;
+        List<T> tasks;
+        String errorCode;
+        ProgressSlot slot;
+
+        Event(int type, T task) {
+            this.type = type;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.serial.XPreemptiveSerialMgr;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 考虑切换代价的抢占策略。
+ * 被抢占的下载任务会断开连接，恢复时要重新发送Range请求，TCP也要重新提速，
+ * 频繁切换会浪费带宽。本策略：
+ * 1.测量提速时间：任务每次启动后，从启动到速度稳定(接近上次停止前的速度，
+ *   或者速度不再明显增长)所用的时间，包括重新连接的时间；
+ *   任务还没有测量值时，使用所有任务的平均值，都没有时使用默认的重连时间；
+ * 2.估算切换代价：被抢占的任务恢复时，提速期间少下载的数据量，
+ *   按线性提速估算为 稳定速度 * 提速时间 / 2；
+ *   已读取但未落盘的数据通过软抢占先写入文件，不计入代价；
+ * 3.最小运行时间：当前任务运行的时间不小于最小运行时间，还在提速中的不被抢占，
+ *   且本次启动后下载的数据量不小于切换代价的若干倍，才允许被抢占，避免来回切换；
+ *   速度降为0(卡住)的任务，超过最小运行时间后直接切换；
+ * 4.当前任务支持XSoftPreemptible且有未落盘的数据时，使用软抢占；
+ * 5.被推迟的切换，在收到进度或速度更新时重新检查(间隔不小于检查间隔)。
+ * 使用方式:
+ *      XCostAwarePreemption<B> policy = new XCostAwarePreemption<B>();
+ *      policy.attach(serialMgr);
+ * </pre>
+ */
+public class XCostAwarePreemption<B extends XTaskBean>
+        implements XPreemptionPolicy<B>, XTaskMgrListener<B> {
+
+    public static final long DEFAULT_RECONNECT_TIME = 2000;// 还没有测量值时的重连和提速时间(单位:毫秒)
+    public static final long DEFAULT_MIN_QUANTUM = 5000;// 默认的最小运行时间(单位:毫秒)
+    public static final int DEFAULT_COST_FACTOR = 4;// 默认运行时间至少是切换代价的倍数
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;// 默认检查推迟切换的最小间隔(单位:毫秒)
+
+    private static final int SPEED_WEIGHT = 4;// 速度平滑的权重，新速度占1/SPEED_WEIGHT
+    private static final int STEADY_PERCENT = 80;// 达到上次稳定速度的百分比，视为提速完成
+    private static final int GROWTH_PERCENT = 10;// 速度增长不超过该百分比，视为提速完成
+
+    private final ConcurrentMap<String, TaskStat> mStats;// 任务Id -> 统计
+    private final AtomicLong mLastCheckTime;
+    private final AtomicLong mAvgRampUpTime;// 所有任务的平均提速时间，-1表示还没有测量值
+    private volatile XPreemptiveSerialMgr<B> mTaskMgr;
+    private volatile long mReconnectTime;
+    private volatile long mMinQuantum;
+    private volatile int mCostFactor;
+    private volatile long mCheckInterval;
+
+    public XCostAwarePreemption() {
+        mStats = new ConcurrentHashMap<String, TaskStat>();
+        mLastCheckTime = new AtomicLong();
+        mAvgRampUpTime = new AtomicLong(-1);
+        mReconnectTime = DEFAULT_RECONNECT_TIME;
+        mMinQuantum = DEFAULT_MIN_QUANTUM;
+        mCostFactor = DEFAULT_COST_FACTOR;
+        mCheckInterval = DEFAULT_CHECK_INTERVAL;
+    }
+
+    /**
+     * 设置为任务管理器的抢占策略，并监听任务的进度和速度。
+     */
+    public void attach(XPreemptiveSerialMgr<B> taskMgr) {
+        mTaskMgr = taskMgr;
+        taskMgr.setPreemptionPolicy(this);
+        taskMgr.registerListener(this);
+    }
+
+    /**
+     * 取消设置，之后任务管理器立即切换任务。
+     */
+    public void detach() {
+        XPreemptiveSerialMgr<B> taskMgr = mTaskMgr;
+        if (taskMgr == null)
+            return;
+        mTaskMgr = null;
+        taskMgr.setPreemptionPolicy(null);
+        taskMgr.unregisterListener(this);
+    }
+
+    /**
+     * 设置任务被抢占后，重新连接并恢复到原来速度所需的时间。
+     * 只在还没有测量到提速时间时使用。
+     * @param reconnectTime 单位:毫秒
+     */
+    public void setReconnectTime(long reconnectTime) {
+        mReconnectTime = Math.max(reconnectTime, 0);
+    }
+
+    /**
+     * 设置任务启动后，至少运行多久才允许被抢占。
+     * @param minQuantum 单位:毫秒
+     */
+    public void setMinQuantum(long minQuantum) {
+        mMinQuantum = Math.max(minQuantum, 0);
+    }
+
+    /**
+     * 设置任务的运行时间至少是切换代价的多少倍，才允许被抢占。
+     */
+    public void setCostFactor(int costFactor) {
+        mCostFactor = Math.max(costFactor, 0);
+    }
+
+    /**
+     * 设置检查推迟切换的最小间隔。
+     * @param interval 单位:毫秒
+     */
+    public void setCheckInterval(long interval) {
+        mCheckInterval = Math.max(interval, 0);
+    }
+
+    /**
+     * 获取任务的平滑速度。
+     * @return 单位:byte/s，还没有速度记录返回-1
+     */
+    public long getSpeed(String taskId) {
+        TaskStat stat = taskId == null ? null : mStats.get(taskId);
+        return stat == null ? -1 : stat.speed;
+    }
+
+    /**
+     * 获取任务的提速时间(重新连接并恢复到稳定速度所需的时间)。
+     * @return 单位:毫秒。任务还没有测量值时返回平均值，都没有时返回默认的重连时间
+     */
+    public long getRampUpTime(String taskId) {
+        TaskStat stat = taskId == null ? null : mStats.get(taskId);
+        if (stat != null && stat.rampUpTime >= 0)
+            return stat.rampUpTime;
+        long avg = mAvgRampUpTime.get();
+        return avg >= 0 ? avg : mReconnectTime;
+    }
+
+    /**
+     * 估算抢占任务的代价：恢复后提速期间少下载的数据量(按线性提速估算)。
+     * @return 单位:byte，还没有速度记录返回0
+     */
+    public long getSwitchCost(XMgrTaskExecutor<B> task) {
+        TaskStat stat = mStats.get(task.getId());
+        long speed = stat == null ? -1 : Math.max(stat.steadySpeed, stat.speed);
+        return Math.max(speed, 0) * getRampUpTime(task.getId()) / 2000;
+    }
+
+    @Override
+    public int decide(XMgrTaskExecutor<B> current, XMgrTaskExecutor<B> candidate) {
+        TaskStat stat = mStats.get(current.getId());
+        if (stat == null || stat.startTime == 0)
+            return PREEMPT_NOW;
+        long runTime = System.currentTimeMillis() - stat.startTime;
+        // 刚启动的任务不被抢占，避免来回切换
+        if (runTime < mMinQuantum)
+            return PREEMPT_DEFER;
+        // 速度为0(卡住)的任务，切换没有代价
+        long speed = stat.speed;
+        if (speed == 0)
+            return PREEMPT_NOW;
+        // 还在提速中，刚付出的切换代价还没有收回
+        if (stat.rampStart > 0)
+            return PREEMPT_DEFER;
+        // 本次启动后下载的数据量不足以摊薄切换代价
+        long downloaded = stat.startSize >= 0 && stat.lastSize >= stat.startSize
+                ? stat.lastSize - stat.startSize : Math.max(speed, 0) * runTime / 1000;
+        if (downloaded < mCostFactor * getSwitchCost(current))
+            return PREEMPT_DEFER;
+        if (current instanceof XSoftPreemptible
+                && ((XSoftPreemptible) current).getBytesInFlight() > 0)
+            return PREEMPT_SOFT;
+        return PREEMPT_NOW;
+    }
+
+    private TaskStat getStat(B task) {
+        TaskStat stat = mStats.get(task.getId());
+        if (stat == null) {
+            TaskStat old = mStats.putIfAbsent(task.getId(), stat = new TaskStat());
+            if (old != null)
+                stat = old;
+        }
+        return stat;
+    }
+
+    /**
+     * 有被推迟的切换时，重新检查一次(限制频率)。
+     */
+    private void checkPending() {
+        XPreemptiveSerialMgr<B> taskMgr = mTaskMgr;
+        if (taskMgr == null || taskMgr.getPendingTask() == null)
+            return;
+        long now = System.currentTimeMillis();
+        long last = mLastCheckTime.get();
+        if (now - last < mCheckInterval || !mLastCheckTime.compareAndSet(last, now))
+            return;
+        taskMgr.preempt();
+    }
+
+    @Override
+    public void onAdd(B task) {}
+
+    @Override
+    public void onAddAll(List<B> tasks) {}
+
+    @Override
+    public void onRemove(B task) {
+        if (task.getId() != null)
+            mStats.remove(task.getId());
+    }
+
+    @Override
+    public void onRemoveAll(List<B> tasks) {
+        for (B task : tasks)
+            onRemove(task);
+    }
+
+    @Override
+    public void onStart(B task) {
+        if (task.getId() == null)
+            return;
+        TaskStat stat = getStat(task);
+        long now = System.currentTimeMillis();
+        stat.startTime = now;
+        stat.rampStart = now;
+        stat.startSize = -1;
+        stat.lastSize = -1;
+        // 上次停止前的速度作为稳定速度，重新测量本次的速度
+        if (stat.speed > 0)
+            stat.steadySpeed = stat.speed;
+        stat.speed = -1;
+    }
+
+    @Override
+    public void onStop(B task) {
+        TaskStat stat = task.getId() == null ? null : mStats.get(task.getId());
+        if (stat != null) {
+            stat.startTime = 0;
+            stat.rampStart = 0;
+        }
+    }
+
+    @Override
+    public void onStopBatch(List<B> tasks) {
+        for (B task : tasks)
+            onStop(task);
+    }
+
+    @Override
+    public void onStopAll() {}
+
+    @Override
+    public void onFinishAll() {}
+
+    @Override
+    public void onDoing(B task, long completeSize) {
+        if (task.getId() == null || completeSize < 0)
+            return;
+        // 没有速度监视器时，用进度估算速度
+        TaskStat stat = getStat(task);
+        long now = System.currentTimeMillis();
+        if (stat.lastSize >= 0 && now > stat.lastTime && completeSize >= stat.lastSize)
+            onSample(stat, (completeSize - stat.lastSize) * 1000 / (now - stat.lastTime), now);
+        if (stat.startSize < 0)
+            stat.startSize = completeSize;
+        stat.lastSize = completeSize;
+        stat.lastTime = now;
+        checkPending();
+    }
+
+    @Override
+    public void onComplete(B task) {
+        onRemove(task);
+    }
+
+    @Override
+    public void onError(B task, String errorCode) {
+        onStop(task);
+    }
+
+    @Override
+    public void onSpeedUpdate(B task, long speed) {
+        if (task.getId() == null)
+            return;
+        onSample(getStat(task), speed, System.currentTimeMillis());
+        checkPending();
+    }
+
+    @Override
+    public void onRemainTimeUpdate(B task, long remainTime) {}
+
+    /**
+     * 记录一次速度，提速中的任务速度稳定后，记录本次的提速时间。
+     */
+    private void onSample(TaskStat stat, long sample, long now) {
+        if (sample < 0)
+            return;
+        long previous = stat.speed;
+        stat.update(sample);
+        long rampStart = stat.rampStart;
+        if (rampStart == 0 || sample == 0)
+            return;
+        boolean steady = stat.steadySpeed > 0
+                ? sample * 100 >= stat.steadySpeed * STEADY_PERCENT
+                : previous > 0 && sample * 100 <= previous * (100 + GROWTH_PERCENT);
+        if (!steady)
+            return;
+        stat.rampStart = 0;
+        long rampUpTime = now - rampStart;
+        stat.rampUpTime = rampUpTime;
+        // 平均提速时间，新测量值占1/SPEED_WEIGHT
+        for (;;) {
+            long avg = mAvgRampUpTime.get();
+            long update = avg < 0 ? rampUpTime : avg + (rampUpTime - avg) / SPEED_WEIGHT;
+            if (mAvgRampUpTime.compareAndSet(avg, update))
+                return;
+        }
+    }
+
+    /**
+     * 单个任务的统计，只在监听回调中修改(同一个任务的回调不会并发)。
+     */
+    private static class TaskStat {
+        volatile long startTime;// 本次启动的时间，未在执行时为0
+        volatile long rampStart;// 本次提速开始的时间，提速完成后为0
+        volatile long rampUpTime = -1;// 最近一次测量的提速时间，-1表示还没有测量值
+        volatile long speed = -1;// 本次启动后的平滑速度，-1表示还没有记录
+        volatile long steadySpeed = -1;// 上次停止前的平滑速度，-1表示还没有记录
+        volatile long startSize = -1;// 本次启动后的第一次进度
+        volatile long lastSize = -1;// 上一次进度
+        long lastTime;
+
+        void update(long sample) {
+            if (sample < 0)
+                return;
+            long old = speed;
+            speed = old < 0 ? sample : old + (sample - old) / SPEED_WEIGHT;
+        }
+    }
+}
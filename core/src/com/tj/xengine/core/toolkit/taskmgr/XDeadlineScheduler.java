@@ -0,0 +1,341 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+import com.tj.xengine.core.toolkit.task.XDeadlineBean;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgr;
+import com.tj.xengine.core.toolkit.taskmgr.speed.calc.XRemainTimeCalculable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 截止时间优先(earliest-deadline-first)的任务调度器。
+ * 任务的截止时间通过XDeadlineBean提供，剩余时间来自速度监视器的预估。
+ * 1.有截止时间的任务排在没有截止时间的任务之前，截止时间早的优先；
+ *   截止时间相同或都没有截止时间的任务，剩余时间短的优先；
+ * 2.执行队列已满时，如果排在最前面的等待任务预计会错过截止时间，
+ *   而立即执行它还来得及，则暂停一个截止时间更晚(或没有截止时间)的任务，
+ *   前提是被暂停的任务本身不会因此错过截止时间；
+ * 3.统计按时完成和错过截止时间的任务数。任务完成、出错或被删除时都会统计：
+ *   完成时按完成时间判断；出错时已过截止时间的算作错过；
+ *   删除未完成的任务时，如果已过截止时间或者处于错误状态，也算作错过。
+ *   每个任务只统计一次。
+ * 使用方式:
+ *      XDeadlineScheduler<B> scheduler = new XDeadlineScheduler<B>();
+ *      scheduler.attach(parallelMgr);
+ * 注意：从未运行过的任务没有实测的剩余时间，
+ * 会按任务的总大小和最近的平均速度预估，没有大小时按最近完成的任务的平均耗时预估，
+ * 都无法预估时不会为它抢占其他任务，详见{@link #estimateRemainTime(XTaskBean)}。
+ * </pre>
+ */
+public class XDeadlineScheduler<B extends XTaskBean> extends XShortestRemainScheduler<B>
+        implements XPreemptiveScheduler<B> {
+
+    public static final long DEFAULT_PREEMPT_INTERVAL = 1000;// 默认检查抢占的最小间隔(单位:毫秒)
+    private static final int EWMA_SHIFT = 3;// 平均值的平滑系数为1/8
+
+    private volatile XParallelMgr<B> mTaskMgr;
+    private final AtomicLong mLastPreemptTime;// 上一次检查抢占的时间
+    private volatile long mPreemptInterval;
+    private final AtomicLong mMetCount;// 按时完成的任务数
+    private final AtomicLong mMissCount;// 错过截止时间的任务数
+    private final AtomicLong mTotalLateness;// 错过截止时间的总时长(单位:毫秒)
+    private final Set<String> mCounted;// 已经统计过的任务Id，删除任务时清除
+    private final ConcurrentHashMap<String, Long> mStartTimes;// 任务Id -> 开始运行的时间
+    private final AtomicLong mAvgSpeed;// 最近的平均速度(单位:byte/s)
+    private final AtomicLong mAvgDuration;// 最近完成的任务的平均耗时(单位:毫秒)
+
+    public XDeadlineScheduler() {
+        super();
+        mLastPreemptTime = new AtomicLong();
+        mPreemptInterval = DEFAULT_PREEMPT_INTERVAL;
+        mMetCount = new AtomicLong();
+        mMissCount = new AtomicLong();
+        mTotalLateness = new AtomicLong();
+        mCounted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        mStartTimes = new ConcurrentHashMap<String, Long>();
+        mAvgSpeed = new AtomicLong();
+        mAvgDuration = new AtomicLong();
+    }
+
+    /**
+     * 设置为任务管理器的调度器，并监听任务的剩余时间。
+     * 之后每次收到剩余时间的更新(间隔不小于{@link #setPreemptInterval(long)})，
+     * 都会检查一次是否需要抢占。
+     */
+    public void attach(XParallelMgr<B> taskMgr) {
+        mTaskMgr = taskMgr;
+        taskMgr.setTaskScheduler(this);
+        taskMgr.registerListener(this);
+    }
+
+    /**
+     * 取消设置，不再检查抢占。
+     */
+    public void detach() {
+        XParallelMgr<B> taskMgr = mTaskMgr;
+        if (taskMgr == null)
+            return;
+        mTaskMgr = null;
+        taskMgr.setTaskScheduler(null);
+        taskMgr.unregisterListener(this);
+    }
+
+    /**
+     * 设置检查抢占的最小间隔。
+     * @param interval 单位:毫秒
+     */
+    public void setPreemptInterval(long interval) {
+        mPreemptInterval = Math.max(interval, 0);
+    }
+
+    /**
+     * 获取任务的截止时间。
+     * @return 不是XDeadlineBean的任务返回NO_DEADLINE
+     */
+    public static long getDeadline(XTaskBean task) {
+        if (task instanceof XDeadlineBean)
+            return ((XDeadlineBean) task).getDeadline();
+        return XDeadlineBean.NO_DEADLINE;
+    }
+
+    /**
+     * 获取按时完成的任务数。
+     */
+    public long getMetCount() {
+        return mMetCount.get();
+    }
+
+    /**
+     * 获取错过截止时间的任务数。
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 获取所有错过截止时间的任务，超出截止时间的总时长。
+     * @return 单位:毫秒
+     */
+    public long getTotalLateness() {
+        return mTotalLateness.get();
+    }
+
+    /**
+     * 清空统计数据。
+     */
+    public void resetCounters() {
+        mMetCount.set(0);
+        mMissCount.set(0);
+        mTotalLateness.set(0);
+    }
+
+    /**
+     * 预估任务的剩余时间。依次尝试:
+     * 1.速度监视器预估的剩余时间；
+     * 2.任务可以提供总大小时，按(总大小-已完成大小)/最近的平均速度预估；
+     * 3.最近完成的任务的平均耗时。
+     * @return 返回剩余时间(单位:毫秒)；无法预估时返回-1
+     */
+    public long estimateRemainTime(B task) {
+        long remain = getRemainTime(task.getId());
+        if (remain >= 0)
+            return remain;
+        XParallelMgr<B> taskMgr = mTaskMgr;
+        long avgSpeed = mAvgSpeed.get();
+        if (taskMgr != null && avgSpeed > 0) {
+            Object executor = taskMgr.getTaskById(task.getId());
+            if (executor instanceof XRemainTimeCalculable) {
+                XRemainTimeCalculable calculable = (XRemainTimeCalculable) executor;
+                long totalSize = calculable.getTotalSize();
+                if (totalSize > 0)
+                    return Math.max(totalSize - calculable.getCompleteSize(), 0) * 1000 / avgSpeed;
+            }
+        }
+        long avgDuration = mAvgDuration.get();
+        return avgDuration > 0 ? avgDuration : -1;
+    }
+
+    /**
+     * 更新平均值(指数加权移动平均)。
+     */
+    private static void updateAverage(AtomicLong average, long value) {
+        while (true) {
+            long old = average.get();
+            long update = old == 0 ? value : old + ((value - old) >> EWMA_SHIFT);
+            if (average.compareAndSet(old, update))
+                return;
+        }
+    }
+
+    /**
+     * 统计一次错过截止时间。
+     */
+    private void recordMiss(long lateness) {
+        mMissCount.incrementAndGet();
+        mTotalLateness.addAndGet(Math.max(lateness, 0));
+    }
+
+    @Override
+    public int compare(B task1, B task2, B curTask) {
+        long deadline1 = getDeadline(task1);
+        long deadline2 = getDeadline(task2);
+        if (deadline1 != deadline2) {
+            if (deadline1 <= XDeadlineBean.NO_DEADLINE)
+                return 1;
+            if (deadline2 <= XDeadlineBean.NO_DEADLINE)
+                return -1;
+            return deadline1 < deadline2 ? -1 : 1;
+        }
+        return super.compare(task1, task2, curTask);
+    }
+
+    @Override
+    public B selectVictim(B candidate, List<B> runningTasks) {
+        long deadline = getDeadline(candidate);
+        if (deadline <= XDeadlineBean.NO_DEADLINE || runningTasks.size() == 0)
+            return null;
+
+        long now = System.currentTimeMillis();
+        long remain = estimateRemainTime(candidate);
+        // 无法预估时不知道是否来得及，不抢占；立即执行也来不及，抢占没有意义
+        if (remain < 0 || now + remain > deadline)
+            return null;
+        // 等到最快结束的任务让出位置，依然来得及，不需要抢占
+        long minWait = Long.MAX_VALUE;
+        for (B task : runningTasks) {
+            long taskRemain = estimateRemainTime(task);
+            if (taskRemain >= 0)
+                minWait = Math.min(minWait, taskRemain);
+        }
+        if (minWait != Long.MAX_VALUE && now + minWait + remain <= deadline)
+            return null;
+
+        // 选择截止时间最晚的任务(没有截止时间的最先)，剩余时间长的优先
+        B victim = null;
+        long victimDeadline = 0;
+        long victimRemain = 0;
+        for (B task : runningTasks) {
+            long taskDeadline = getDeadline(task);
+            long taskRemain = estimateRemainTime(task);
+            if (taskDeadline > XDeadlineBean.NO_DEADLINE) {
+                // 只抢占截止时间更晚，且让出位置后依然来得及的任务
+                if (taskDeadline <= deadline || taskRemain < 0
+                        || now + remain + taskRemain > taskDeadline)
+                    continue;
+            }
+            if (victim == null || isLooser(taskDeadline, taskRemain, victimDeadline, victimRemain)) {
+                victim = task;
+                victimDeadline = taskDeadline;
+                victimRemain = taskRemain;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * 判断任务1是否比任务2更适合被抢占。
+     */
+    private static boolean isLooser(long deadline1, long remain1, long deadline2, long remain2) {
+        if (deadline1 != deadline2) {
+            if (deadline1 <= XDeadlineBean.NO_DEADLINE)
+                return true;
+            if (deadline2 <= XDeadlineBean.NO_DEADLINE)
+                return false;
+            return deadline1 > deadline2;
+        }
+        return remain1 > remain2;
+    }
+
+    @Override
+    public void onStart(B task) {
+        super.onStart(task);
+        mStartTimes.put(task.getId(), System.currentTimeMillis());
+    }
+
+    @Override
+    public void onSpeedUpdate(B task, long speed) {
+        super.onSpeedUpdate(task, speed);
+        if (speed > 0)
+            updateAverage(mAvgSpeed, speed);
+    }
+
+    @Override
+    public void onComplete(B task) {
+        super.onComplete(task);
+        long now = System.currentTimeMillis();
+        Long startTime = mStartTimes.remove(task.getId());
+        if (startTime != null && now > startTime)
+            updateAverage(mAvgDuration, now - startTime);
+        // 出错时已经统计过，重新执行后完成的不再统计
+        if (!mCounted.add(task.getId()))
+            return;
+        long deadline = getDeadline(task);
+        if (deadline <= XDeadlineBean.NO_DEADLINE)
+            return;
+        long lateness = now - deadline;
+        if (lateness <= 0)
+            mMetCount.incrementAndGet();
+        else
+            recordMiss(lateness);
+    }
+
+    @Override
+    public void onError(B task, String errorCode) {
+        super.onError(task, errorCode);
+        mStartTimes.remove(task.getId());
+        // 还没到截止时间的任务可能重新执行，等删除时再统计
+        long deadline = getDeadline(task);
+        long now = System.currentTimeMillis();
+        if (deadline > XDeadlineBean.NO_DEADLINE && now > deadline && mCounted.add(task.getId()))
+            recordMiss(now - deadline);
+    }
+
+    @Override
+    public void onRemove(B task) {
+        super.onRemove(task);
+        onRemoved(task, System.currentTimeMillis());
+    }
+
+    @Override
+    public void onRemoveAll(List<B> tasks) {
+        super.onRemoveAll(tasks);
+        long now = System.currentTimeMillis();
+        for (B task : tasks)
+            onRemoved(task, now);
+    }
+
+    /**
+     * 删除还没统计过(未完成)的任务时，如果已过截止时间或者处于错误状态，算作错过截止时间。
+     * 还没到截止时间就被删除(取消)的任务不统计。
+     * 注意：删除前任务已被终止，不能通过STATUS_DONE判断是否完成过。
+     */
+    private void onRemoved(B task, long now) {
+        mStartTimes.remove(task.getId());
+        if (mCounted.remove(task.getId()))
+            return;
+        long deadline = getDeadline(task);
+        if (deadline <= XDeadlineBean.NO_DEADLINE)
+            return;
+        if (now > deadline || task.getStatus() == XTaskBean.STATUS_ERROR)
+            recordMiss(now - deadline);
+    }
+
+    @Override
+    public void onRemainTimeUpdate(B task, long remainTime) {
+        super.onRemainTimeUpdate(task, remainTime);
+        XParallelMgr<B> taskMgr = mTaskMgr;
+        if (taskMgr == null)
+            return;
+        // 限制检查频率，多个任务同时更新时只检查一次
+        long now = System.currentTimeMillis();
+        long last = mLastPreemptTime.get();
+        if (now - last < mPreemptInterval || !mLastPreemptTime.compareAndSet(last, now))
+            return;
+        taskMgr.preempt();
+    }
+}
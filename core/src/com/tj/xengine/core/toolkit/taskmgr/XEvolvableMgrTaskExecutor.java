@@ -29,12 +29,12 @@ public abstract class XEvolvableMgrTaskExecutor<B extends XTaskBean>
     }
 
     @Override
-    protected synchronized void evolve(XBaseTaskExecutor<B> evolvedTask) {
-        super.evolve(evolvedTask);
+    protected void evolve(XBaseTaskExecutor<B> evolvedTask) {
         if (evolvedTask instanceof XMgrTaskExecutor) {
             ((XMgrTaskExecutor) evolvedTask).setTaskMgr(mTaskMgr);
             ((XMgrTaskExecutor) evolvedTask).setSpeedCalculator(mSpeedCalculator);
         }
+        super.evolve(evolvedTask);
     }
 
     @Override
@@ -0,0 +1,31 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+/**
+ * <pre>
+ * 线性执行器的抢占策略。
+ * 调用start(taskId)要求执行另一个任务时，由策略决定切换的时机：
+ * 1.PREEMPT_NOW：立即暂停当前任务，启动新任务(没有设置策略时的行为)；
+ * 2.PREEMPT_SOFT：软抢占，先让当前任务把缓冲区中的数据落盘，
+ *   到达安全点后再切换，当前任务需要实现XSoftPreemptible；
+ * 3.PREEMPT_DEFER：推迟切换，新任务排到等待队列的最前面，
+ *   当前任务结束，或之后调用preempt()时策略同意切换，再启动新任务。
+ * </pre>
+ * @see XCostAwarePreemption
+ * @see XSoftPreemptible
+ */
+public interface XPreemptionPolicy<B extends XTaskBean> {
+
+    int PREEMPT_NOW = 0;// 立即切换
+    int PREEMPT_SOFT = 1;// 当前任务到达安全点后切换
+    int PREEMPT_DEFER = 2;// 暂不切换
+
+    /**
+     * 决定是否切换到新任务。
+     * @param current 当前正在执行的任务
+     * @param candidate 要求执行的新任务
+     * @return PREEMPT_NOW、PREEMPT_SOFT或PREEMPT_DEFER
+     */
+    int decide(XMgrTaskExecutor<B> current, XMgrTaskExecutor<B> candidate);
+}
@@ -0,0 +1,22 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+import java.util.List;
+
+/**
+ * <pre>
+ * 可抢占的任务调度器接口。
+ * 除了排序等待中的任务，还可以在执行队列已满时，
+ * 决定是否暂停一个正在执行的任务，把执行机会让给更紧急的等待任务。
+ * </pre>
+ * @see com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgr#preempt()
+ */
+public interface XPreemptiveScheduler<T> extends XTaskScheduler<T> {
+
+    /**
+     * 选择被抢占的任务。
+     * @param candidate 排序后第一个等待执行的任务
+     * @param runningTasks 正在执行的任务
+     * @return 返回需要暂停的任务(必须是runningTasks中的一个)；不需要抢占返回null
+     */
+    T selectVictim(T candidate, List<T> runningTasks);
+}
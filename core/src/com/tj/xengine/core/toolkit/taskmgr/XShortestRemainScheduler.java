@@ -0,0 +1,77 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * 剩余时间最短优先(shortest-remaining-first)的任务调度器。
+ * 同时是XTaskMgrListener，通过onRemainTimeUpdate()收集各任务的预估剩余时间。
+ * 使用方式:
+ *      XShortestRemainScheduler<B> scheduler = new XShortestRemainScheduler<B>();
+ *      taskMgr.registerListener(scheduler);
+ *      taskMgr.setTaskScheduler(scheduler);
+ * 注意:
+ * 1.只有运行过的任务才有剩余时间，从未运行过的任务排在有剩余时间的任务之后；
+ * 2.剩余时间相同或都未知的任务，保持原有顺序。
+ * </pre>
+ */
+public class XShortestRemainScheduler<B extends XTaskBean>
+        extends XTaskMgrListenerAdapter<B> implements XTaskScheduler<B> {
+
+    private ConcurrentHashMap<String, Long> mRemainTimes;// 任务Id -> 剩余时间(单位:毫秒)
+
+    public XShortestRemainScheduler() {
+        mRemainTimes = new ConcurrentHashMap<String, Long>();
+    }
+
+    /**
+     * 获取任务最近一次预估的剩余时间。
+     * @param taskId 任务的唯一Id
+     * @return 返回剩余时间(单位:毫秒)；未知时返回-1
+     */
+    public long getRemainTime(String taskId) {
+        if (taskId == null)
+            return -1;
+        Long remainTime = mRemainTimes.get(taskId);
+        return remainTime == null ? -1 : remainTime;
+    }
+
+    @Override
+    public int compare(B task1, B task2, B curTask) {
+        long remain1 = getRemainTime(task1.getId());
+        long remain2 = getRemainTime(task2.getId());
+        if (remain1 < 0 && remain2 < 0)
+            return 0;
+        if (remain1 < 0)
+            return 1;
+        if (remain2 < 0)
+            return -1;
+        return remain1 < remain2 ? -1 : (remain1 == remain2 ? 0 : 1);
+    }
+
+    @Override
+    public void onRemove(B task) {
+        mRemainTimes.remove(task.getId());
+    }
+
+    @Override
+    public void onRemoveAll(List<B> tasks) {
+        for (B task : tasks)
+            mRemainTimes.remove(task.getId());
+    }
+
+    @Override
+    public void onComplete(B task) {
+        mRemainTimes.remove(task.getId());
+    }
+
+    @Override
+    public void onRemainTimeUpdate(B task, long remainTime) {
+        // 速度暂时为0时无法预估，保留上一次的预估值
+        if (remainTime >= 0)
+            mRemainTimes.put(task.getId(), remainTime);
+    }
+}
@@ -0,0 +1,26 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+/**
+ * <pre>
+ * 支持软抢占的任务。
+ * 被抢占前，任务先把已读取但未落盘的数据写完，到达安全点后再通知任务管理器切换，
+ * 避免切换后这部分数据需要重新下载。
+ * </pre>
+ * @see XPreemptionPolicy#PREEMPT_SOFT
+ */
+public interface XSoftPreemptible {
+
+    /**
+     * 获取已读取但未落盘的数据量。
+     * @return 单位:byte
+     */
+    long getBytesInFlight();
+
+    /**
+     * 请求任务尽快到达安全点(缓冲区中的数据已全部落盘)。
+     * 到达后在任务自己的线程中调用一次onDrained，任务本身不暂停。
+     * @param onDrained 到达安全点的回调
+     * @return 请求成功返回true；任务没有在执行返回false
+     */
+    boolean drain(Runnable onDrained);
+}
@@ -0,0 +1,17 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+/**
+ * <pre>
+ * 任务分组器接口。
+ * 用于把任务划分到不同的分组(比如按Host、按类型)，
+ * 任务管理器可以按分组限制并发数，并在分组之间公平地分配执行机会。
+ * </pre>
+ */
+public interface XTaskGrouper<T> {
+    /**
+     * 获取任务所属的分组。
+     * @param task 任务
+     * @return 返回分组名，不能确定分组时可以返回null(所有这类任务属于同一个分组)
+     */
+    String getGroup(T task);
+}
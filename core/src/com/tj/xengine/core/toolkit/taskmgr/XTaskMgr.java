@@ -71,6 +71,16 @@ public interface XTaskMgr<T extends XMgrTaskExecutor<B>, B extends XTaskBean> {
      */
     void removeTasksById(List<String> taskIds);
 
+    /**
+     * 批量删除符合条件(filter.doFilter()不返回null)的任务，包括正在执行的任务。
+     * 在锁外执行过滤，之后在一次加锁中删除，每个队列只遍历一次，
+     * 其他操作不会看到只删除了一部分的中间状态；
+     * 所有任务删除后只回调一次onRemoveAll()。
+     * @param filter 删除条件
+     * @return 返回被删除的任务数
+     */
+    int removeTasksByFilter(XFilter<B> filter);
+
     /**
      * 启动运行队列的所有任务；
      * 如果运行队列未满，则启动多个等待队列中的任务直到满
@@ -153,6 +163,18 @@ public interface XTaskMgr<T extends XMgrTaskExecutor<B>, B extends XTaskBean> {
      */
     boolean stopByFilter(XFilter<B> filter);
 
+    /**
+     * 批量停止所有符合条件(filter.doFilter()不返回null)的任务，包括正在执行的和等待中的。
+     * 正在执行的任务被暂停，等待中的任务不再等待执行，它们都被改为DEFAULT状态，
+     * 不会再被自动执行，直到对其调用start(taskId)或resume(taskId)。
+     * 在锁外执行过滤，之后在一次加锁中批量转换状态，每个队列只遍历一次。
+     * 与stopByFilter()不同，不会修改当前的任务过滤器；
+     * 所有被停止的任务只回调一次onStopBatch()，不再逐个回调onStop()。
+     * @param filter 停止条件
+     * @return 返回被停止的任务数
+     */
+    int stopTasks(XFilter<B> filter);
+
     /**
      * 停止并清空所有任务。
      */
@@ -7,6 +7,7 @@ import java.util.List;
 /**
  * <pre>
  * 任务管理器监听接口
+ * 只关心部分回调时，建议继承{@link XTaskMgrListenerAdapter}。
  * User: jasontujun
  * Date: 13-9-27
  * Time: 下午4:11
@@ -53,6 +54,15 @@ public interface XTaskMgrListener<T extends XTaskBean> {
      */
     void onStop(T task);
 
+    /**
+     * 批量停止的回调函数。
+     * stopTasks()批量停止任务时，只回调一次此方法，不再逐个回调onStop()。
+     * 注意：此方法是后来新增的，已有的实现可以改为继承{@link XTaskMgrListenerAdapter}，
+     * 其默认实现逐个回调onStop()，保持原有的行为。
+     * @param tasks 被停止的任务列表
+     */
+    void onStopBatch(List<T> tasks);
+
     /**
      * 所有任务都暂停。
      * remove、stop、stopAndReset等操作会触发此回调。
@@ -91,4 +101,13 @@ public interface XTaskMgrListener<T extends XTaskBean> {
      * @param speed
      */
     void onSpeedUpdate(T task, long speed);
+
+    /**
+     * 预估剩余时间更新的回调函数（在异步线程）
+     * 只有实现了XRemainTimeCalculable的任务才会触发此回调，剩余时间未知时不回调。
+     * @param task
+     * @param remainTime 剩余时间（单位：毫秒），不小于0
+     * @see com.tj.xengine.core.toolkit.taskmgr.speed.calc.XRemainTimeCalculable
+     */
+    void onRemainTimeUpdate(T task, long remainTime);
 }
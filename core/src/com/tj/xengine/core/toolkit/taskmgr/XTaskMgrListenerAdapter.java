@@ -0,0 +1,62 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+import java.util.List;
+
+/**
+ * <pre>
+ * XTaskMgrListener的空实现。
+ * 只关心部分回调的监听者可以继承此类，只重写需要的方法，
+ * XTaskMgrListener以后增加新的回调时，继承此类的监听者不需要修改。
+ * onStopBatch()默认逐个回调onStop()。
+ * </pre>
+ */
+public abstract class XTaskMgrListenerAdapter<T extends XTaskBean>
+        implements XTaskMgrListener<T> {
+
+    @Override
+    public void onAdd(T task) {}
+
+    @Override
+    public void onAddAll(List<T> tasks) {}
+
+    @Override
+    public void onRemove(T task) {}
+
+    @Override
+    public void onRemoveAll(List<T> tasks) {}
+
+    @Override
+    public void onStart(T task) {}
+
+    @Override
+    public void onStop(T task) {}
+
+    @Override
+    public void onStopBatch(List<T> tasks) {
+        for (T task : tasks)
+            onStop(task);
+    }
+
+    @Override
+    public void onStopAll() {}
+
+    @Override
+    public void onFinishAll() {}
+
+    @Override
+    public void onDoing(T task, long completeSize) {}
+
+    @Override
+    public void onComplete(T task) {}
+
+    @Override
+    public void onError(T task, String errorCode) {}
+
+    @Override
+    public void onSpeedUpdate(T task, long speed) {}
+
+    @Override
+    public void onRemainTimeUpdate(T task, long remainTime) {}
+}
@@ -0,0 +1,16 @@
+package com.tj.xengine.core.toolkit.taskmgr;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+/**
+ * <pre>
+ * 按任务类型({@link XTaskBean#getType()})分组的任务分组器。
+ * </pre>
+ */
+public class XTypeGrouper<T extends XTaskBean> implements XTaskGrouper<T> {
+
+    @Override
+    public String getGroup(T task) {
+        return String.valueOf(task.getType());
+    }
+}
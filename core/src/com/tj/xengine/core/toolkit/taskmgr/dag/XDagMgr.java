@@ -0,0 +1,69 @@
+package com.tj.xengine.core.toolkit.taskmgr.dag;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgr;
+
+import java.util.List;
+
+/**
+ * <pre>
+ * 带依赖关系的并行任务执行器接口。
+ * 任务之间可以添加依赖(前驱任务 -> 后继任务)，构成一个有向无环图：
+ * 1.只有所有前驱任务都成功完成(DONE)，后继任务才能被执行；
+ * 2.前驱任务失败(且不重试)时，所有直接或间接的后继任务都以
+ *   {@link #ERROR_DEPENDENCY_FAILED}失败结束；
+ * 3.没有依赖关系的任务之间完全并行执行。
+ * B表示数据的类型
+ * </pre>
+ */
+public interface XDagMgr<B extends XTaskBean> extends XParallelMgr<B> {
+
+    /**
+     * 前驱任务失败导致的失败错误码
+     */
+    String ERROR_DEPENDENCY_FAILED = "-1001";
+
+    /**
+     * 添加任务，同时添加该任务对其他任务的依赖。
+     * @param task 新任务
+     * @param predecessorIds 新任务依赖的前驱任务Id(必须已经在任务管理器中，或已成功完成)
+     * @return 添加成功返回true；任务重复或前驱任务不存在，返回false
+     */
+    boolean addTask(XMgrTaskExecutor<B> task, String... predecessorIds);
+
+    /**
+     * 添加一条依赖：后继任务在前驱任务成功完成后才能执行。
+     * @param predecessorId 前驱任务Id(已成功完成的任务视为依赖已满足)
+     * @param successorId 后继任务Id(必须还在等待队列中)
+     * @return 添加成功或依赖已满足返回true；任务不存在，后继任务已在执行，或会形成环，返回false
+     */
+    boolean addDependency(String predecessorId, String successorId);
+
+    /**
+     * 删除一条依赖。
+     * @return 依赖存在并删除成功返回true；否则返回false
+     */
+    boolean removeDependency(String predecessorId, String successorId);
+
+    /**
+     * 指定任务的所有前驱任务是否都已成功完成。
+     * @return 任务存在且可以执行返回true；否则返回false
+     */
+    boolean isReady(String taskId);
+
+    /**
+     * 获取关键路径上尚未完成的任务。
+     * 关键路径是剩余工作量最长的一条依赖链，决定了所有任务完成的最短时间。
+     * @return 按依赖顺序排列的任务数据列表
+     */
+    List<B> getCriticalPath();
+
+    /**
+     * 获取关键路径的进度。
+     * 等于 1 - 最长剩余依赖链的工作量 / 最长依赖链的长度，
+     * 其中每个任务的工作量为1，执行中的任务按已完成比例扣除。
+     * @return 0~1之间的进度值，没有任务时返回1
+     */
+    float getCriticalPathProgress();
+}
@@ -0,0 +1,429 @@
+package com.tj.xengine.core.toolkit.taskmgr.dag;
+
+import com.tj.xengine.core.toolkit.task.XBaseTaskExecutor;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgrImpl;
+import com.tj.xengine.core.toolkit.taskmgr.speed.calc.XRemainTimeCalculable;
+
+import java.util.*;
+
+/**
+ * <pre>
+ * 带依赖关系的并行执行器，实现XDagMgr接口。
+ * 在XParallelMgrImpl的基础上：
+ * 1.等待队列中前驱任务没有全部完成的任务不会被执行，
+ *   也不能通过start(id)、resume(id)强制执行；
+ * 2.一个任务完成后，可能同时有多个后继任务就绪，会一次性补满运行队列；
+ * 3.任务失败且不重试时，所有后继任务都会被丢弃，
+ *   并回调onError(task, ERROR_DEPENDENCY_FAILED)；
+ * 4.删除任务时，会同时删除该任务的所有依赖，其后继任务不再等待它；
+ * 5.只有参与依赖关系的任务才会记录在依赖图中，
+ *   成功完成的任务会保留在图中(用于计算关键路径)，
+ *   直到与它相连的所有任务都成功完成，整组任务一起从图中移除；
+ * 6.最近成功完成的MAX_DONE_IDS个任务Id会被记住，
+ *   添加任务或依赖时，以它们为前驱任务视为依赖已满足。
+ * </pre>
+ */
+public class XDagMgrImpl<B extends XTaskBean> extends XParallelMgrImpl<B>
+        implements XDagMgr<B> {
+
+    public static final int MAX_DONE_IDS = 4096;// 记住的已完成任务Id数量上限
+
+    private Map<String, Node> mNodes;// 依赖图(任务Id -> 节点)
+    private Set<String> mDoneIds;// 最近成功完成的任务Id(按完成顺序淘汰)
+
+    public XDagMgrImpl(int parallelLimit) {
+        super(parallelLimit);
+        mNodes = new HashMap<String, Node>();
+        mDoneIds = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_DONE_IDS;
+            }
+        });
+    }
+
+    @Override
+    public synchronized boolean addTask(XMgrTaskExecutor<B> task, String... predecessorIds) {
+        // 先检查所有前驱任务都存在或已完成，保证添加任务和依赖是原子的
+        for (String predecessorId : predecessorIds) {
+            if (findTask(predecessorId) == null && !mDoneIds.contains(predecessorId))
+                return false;
+        }
+        if (!addTask(task))
+            return false;
+        for (String predecessorId : predecessorIds)
+            addDependency(predecessorId, getTaskId(task));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean addDependency(String predecessorId, String successorId) {
+        if (predecessorId == null || predecessorId.equals(successorId))
+            return false;
+        XMgrTaskExecutor<B> predecessor = findTask(predecessorId);
+        XMgrTaskExecutor<B> successor = getTaskById(successorId);
+        if (successor == null)
+            return false;
+        if (predecessor == null)// 前驱任务已完成并离开了依赖图，依赖已满足
+            return mDoneIds.contains(predecessorId);
+        // 后继任务已经开始执行，不能再添加依赖
+        if (successor.getStatus() == XTaskBean.STATUS_DOING
+                || successor.getStatus() == XTaskBean.STATUS_STARTING
+                || mCurrentExecuted.contains(successor))
+            return false;
+        Node preNode = getOrCreateNode(predecessorId, predecessor);
+        Node sucNode = getOrCreateNode(successorId, successor);
+        // 如果后继任务能到达前驱任务，则添加后会形成环
+        if (isReachable(sucNode, preNode))
+            return false;
+        preNode.succs.add(sucNode);
+        sucNode.preds.add(preNode);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeDependency(String predecessorId, String successorId) {
+        Node preNode = mNodes.get(predecessorId);
+        Node sucNode = mNodes.get(successorId);
+        if (preNode == null || sucNode == null || !preNode.succs.remove(sucNode))
+            return false;
+        sucNode.preds.remove(preNode);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isReady(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        return task != null && isReady(task);
+    }
+
+    private boolean isReady(XMgrTaskExecutor<B> task) {
+        Node node = mNodes.get(getTaskId(task));
+        if (node == null)
+            return true;
+        for (Node pre : node.preds) {
+            if (pre.task.getStatus() != XTaskBean.STATUS_DONE)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized List<B> getCriticalPath() {
+        LinkedList<B> path = new LinkedList<B>();
+        Node tail = computeCriticalPath();
+        // 不在依赖图中的任务，自身就是一条长度为1的依赖链
+        XMgrTaskExecutor<B> isolated = findHeaviestIsolatedTask();
+        if (isolated != null && (tail == null || weight(isolated) > tail.remain)) {
+            path.add(isolated.getBean());
+            return path;
+        }
+        for (Node node = tail; node != null; node = node.best) {
+            if (node.task.getStatus() != XTaskBean.STATUS_DONE)
+                path.addFirst(node.task.getBean());
+        }
+        return path;
+    }
+
+    @Override
+    public synchronized float getCriticalPathProgress() {
+        int maxLength = 0;
+        float maxRemain = 0;
+        Node tail = computeCriticalPath();
+        if (tail != null)
+            maxRemain = tail.remain;
+        for (Node node : mNodes.values())
+            maxLength = Math.max(maxLength, node.length);
+        XMgrTaskExecutor<B> isolated = findHeaviestIsolatedTask();
+        if (isolated != null) {
+            maxLength = Math.max(maxLength, 1);
+            maxRemain = Math.max(maxRemain, weight(isolated));
+        }
+        if (maxLength == 0)
+            return 1;
+        return 1 - maxRemain / maxLength;
+    }
+
+    @Override
+    protected boolean isRunnable(XMgrTaskExecutor<B> task) {
+        return super.isRunnable(task) && isReady(task);
+    }
+
+    @Override
+    public synchronized boolean start(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        if (task == null || !isReady(task))
+            return false;
+        return super.start(taskId);
+    }
+
+    @Override
+    public synchronized boolean resume(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        if (task == null || !isReady(task))
+            return false;
+        return super.resume(taskId);
+    }
+
+    @Override
+    public synchronized void setRunningTask(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        if (task == null || !isReady(task))
+            return;
+        super.setRunningTask(taskId);
+    }
+
+    @Override
+    public synchronized void removeTask(XMgrTaskExecutor<B> task) {
+        super.removeTask(task);
+        if (task != null && getTaskById(getTaskId(task)) != task)
+            removeNode(getTaskId(task));
+    }
+
+    @Override
+    protected void removeBatch(List<XMgrTaskExecutor<B>> batch, List<B> removed) {
+        super.removeBatch(batch, removed);
+        for (XMgrTaskExecutor<B> task : batch) {
+            if (task != null && getTaskById(getTaskId(task)) != task)
+                removeNode(getTaskId(task));
+        }
+    }
+
+    @Override
+    public synchronized void stopAndReset() {
+        super.stopAndReset();
+        mNodes.clear();
+        mDoneIds.clear();
+    }
+
+    @Override
+    public synchronized void notifyTaskFinished(XMgrTaskExecutor<B> task, boolean addBack) {
+        if (task == null)
+            return;
+
+        // 失败且不重试的任务，先丢弃其所有后继任务，再寻找下一个任务
+        if (task.getStatus() == XTaskBean.STATUS_ERROR && !addBack)
+            failSuccessors(task);
+        super.notifyTaskFinished(task, addBack);
+        if (task.getStatus() == XTaskBean.STATUS_DONE && getTaskId(task) != null) {
+            mDoneIds.add(getTaskId(task));
+            pruneDone(getTaskId(task));
+        }
+
+        // 一个任务完成后可能有多个后继任务同时就绪，补满运行队列
+        if (!mIsWorking || !mAuto)
+            return;
+        boolean started = false;
+        for (XMgrTaskExecutor<B> nextTask : fillRunningQueue()) {
+            nextTask.start();
+            started = true;
+        }
+        if (started && mSpeedMonitor != null)
+            mSpeedMonitor.start();
+    }
+
+    /**
+     * 丢弃失败任务的所有直接和间接后继任务，并回调onError()。
+     */
+    private void failSuccessors(XMgrTaskExecutor<B> task) {
+        Node source = mNodes.get(getTaskId(task));
+        if (source == null)
+            return;
+        List<Node> failed = new ArrayList<Node>();
+        Set<Node> visited = new HashSet<Node>();
+        LinkedList<Node> queue = new LinkedList<Node>(source.succs);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            if (!visited.add(node))
+                continue;
+            if (node.task.getStatus() == XTaskBean.STATUS_DONE)
+                continue;
+            failed.add(node);
+            queue.addAll(node.succs);
+        }
+        removeNode(source.id);
+        for (Node node : failed) {
+            XMgrTaskExecutor<B> failedTask = node.task;
+            // 通过状态机停止正在执行的任务(DOING -> TODO)，再标记为失败
+            if (mCurrentExecuted.remove(failedTask))
+                failedTask.pause();
+            else
+                mTobeExecuted.remove(failedTask);
+            markError(failedTask);
+            unindexTask(failedTask);
+            removeNode(node.id);
+            for (XTaskMgrListener<B> listener : mListeners)
+                listener.onError(failedTask.getBean(), ERROR_DEPENDENCY_FAILED);
+        }
+    }
+
+    /**
+     * 把等待中的任务标记为失败。
+     * 只在任务没有进行中的转换、且处于TODO状态时修改，不覆盖任务自己的转换结果。
+     */
+    private static void markError(XMgrTaskExecutor<?> task) {
+        if (task instanceof XBaseTaskExecutor) {
+            ((XBaseTaskExecutor<?>) task).compareAndSetStatus(
+                    XTaskBean.STATUS_TODO, XTaskBean.STATUS_ERROR);
+        } else if (task.getStatus() == XTaskBean.STATUS_TODO) {
+            task.setStatus(XTaskBean.STATUS_ERROR);
+        }
+    }
+
+    /**
+     * 如果与该任务相连的所有任务都已成功完成，把它们一起移出依赖图。
+     * 遇到第一个未完成的任务就停止查找。
+     */
+    private void pruneDone(String taskId) {
+        Node start = mNodes.get(taskId);
+        if (start == null)
+            return;
+        Set<Node> component = new HashSet<Node>();
+        LinkedList<Node> stack = new LinkedList<Node>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (!component.add(node))
+                continue;
+            if (node.task.getStatus() != XTaskBean.STATUS_DONE
+                    || getTaskById(node.id) == node.task)
+                return;
+            stack.addAll(node.preds);
+            stack.addAll(node.succs);
+        }
+        for (Node node : component)
+            mNodes.remove(node.id);
+    }
+
+    /**
+     * 查找任务，包括已经成功完成、但仍保留在依赖图中的任务。
+     */
+    private XMgrTaskExecutor<B> findTask(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        if (task != null)
+            return task;
+        Node node = mNodes.get(taskId);
+        return node == null ? null : node.task;
+    }
+
+    private Node getOrCreateNode(String taskId, XMgrTaskExecutor<B> task) {
+        Node node = mNodes.get(taskId);
+        if (node == null) {
+            node = new Node(taskId, task);
+            mNodes.put(taskId, node);
+        }
+        return node;
+    }
+
+    private void removeNode(String taskId) {
+        Node node = mNodes.remove(taskId);
+        if (node == null)
+            return;
+        for (Node pre : node.preds)
+            pre.succs.remove(node);
+        for (Node suc : node.succs)
+            suc.preds.remove(node);
+    }
+
+    private boolean isReachable(Node from, Node to) {
+        Set<Node> visited = new HashSet<Node>();
+        LinkedList<Node> stack = new LinkedList<Node>();
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (node == to)
+                return true;
+            if (visited.add(node))
+                stack.addAll(node.succs);
+        }
+        return false;
+    }
+
+    /**
+     * 按拓扑顺序计算每个节点的最长依赖链长度和最长剩余工作量。
+     * @return 返回剩余工作量最大的依赖链的末尾节点，依赖图为空时返回null
+     */
+    private Node computeCriticalPath() {
+        LinkedList<Node> ready = new LinkedList<Node>();
+        for (Node node : mNodes.values()) {
+            node.pending = node.preds.size();
+            node.length = 0;
+            node.remain = 0;
+            node.best = null;
+            if (node.pending == 0)
+                ready.add(node);
+        }
+        Node tail = null;
+        while (!ready.isEmpty()) {
+            Node node = ready.poll();
+            node.length += 1;
+            node.remain += weight(node.task);
+            if (tail == null || node.remain > tail.remain)
+                tail = node;
+            for (Node suc : node.succs) {
+                suc.length = Math.max(suc.length, node.length);
+                if (suc.best == null || node.remain > suc.remain) {
+                    suc.remain = node.remain;
+                    suc.best = node;
+                }
+                if (--suc.pending == 0)
+                    ready.add(suc);
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * 不在依赖图中的未完成任务里，剩余工作量最大的一个。
+     */
+    private XMgrTaskExecutor<B> findHeaviestIsolatedTask() {
+        XMgrTaskExecutor<B> result = null;
+        for (XMgrTaskExecutor<B> task : mTaskIndex.values()) {
+            if (mNodes.containsKey(getTaskId(task)))
+                continue;
+            if (result == null || weight(task) > weight(result))
+                result = task;
+        }
+        return result;
+    }
+
+    /**
+     * 任务的剩余工作量：未开始为1，已完成为0，
+     * 能获取总大小的任务按已完成比例扣除。
+     */
+    private static float weight(XMgrTaskExecutor<?> task) {
+        if (task.getStatus() == XTaskBean.STATUS_DONE)
+            return 0;
+        if (task instanceof XRemainTimeCalculable) {
+            long totalSize = ((XRemainTimeCalculable) task).getTotalSize();
+            if (totalSize > 0) {
+                float ratio = (float) task.getCompleteSize() / totalSize;
+                return 1 - Math.max(0, Math.min(ratio, 1));
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * 依赖图的节点。
+     */
+    private class Node {
+        final String id;
+        final XMgrTaskExecutor<B> task;
+        final Set<Node> preds = new LinkedHashSet<Node>();// 前驱节点
+        final Set<Node> succs = new LinkedHashSet<Node>();// 后继节点
+        // 计算关键路径时的临时数据
+        int pending;
+        int length;
+        float remain;
+        Node best;
+
+        Node(String id, XMgrTaskExecutor<B> task) {
+            this.id = id;
+            this.task = task;
+        }
+    }
+}
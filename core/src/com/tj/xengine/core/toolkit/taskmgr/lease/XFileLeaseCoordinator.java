@@ -0,0 +1,359 @@
+package com.tj.xengine.core.toolkit.taskmgr.lease;
+
+import com.tj.xengine.core.utils.XStringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <pre>
+ * 基于共享目录和文件锁的租约协调器，用于同一台机器上的多个进程。
+ * 1.目录下每个任务对应一个租约文件(任务Id的md5.lease)，
+ *   记录状态(认领中/已完成)、持有者Id和过期时间；
+ * 2.所有读写都在目录锁文件(lease.lock)的排他文件锁内进行，
+ *   进程退出时操作系统会自动释放文件锁，不会有残留的锁；
+ * 3.认领时如果发现其他持有者的租约有效，在本地记住其过期时间，
+ *   过期之前不再读文件，避免反复加锁。
+ * 注意：
+ * 1.过期时间使用System.currentTimeMillis()，要求所有进程在同一台机器上；
+ * 2.其他持有者提前释放的租约，最迟要等到原来的过期时间之后才会被本持有者发现；
+ * 3.完成标记会被本地缓存，clear()之后其他进程需要重新创建协调器才能认领。
+ * </pre>
+ */
+public class XFileLeaseCoordinator implements XLeaseCoordinator {
+
+    public static final long DEFAULT_LEASE_TIME = 30 * 1000;// 默认租约时长，30秒
+
+    private static final String LOCK_FILE_NAME = "lease.lock";
+    private static final String LEASE_SUFFIX = ".lease";
+    private static final byte STATE_LEASED = 1;// 认领中
+    private static final byte STATE_COMPLETED = 2;// 已完成
+
+    // 同一进程内多个协调器使用同一目录时，文件锁不能重复获取，先用进程内的锁互斥
+    private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final File mDir;
+    private final String mOwnerId;
+    private final long mLeaseTime;
+    private final Object mJvmLock;
+    private final Set<String> mHeld;// 当前持有的租约
+    private final ConcurrentMap<String, Long> mForeign;// 其他持有者的租约(任务Id -> 过期时间)
+    private RandomAccessFile mLockFile;
+    private FileChannel mLockChannel;
+
+    public XFileLeaseCoordinator(String dir) {
+        this(dir, null, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * @param dir 共享目录，所有进程必须使用同一个目录
+     * @param ownerId 持有者Id，为null时随机生成
+     * @param leaseTime 租约时长(单位:毫秒)
+     */
+    public XFileLeaseCoordinator(String dir, String ownerId, long leaseTime) {
+        mDir = new File(dir);
+        if (!mDir.exists())
+            mDir.mkdirs();
+        mOwnerId = ownerId != null ? ownerId : UUID.randomUUID().toString();
+        mLeaseTime = Math.max(leaseTime, 1000);
+        mHeld = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        mForeign = new ConcurrentHashMap<String, Long>();
+        String key;
+        try {
+            key = mDir.getCanonicalPath();
+        } catch (IOException e) {
+            key = mDir.getAbsolutePath();
+        }
+        Object jvmLock = new Object();
+        Object old = JVM_LOCKS.putIfAbsent(key, jvmLock);
+        mJvmLock = old != null ? old : jvmLock;
+    }
+
+    @Override
+    public String getOwnerId() {
+        return mOwnerId;
+    }
+
+    @Override
+    public long getLeaseTime() {
+        return mLeaseTime;
+    }
+
+    @Override
+    public boolean tryAcquire(String taskId) {
+        if (taskId == null)
+            return false;
+        if (mHeld.contains(taskId))
+            return true;
+        Long foreignExpire = mForeign.get(taskId);
+        if (foreignExpire != null && foreignExpire > System.currentTimeMillis())
+            return false;
+
+        synchronized (mJvmLock) {
+            FileLock lock = lock();
+            if (lock == null)
+                return false;
+            try {
+                File file = getLeaseFile(taskId);
+                Record record = readRecord(file);
+                long now = System.currentTimeMillis();
+                if (record != null && record.state == STATE_COMPLETED) {
+                    mForeign.put(taskId, Long.MAX_VALUE);
+                    return false;
+                }
+                if (record != null && !mOwnerId.equals(record.owner) && record.expireTime > now) {
+                    mForeign.put(taskId, record.expireTime);
+                    return false;
+                }
+                if (!writeRecord(file, STATE_LEASED, now + mLeaseTime))
+                    return false;
+                mForeign.remove(taskId);
+                mHeld.add(taskId);
+                return true;
+            } finally {
+                unlock(lock);
+            }
+        }
+    }
+
+    @Override
+    public boolean isHeld(String taskId) {
+        return taskId != null && mHeld.contains(taskId);
+    }
+
+    @Override
+    public boolean isAvailable(String taskId) {
+        if (taskId == null)
+            return false;
+        if (mHeld.contains(taskId))
+            return true;
+        Long foreignExpire = mForeign.get(taskId);
+        return foreignExpire == null || foreignExpire <= System.currentTimeMillis();
+    }
+
+    @Override
+    public List<String> getHeld() {
+        return new ArrayList<String>(mHeld);
+    }
+
+    @Override
+    public void release(String taskId) {
+        if (taskId == null || !mHeld.remove(taskId))
+            return;
+        synchronized (mJvmLock) {
+            FileLock lock = lock();
+            if (lock == null)
+                return;
+            try {
+                File file = getLeaseFile(taskId);
+                Record record = readRecord(file);
+                // 只删除自己的租约
+                if (record != null && record.state == STATE_LEASED
+                        && mOwnerId.equals(record.owner))
+                    file.delete();
+            } finally {
+                unlock(lock);
+            }
+        }
+    }
+
+    @Override
+    public void complete(String taskId) {
+        if (taskId == null)
+            return;
+        mHeld.remove(taskId);
+        synchronized (mJvmLock) {
+            FileLock lock = lock();
+            if (lock == null)
+                return;
+            try {
+                writeRecord(getLeaseFile(taskId), STATE_COMPLETED, 0);
+            } finally {
+                unlock(lock);
+            }
+        }
+        mForeign.put(taskId, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isCompleted(String taskId) {
+        if (taskId == null)
+            return false;
+        Long foreignExpire = mForeign.get(taskId);
+        if (foreignExpire != null && foreignExpire == Long.MAX_VALUE)
+            return true;
+        synchronized (mJvmLock) {
+            FileLock lock = lock();
+            if (lock == null)
+                return false;
+            try {
+                Record record = readRecord(getLeaseFile(taskId));
+                if (record == null || record.state != STATE_COMPLETED)
+                    return false;
+                mForeign.put(taskId, Long.MAX_VALUE);
+                return true;
+            } finally {
+                unlock(lock);
+            }
+        }
+    }
+
+    @Override
+    public void clear(String taskId) {
+        if (taskId == null)
+            return;
+        mHeld.remove(taskId);
+        mForeign.remove(taskId);
+        synchronized (mJvmLock) {
+            FileLock lock = lock();
+            if (lock == null)
+                return;
+            try {
+                getLeaseFile(taskId).delete();
+            } finally {
+                unlock(lock);
+            }
+        }
+    }
+
+    @Override
+    public List<String> renew() {
+        List<String> lost = new ArrayList<String>();
+        if (mHeld.isEmpty())
+            return lost;
+        synchronized (mJvmLock) {
+            FileLock lock = lock();
+            if (lock == null)
+                return lost;
+            try {
+                long expireTime = System.currentTimeMillis() + mLeaseTime;
+                for (String taskId : mHeld) {
+                    File file = getLeaseFile(taskId);
+                    Record record = readRecord(file);
+                    // 租约被清除、完成或被其他持有者认领，视为丢失
+                    if (record == null || record.state != STATE_LEASED
+                            || !mOwnerId.equals(record.owner)
+                            || !writeRecord(file, STATE_LEASED, expireTime)) {
+                        mHeld.remove(taskId);
+                        lost.add(taskId);
+                    }
+                }
+            } finally {
+                unlock(lock);
+            }
+        }
+        return lost;
+    }
+
+    @Override
+    public void close() {
+        for (String taskId : getHeld())
+            release(taskId);
+        synchronized (mJvmLock) {
+            try {
+                if (mLockFile != null)
+                    mLockFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mLockFile = null;
+            mLockChannel = null;
+        }
+    }
+
+    private File getLeaseFile(String taskId) {
+        return new File(mDir, XStringUtil.str2md5(taskId) + LEASE_SUFFIX);
+    }
+
+    /**
+     * 获取目录的排他文件锁(调用时已持有进程内的锁)。
+     * @return 失败返回null
+     */
+    private FileLock lock() {
+        try {
+            if (mLockChannel == null) {
+                mLockFile = new RandomAccessFile(new File(mDir, LOCK_FILE_NAME), "rw");
+                mLockChannel = mLockFile.getChannel();
+            }
+            return mLockChannel.lock();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void unlock(FileLock lock) {
+        try {
+            lock.release();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 读取租约文件。
+     * @return 文件不存在或内容残缺(写入时进程崩溃)返回null，视为没有租约
+     */
+    private static Record readRecord(File file) {
+        if (!file.exists())
+            return null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            Record record = new Record();
+            record.state = raf.readByte();
+            record.owner = raf.readUTF();
+            record.expireTime = raf.readLong();
+            return record;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private boolean writeRecord(File file, byte state, long expireTime) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            raf.writeByte(state);
+            raf.writeUTF(mOwnerId);
+            raf.writeLong(expireTime);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static class Record {
+        byte state;
+        String owner;
+        long expireTime;
+    }
+}
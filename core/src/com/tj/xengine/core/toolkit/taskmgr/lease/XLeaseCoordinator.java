@@ -0,0 +1,84 @@
+package com.tj.xengine.core.toolkit.taskmgr.lease;
+
+import java.util.List;
+
+/**
+ * <pre>
+ * 多个进程(或多个任务管理器)之间协调任务归属的租约接口。
+ * 1.同一个任务同一时刻只能被一个持有者认领；
+ * 2.持有者需要定期续约，超过租约时长没有续约(比如进程已经退出或卡死)，
+ *   租约失效，其他持有者可以重新认领该任务；
+ * 3.任务完成后标记为完成，其他持有者不会再认领。
+ * 实现类需要保证跨进程的线程安全。
+ * </pre>
+ * @see XFileLeaseCoordinator
+ * @see XLeaseFilter
+ */
+public interface XLeaseCoordinator {
+
+    /**
+     * 获取当前持有者的唯一Id。
+     */
+    String getOwnerId();
+
+    /**
+     * 获取租约时长。
+     * @return 单位:毫秒
+     */
+    long getLeaseTime();
+
+    /**
+     * 尝试认领任务。
+     * @param taskId 任务的唯一Id
+     * @return 认领成功(或已经持有)返回true；
+     * 任务被其他持有者认领且租约有效，或任务已完成，返回false
+     */
+    boolean tryAcquire(String taskId);
+
+    /**
+     * 当前持有者是否持有该任务的租约(只检查本地记录)。
+     */
+    boolean isHeld(String taskId);
+
+    /**
+     * 任务当前是否可以由当前持有者执行(只检查本地记录，不会读写共享存储，可以频繁调用)。
+     * @return 当前持有者已经持有，或者本地没有记录到其他持有者的有效租约和完成标记，返回true
+     */
+    boolean isAvailable(String taskId);
+
+    /**
+     * 获取当前持有的所有租约。
+     */
+    List<String> getHeld();
+
+    /**
+     * 释放任务的租约，其他持有者可以立即认领。
+     */
+    void release(String taskId);
+
+    /**
+     * 标记任务已完成(同时释放租约)，其他持有者不会再认领。
+     */
+    void complete(String taskId);
+
+    /**
+     * 任务是否已被某个持有者标记为完成。
+     */
+    boolean isCompleted(String taskId);
+
+    /**
+     * 清除任务的所有记录(包括完成标记)，之后任何持有者都可以重新认领。
+     */
+    void clear(String taskId);
+
+    /**
+     * 续约当前持有的所有租约。
+     * @return 返回已经丢失的租约(续约前已过期，并被其他持有者认领)
+     */
+    List<String> renew();
+
+    /**
+     * 释放所有租约，并关闭。
+     */
+    void close();
+}
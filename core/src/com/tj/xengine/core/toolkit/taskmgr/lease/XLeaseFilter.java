@@ -0,0 +1,291 @@
+package com.tj.xengine.core.toolkit.taskmgr.lease;
+
+import com.tj.xengine.core.toolkit.filter.XBaseFilter;
+import com.tj.xengine.core.toolkit.filter.XFilter;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgr;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * 通过租约让多个任务管理器(可以在不同进程中)协同执行同一批任务。
+ * 作为任务过滤器，只判断任务"能不能执行"：只检查本地记录，
+ * 被其他持有者认领(租约有效)或已完成的任务会被过滤掉，过滤本身不会认领租约；
+ * 作为任务管理器的监听：
+ * 1.任务真正启动时才认领租约，认领失败(已被其他持有者认领或已完成)的任务立即停止，
+ *   自动执行时接着执行其他可以执行的任务；
+ * 2.任务完成后标记为完成，其他持有者不会重复执行；
+ * 3.任务被停止、删除或失败后释放租约，其他持有者可以接着执行；
+ * 4.后台定期续约，续约时发现租约已丢失(比如本进程卡顿超过了租约时长)，
+ *   立即停止对应的任务；任务已不在执行中(或已不在任务管理器中)的租约会被释放。
+ * 认领、释放和续约都在单独的线程中按顺序执行，
+ * 读写共享存储(比如文件锁)时不会占用任务管理器的锁。
+ * 使用方式:
+ *      XLeaseFilter<B> filter = new XLeaseFilter<B>(new XFileLeaseCoordinator(dir), null);
+ *      filter.attach(taskMgr);
+ * 注意：
+ * 1.pauseByFilter()和stopByFilter()会替换任务管理器的过滤器，
+ *   需要同时过滤时，把原有的过滤器通过构造函数传入；
+ * 2.认领在任务启动后异步完成，两个持有者同时启动同一个任务时，
+ *   在认领完成前的短暂时间内任务会被同时执行，之后认领失败的一方停止执行。
+ * </pre>
+ */
+public class XLeaseFilter<B extends XTaskBean> extends XBaseFilter<B>
+        implements XTaskMgrListener<B> {
+
+    private final XLeaseCoordinator mCoordinator;
+    private final XFilter<B> mFilter;// 原有的过滤器
+    private volatile XTaskMgr<?, B> mTaskMgr;
+    private volatile ScheduledExecutorService mExecutor;// 认领、释放和续约的线程
+
+    /**
+     * @param coordinator 租约协调器
+     * @param filter 原有的过滤器，可以为null
+     */
+    public XLeaseFilter(XLeaseCoordinator coordinator, XFilter<B> filter) {
+        mCoordinator = coordinator;
+        mFilter = filter;
+    }
+
+    public XLeaseCoordinator getCoordinator() {
+        return mCoordinator;
+    }
+
+    /**
+     * 设置为任务管理器的过滤器和监听，并开始定期续约。
+     */
+    public synchronized void attach(XTaskMgr<?, B> taskMgr) {
+        detach();
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "XLeaseHeartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mTaskMgr = taskMgr;
+        taskMgr.setTaskFilter(this);
+        taskMgr.registerListener(this);
+        long interval = Math.max(mCoordinator.getLeaseTime() / 3, 1);
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    heartbeat();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();// 异常不能终止续约
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止续约，恢复任务管理器原有的过滤器，并释放所有租约。
+     */
+    public synchronized void detach() {
+        XTaskMgr<?, B> taskMgr = mTaskMgr;
+        if (taskMgr == null)
+            return;
+        mTaskMgr = null;
+        taskMgr.unregisterListener(this);
+        if (taskMgr.getTaskFilter() == this)
+            taskMgr.setTaskFilter(mFilter);
+        // 等待已提交的认领和释放执行完，再释放所有租约
+        ScheduledExecutorService executor = mExecutor;
+        mExecutor = null;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(mCoordinator.getLeaseTime(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (String taskId : mCoordinator.getHeld())
+            mCoordinator.release(taskId);
+    }
+
+    /**
+     * 在租约线程中执行。已经detach()时忽略。
+     */
+    private void post(Runnable runnable) {
+        ScheduledExecutorService executor = mExecutor;
+        if (executor == null)
+            return;
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            // 已经detach()，所有租约会被统一释放
+        }
+    }
+
+    /**
+     * 任务是否正在执行中(租约只属于正在执行的任务)。
+     */
+    private static boolean isActive(XTaskMgr<?, ?> taskMgr, String taskId) {
+        XMgrTaskExecutor<?> task = taskMgr.getTaskById(taskId);
+        if (task == null)
+            return false;
+        int status = task.getStatus();
+        return status == XTaskBean.STATUS_DOING || status == XTaskBean.STATUS_STARTING;
+    }
+
+    /**
+     * 认领已经启动的任务(在租约线程中执行)。
+     */
+    private void claim(String taskId) {
+        XTaskMgr<?, B> taskMgr = mTaskMgr;
+        if (taskMgr == null || !isActive(taskMgr, taskId))
+            return;
+        if (!mCoordinator.tryAcquire(taskId)) {
+            // 已被其他持有者认领或已完成，停止执行，
+            // 自动执行时让出的位置交给其他可以执行的任务(该任务已被本地记录，不会再被选中)
+            if (taskMgr.stop(taskId) && taskMgr.isAutoRunning())
+                taskMgr.start();
+            return;
+        }
+        // 认领期间任务已经停止，释放租约
+        if (!isActive(taskMgr, taskId))
+            mCoordinator.release(taskId);
+    }
+
+    /**
+     * 释放不在执行中的任务的租约(在租约线程中执行)。
+     * 任务停止后又立即重新启动的，保留租约。
+     */
+    private void releaseIfIdle(List<String> taskIds) {
+        XTaskMgr<?, B> taskMgr = mTaskMgr;
+        for (String taskId : taskIds) {
+            if (!mCoordinator.isHeld(taskId))
+                continue;
+            if (taskMgr == null || !isActive(taskMgr, taskId))
+                mCoordinator.release(taskId);
+        }
+    }
+
+    private void postRelease(final List<String> taskIds) {
+        if (taskIds.size() == 0)
+            return;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                releaseIfIdle(taskIds);
+            }
+        });
+    }
+
+    private static <B extends XTaskBean> List<String> getIds(List<B> tasks) {
+        List<String> taskIds = new ArrayList<String>(tasks.size());
+        for (B task : tasks) {
+            if (task.getId() != null)
+                taskIds.add(task.getId());
+        }
+        return taskIds;
+    }
+
+    private void heartbeat() {
+        XTaskMgr<?, B> taskMgr = mTaskMgr;
+        if (taskMgr == null)
+            return;
+        // 租约丢失的任务，已经可能被其他持有者执行，立即停止
+        List<String> lost = mCoordinator.renew();
+        for (String taskId : lost)
+            taskMgr.stop(taskId);
+        // 已经不在执行中的任务(比如原地暂停、失败或已被丢弃)，释放租约
+        releaseIfIdle(mCoordinator.getHeld());
+    }
+
+    @Override
+    public B doFilter(B source) {
+        if (source == null)
+            return null;
+        if (mFilter != null && mFilter.doFilter(source) == null)
+            return null;
+        // 没有Id的任务无法协调，直接执行
+        if (source.getId() == null)
+            return source;
+        // 只判断能否执行，不认领(候选任务不一定会被启动)
+        return mCoordinator.isAvailable(source.getId()) ? source : null;
+    }
+
+    @Override
+    public void onAdd(B task) {}
+
+    @Override
+    public void onAddAll(List<B> tasks) {}
+
+    @Override
+    public void onRemove(B task) {
+        postRelease(getIds(Collections.singletonList(task)));
+    }
+
+    @Override
+    public void onRemoveAll(List<B> tasks) {
+        postRelease(getIds(tasks));
+    }
+
+    @Override
+    public void onStart(B task) {
+        final String taskId = task.getId();
+        if (taskId == null)
+            return;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                claim(taskId);
+            }
+        });
+    }
+
+    @Override
+    public void onStop(B task) {
+        postRelease(getIds(Collections.singletonList(task)));
+    }
+
+    @Override
+    public void onStopBatch(List<B> tasks) {
+        postRelease(getIds(tasks));
+    }
+
+    @Override
+    public void onStopAll() {}
+
+    @Override
+    public void onFinishAll() {}
+
+    @Override
+    public void onDoing(B task, long completeSize) {}
+
+    @Override
+    public void onComplete(B task) {
+        final String taskId = task.getId();
+        if (taskId == null)
+            return;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mCoordinator.complete(taskId);
+            }
+        });
+    }
+
+    @Override
+    public void onError(B task, String errorCode) {
+        postRelease(getIds(Collections.singletonList(task)));
+    }
+
+    @Override
+    public void onSpeedUpdate(B task, long speed) {}
+
+    @Override
+    public void onRemainTimeUpdate(B task, long remainTime) {}
+}
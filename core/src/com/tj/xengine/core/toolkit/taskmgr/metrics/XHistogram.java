@@ -0,0 +1,167 @@
+package com.tj.xengine.core.toolkit.taskmgr.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * 无锁的对数直方图，用于统计耗时、速度等非负数值的分布。
+ * 按2的幂划分区间，每个区间再等分成SUB_BUCKETS个子区间，
+ * 相对误差不超过1/SUB_BUCKETS，内存固定，记录一次只需要几次原子操作。
+ * 线程安全，可以被多个线程同时记录和读取。
+ * </pre>
+ */
+public class XHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;// 每个2的幂区间的子区间数
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mCount;
+    private final AtomicLong mSum;
+    private final AtomicLong mMin;
+    private final AtomicLong mMax;
+
+    public XHistogram() {
+        mCounts = new AtomicLongArray(BUCKETS);
+        mCount = new AtomicLong();
+        mSum = new AtomicLong();
+        mMin = new AtomicLong(Long.MAX_VALUE);
+        mMax = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * 记录一个数值，负数按0记录。
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        mCounts.incrementAndGet(indexOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long min;
+        while (value < (min = mMin.get()) && !mMin.compareAndSet(min, value)) {}
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {}
+    }
+
+    /**
+     * 清空所有记录。
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            mCounts.set(i, 0);
+        mCount.set(0);
+        mSum.set(0);
+        mMin.set(Long.MAX_VALUE);
+        mMax.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * 获取当前的快照。
+     * 读取过程不加锁，与并发的记录之间是弱一致的。
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        long min = mMin.get();
+        long max = mMax.get();
+        return new Snapshot(counts, total, mSum.get(),
+                total == 0 ? 0 : min, total == 0 ? 0 : max);
+    }
+
+    /**
+     * 数值所在的子区间序号。
+     * 小于SUB_BUCKETS的数值各占一个子区间；
+     * 其余数值先按最高位确定2的幂区间，再按紧跟的SUB_BITS位确定子区间。
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS - 1;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 子区间的上界(包含)。
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        long upper = ((sub + 1) << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    /**
+     * 直方图的不可变快照。
+     */
+    public static class Snapshot {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMin;
+        private final long mMax;
+
+        private Snapshot(long[] counts, long count, long sum, long min, long max) {
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMin = min;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMin() {
+            return mMin;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * 获取百分位数。
+         * @param percentile 百分位，取值0~100
+         * @return 返回所在子区间的上界(不超过最大值)；没有记录时返回0
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0)
+                return 0;
+            long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mCount);
+            rank = Math.max(rank, 1);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank)
+                    return Math.min(upperBoundOf(i), mMax);
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + ", mean=" + getMean() + ", min=" + mMin
+                    + ", p50=" + getPercentile(50) + ", p90=" + getPercentile(90)
+                    + ", p99=" + getPercentile(99) + ", max=" + mMax;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.tj.xengine.core.toolkit.taskmgr.metrics;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryListener;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 任务生命周期的统计收集器，作为XTaskMgrListener注册到任务管理器即可。
+ * 1.记录每个任务的时间点：添加(TODO)、启动(STARTING)、首次有进度(DOING)、结束(DONE/ERROR)；
+ * 2.统计直方图：
+ *   排队时间：添加到首次启动；
+ *   启动时间：每次启动到首次有进度；
+ *   运行时间：任务结束时累计的执行时间(不含暂停和等待重试的时间)；
+ *   速度：任务结束时，完成大小除以运行时间(单位:byte/s)；
+ *   重试次数：任务完成时的累计重试次数，包括失败后又重新启动的次数，
+ *   以及任务内部的XRetryRunnable重试的次数(在重试发生时通过onRetry()统计)；
+ * 3.统计每个错误码的出现次数；
+ * 读取统计数据不加锁，{@link #snapshot()}返回的是弱一致的快照。
+ * 使用方式:
+ *      XTaskMetrics<B> metrics = new XTaskMetrics<B>();
+ *      taskMgr.registerListener(metrics);
+ *      downloader.setRetryListener(metrics);// 统计下载线程内部的重试
+ *      ...
+ *      XTaskMetrics.Snapshot snapshot = metrics.snapshot();
+ * </pre>
+ */
+public class XTaskMetrics<B extends XTaskBean> implements XTaskMgrListener<B>, XRetryListener<B> {
+
+    private final ConcurrentMap<Object, TaskRecord> mRecords;// 未完成任务的记录(任务Id -> 记录)
+    private final ConcurrentMap<String, AtomicLong> mErrorCounts;// 错误码 -> 次数
+    private final AtomicLong mAddCount;
+    private final AtomicLong mStartCount;
+    private final AtomicLong mCompleteCount;
+    private final AtomicLong mErrorCount;
+    private final AtomicLong mRetryCount;
+    private final XHistogram mQueueWait;
+    private final XHistogram mStartLatency;
+    private final XHistogram mRunTime;
+    private final XHistogram mSpeed;
+    private final XHistogram mRetries;
+
+    public XTaskMetrics() {
+        mRecords = new ConcurrentHashMap<Object, TaskRecord>();
+        mErrorCounts = new ConcurrentHashMap<String, AtomicLong>();
+        mAddCount = new AtomicLong();
+        mStartCount = new AtomicLong();
+        mCompleteCount = new AtomicLong();
+        mErrorCount = new AtomicLong();
+        mRetryCount = new AtomicLong();
+        mQueueWait = new XHistogram();
+        mStartLatency = new XHistogram();
+        mRunTime = new XHistogram();
+        mSpeed = new XHistogram();
+        mRetries = new XHistogram();
+    }
+
+    /**
+     * 获取未完成任务的时间点记录。
+     * @return 任务不存在或已完成返回null
+     */
+    public TaskTimes getTaskTimes(String taskId) {
+        if (taskId == null)
+            return null;
+        TaskRecord record = mRecords.get(taskId);
+        return record == null ? null : record.toTimes();
+    }
+
+    /**
+     * 获取当前统计数据的快照。
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> errorCounts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : mErrorCounts.entrySet())
+            errorCounts.put(entry.getKey(), entry.getValue().get());
+        return new Snapshot(mAddCount.get(), mStartCount.get(), mCompleteCount.get(),
+                mErrorCount.get(), mRetryCount.get(), mRecords.size(),
+                mQueueWait.snapshot(), mStartLatency.snapshot(), mRunTime.snapshot(),
+                mSpeed.snapshot(), mRetries.snapshot(),
+                Collections.unmodifiableMap(errorCounts));
+    }
+
+    /**
+     * 清空所有统计数据(不清空未完成任务的记录)。
+     */
+    public void reset() {
+        mErrorCounts.clear();
+        mAddCount.set(0);
+        mStartCount.set(0);
+        mCompleteCount.set(0);
+        mErrorCount.set(0);
+        mRetryCount.set(0);
+        mQueueWait.reset();
+        mStartLatency.reset();
+        mRunTime.reset();
+        mSpeed.reset();
+        mRetries.reset();
+    }
+
+    private static Object getKey(XTaskBean task) {
+        String taskId = task.getId();
+        return taskId != null ? taskId : task;
+    }
+
+    private TaskRecord getRecord(B task) {
+        Object key = getKey(task);
+        TaskRecord record = mRecords.get(key);
+        if (record == null) {
+            // 没有经过onAdd()的任务(比如注册监听之前添加的)，从现在开始记录
+            record = new TaskRecord(System.currentTimeMillis());
+            TaskRecord old = mRecords.putIfAbsent(key, record);
+            if (old != null)
+                record = old;
+        }
+        return record;
+    }
+
+    @Override
+    public void onAdd(B task) {
+        mAddCount.incrementAndGet();
+        mRecords.put(getKey(task), new TaskRecord(System.currentTimeMillis()));
+    }
+
+    @Override
+    public void onAddAll(List<B> tasks) {
+        long now = System.currentTimeMillis();
+        mAddCount.addAndGet(tasks.size());
+        for (B task : tasks)
+            mRecords.put(getKey(task), new TaskRecord(now));
+    }
+
+    @Override
+    public void onRemove(B task) {
+        mRecords.remove(getKey(task));
+    }
+
+    @Override
+    public void onRemoveAll(List<B> tasks) {
+        for (B task : tasks)
+            mRecords.remove(getKey(task));
+    }
+
+    @Override
+    public void onStart(B task) {
+        long now = System.currentTimeMillis();
+        mStartCount.incrementAndGet();
+        TaskRecord record = getRecord(task);
+        synchronized (record) {
+            if (record.firstStartTime == 0) {
+                record.firstStartTime = now;
+                mQueueWait.record(now - record.addTime);
+            }
+            if (record.failed) {
+                record.failed = false;
+                record.retries++;
+                mRetryCount.incrementAndGet();
+            }
+            record.startTime = now;
+            record.doingTime = 0;
+        }
+    }
+
+    @Override
+    public void onStop(B task) {
+        TaskRecord record = mRecords.get(getKey(task));
+        if (record == null)
+            return;
+        synchronized (record) {
+            record.stopRunning(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public void onStopBatch(List<B> tasks) {
+        for (B task : tasks)
+            onStop(task);
+    }
+
+    @Override
+    public void onStopAll() {}
+
+    @Override
+    public void onFinishAll() {}
+
+    @Override
+    public void onDoing(B task, long completeSize) {
+        TaskRecord record = mRecords.get(getKey(task));
+        if (record == null)
+            return;
+        record.completeSize = completeSize;
+        if (record.doingTime != 0)
+            return;
+        synchronized (record) {
+            if (record.doingTime == 0 && record.startTime != 0) {
+                long now = System.currentTimeMillis();
+                record.doingTime = now;
+                if (record.firstDoingTime == 0)
+                    record.firstDoingTime = now;
+                mStartLatency.record(now - record.startTime);
+            }
+        }
+    }
+
+    @Override
+    public void onComplete(B task) {
+        mCompleteCount.incrementAndGet();
+        TaskRecord record = mRecords.remove(getKey(task));
+        if (record == null)
+            return;
+        synchronized (record) {
+            record.stopRunning(System.currentTimeMillis());
+            mRunTime.record(record.runTime);
+            if (record.runTime > 0)
+                mSpeed.record(record.completeSize * 1000 / record.runTime);
+            mRetries.record(record.retries);
+        }
+    }
+
+    @Override
+    public void onError(B task, String errorCode) {
+        mErrorCount.incrementAndGet();
+        if (errorCode != null) {
+            AtomicLong count = mErrorCounts.get(errorCode);
+            if (count == null) {
+                AtomicLong old = mErrorCounts.putIfAbsent(errorCode, count = new AtomicLong());
+                if (old != null)
+                    count = old;
+            }
+            count.incrementAndGet();
+        }
+        // 失败的任务可能会被重试，保留记录，再次启动时计为一次重试
+        TaskRecord record = mRecords.get(getKey(task));
+        if (record == null)
+            return;
+        synchronized (record) {
+            long now = System.currentTimeMillis();
+            record.stopRunning(now);
+            record.failed = true;
+            record.errorTime = now;
+        }
+    }
+
+    @Override
+    public void onRetry(B task, long retryCount) {
+        mRetryCount.incrementAndGet();
+        TaskRecord record = mRecords.get(getKey(task));
+        if (record == null)
+            return;
+        synchronized (record) {
+            record.retries++;
+        }
+    }
+
+    @Override
+    public void onSpeedUpdate(B task, long speed) {}
+
+    @Override
+    public void onRemainTimeUpdate(B task, long remainTime) {}
+
+    /**
+     * 单个任务的记录。
+     */
+    private static class TaskRecord {
+        final long addTime;
+        long firstStartTime;
+        long firstDoingTime;
+        long startTime;// 本次启动的时间，未在执行时为0
+        volatile long doingTime;// 本次启动后首次有进度的时间
+        long errorTime;
+        long runTime;// 累计的执行时间
+        int retries;
+        boolean failed;
+        volatile long completeSize;
+
+        TaskRecord(long addTime) {
+            this.addTime = addTime;
+        }
+
+        void stopRunning(long now) {
+            if (startTime != 0) {
+                runTime += now - startTime;
+                startTime = 0;
+            }
+        }
+
+        synchronized TaskTimes toTimes() {
+            return new TaskTimes(addTime, firstStartTime, firstDoingTime,
+                    errorTime, runTime, retries);
+        }
+    }
+
+    /**
+     * 单个任务的时间点(单位:毫秒，0表示尚未发生)。
+     */
+    public static class TaskTimes {
+        public final long addTime;// 添加(TODO)的时间
+        public final long startTime;// 首次启动(STARTING)的时间
+        public final long doingTime;// 首次有进度(DOING)的时间
+        public final long lastErrorTime;// 最近一次失败(ERROR)的时间
+        public final long runTime;// 累计的执行时间
+        public final int retries;// 重试次数
+
+        TaskTimes(long addTime, long startTime, long doingTime,
+                  long lastErrorTime, long runTime, int retries) {
+            this.addTime = addTime;
+            this.startTime = startTime;
+            this.doingTime = doingTime;
+            this.lastErrorTime = lastErrorTime;
+            this.runTime = runTime;
+            this.retries = retries;
+        }
+    }
+
+    /**
+     * 统计数据的不可变快照。
+     */
+    public static class Snapshot {
+        public final long addCount;// 添加的任务数
+        public final long startCount;// 启动次数(包括恢复和重试)
+        public final long completeCount;// 完成的任务数
+        public final long errorCount;// 失败次数
+        public final long retryCount;// 重试次数
+        public final long pendingCount;// 未完成的任务数
+        public final XHistogram.Snapshot queueWait;// 排队时间(单位:毫秒)
+        public final XHistogram.Snapshot startLatency;// 启动时间(单位:毫秒)
+        public final XHistogram.Snapshot runTime;// 运行时间(单位:毫秒)
+        public final XHistogram.Snapshot speed;// 速度(单位:byte/s)
+        public final XHistogram.Snapshot retries;// 每个完成任务的重试次数
+        public final Map<String, Long> errorCounts;// 错误码 -> 次数
+
+        Snapshot(long addCount, long startCount, long completeCount,
+                 long errorCount, long retryCount, long pendingCount,
+                 XHistogram.Snapshot queueWait, XHistogram.Snapshot startLatency,
+                 XHistogram.Snapshot runTime, XHistogram.Snapshot speed,
+                 XHistogram.Snapshot retries, Map<String, Long> errorCounts) {
+            this.addCount = addCount;
+            this.startCount = startCount;
+            this.completeCount = completeCount;
+            this.errorCount = errorCount;
+            this.retryCount = retryCount;
+            this.pendingCount = pendingCount;
+            this.queueWait = queueWait;
+            this.startLatency = startLatency;
+            this.runTime = runTime;
+            this.speed = speed;
+            this.retries = retries;
+            this.errorCounts = errorCounts;
+        }
+
+        @Override
+        public String toString() {
+            return "added=" + addCount + ", started=" + startCount
+                    + ", completed=" + completeCount + ", errors=" + errorCount
+                    + ", retries=" + retryCount + ", pending=" + pendingCount
+                    + "\nqueueWait(ms): " + queueWait
+                    + "\nstartLatency(ms): " + startLatency
+                    + "\nrunTime(ms): " + runTime
+                    + "\nspeed(B/s): " + speed
+                    + "\nretriesPerTask: " + retries
+                    + "\nerrorCodes: " + errorCounts;
+        }
+    }
+}
@@ -48,4 +48,13 @@ public interface XParallelMgr<B extends XTaskBean>
      * @return 返回等待执行的任务列表
      */
     List<XMgrTaskExecutor<B>> getWaitingTask();
+
+    /**
+     * 执行队列已满时，如果设置的调度器是XPreemptiveScheduler，
+     * 由调度器决定是否暂停一个正在执行的任务，改为执行排在最前面的等待任务。
+     * 被暂停的任务放回等待队列。
+     * @return 发生了抢占返回true；否则返回false
+     * @see com.tj.xengine.core.toolkit.taskmgr.XPreemptiveScheduler
+     */
+    boolean preempt();
 }
@@ -1,15 +1,18 @@
 package com.tj.xengine.core.toolkit.taskmgr.parallel;
 
 import com.tj.xengine.core.toolkit.filter.XFilter;
+import com.tj.xengine.core.toolkit.task.XBaseTaskExecutor;
 import com.tj.xengine.core.toolkit.task.XTaskBean;
 import com.tj.xengine.core.toolkit.task.XTaskListener;
 import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XPreemptiveScheduler;
 import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
 import com.tj.xengine.core.toolkit.taskmgr.XTaskScheduler;
 import com.tj.xengine.core.toolkit.taskmgr.speed.XSpeedMonitor;
 import com.tj.xengine.core.toolkit.taskmgr.speed.calc.DefaultSpeedCalculator;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -28,26 +31,34 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * Time: 下午3:35
  * </pre>
  */
-public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
+public class XParallelMgrImpl<B extends XTaskBean> implements XQuotaParallelMgr<B> {
 
     protected volatile boolean mIsWorking;// 标识运行状态
     protected volatile boolean mAuto;// 标识是否自动执行
     protected LinkedList<XMgrTaskExecutor<B>> mCurrentExecuted;// 正在运行的任务队列
     protected LinkedList<XMgrTaskExecutor<B>> mTobeExecuted;// 待执行的任务队列
+    protected Map<String, XMgrTaskExecutor<B>> mTaskIndex;// 所有任务的索引(任务Id -> 任务)
     protected XTaskScheduler<B> mScheduler;// 任务排序器(外部设置)
     protected XFilter<B> mFilter;// 任务过滤器
     protected InnerTaskComparator mInnerComparator;// 实际用来排序的比较器
     protected XSpeedMonitor<XMgrTaskExecutor<B>> mSpeedMonitor;// 速度监视器
     protected List<XTaskMgrListener<B>> mListeners;// 外部监听者
     protected XTaskListener<B> mInnerTaskListener;// 内部管理器对每个Task的监听
+    protected ThreadLocal<List<B>> mStopBatch;// 批量停止中的任务(只对执行批量停止的线程有效)
     protected int mParallelLimit;// 并行任务的数量上限
+    protected List<XTaskQuota<B>> mQuotas;// 分组配额
+    private Map<String, Rotation> mRotations;// 各层配额的分组轮转(上层分组路径 -> 轮转)
 
     public XParallelMgrImpl(int parallelLimit) {
         mParallelLimit = Math.max(parallelLimit, 1);
         mCurrentExecuted = new LinkedList<XMgrTaskExecutor<B>>();
         mTobeExecuted = new LinkedList<XMgrTaskExecutor<B>>();
+        mTaskIndex = new ConcurrentHashMap<String, XMgrTaskExecutor<B>>();
         mInnerComparator = new InnerTaskComparator();
         mListeners = new CopyOnWriteArrayList<XTaskMgrListener<B>>();
+        mStopBatch = new ThreadLocal<List<B>>();
+        mQuotas = new CopyOnWriteArrayList<XTaskQuota<B>>();
+        mRotations = new HashMap<String, Rotation>();
         mIsWorking = false;
         mAuto = true;
         mInnerTaskListener = new XTaskListener<B>() {
@@ -59,6 +70,12 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
 
             @Override
             public void onPause(B task) {
+                // 批量停止时先收集起来，最后统一回调onStopBatch()
+                List<B> batch = mStopBatch.get();
+                if (batch != null) {
+                    batch.add(task);
+                    return;
+                }
                 for (XTaskMgrListener<B> listener : mListeners)
                     listener.onStop(task);
             }
@@ -139,15 +156,26 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         if (id == null)
             return null;
 
-        for (XMgrTaskExecutor<B> task : mCurrentExecuted) {
-            if (id.equals(getTaskId(task)))
-                return task;
-        }
-        for (XMgrTaskExecutor<B> task : mTobeExecuted) {
-            if (id.equals(getTaskId(task)))
-                return task;
-        }
-        return null;
+        return mTaskIndex.get(id);
+    }
+
+    /**
+     * 把任务加入索引。
+     * 任务id为null的任务认为是唯一的，不加入索引。
+     */
+    protected void indexTask(XMgrTaskExecutor<B> task) {
+        String taskId = getTaskId(task);
+        if (taskId != null)
+            mTaskIndex.put(taskId, task);
+    }
+
+    /**
+     * 把任务移出索引(任务离开任务管理器时调用)。
+     */
+    protected void unindexTask(XMgrTaskExecutor<B> task) {
+        String taskId = getTaskId(task);
+        if (taskId != null)
+            mTaskIndex.remove(taskId);
     }
 
     @Override
@@ -161,8 +189,11 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         if (task.getSpeedCalculator() == null) // 若没有速度计算器，则设置默认的
             task.setSpeedCalculator(new DefaultSpeedCalculator());
         mTobeExecuted.offer(task);
+        indexTask(task);
         for (XTaskMgrListener<B> listener : mListeners)
             listener.onAdd(task.getBean());
+        if (mIsWorking)
+            preempt();
 
         return true;
     }
@@ -185,10 +216,14 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
             if (task.getSpeedCalculator() == null)
                 task.setSpeedCalculator(new DefaultSpeedCalculator());
             mTobeExecuted.offer(task);
+            indexTask(task);
         }
-        if (added.size() > 0)
+        if (added.size() > 0) {
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onAddAll(added);
+            if (mIsWorking)
+                preempt();
+        }
     }
 
     @Override
@@ -207,9 +242,11 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onStopAll();
         }
-        if (isRemoved)
+        if (isRemoved) {
+            unindexTask(task);
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onRemove(task.getBean());
+        }
     }
 
     @Override
@@ -218,23 +255,61 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
     }
 
     @Override
-    public synchronized void removeTasks(List<XMgrTaskExecutor<B>> tasks) {
-        if (tasks == null || tasks.size() == 0)
+    public void removeTasks(List<XMgrTaskExecutor<B>> tasks) {
+        removeTasksInBatch(tasks);
+    }
+
+    @Override
+    public void removeTasksById(List<String> taskIds) {
+        if (taskIds == null || taskIds.size() == 0)
             return;
 
-        List<B> removed = new ArrayList<B>();
-        for (XMgrTaskExecutor<B> task : tasks) {
-            if (task == null)
-                continue;
-            task.abort();// 终止任务
-            if (mCurrentExecuted.contains(task)) {// 如果要删除的任务在执行队列中
-                mCurrentExecuted.remove(task);
-                removed.add(task.getBean());
-            } else {
-                if (mTobeExecuted.remove(task))// 如果删除成功，添加进列表
-                    removed.add(task.getBean());
-            }
+        List<XMgrTaskExecutor<B>> tasks = new ArrayList<XMgrTaskExecutor<B>>();
+        for (String taskId : taskIds) {
+            XMgrTaskExecutor<B> task = getTaskById(taskId);
+            if (task != null)
+                tasks.add(task);
         }
+        removeTasksInBatch(tasks);
+    }
+
+    @Override
+    public int removeTasksByFilter(XFilter<B> filter) {
+        if (filter == null)
+            return 0;
+
+        // 在锁外执行过滤，过滤条件再复杂也不会阻塞其他操作
+        List<XMgrTaskExecutor<B>> matched = new ArrayList<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : snapshotTasks()) {
+            if (filter.doFilter(task.getBean()) != null)
+                matched.add(task);
+        }
+        return removeTasksInBatch(matched);
+    }
+
+    /**
+     * 获取所有任务的副本(包括正在执行的任务)。
+     */
+    protected synchronized List<XMgrTaskExecutor<B>> snapshotTasks() {
+        List<XMgrTaskExecutor<B>> tasks = new ArrayList<XMgrTaskExecutor<B>>(
+                mCurrentExecuted.size() + mTobeExecuted.size());
+        tasks.addAll(mCurrentExecuted);
+        tasks.addAll(mTobeExecuted);
+        return tasks;
+    }
+
+    /**
+     * 批量删除任务。在一次加锁中完成，每个队列只遍历一次，
+     * 其他线程不会看到只删除了一部分的中间状态。
+     * 所有任务删除后只回调一次onRemoveAll()。
+     * @return 返回被删除的任务数
+     */
+    protected synchronized int removeTasksInBatch(List<XMgrTaskExecutor<B>> tasks) {
+        if (tasks == null || tasks.size() == 0)
+            return 0;
+
+        List<B> removed = new ArrayList<B>();
+        removeBatch(tasks, removed);
         if (setStopIfAllStop()) {// 如果当前没有任务运行，则标记结束
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onStopAll();
@@ -242,20 +317,40 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         if (removed.size() > 0)
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onRemoveAll(removed);
+        return removed.size();
     }
 
-    @Override
-    public synchronized void removeTasksById(List<String> taskIds) {
-        if (taskIds == null || taskIds.size() == 0)
-            return;
+    /**
+     * 删除一批任务(调用时已加锁)。每个队列只遍历一次。
+     * @param batch 待删除的任务
+     * @param removed 被删除的任务添加到此列表
+     */
+    protected void removeBatch(List<XMgrTaskExecutor<B>> batch, List<B> removed) {
+        Set<XMgrTaskExecutor<B>> targets = new HashSet<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : batch) {
+            if (task == null)
+                continue;
+            task.abort();// 终止任务
+            targets.add(task);
+        }
+        removeFromQueue(mCurrentExecuted, targets, removed);
+        removeFromQueue(mTobeExecuted, targets, removed);
+    }
 
-        List<XMgrTaskExecutor<B>> tasks = new ArrayList<XMgrTaskExecutor<B>>();
-        for (String taskId : taskIds) {
-            XMgrTaskExecutor<B> task = getTaskById(taskId);
-            if (task != null)
-                tasks.add(task);
+    /**
+     * 遍历一次队列，删除其中属于targets的任务(同时从targets中移除)。
+     */
+    protected void removeFromQueue(List<XMgrTaskExecutor<B>> queue,
+                                   Set<XMgrTaskExecutor<B>> targets, List<B> removed) {
+        Iterator<XMgrTaskExecutor<B>> iterator = queue.iterator();
+        while (!targets.isEmpty() && iterator.hasNext()) {
+            XMgrTaskExecutor<B> task = iterator.next();
+            if (targets.remove(task)) {
+                iterator.remove();
+                removed.add(task.getBean());
+                unindexTask(task);
+            }
         }
-        removeTasks(tasks);
     }
 
     @Override
@@ -264,9 +359,10 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         if (isFullParallel())
             return;
 
-        // 如果运行队列未满，则将指定任务从等待队列添加进运行队列
+        // 如果运行队列未满，则将指定任务从等待队列添加进运行队列(不能超过分组配额)
         XMgrTaskExecutor<B> task = getTaskById(taskId);
-        if (!mCurrentExecuted.contains(task) && task != null) {
+        if (!mCurrentExecuted.contains(task) && task != null
+                && fitsQuota(task, null)) {
             mTobeExecuted.remove(task);
             mCurrentExecuted.addLast(task);
         }
@@ -286,18 +382,31 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         return mTobeExecuted;
     }
 
-    @Override
-    public synchronized boolean start() {
-        // 如果运行队列未满，则启动多个等待队列中的任务直到满
+    /**
+     * 如果运行队列未满，则把等待队列中可执行的任务移入运行队列，直到满为止。
+     * @return 返回新移入运行队列的任务(未启动)
+     */
+    protected List<XMgrTaskExecutor<B>> fillRunningQueue() {
+        List<XMgrTaskExecutor<B>> filled = new ArrayList<XMgrTaskExecutor<B>>();
         while (!isFullParallel()) {
             XMgrTaskExecutor<B> task = findNextTask(null);
             if (task == null)
                 break;
-            // 如果下一个任务是被过滤掉的，说明已经没有可执行的任务了，退出循环
-            if (mFilter != null && mFilter.doFilter(task.getBean()) == null)
+            // 如果下一个任务是被过滤掉的，说明已经没有可执行的任务了，放回等待队列并退出循环
+            if (mFilter != null && mFilter.doFilter(task.getBean()) == null) {
+                mTobeExecuted.addFirst(task);
                 break;
+            }
             mCurrentExecuted.offer(task);
+            filled.add(task);
         }
+        return filled;
+    }
+
+    @Override
+    public synchronized boolean start() {
+        // 如果运行队列未满，则启动多个等待队列中的任务直到满
+        fillRunningQueue();
         // 如果运行队列为空，则什么都不做
         if (isEmptyParallel())
             return false;
@@ -325,15 +434,23 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         if (mFilter != null && mFilter.doFilter(task.getBean()) == null)
             return false;
 
+        // 不在运行队列中的任务，运行队列已满时替换最早的任务，
+        // 替换后所在分组仍超过配额，则不启动
+        boolean running = mCurrentExecuted.contains(task);
+        XMgrTaskExecutor<B> replaced = !running && isFullParallel()
+                ? mCurrentExecuted.peek() : null;
+        if (!running && !fitsQuota(task, replaced))
+            return false;
+
         // 先尝试启动指定任务
-        if (!task.start())
+        if (!task.start(XTaskBean.STATUS_DEFAULT))
             return false;
 
         mIsWorking = true;
         // 如果指定Id的任务不在运行队列中
-        if (!mCurrentExecuted.contains(task)) {
+        if (!running) {
             // 如果运行队列已满，则替换一个任务
-            if (isFullParallel()) {
+            if (replaced != null) {
                 XMgrTaskExecutor<B> oldTask = mCurrentExecuted.poll();
                 oldTask.pause();
                 mTobeExecuted.addFirst(oldTask);// 添加回等待队列
@@ -378,22 +495,22 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         // 如果指定Id的任务存在，且在运行队列中，恢复该任务
         if (mCurrentExecuted.contains(task)) {
             mIsWorking = true;
-            if (task.start()) {
+            if (task.start(XTaskBean.STATUS_DEFAULT)) {
                 if (mSpeedMonitor != null)
                     mSpeedMonitor.start();
             }
             return true;
         }
 
-        // 如果指定Id的任务存在，且在等待队列中，运行队列已满，什么都不做
-        if (isFullParallel())
+        // 如果指定Id的任务存在，且在等待队列中，运行队列已满或超过分组配额，什么都不做
+        if (isFullParallel() || !fitsQuota(task, null))
             return false;
 
         // 如果指定Id的任务存在，且在等待队列中，且运行队列未满，启动该任务
         mIsWorking = true;
         mTobeExecuted.remove(task);
         mCurrentExecuted.offer(task);
-        if (task.start()) {
+        if (task.start(XTaskBean.STATUS_DEFAULT)) {
             if (mSpeedMonitor != null)
                 mSpeedMonitor.start();
         }
@@ -515,6 +632,86 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         return true;
     }
 
+    @Override
+    public int stopTasks(XFilter<B> filter) {
+        if (filter == null)
+            return 0;
+
+        // 在锁外执行过滤，过滤条件再复杂也不会阻塞其他操作
+        Set<XMgrTaskExecutor<B>> targets = new HashSet<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : snapshotTasks()) {
+            if (filter.doFilter(task.getBean()) != null)
+                targets.add(task);
+        }
+        if (targets.isEmpty())
+            return 0;
+        return stopBatch(targets);
+    }
+
+    /**
+     * 停止一批任务，在一次加锁中完成，每个队列只遍历一次。
+     * 正在执行的任务暂停为DEFAULT状态，等待中的TODO任务直接改为DEFAULT状态，
+     * 然后一起移到等待队列的末尾。DEFAULT状态的任务不会被自动执行。
+     */
+    private synchronized int stopBatch(Set<XMgrTaskExecutor<B>> targets) {
+        List<B> stopped = new ArrayList<B>();
+        List<XMgrTaskExecutor<B>> stopTasks = new ArrayList<XMgrTaskExecutor<B>>();
+        // 暂停的回调先收集起来
+        mStopBatch.set(stopped);
+        try {
+            Iterator<XMgrTaskExecutor<B>> iterator = mCurrentExecuted.iterator();
+            while (iterator.hasNext()) {
+                XMgrTaskExecutor<B> task = iterator.next();
+                if (!targets.remove(task))
+                    continue;
+                if (task.pause(XTaskBean.STATUS_DEFAULT)) {
+                    iterator.remove();
+                    stopTasks.add(task);
+                } else if (holdTask(task)) {// 原地暂停的任务
+                    iterator.remove();
+                    stopTasks.add(task);
+                    stopped.add(task.getBean());
+                }
+            }
+        } finally {
+            mStopBatch.remove();
+        }
+        Iterator<XMgrTaskExecutor<B>> iterator = mTobeExecuted.iterator();
+        while (!targets.isEmpty() && iterator.hasNext()) {
+            XMgrTaskExecutor<B> task = iterator.next();
+            if (targets.remove(task) && holdTask(task)) {
+                iterator.remove();
+                stopTasks.add(task);
+                stopped.add(task.getBean());
+            }
+        }
+        if (stopTasks.size() == 0)
+            return 0;
+        // 移到等待队列末尾，寻找下一个任务时不用越过它们
+        mTobeExecuted.addAll(stopTasks);
+        for (XTaskMgrListener<B> listener : mListeners)
+            listener.onStopBatch(stopped);
+        if (setStopIfAllStop()) {
+            for (XTaskMgrListener<B> listener : mListeners)
+                listener.onStopAll();
+        }
+        return stopTasks.size();
+    }
+
+    /**
+     * 把TODO状态的任务改为DEFAULT状态(不再被自动执行)。
+     * @return 任务不是TODO状态返回false
+     */
+    private static boolean holdTask(XMgrTaskExecutor<?> task) {
+        if (task instanceof XBaseTaskExecutor)
+            return ((XBaseTaskExecutor<?>) task).compareAndSetStatus(
+                    XTaskBean.STATUS_TODO, XTaskBean.STATUS_DEFAULT);
+        if (task.getStatus() != XTaskBean.STATUS_TODO)
+            return false;
+        task.setStatus(XTaskBean.STATUS_DEFAULT);
+        return true;
+    }
+
     @Override
     public synchronized void stopAndReset() {
         mIsWorking = false;
@@ -524,6 +721,8 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         mCurrentExecuted.clear();
         // 清空等待队列中的任务
         mTobeExecuted.clear();
+        mTaskIndex.clear();
+        mRotations.clear();
         // 停止速度监听
         if (mSpeedMonitor != null)
             mSpeedMonitor.stop();
@@ -552,6 +751,62 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         mScheduler = scheduler;
     }
 
+    @Override
+    public synchronized void addTaskQuota(XTaskQuota<B> quota) {
+        if (quota != null && !mQuotas.contains(quota))
+            mQuotas.add(quota);
+        mRotations.clear();
+    }
+
+    @Override
+    public synchronized void removeTaskQuota(XTaskQuota<B> quota) {
+        mQuotas.remove(quota);
+        mRotations.clear();
+    }
+
+    @Override
+    public synchronized boolean preempt() {
+        if (!mIsWorking || !mAuto || !isFullParallel()
+                || !(mScheduler instanceof XPreemptiveScheduler))
+            return false;
+        XMgrTaskExecutor<B> candidate = findNextTask(null);
+        if (candidate == null)
+            return false;
+        // 被过滤的任务不能执行，放回等待队列
+        if (mFilter != null && mFilter.doFilter(candidate.getBean()) == null) {
+            mTobeExecuted.addFirst(candidate);
+            return false;
+        }
+        // 只有正在执行的任务可以被抢占
+        List<B> runningBeans = new ArrayList<B>();
+        for (XMgrTaskExecutor<B> task : mCurrentExecuted) {
+            if (task.getStatus() == XTaskBean.STATUS_DOING
+                    || task.getStatus() == XTaskBean.STATUS_STARTING)
+                runningBeans.add(task.getBean());
+        }
+        B victimBean = ((XPreemptiveScheduler<B>) mScheduler)
+                .selectVictim(candidate.getBean(), runningBeans);
+        XMgrTaskExecutor<B> victim = null;
+        if (victimBean != null) {
+            for (XMgrTaskExecutor<B> task : mCurrentExecuted) {
+                if (task.getBean() == victimBean) {
+                    victim = task;
+                    break;
+                }
+            }
+        }
+        if (victim == null || !victim.pause()) {
+            mTobeExecuted.addFirst(candidate);
+            return false;
+        }
+        // 被抢占的任务放回等待队列，执行候选任务
+        mCurrentExecuted.remove(victim);
+        mTobeExecuted.addFirst(victim);
+        mCurrentExecuted.offer(candidate);
+        candidate.start();
+        return true;
+    }
+
     @Override
     public void setAutoRunning(boolean auto) {
         mAuto = auto;
@@ -562,10 +817,18 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         return mAuto;
     }
 
+    /**
+     * 判断等待队列中的任务当前是否可以被执行。
+     * 默认只有TODO状态的任务可以执行，子类可以覆盖此方法增加执行条件。
+     */
+    protected boolean isRunnable(XMgrTaskExecutor<B> task) {
+        return task.getStatus() == XTaskBean.STATUS_TODO;
+    }
+
     /**
      * 寻找下一个任务。
-     * 策略：1.将任务排序，过滤，返回第一个是TODO状态的任务(其他状态的任务忽略)
-     *       2.如果没有符合1要求的任务，则返回第一个TODO状态但被过滤的任务
+     * 策略：1.将任务排序，过滤，返回第一个可执行(默认是TODO状态)的任务(其他任务忽略)
+     *       2.如果没有符合1要求的任务，则返回第一个可执行但被过滤的任务
      *       3.如果没有以上的任务，则返回null
      * @return 返回下一个待执行的任务，如果没有可执行的任务，则返回null
      * @see #setTaskScheduler(XTaskScheduler)
@@ -577,13 +840,21 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
             Collections.sort(mTobeExecuted, mInnerComparator);
         }
 
+        // 设置了分组配额，则按配额和分组轮转选择任务
+        if (mQuotas.size() > 0) {
+            XMgrTaskExecutor<B> nextTask = findNextTaskByQuota();
+            if (nextTask != null)
+                mTobeExecuted.remove(nextTask);
+            return nextTask;
+        }
+
         // 用TaskFilter过滤，找到第一个是TODO状态的任务
         final XFilter<B> finalFilter = mFilter;
         XMgrTaskExecutor<B> nextTask = null;// 最终的结果，下一个待执行任务
         XMgrTaskExecutor<B> filteredTask = null;// 第一个符合状态但被过滤掉的任务
         for (XMgrTaskExecutor<B> task : mTobeExecuted) {
-            // 不是TODO状态的任务，跳过
-            if (task.getStatus() != XTaskBean.STATUS_TODO)
+            // 不可执行的任务，跳过
+            if (!isRunnable(task))
                 continue;
             // TODO状态，且没被过滤掉的任务
             if ((finalFilter == null || finalFilter.doFilter(task.getBean()) != null)) {
@@ -606,6 +877,107 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         return nextTask;
     }
 
+    /**
+     * 按分组配额寻找下一个任务。
+     * 策略：1.跳过所在分组已达到并发上限的任务；
+     *       2.按配额逐层选择分组：先在第一个配额的分组之间按赤字轮转(Deficit Round Robin)选择，
+     *         再在选中分组的任务中，按第二个配额的分组轮转选择，依此类推；
+     *         每轮给当前分组增加等于权重的执行机会，机会用完再轮到下一个分组；
+     *       3.最后一层选中分组中排序后的第一个任务就是下一个任务；
+     *       4.如果没有可执行且没被过滤的任务，则返回第一个可执行但被过滤的任务。
+     */
+    private XMgrTaskExecutor<B> findNextTaskByQuota() {
+        List<Map<String, Integer>> runningCounts = countRunning(null);
+
+        // 找到所有可执行、没超过配额、且没被过滤的任务(保持排序)
+        final XFilter<B> finalFilter = mFilter;
+        List<XMgrTaskExecutor<B>> candidates = new ArrayList<XMgrTaskExecutor<B>>();
+        XMgrTaskExecutor<B> filteredTask = null;// 第一个符合状态但被过滤掉的任务
+        for (XMgrTaskExecutor<B> task : mTobeExecuted) {
+            if (!isRunnable(task) || !isWithinQuota(task, runningCounts))
+                continue;
+            if (finalFilter == null || finalFilter.doFilter(task.getBean()) != null) {
+                candidates.add(task);
+            } else {
+                if (filteredTask == null)
+                    filteredTask = task;
+            }
+        }
+        if (candidates.size() == 0)
+            return filteredTask;
+
+        // 逐层按配额分组轮转
+        String path = "";
+        for (XTaskQuota<B> quota : mQuotas) {
+            Map<String, List<XMgrTaskExecutor<B>>> groups =
+                    new LinkedHashMap<String, List<XMgrTaskExecutor<B>>>();
+            for (XMgrTaskExecutor<B> task : candidates) {
+                String group = quota.getGroup(task.getBean());
+                List<XMgrTaskExecutor<B>> list = groups.get(group);
+                if (list == null) {
+                    list = new ArrayList<XMgrTaskExecutor<B>>();
+                    groups.put(group, list);
+                }
+                list.add(task);
+            }
+            Rotation rotation = mRotations.get(path);
+            if (rotation == null) {
+                rotation = new Rotation();
+                mRotations.put(path, rotation);
+            }
+            String group = rotation.select(quota, groups.keySet());
+            candidates = groups.get(group);
+            path = path + '\u0001' + group;
+        }
+        return candidates.get(0);
+    }
+
+    /**
+     * 统计每个配额中，各分组正在执行的任务数。
+     * @param exclude 不统计的任务(比如即将被替换的任务)，可以为null
+     */
+    private List<Map<String, Integer>> countRunning(XMgrTaskExecutor<B> exclude) {
+        List<Map<String, Integer>> runningCounts = new ArrayList<Map<String, Integer>>(mQuotas.size());
+        for (XTaskQuota<B> quota : mQuotas) {
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            for (XMgrTaskExecutor<B> task : mCurrentExecuted) {
+                if (task == exclude)
+                    continue;
+                String group = quota.getGroup(task.getBean());
+                Integer count = counts.get(group);
+                counts.put(group, count == null ? 1 : count + 1);
+            }
+            runningCounts.add(counts);
+        }
+        return runningCounts;
+    }
+
+    /**
+     * 不在运行队列中的任务加入运行队列后，所在的各个分组是否都不超过并发上限。
+     * @param replaced 同时被替换出运行队列的任务，可以为null
+     */
+    private boolean fitsQuota(XMgrTaskExecutor<B> task, XMgrTaskExecutor<B> replaced) {
+        return mQuotas.size() == 0 || isWithinQuota(task, countRunning(replaced));
+    }
+
+    /**
+     * 任务所在的各个分组是否都还没达到并发上限。
+     */
+    private boolean isWithinQuota(XMgrTaskExecutor<B> task,
+                                  List<Map<String, Integer>> runningCounts) {
+        for (int i = 0; i < mQuotas.size(); i++) {
+            XTaskQuota<B> quota = mQuotas.get(i);
+            String group = quota.getGroup(task.getBean());
+            int limit = quota.getLimit(group);
+            if (limit == XTaskQuota.UNLIMITED)
+                continue;
+            Integer count = runningCounts.get(i).get(group);
+            if (count != null && count >= limit)
+                return false;
+        }
+        return true;
+    }
+
     @Override
     public synchronized void notifyTaskFinished(XMgrTaskExecutor<B> task, boolean addBack) {
         if (task == null)
@@ -619,6 +991,7 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
                     mTobeExecuted.offer(task);
             } else {
                 mTobeExecuted.remove(task);// 否则，直接丢弃该任务
+                unindexTask(task);
             }
             return;
         }
@@ -637,13 +1010,19 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         // 下一个任务为空，但当前等待队列不为空，则说明等待队列中所有的任务都是异常状态
         boolean allError = (nextTask == null && mTobeExecuted.size() > 0);
         // 如果是TODO或ERROR结束的，且addBack为true，添加回等待队列
-        if (addBack && task.getStatus() != XTaskBean.STATUS_DONE
-                && !mTobeExecuted.contains(task))
-            mTobeExecuted.offer(task);
-        // 如果等待队列中所有的任务都是异常状态，则全部重置成TODO，方便下次全部自动执行
+        if (addBack && task.getStatus() != XTaskBean.STATUS_DONE) {
+            if (!mTobeExecuted.contains(task))
+                mTobeExecuted.offer(task);
+        } else {
+            unindexTask(task);// 否则，直接丢弃该任务
+        }
+        // 如果等待队列中所有的任务都是异常状态，则把错误的任务重置成TODO，方便下次全部自动执行
+        // (被stopTasks()停止的DEFAULT状态的任务保持不变)
         if (allError) {
-            for (XMgrTaskExecutor<B> errorTask : mTobeExecuted)
-                errorTask.setStatus(XTaskBean.STATUS_TODO);
+            for (XMgrTaskExecutor<B> errorTask : mTobeExecuted) {
+                if (errorTask.getStatus() == XTaskBean.STATUS_ERROR)
+                    errorTask.setStatus(XTaskBean.STATUS_TODO);
+            }
         }
 
         // 如果已经标记停止，或者不自动执行，则什么都不做
@@ -710,7 +1089,44 @@ public class XParallelMgrImpl<B extends XTaskBean> implements XParallelMgr<B> {
         @Override
         public int compare(XMgrTaskExecutor<B> lhs, XMgrTaskExecutor<B> rhs) {
             return mScheduler.compare(lhs.getBean(), rhs.getBean(),
-                    mCurrentExecuted == null ? null : curTask.getBean());
+                    curTask == null ? null : curTask.getBean());
+        }
+    }
+
+    /**
+     * 一层配额的分组之间的赤字轮转。
+     */
+    private static class Rotation {
+        final LinkedList<String> order = new LinkedList<String>();// 轮转中的分组(队首为当前分组)
+        final Map<String, Integer> deficits = new HashMap<String, Integer>();// 每个分组剩余的执行机会
+
+        /**
+         * 在有候选任务的分组中选择一个，并消耗一次执行机会。
+         */
+        String select(XTaskQuota<?> quota, Set<String> groups) {
+            // 新出现的分组加入轮转队列末尾
+            for (String group : groups) {
+                if (!deficits.containsKey(group)) {
+                    deficits.put(group, 0);
+                    order.addLast(group);
+                }
+            }
+            while (true) {
+                String group = order.peekFirst();
+                if (!groups.contains(group)) {
+                    // 该分组当前没有可执行的任务，移出轮转
+                    order.pollFirst();
+                    deficits.remove(group);
+                    continue;
+                }
+                int deficit = deficits.get(group);
+                if (deficit >= 1) {
+                    deficits.put(group, deficit - 1);
+                    return group;
+                }
+                deficits.put(group, deficit + quota.getWeight(group));
+                order.addLast(order.pollFirst());
+            }
         }
     }
 }
@@ -47,4 +47,11 @@ public class XParallelSpeedMonitor<B extends XTaskBean>
         for (int i = 0; i < listeners.size(); i++)
             listeners.get(i).onSpeedUpdate(task.getBean(), speed);
     }
+
+    @Override
+    public void notifyUpdateRemainTime(XMgrTaskExecutor<B> task, long remainTime) {
+        List<XTaskMgrListener<B>> listeners =  task.getTaskMgr().getListeners();
+        for (int i = 0; i < listeners.size(); i++)
+            listeners.get(i).onRemainTimeUpdate(task.getBean(), remainTime);
+    }
 }
@@ -0,0 +1,28 @@
+package com.tj.xengine.core.toolkit.taskmgr.parallel;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+/**
+ * <pre>
+ * 支持分组配额的并行任务执行器接口。
+ * 单独定义，XParallelMgr原有的实现不需要修改。
+ * </pre>
+ * @see XTaskQuota
+ */
+public interface XQuotaParallelMgr<B extends XTaskBean> extends XParallelMgr<B> {
+
+    /**
+     * 添加分组配额，限制每个分组同时执行的任务数。
+     * 可以添加多个配额(比如按Host和按类型)，任务必须同时满足所有配额才能执行，
+     * 包括通过start(id)、resume(id)、setRunningTask(id)直接执行的任务；
+     * 各分组之间按权重轮转分配执行机会，避免某个分组的大量任务饿死其他分组。
+     * 有多个配额时逐层轮转：先在第一个配额的分组之间轮转，再在选中分组内按第二个配额轮转，依此类推。
+     * @see XTaskQuota
+     */
+    void addTaskQuota(XTaskQuota<B> quota);
+
+    /**
+     * 删除分组配额。
+     */
+    void removeTaskQuota(XTaskQuota<B> quota);
+}
@@ -0,0 +1,1176 @@
+package com.tj.xengine.core.toolkit.taskmgr.parallel;
+
+import com.tj.xengine.core.toolkit.filter.XFilter;
+import com.tj.xengine.core.toolkit.task.XBaseTaskExecutor;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.task.XTaskListener;
+import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XPreemptiveScheduler;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskScheduler;
+import com.tj.xengine.core.toolkit.taskmgr.speed.XSpeedMonitor;
+import com.tj.xengine.core.toolkit.taskmgr.speed.calc.DefaultSpeedCalculator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <pre>
+ * 基于工作窃取的并行执行器，实现ParallelMgr接口。
+ * 适合任务数量巨大、任务完成频率很高的场景。
+ * 与XParallelMgrImpl的区别：
+ * 1.每个并行槽位(worker)有自己的等待队列(双端队列)，
+ *   添加任务时轮流分配到各个worker的队尾；
+ * 2.任务完成后，由该worker从自己队列的队首取下一个任务，
+ *   自己的队列空了，就从其他worker的队尾"窃取"任务；
+ * 3.添加任务、任务完成、取下一个任务都不加全局锁(只用CAS和每个worker自己的队列锁)，
+ *   吞吐量随CPU核数增长；只有start(id)、stop()等控制操作之间互斥；
+ * 4.不支持全局排序，每个worker内部默认按添加顺序执行；
+ *   设置排序器后，worker从自己等待队列的前SCHEDULE_WINDOW个任务中选择最优先的一个(局部排序)，
+ *   排序器是XPreemptiveScheduler时，还会在添加任务时尝试抢占；
+ * 5.被过滤的任务会暂存起来，下一次start()、resume()或修改过滤器时重新分配；
+ *   失败后等待重试的任务保持ERROR状态单独存放，只有没有其他可执行的任务时，
+ *   才重置为TODO，在下一次start()或resume()时执行(与XParallelMgrImpl一致)；
+ *   被stopTasks()停止的任务改为DEFAULT状态单独存放，只有start(id)或resume(id)才会重新执行；
+ * 6.不支持分组配额(统计各分组的并发数需要全局加锁)，没有实现XQuotaParallelMgr；
+ * 7.worker的占用和释放都通过CAS完成，
+ *   不加锁的任务完成和加锁的删除、停止等控制操作之间不会互相覆盖。
+ * 注意：onStopAll()、onFinishAll()等汇总回调是弱一致的，
+ *   在任务完成的同时并发添加任务时，可能会比实际状态稍早触发。
+ * </pre>
+ */
+public class XStealingParallelMgr<B extends XTaskBean> implements XParallelMgr<B> {
+
+    public static final int SCHEDULE_WINDOW = 16;// 设置排序器后，每次参与排序的等待任务数
+
+    protected volatile boolean mIsWorking;// 标识运行状态
+    protected volatile boolean mAuto;// 标识是否自动执行
+    protected final Worker<B>[] mWorkers;// 所有并行槽位
+    protected final ConcurrentLinkedQueue<XMgrTaskExecutor<B>> mParked;// 暂存的任务(被过滤)
+    protected final ConcurrentLinkedQueue<XMgrTaskExecutor<B>> mFailed;// 失败后等待重试的任务
+    protected final Set<XMgrTaskExecutor<B>> mStopped;// 被stopTasks()停止的任务(DEFAULT状态)
+    protected final ConcurrentMap<String, XMgrTaskExecutor<B>> mTaskIndex;// 所有任务的索引
+    protected final AtomicInteger mNextWorker;// 下一个分配任务的worker
+    protected final AtomicLong mStartSequence;// 任务进入worker的顺序号
+    protected volatile XTaskScheduler<B> mScheduler;// 任务排序器(外部设置)
+    protected volatile XFilter<B> mFilter;// 任务过滤器
+    protected volatile XSpeedMonitor<XMgrTaskExecutor<B>> mSpeedMonitor;// 速度监视器
+    protected List<XTaskMgrListener<B>> mListeners;// 外部监听者
+    protected XTaskListener<B> mInnerTaskListener;// 内部管理器对每个Task的监听
+    protected final ThreadLocal<List<B>> mStopBatch;// 批量停止中的任务(只对执行批量停止的线程有效)
+
+    public XStealingParallelMgr(int parallelLimit) {
+        int workerCount = Math.max(parallelLimit, 1);
+        mWorkers = createWorkers(workerCount);
+        mParked = new ConcurrentLinkedQueue<XMgrTaskExecutor<B>>();
+        mFailed = new ConcurrentLinkedQueue<XMgrTaskExecutor<B>>();
+        mStopped = Collections.newSetFromMap(new ConcurrentHashMap<XMgrTaskExecutor<B>, Boolean>());
+        mTaskIndex = new ConcurrentHashMap<String, XMgrTaskExecutor<B>>();
+        mNextWorker = new AtomicInteger();
+        mStartSequence = new AtomicLong();
+        mListeners = new CopyOnWriteArrayList<XTaskMgrListener<B>>();
+        mStopBatch = new ThreadLocal<List<B>>();
+        mIsWorking = false;
+        mAuto = true;
+        mInnerTaskListener = new XTaskListener<B>() {
+            @Override
+            public void onStart(B task) {
+                for (XTaskMgrListener<B> listener : mListeners)
+                    listener.onStart(task);
+            }
+
+            @Override
+            public void onPause(B task) {
+                // 批量停止时先收集起来，最后统一回调onStopBatch()
+                List<B> batch = mStopBatch.get();
+                if (batch != null) {
+                    batch.add(task);
+                    return;
+                }
+                for (XTaskMgrListener<B> listener : mListeners)
+                    listener.onStop(task);
+            }
+
+            @Override
+            public void onAbort(B task) {}
+
+            @Override
+            public void onDoing(B task, long completeSize) {
+                for (XTaskMgrListener<B> listener : mListeners)
+                    listener.onDoing(task, completeSize);
+            }
+
+            @Override
+            public void onComplete(B task) {
+                for (XTaskMgrListener<B> listener : mListeners)
+                    listener.onComplete(task);
+
+                XMgrTaskExecutor<B> taskExecutor = getTaskById(task.getId());
+                if (taskExecutor != null)
+                    notifyTaskFinished(taskExecutor, false);
+            }
+
+            @Override
+            public void onError(B task, String errorCode, boolean retry) {
+                for (XTaskMgrListener<B> listener : mListeners)
+                    listener.onError(task, errorCode);
+
+                XMgrTaskExecutor<B> taskExecutor = getTaskById(task.getId());
+                if (taskExecutor != null)
+                    notifyTaskFinished(taskExecutor, retry);
+            }
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <B extends XTaskBean> Worker<B>[] createWorkers(int count) {
+        Worker<B>[] workers = new Worker[count];
+        for (int i = 0; i < count; i++)
+            workers[i] = new Worker<B>(i);
+        return workers;
+    }
+
+    @Override
+    public boolean isEmptyParallel() {
+        for (Worker<B> worker : mWorkers) {
+            if (worker.running != null)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isFullParallel() {
+        for (Worker<B> worker : mWorkers) {
+            if (worker.running == null)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isAllStop() {
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            // 被占用但还没有任务，说明正在取下一个任务
+            if (task == null && worker.busy.get())
+                return false;
+            if (task != null && (task.getStatus() == XTaskBean.STATUS_DOING
+                    || task.getStatus() == XTaskBean.STATUS_STARTING))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String getTaskId(XMgrTaskExecutor<B> task) {
+        return task.getId();
+    }
+
+    @Override
+    public XMgrTaskExecutor<B> getTaskById(String id) {
+        if (id == null)
+            return null;
+        return mTaskIndex.get(id);
+    }
+
+    /**
+     * 初始化新任务，并加入索引。
+     * @return 任务重复返回false
+     */
+    private boolean prepareTask(XMgrTaskExecutor<B> task) {
+        String taskId = getTaskId(task);
+        if (taskId != null && mTaskIndex.putIfAbsent(taskId, task) != null)// 判断是否重复
+            return false;
+        task.setTaskMgr(this);
+        task.setListener(mInnerTaskListener);
+        task.setStatus(XTaskBean.STATUS_TODO);
+        if (task.getSpeedCalculator() == null)
+            task.setSpeedCalculator(new DefaultSpeedCalculator());
+        return true;
+    }
+
+    private void unindexTask(XMgrTaskExecutor<B> task) {
+        String taskId = getTaskId(task);
+        if (taskId != null)
+            mTaskIndex.remove(taskId, task);
+    }
+
+    private Worker<B> nextWorker() {
+        int index = (mNextWorker.getAndIncrement() & Integer.MAX_VALUE) % mWorkers.length;
+        return mWorkers[index];
+    }
+
+    @Override
+    public boolean addTask(XMgrTaskExecutor<B> task) {
+        if (task == null || !prepareTask(task))
+            return false;
+
+        Worker<B> worker = nextWorker();
+        worker.deque.offerLast(task);
+        for (XTaskMgrListener<B> listener : mListeners)
+            listener.onAdd(task.getBean());
+        // 正在运行时，唤醒空闲的worker；没有空闲的worker时，尝试抢占
+        if (mIsWorking && mAuto && !runNext(worker)
+                && mScheduler instanceof XPreemptiveScheduler)
+            preempt();
+        return true;
+    }
+
+    @Override
+    public void addTasks(List<XMgrTaskExecutor<B>> tasks) {
+        if (tasks == null || tasks.size() == 0)
+            return;
+
+        List<B> added = new ArrayList<B>();
+        for (XMgrTaskExecutor<B> task : tasks) {
+            if (task == null || !prepareTask(task))
+                continue;
+            added.add(task.getBean());
+            nextWorker().deque.offerLast(task);
+        }
+        if (added.size() == 0)
+            return;
+        for (XTaskMgrListener<B> listener : mListeners)
+            listener.onAddAll(added);
+        if (mIsWorking && mAuto) {
+            for (Worker<B> worker : mWorkers)
+                runNext(worker);
+        }
+    }
+
+    /**
+     * 把任务从等待队列和暂存队列中移除。
+     */
+    private boolean removeFromQueues(XMgrTaskExecutor<B> task) {
+        for (Worker<B> worker : mWorkers) {
+            if (worker.deque.remove(task))
+                return true;
+        }
+        return mParked.remove(task) || mFailed.remove(task) || mStopped.remove(task);
+    }
+
+    /**
+     * 获取正在执行指定任务的worker。
+     */
+    private Worker<B> findWorker(XMgrTaskExecutor<B> task) {
+        for (Worker<B> worker : mWorkers) {
+            if (worker.running == task)
+                return worker;
+        }
+        return null;
+    }
+
+    /**
+     * 在已占用的worker中放入任务。
+     */
+    private void assign(Worker<B> worker, XMgrTaskExecutor<B> task) {
+        worker.sequence = mStartSequence.incrementAndGet();
+        worker.running = task;
+    }
+
+    /**
+     * 释放worker(不再执行任何任务)。
+     * 只有worker中仍然是指定的任务时才释放，避免覆盖其他线程已经放入的新任务。
+     * @return 释放成功返回true
+     */
+    private boolean release(Worker<B> worker, XMgrTaskExecutor<B> task) {
+        if (task == null || !worker.compareAndSetRunning(task, null))
+            return false;
+        worker.busy.set(false);
+        return true;
+    }
+
+    /**
+     * 暂存不能立即执行的任务：失败的任务放入mFailed，被停止的任务放入mStopped，其他放入mParked。
+     */
+    private void park(XMgrTaskExecutor<B> task) {
+        if (task.getStatus() == XTaskBean.STATUS_ERROR)
+            mFailed.offer(task);
+        else if (task.getStatus() == XTaskBean.STATUS_DEFAULT)
+            mStopped.add(task);
+        else
+            mParked.offer(task);
+    }
+
+    /**
+     * 占用一个空闲的worker。
+     * @return 没有空闲的worker返回null
+     */
+    private Worker<B> claimIdleWorker() {
+        for (Worker<B> worker : mWorkers) {
+            if (worker.busy.compareAndSet(false, true))
+                return worker;
+        }
+        return null;
+    }
+
+    /**
+     * 取worker的下一个任务：先从自己队列的队首取，没有则从其他worker的队尾窃取。
+     * 设置了排序器时，从自己队列的前SCHEDULE_WINDOW个任务中取最优先的一个。
+     */
+    private XMgrTaskExecutor<B> pollTask(Worker<B> worker) {
+        XMgrTaskExecutor<B> task;
+        final XTaskScheduler<B> scheduler = mScheduler;
+        if (scheduler != null) {
+            // 其他worker可能同时窃取了选中的任务，删除失败则重新选择
+            while ((task = peekBest(worker, scheduler)) != null) {
+                if (worker.deque.remove(task))
+                    return task;
+            }
+        } else {
+            task = worker.deque.pollFirst();
+            if (task != null)
+                return task;
+        }
+        for (int i = 1; i < mWorkers.length; i++) {
+            Worker<B> victim = mWorkers[(worker.index + i) % mWorkers.length];
+            task = victim.deque.pollLast();
+            if (task != null)
+                return task;
+        }
+        return null;
+    }
+
+    /**
+     * 在worker等待队列的前SCHEDULE_WINDOW个任务中，找到最优先的任务(不取出)。
+     */
+    private XMgrTaskExecutor<B> peekBest(Worker<B> worker, XTaskScheduler<B> scheduler) {
+        XMgrTaskExecutor<B> best = null;
+        int count = 0;
+        for (XMgrTaskExecutor<B> task : worker.deque) {
+            if (best == null || scheduler.compare(task.getBean(), best.getBean(), null) < 0)
+                best = task;
+            if (++count >= SCHEDULE_WINDOW)
+                break;
+        }
+        return best;
+    }
+
+    private boolean hasWaitingTask() {
+        for (Worker<B> worker : mWorkers) {
+            if (!worker.deque.isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 如果worker空闲，则为其取下一个任务并启动。
+     * @return 启动了新任务返回true；worker不空闲或没有可执行的任务返回false
+     */
+    private boolean runNext(Worker<B> worker) {
+        while (true) {
+            if (!worker.busy.compareAndSet(false, true))
+                return false;
+            XMgrTaskExecutor<B> task = pollTask(worker);
+            if (task == null) {
+                worker.busy.set(false);
+                // 释放worker的同时可能有新任务加入，重新检查一次，避免任务无人执行
+                if (hasWaitingTask())
+                    continue;
+                return false;
+            }
+            final XFilter<B> filter = mFilter;
+            if (filter != null && filter.doFilter(task.getBean()) == null) {
+                mParked.offer(task);// 被过滤的任务暂存起来
+                worker.busy.set(false);
+                continue;
+            }
+            assign(worker, task);
+            if (task.start()) {
+                if (mSpeedMonitor != null)
+                    mSpeedMonitor.start();
+                return true;
+            }
+            // 启动失败(可能已被终止)，如果worker已被其他线程释放，则任务也已被处理
+            if (!release(worker, task))
+                continue;
+            if (task.getStatus() == XTaskBean.STATUS_DONE)
+                unindexTask(task);
+            else
+                park(task);
+        }
+    }
+
+    /**
+     * 把暂存的任务重新分配到各个worker。
+     * 失败的任务只有已经被重置为TODO状态的才重新分配，其余的继续等待。
+     */
+    private void unpark() {
+        XMgrTaskExecutor<B> task;
+        while ((task = mParked.poll()) != null)
+            nextWorker().deque.offerLast(task);
+        Iterator<XMgrTaskExecutor<B>> iterator = mFailed.iterator();
+        while (iterator.hasNext()) {
+            task = iterator.next();
+            if (task.getStatus() == XTaskBean.STATUS_TODO && mFailed.remove(task))
+                nextWorker().deque.offerLast(task);
+        }
+    }
+
+    /**
+     * 没有其他可执行的任务时，把失败的任务全部重置为TODO状态，方便下次全部自动执行。
+     */
+    private void resetFailed() {
+        for (XMgrTaskExecutor<B> task : mFailed) {
+            if (task instanceof XBaseTaskExecutor) {
+                ((XBaseTaskExecutor<?>) task).compareAndSetStatus(
+                        XTaskBean.STATUS_ERROR, XTaskBean.STATUS_TODO);
+            } else if (task.getStatus() == XTaskBean.STATUS_ERROR) {
+                task.setStatus(XTaskBean.STATUS_TODO);
+            }
+        }
+    }
+
+    /**
+     * 如果所有任务都停止了，则设置运行标识为false，停止速度监视器，并回调监听者。
+     * @param finishIfEmpty 所有任务都执行完时，是否回调onFinishAll()
+     */
+    private synchronized void notifyIfAllStop(boolean finishIfEmpty) {
+        if (!isAllStop())
+            return;
+        if (mSpeedMonitor != null)
+            mSpeedMonitor.stop();
+        boolean wasWorking = mIsWorking;
+        mIsWorking = false;
+        if (finishIfEmpty && wasWorking && isEmptyParallel()
+                && !hasWaitingTask() && mParked.isEmpty() && mFailed.isEmpty() && mStopped.isEmpty()) {
+            for (XTaskMgrListener<B> listener : mListeners)
+                listener.onFinishAll();
+        } else {
+            for (XTaskMgrListener<B> listener : mListeners)
+                listener.onStopAll();
+        }
+    }
+
+    @Override
+    public synchronized void removeTask(XMgrTaskExecutor<B> task) {
+        if (task == null)
+            return;
+
+        task.abort();// 终止当前任务
+        boolean isRemoved = false;
+        Worker<B> worker = findWorker(task);
+        if (worker != null)
+            isRemoved = release(worker, task);
+        if (!isRemoved)
+            isRemoved = removeFromQueues(task);
+        notifyIfAllStop(false);
+        if (isRemoved) {
+            unindexTask(task);
+            for (XTaskMgrListener<B> listener : mListeners)
+                listener.onRemove(task.getBean());
+        }
+    }
+
+    @Override
+    public synchronized void removeTaskById(String taskId) {
+        removeTask(getTaskById(taskId));
+    }
+
+    @Override
+    public void removeTasks(List<XMgrTaskExecutor<B>> tasks) {
+        removeTasksInBatch(tasks);
+    }
+
+    @Override
+    public void removeTasksById(List<String> taskIds) {
+        if (taskIds == null || taskIds.size() == 0)
+            return;
+
+        List<XMgrTaskExecutor<B>> tasks = new ArrayList<XMgrTaskExecutor<B>>();
+        for (String taskId : taskIds) {
+            XMgrTaskExecutor<B> task = getTaskById(taskId);
+            if (task != null)
+                tasks.add(task);
+        }
+        removeTasksInBatch(tasks);
+    }
+
+    @Override
+    public int removeTasksByFilter(XFilter<B> filter) {
+        if (filter == null)
+            return 0;
+
+        // 队列本身是线程安全的，直接在锁外遍历和过滤
+        List<XMgrTaskExecutor<B>> matched = new ArrayList<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : getRunningTask()) {
+            if (filter.doFilter(task.getBean()) != null)
+                matched.add(task);
+        }
+        for (XMgrTaskExecutor<B> task : getWaitingTask()) {
+            if (filter.doFilter(task.getBean()) != null)
+                matched.add(task);
+        }
+        return removeTasksInBatch(matched);
+    }
+
+    /**
+     * 批量删除任务。在一次加锁中完成，每个队列只遍历一次，
+     * 加锁的控制操作不会看到只删除了一部分的中间状态。
+     * 所有任务删除后只回调一次onRemoveAll()。
+     * @return 返回被删除的任务数
+     */
+    private int removeTasksInBatch(List<XMgrTaskExecutor<B>> tasks) {
+        if (tasks == null || tasks.size() == 0)
+            return 0;
+
+        List<B> removed = new ArrayList<B>();
+        synchronized (this) {
+            removeBatch(tasks, removed);
+        }
+        notifyIfAllStop(false);
+        if (removed.size() > 0)
+            for (XTaskMgrListener<B> listener : mListeners)
+                listener.onRemoveAll(removed);
+        return removed.size();
+    }
+
+    /**
+     * 删除一批任务(调用时已加锁)。每个worker的等待队列和暂存队列只遍历一次。
+     */
+    private void removeBatch(List<XMgrTaskExecutor<B>> batch, List<B> removed) {
+        Set<XMgrTaskExecutor<B>> targets = new HashSet<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : batch) {
+            if (task == null)
+                continue;
+            task.abort();// 终止任务
+            targets.add(task);
+        }
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            if (task != null && targets.contains(task) && release(worker, task)) {
+                targets.remove(task);
+                removed.add(task.getBean());
+                unindexTask(task);
+            }
+        }
+        for (Worker<B> worker : mWorkers)
+            removeFromQueue(worker.deque.iterator(), targets, removed);
+        removeFromQueue(mParked.iterator(), targets, removed);
+        removeFromQueue(mFailed.iterator(), targets, removed);
+        removeFromQueue(mStopped.iterator(), targets, removed);
+    }
+
+    private void removeFromQueue(Iterator<XMgrTaskExecutor<B>> iterator,
+                                 Set<XMgrTaskExecutor<B>> targets, List<B> removed) {
+        while (!targets.isEmpty() && iterator.hasNext()) {
+            XMgrTaskExecutor<B> task = iterator.next();
+            if (targets.remove(task)) {
+                iterator.remove();
+                removed.add(task.getBean());
+                unindexTask(task);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setRunningTask(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        if (task == null || findWorker(task) != null)
+            return;
+        // 如果有空闲的worker，则将指定任务放进该worker(不启动)
+        Worker<B> worker = claimIdleWorker();
+        if (worker == null)
+            return;
+        if (removeFromQueues(task))
+            assign(worker, task);
+        else
+            worker.busy.set(false);
+    }
+
+    @Override
+    public List<XMgrTaskExecutor<B>> getRunningTask() {
+        List<XMgrTaskExecutor<B>> result = new ArrayList<XMgrTaskExecutor<B>>(mWorkers.length);
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            if (task != null)
+                result.add(task);
+        }
+        return result;
+    }
+
+    @Override
+    public List<XMgrTaskExecutor<B>> getWaitingTask() {
+        List<XMgrTaskExecutor<B>> result = new ArrayList<XMgrTaskExecutor<B>>();
+        for (Worker<B> worker : mWorkers)
+            result.addAll(worker.deque);
+        result.addAll(mParked);
+        result.addAll(mFailed);
+        result.addAll(mStopped);
+        return result;
+    }
+
+    @Override
+    public synchronized boolean start() {
+        mIsWorking = true;
+        unpark();
+        boolean started = false;
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            if (task != null) {
+                // 恢复原地暂停的任务
+                if (mFilter == null || mFilter.doFilter(task.getBean()) != null)
+                    started = task.start() || started;
+            } else {
+                started = runNext(worker) || started;
+            }
+        }
+        if (isEmptyParallel()) {
+            mIsWorking = false;
+            return false;
+        }
+        if (started && mSpeedMonitor != null)
+            mSpeedMonitor.start();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean start(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        // 如果指定Id的任务不存在，则什么都不做，返回false
+        if (task == null)
+            return false;
+
+        // 如果被过滤掉，则不启动
+        if (mFilter != null && mFilter.doFilter(task.getBean()) == null)
+            return false;
+
+        // 如果指定Id的任务正在worker中，直接启动
+        if (findWorker(task) != null) {
+            if (!task.start(XTaskBean.STATUS_DEFAULT))
+                return false;
+            mIsWorking = true;
+            if (mSpeedMonitor != null)
+                mSpeedMonitor.start();
+            return true;
+        }
+
+        // 找一个空闲的worker，如果没有，则替换掉一个worker的任务
+        Worker<B> worker = claimIdleWorker();
+        if (worker == null) {
+            worker = selectReplaced(task);
+            if (worker == null)
+                return false;
+            XMgrTaskExecutor<B> oldTask = worker.running;
+            if (oldTask == null || (isActive(oldTask) && !oldTask.pause()))
+                return false;
+            // 暂停后原地替换(worker保持占用)，被替换的任务添加回等待队列
+            if (!worker.compareAndSetRunning(oldTask, null))
+                return false;
+            worker.deque.offerFirst(oldTask);
+        }
+        if (!removeFromQueues(task)) {
+            worker.busy.set(false);
+            return false;
+        }
+        assign(worker, task);
+        if (!task.start(XTaskBean.STATUS_DEFAULT)) {
+            if (release(worker, task))
+                worker.deque.offerFirst(task);
+            return false;
+        }
+        mIsWorking = true;
+        if (mSpeedMonitor != null)
+            mSpeedMonitor.start();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean resume() {
+        if (isEmptyParallel())
+            return false;
+
+        unpark();
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            if (task == null)
+                continue;
+            // 如果过滤掉，则直接启动下一个
+            if (mFilter != null && mFilter.doFilter(task.getBean()) == null)
+                continue;
+            mIsWorking = true;
+            task.start();
+        }
+        if (mIsWorking && mSpeedMonitor != null)
+            mSpeedMonitor.start();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean resume(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        if (task == null)
+            return false;
+        if (mFilter != null && mFilter.doFilter(task.getBean()) == null)
+            return false;
+
+        // 如果指定Id的任务在worker中，恢复该任务
+        if (findWorker(task) != null) {
+            mIsWorking = true;
+            if (task.start(XTaskBean.STATUS_DEFAULT) && mSpeedMonitor != null)
+                mSpeedMonitor.start();
+            return true;
+        }
+        // 如果指定Id的任务在等待队列中，且有空闲的worker，启动该任务
+        Worker<B> worker = claimIdleWorker();
+        if (worker == null)
+            return false;
+        if (!removeFromQueues(task)) {
+            worker.busy.set(false);
+            return false;
+        }
+        mIsWorking = true;
+        assign(worker, task);
+        if (task.start(XTaskBean.STATUS_DEFAULT) && mSpeedMonitor != null)
+            mSpeedMonitor.start();
+        return true;
+    }
+
+    /**
+     * start(id)没有空闲的worker时，选择被替换的worker：
+     * 1.优先选择任务已经暂停(不在执行中)的worker；
+     * 2.排序器是XPreemptiveScheduler时，由排序器选择；
+     * 3.否则选择最早放入任务的worker(与XParallelMgrImpl替换最早的任务一致)。
+     */
+    private Worker<B> selectReplaced(XMgrTaskExecutor<B> task) {
+        Worker<B> oldest = null;
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> running = worker.running;
+            if (running == null)
+                continue;
+            if (!isActive(running))
+                return worker;
+            if (oldest == null || worker.sequence < oldest.sequence)
+                oldest = worker;
+        }
+        final XTaskScheduler<B> scheduler = mScheduler;
+        if (scheduler instanceof XPreemptiveScheduler) {
+            Worker<B> victim = selectVictim((XPreemptiveScheduler<B>) scheduler, task);
+            if (victim != null)
+                return victim;
+        }
+        return oldest;
+    }
+
+    /**
+     * 由排序器在正在执行的任务中选择被抢占的任务。
+     * @return 返回被抢占任务所在的worker；不需要抢占返回null
+     */
+    private Worker<B> selectVictim(XPreemptiveScheduler<B> scheduler, XMgrTaskExecutor<B> candidate) {
+        List<B> runningBeans = new ArrayList<B>();
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> running = worker.running;
+            if (running != null && isActive(running))
+                runningBeans.add(running.getBean());
+        }
+        B victimBean = scheduler.selectVictim(candidate.getBean(), runningBeans);
+        if (victimBean == null)
+            return null;
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> running = worker.running;
+            if (running != null && running.getBean() == victimBean)
+                return worker;
+        }
+        return null;
+    }
+
+    private static boolean isActive(XMgrTaskExecutor<?> task) {
+        return task.getStatus() == XTaskBean.STATUS_DOING
+                || task.getStatus() == XTaskBean.STATUS_STARTING;
+    }
+
+    @Override
+    public synchronized boolean pause() {
+        if (isEmptyParallel())
+            return false;
+        // 尝试原地暂停任务(任务仍然占用worker)
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            if (task != null)
+                task.pause();
+        }
+        notifyIfAllStop(false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean pause(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        if (task == null || findWorker(task) == null)
+            return false;
+        if (!task.pause())
+            return false;
+        notifyIfAllStop(false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean pauseByFilter(XFilter<B> filter) {
+        setTaskFilter(filter);// 设置当前的任务过滤器
+        boolean paused = false;
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            if (task != null && filter != null && filter.doFilter(task.getBean()) == null)
+                paused = task.pause() || paused;
+        }
+        if (!paused)
+            return false;
+        notifyIfAllStop(false);
+        return true;
+    }
+
+    /**
+     * 暂停worker中的任务，并把任务放回该worker等待队列的队首。
+     */
+    private boolean stopWorker(Worker<B> worker) {
+        XMgrTaskExecutor<B> task = worker.running;
+        if (task == null || !task.pause())
+            return false;
+        if (!release(worker, task))
+            return false;
+        worker.deque.offerFirst(task);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean stop() {
+        if (isEmptyParallel())
+            return false;
+        boolean stopped = false;
+        for (Worker<B> worker : mWorkers)
+            stopped = stopWorker(worker) || stopped;
+        if (!stopped)
+            return false;
+        notifyIfAllStop(false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean stop(String taskId) {
+        XMgrTaskExecutor<B> task = getTaskById(taskId);
+        if (task == null)
+            return false;
+        Worker<B> worker = findWorker(task);
+        if (worker == null || !stopWorker(worker))
+            return false;
+        notifyIfAllStop(false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean stopByFilter(XFilter<B> filter) {
+        setTaskFilter(filter);// 设置当前的任务过滤器
+        boolean stopped = false;
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            if (task != null && filter != null && filter.doFilter(task.getBean()) == null)
+                stopped = stopWorker(worker) || stopped;
+        }
+        if (!stopped)
+            return false;
+        notifyIfAllStop(false);
+        return true;
+    }
+
+    @Override
+    public int stopTasks(XFilter<B> filter) {
+        if (filter == null)
+            return 0;
+
+        // 队列本身是线程安全的，直接在锁外遍历和过滤
+        Set<XMgrTaskExecutor<B>> targets = new HashSet<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : getRunningTask()) {
+            if (filter.doFilter(task.getBean()) != null)
+                targets.add(task);
+        }
+        for (XMgrTaskExecutor<B> task : getWaitingTask()) {
+            if (filter.doFilter(task.getBean()) != null)
+                targets.add(task);
+        }
+        if (targets.isEmpty())
+            return 0;
+        return stopBatch(targets);
+    }
+
+    /**
+     * 停止一批任务，在一次加锁中完成，每个队列只遍历一次。
+     * worker中的任务暂停为DEFAULT状态，等待中的TODO任务直接改为DEFAULT状态，
+     * 然后一起移入mStopped，不会再被worker取出执行。
+     */
+    private synchronized int stopBatch(Set<XMgrTaskExecutor<B>> targets) {
+        List<B> stopped = new ArrayList<B>();
+        int count = 0;
+        // 暂停的回调先收集起来
+        mStopBatch.set(stopped);
+        try {
+            for (Worker<B> worker : mWorkers) {
+                XMgrTaskExecutor<B> task = worker.running;
+                if (task == null || !targets.remove(task))
+                    continue;
+                boolean paused = task.pause(XTaskBean.STATUS_DEFAULT);
+                // 原地暂停的任务直接改为DEFAULT状态
+                if (!paused && !holdTask(task))
+                    continue;
+                if (!paused)
+                    stopped.add(task.getBean());
+                if (release(worker, task)) {
+                    mStopped.add(task);
+                    count++;
+                }
+            }
+        } finally {
+            mStopBatch.remove();
+        }
+        for (Worker<B> worker : mWorkers)
+            count += holdFromQueue(worker.deque.iterator(), targets, stopped);
+        count += holdFromQueue(mParked.iterator(), targets, stopped);
+        if (count == 0)
+            return 0;
+        for (XTaskMgrListener<B> listener : mListeners)
+            listener.onStopBatch(stopped);
+        notifyIfAllStop(false);
+        return count;
+    }
+
+    /**
+     * 遍历一次队列，把其中属于targets的TODO任务改为DEFAULT状态，移入mStopped。
+     * worker可能同时取出了同一个任务，它启动失败后也会把任务放入mStopped(不会重复)。
+     * @return 返回被停止的任务数
+     */
+    private int holdFromQueue(Iterator<XMgrTaskExecutor<B>> iterator,
+                              Set<XMgrTaskExecutor<B>> targets, List<B> stopped) {
+        int count = 0;
+        while (!targets.isEmpty() && iterator.hasNext()) {
+            XMgrTaskExecutor<B> task = iterator.next();
+            if (targets.remove(task) && holdTask(task)) {
+                iterator.remove();
+                mStopped.add(task);
+                stopped.add(task.getBean());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 把TODO状态的任务改为DEFAULT状态(不再被自动执行)。
+     * @return 任务不是TODO状态返回false
+     */
+    private static boolean holdTask(XMgrTaskExecutor<?> task) {
+        if (task instanceof XBaseTaskExecutor)
+            return ((XBaseTaskExecutor<?>) task).compareAndSetStatus(
+                    XTaskBean.STATUS_TODO, XTaskBean.STATUS_DEFAULT);
+        if (task.getStatus() != XTaskBean.STATUS_TODO)
+            return false;
+        task.setStatus(XTaskBean.STATUS_DEFAULT);
+        return true;
+    }
+
+    @Override
+    public synchronized void stopAndReset() {
+        mIsWorking = false;
+        // 终止并清空当前任务
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = worker.running;
+            if (task != null)
+                task.pause();
+            worker.deque.clear();
+            release(worker, task);
+        }
+        // 清空暂存的任务
+        mParked.clear();
+        mFailed.clear();
+        mStopped.clear();
+        mTaskIndex.clear();
+        // 停止速度监听
+        if (mSpeedMonitor != null)
+            mSpeedMonitor.stop();
+        // 通知监听者
+        for (XTaskMgrListener<B> listener : mListeners)
+            listener.onStopAll();
+    }
+
+    @Override
+    public void setSpeedMonitor(XSpeedMonitor<XMgrTaskExecutor<B>> speedMonitor) {
+        mSpeedMonitor = speedMonitor;
+    }
+
+    @Override
+    public void setTaskFilter(XFilter<B> filter) {
+        mFilter = filter;
+        // 过滤器变化后，之前被过滤的任务可能可以执行了
+        if (!mParked.isEmpty()) {
+            unpark();
+            if (mIsWorking && mAuto) {
+                for (Worker<B> worker : mWorkers)
+                    runNext(worker);
+            }
+        }
+    }
+
+    @Override
+    public XFilter<B> getTaskFilter() {
+        return mFilter;
+    }
+
+    /**
+     * 设置排序器。不支持全局排序，
+     * 每个worker只在自己等待队列的前SCHEDULE_WINDOW个任务中选择最优先的一个；
+     * 排序器是XPreemptiveScheduler时，还用于抢占和start(id)时选择被替换的任务。
+     */
+    @Override
+    public void setTaskScheduler(XTaskScheduler<B> scheduler) {
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public void setAutoRunning(boolean auto) {
+        mAuto = auto;
+    }
+
+    @Override
+    public boolean isAutoRunning() {
+        return mAuto;
+    }
+
+    /**
+     * 在所有worker等待队列的前SCHEDULE_WINDOW个任务中找到最优先的候选任务，
+     * 由XPreemptiveScheduler决定是否暂停一个正在执行的任务，让出worker给候选任务。
+     */
+    @Override
+    public synchronized boolean preempt() {
+        final XTaskScheduler<B> scheduler = mScheduler;
+        if (!mIsWorking || !mAuto || !isFullParallel()
+                || !(scheduler instanceof XPreemptiveScheduler))
+            return false;
+        XMgrTaskExecutor<B> candidate = null;
+        for (Worker<B> worker : mWorkers) {
+            XMgrTaskExecutor<B> task = peekBest(worker, scheduler);
+            if (task != null && (candidate == null
+                    || scheduler.compare(task.getBean(), candidate.getBean(), null) < 0))
+                candidate = task;
+        }
+        if (candidate == null)
+            return false;
+        // 被过滤的任务不能执行
+        if (mFilter != null && mFilter.doFilter(candidate.getBean()) == null)
+            return false;
+        Worker<B> victimWorker = selectVictim((XPreemptiveScheduler<B>) scheduler, candidate);
+        if (victimWorker == null)
+            return false;
+        XMgrTaskExecutor<B> victim = victimWorker.running;
+        if (victim == null || !victim.pause())
+            return false;
+        // 被抢占的任务放回等待队列，在原worker中执行候选任务(worker保持占用)
+        if (!victimWorker.compareAndSetRunning(victim, null))
+            return false;
+        victimWorker.deque.offerFirst(victim);
+        if (!removeFromQueues(candidate)) {
+            victimWorker.busy.set(false);
+            runNext(victimWorker);
+            return false;
+        }
+        assign(victimWorker, candidate);
+        if (!candidate.start() && release(victimWorker, candidate)) {
+            park(candidate);
+            runNext(victimWorker);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void notifyTaskFinished(XMgrTaskExecutor<B> task, boolean addBack) {
+        if (task == null)
+            return;
+
+        Worker<B> worker = findWorker(task);
+        // 如果不是在worker中的任务（可能是没执行就被外部pause或abort了）
+        if (worker == null) {
+            // 如果是TODO状态，且addBack为true，保留在等待队列中；否则，直接丢弃该任务
+            if (!addBack || task.getStatus() != XTaskBean.STATUS_TODO) {
+                removeFromQueues(task);
+                unindexTask(task);
+            }
+            return;
+        }
+
+        // 正在执行,非法状态
+        if (task.getStatus() == XTaskBean.STATUS_DOING)
+            return;
+
+        // 释放worker，如果已被删除或停止等控制操作释放，则任务已被处理
+        if (!release(worker, task))
+            return;
+        // 如果是TODO或ERROR结束的，且addBack为true，暂存起来等待下次启动；否则，直接丢弃该任务
+        if (addBack && task.getStatus() != XTaskBean.STATUS_DONE)
+            park(task);
+        else
+            unindexTask(task);
+
+        // 如果已经标记停止，或者不自动执行，则只检查是否全部停止
+        if (mIsWorking && mAuto && runNext(worker))
+            return;
+        // 没有其他可执行的任务了，失败的任务重置为TODO，下次启动时全部执行
+        if (!hasWaitingTask() && mParked.isEmpty())
+            resetFailed();
+        if (isAllStop())
+            notifyIfAllStop(true);
+    }
+
+    @Override
+    public void registerListener(XTaskMgrListener<B> listener) {
+        if (!mListeners.contains(listener))
+            mListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterListener(XTaskMgrListener<B> listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public List<XTaskMgrListener<B>> getListeners() {
+        return mListeners;
+    }
+
+    /**
+     * 并行槽位，同一时刻最多执行一个任务。
+     */
+    protected static class Worker<B extends XTaskBean> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Worker, XMgrTaskExecutor> RUNNING_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(Worker.class, XMgrTaskExecutor.class, "running");
+
+        final int index;
+        final LinkedBlockingDeque<XMgrTaskExecutor<B>> deque;// 该worker的等待队列(Android API 9起可用)
+        final AtomicBoolean busy;// 是否被占用(正在执行任务，或正在取下一个任务)
+        volatile XMgrTaskExecutor<B> running;// 正在执行的任务
+        volatile long sequence;// 放入当前任务时的顺序号
+
+        Worker(int index) {
+            this.index = index;
+            this.deque = new LinkedBlockingDeque<XMgrTaskExecutor<B>>();
+            this.busy = new AtomicBoolean(false);
+        }
+
+        boolean compareAndSetRunning(XMgrTaskExecutor<B> expect, XMgrTaskExecutor<B> update) {
+            return RUNNING_UPDATER.compareAndSet(this, expect, update);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.tj.xengine.core.toolkit.taskmgr.parallel;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskGrouper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * 并行任务的分组配额。
+ * 通过XTaskGrouper把任务分组，并为每个分组设置：
+ * 1.最大并发数：同一分组中同时执行的任务数不超过该值(0表示不限制)；
+ * 2.权重：在分组之间轮转分配执行机会时，每轮可以连续执行的任务数(至少为1)。
+ * 没有单独设置的分组使用默认值。
+ * B表示数据的类型
+ * </pre>
+ * @see XQuotaParallelMgr#addTaskQuota(XTaskQuota)
+ */
+public class XTaskQuota<B extends XTaskBean> {
+
+    public static final int UNLIMITED = 0;
+
+    private static final String NULL_GROUP = "";
+
+    private final XTaskGrouper<B> mGrouper;
+    private final Map<String, Integer> mLimits;// 每个分组的最大并发数
+    private final Map<String, Integer> mWeights;// 每个分组的权重
+    private volatile int mDefaultLimit;
+    private volatile int mDefaultWeight;
+
+    /**
+     * @param grouper 任务分组器
+     * @param defaultLimit 每个分组默认的最大并发数，0表示不限制
+     */
+    public XTaskQuota(XTaskGrouper<B> grouper, int defaultLimit) {
+        mGrouper = grouper;
+        mLimits = new ConcurrentHashMap<String, Integer>();
+        mWeights = new ConcurrentHashMap<String, Integer>();
+        mDefaultLimit = Math.max(defaultLimit, UNLIMITED);
+        mDefaultWeight = 1;
+    }
+
+    /**
+     * 获取任务所属的分组。
+     */
+    public String getGroup(B task) {
+        String group = mGrouper.getGroup(task);
+        return group == null ? NULL_GROUP : group;
+    }
+
+    public void setDefaultLimit(int limit) {
+        mDefaultLimit = Math.max(limit, UNLIMITED);
+    }
+
+    public void setDefaultWeight(int weight) {
+        mDefaultWeight = Math.max(weight, 1);
+    }
+
+    /**
+     * 设置指定分组的最大并发数。
+     * @param limit 0表示不限制
+     */
+    public void setLimit(String group, int limit) {
+        mLimits.put(group == null ? NULL_GROUP : group, Math.max(limit, UNLIMITED));
+    }
+
+    public int getLimit(String group) {
+        Integer limit = mLimits.get(group == null ? NULL_GROUP : group);
+        return limit == null ? mDefaultLimit : limit;
+    }
+
+    /**
+     * 设置指定分组的权重。
+     * @param weight 每轮可以连续执行的任务数，至少为1
+     */
+    public void setWeight(String group, int weight) {
+        mWeights.put(group == null ? NULL_GROUP : group, Math.max(weight, 1));
+    }
+
+    public int getWeight(String group) {
+        Integer weight = mWeights.get(group == null ? NULL_GROUP : group);
+        return weight == null ? mDefaultWeight : weight;
+    }
+}
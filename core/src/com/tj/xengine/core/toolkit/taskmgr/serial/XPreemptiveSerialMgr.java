@@ -0,0 +1,34 @@
+package com.tj.xengine.core.toolkit.taskmgr.serial;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XPreemptionPolicy;
+
+/**
+ * <pre>
+ * 支持抢占策略的线性任务执行器接口。
+ * 单独定义，XSerialMgr原有的实现不需要修改。
+ * </pre>
+ * @see XPreemptionPolicy
+ */
+public interface XPreemptiveSerialMgr<B extends XTaskBean> extends XSerialMgr<B> {
+
+    /**
+     * 设置抢占策略，决定start(taskId)切换任务的时机。
+     * @param policy 为null时立即切换
+     * @see XPreemptionPolicy
+     */
+    void setPreemptionPolicy(XPreemptionPolicy<B> policy);
+
+    /**
+     * 获取被推迟执行的任务(start(taskId)要求执行，但抢占策略暂未同意切换)。
+     * @return 没有返回null
+     */
+    XMgrTaskExecutor<B> getPendingTask();
+
+    /**
+     * 重新询问抢占策略，是否可以切换到被推迟执行的任务。
+     * @return 发生了切换返回true；否则返回false
+     */
+    boolean preempt();
+}
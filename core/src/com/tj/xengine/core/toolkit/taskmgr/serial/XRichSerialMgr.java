@@ -6,8 +6,10 @@ import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
 import com.tj.xengine.core.toolkit.taskmgr.speed.calc.DefaultSpeedCalculator;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * <pre>
@@ -30,27 +32,6 @@ public class XRichSerialMgr<B extends XTaskBean> extends XSerialMgrImpl<B> {
         mNotExecuted = new LinkedList<XMgrTaskExecutor<B>>();
     }
 
-    @Override
-    public XMgrTaskExecutor<B> getTaskById(String id) {
-        if (id == null)
-            return null;
-
-        if (mCurrentExecuted != null && id.equals(getTaskId(mCurrentExecuted)))
-            return mCurrentExecuted;
-
-        for (XMgrTaskExecutor<B> task : mTobeExecuted) {
-            if (id.equals(getTaskId(task)))
-                return task;
-        }
-
-        for (XMgrTaskExecutor<B> task : mNotExecuted) {
-            if (id.equals(getTaskId(task)))
-                return task;
-        }
-
-        return null;
-    }
-
     @Override
     public synchronized boolean addTask(XMgrTaskExecutor<B> task) {
         if (getTaskById(getTaskId(task)) != null)// 判断是否重复
@@ -74,6 +55,7 @@ public class XRichSerialMgr<B extends XTaskBean> extends XSerialMgrImpl<B> {
             task.setStatus(XTaskBean.STATUS_TODO);
             mTobeExecuted.offer(task);
         }
+        indexTask(task);
         for (XTaskMgrListener<B> listener : mListeners)
             listener.onAdd(task.getBean());
 
@@ -108,6 +90,7 @@ public class XRichSerialMgr<B extends XTaskBean> extends XSerialMgrImpl<B> {
                 task.setStatus(XTaskBean.STATUS_TODO);
                 mTobeExecuted.offer(task);
             }
+            indexTask(task);
         }
         if (added.size() > 0)
             for (XTaskMgrListener<B> listener : mListeners)
@@ -142,6 +125,7 @@ public class XRichSerialMgr<B extends XTaskBean> extends XSerialMgrImpl<B> {
                 listener.onStopAll();
         }
         if (isRemoved) {
+            unindexTask(task);
             task.setStatus(XTaskBean.STATUS_DEFAULT);
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onRemove(task.getBean());
@@ -149,54 +133,34 @@ public class XRichSerialMgr<B extends XTaskBean> extends XSerialMgrImpl<B> {
     }
 
     @Override
-    public synchronized void removeTasksById(List<String> taskIds) {
-        if (taskIds == null || taskIds.size() == 0)
-            return;
-
-        List<XMgrTaskExecutor<B>> tasks = new ArrayList<XMgrTaskExecutor<B>>();
-        for (String taskId : taskIds) {
-            XMgrTaskExecutor<B> task = getTaskById(taskId);
-            if (task != null)
-                tasks.add(task);
-        }
-        removeTasks(tasks);
+    protected synchronized List<XMgrTaskExecutor<B>> snapshotTasks() {
+        List<XMgrTaskExecutor<B>> tasks = super.snapshotTasks();
+        tasks.addAll(mNotExecuted);
+        return tasks;
     }
 
     @Override
-    public synchronized void removeTasks(List<XMgrTaskExecutor<B>> tasks) {
-        if (tasks == null || tasks.size() == 0)
-            return;
-
-        List<B> removed = new ArrayList<B>();
-        for (XMgrTaskExecutor<B> task : tasks) {
+    protected void removeBatch(List<XMgrTaskExecutor<B>> batch, List<B> removed) {
+        int start = removed.size();
+        Set<XMgrTaskExecutor<B>> targets = new HashSet<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : batch) {
             if (task == null)
                 continue;
             task.abort();// 终止当前任务
-            boolean isRemoved = false;
-            if (mCurrentExecuted == task) {// 如果要删除的任务是当前的任务
-                mCurrentExecuted = null;
-                isRemoved = true;
-            }
-            if (!isRemoved) // 如果要删除的任务在等待队列中
-                isRemoved = mTobeExecuted.remove(task);
-            if (!isRemoved) // 如果要删除的任务在不执行队列中
-                isRemoved = mNotExecuted.remove(task);
-            if (isRemoved)
-                removed.add(task.getBean());
-        }
-        if (mCurrentExecuted == null) {// 如果当前没有任务运行，则标记结束
-            if (mSpeedMonitor != null)
-                mSpeedMonitor.stop();
-            mIsWorking = false;
-            for (XTaskMgrListener<B> listener : mListeners)
-                listener.onStopAll();
+            targets.add(task);
         }
-        if (removed.size() > 0) {
-            for (B rTask : removed)
-                rTask.setStatus(XTaskBean.STATUS_DEFAULT);
-            for (XTaskMgrListener<B> listener : mListeners)
-                listener.onRemoveAll(removed);
+        // 如果要删除的任务是当前的任务
+        XMgrTaskExecutor<B> current = mCurrentExecuted;
+        if (current != null && targets.remove(current)) {
+            mCurrentExecuted = null;
+            removed.add(current.getBean());
+            unindexTask(current);
         }
+        // 等待队列和不执行队列各遍历一次
+        removeFromQueue(mTobeExecuted, targets, removed);
+        removeFromQueue(mNotExecuted, targets, removed);
+        for (int i = start; i < removed.size(); i++)
+            removed.get(i).setStatus(XTaskBean.STATUS_DEFAULT);
     }
 
     @Override
@@ -216,40 +180,18 @@ public class XRichSerialMgr<B extends XTaskBean> extends XSerialMgrImpl<B> {
     }
 
     @Override
-    public synchronized boolean start(String taskId) {
-        XMgrTaskExecutor<B> task = getTaskById(taskId);
-        // 如果指定的task不存在，则什么都不做，返回false
-        if (task == null)
-            return false;
-
-        // 如果被过滤掉，则不启动
-        if (mFilter != null && mFilter.doFilter(task.getBean()) == null)
-            return false;
-
-        // 先尝试启动指定任务
-        if (!task.start(XTaskBean.STATUS_DEFAULT))
-            return false;
+    protected void holdStopped(List<XMgrTaskExecutor<B>> tasks) {
+        // 被停止的任务放入不执行队列
+        mNotExecuted.addAll(tasks);
+    }
 
-        mIsWorking = true;
-        // 如果当前任务不是指定id任务，暂停当前任务，再指定id的为当前任务
-        if (mCurrentExecuted != task) {
-            // 暂停老的当前任务
-            if (mCurrentExecuted != null) {
-                mCurrentExecuted.pause();
-                // 添加回等待队列
-                mTobeExecuted.addFirst(mCurrentExecuted);
-            }
-            // 指定新的当前任务
-            if (mNotExecuted.contains(task)) {
-                mNotExecuted.remove(task);// 如果在不执行队列中
-            } else {
-                mTobeExecuted.remove(task);// 如果在等待队列中
-            }
-            mCurrentExecuted = task;
+    @Override
+    protected void takeFromQueue(XMgrTaskExecutor<B> task) {
+        if (mNotExecuted.contains(task)) {
+            mNotExecuted.remove(task);// 如果在不执行队列中
+        } else {
+            mTobeExecuted.remove(task);// 如果在等待队列中
         }
-        if (mSpeedMonitor != null)
-            mSpeedMonitor.start();
-        return true;
     }
 
     @Override
@@ -285,8 +227,11 @@ public class XRichSerialMgr<B extends XTaskBean> extends XSerialMgrImpl<B> {
         }
         // 清空等待队列中的任务
         mTobeExecuted.clear();
+        mPendingTask = null;
+        mDraining = false;
         // 清空不执行队列中的任务
         mNotExecuted.clear();
+        mTaskIndex.clear();
         // 通知监听者
         for (XTaskMgrListener<B> listener : mListeners)
             listener.onStopAll();
@@ -343,6 +288,8 @@ public class XRichSerialMgr<B extends XTaskBean> extends XSerialMgrImpl<B> {
                 }
                 mNotExecuted.offer(task);
             }
+        } else {
+            unindexTask(task);// DONE结束的，直接丢弃该任务
         }
         // 如果等待队列中所有的任务都是异常状态，则全部重置成TODO，方便下次全部自动执行
         if (allError) {
@@ -30,4 +30,5 @@ public interface XSerialMgr<B extends XTaskBean>
      * @return 返回等待执行的任务列表
      */
     List<XMgrTaskExecutor<B>> getWaitingTask();
+
 }
@@ -1,15 +1,19 @@
 package com.tj.xengine.core.toolkit.taskmgr.serial;
 
 import com.tj.xengine.core.toolkit.filter.XFilter;
+import com.tj.xengine.core.toolkit.task.XBaseTaskExecutor;
 import com.tj.xengine.core.toolkit.task.XTaskBean;
 import com.tj.xengine.core.toolkit.task.XTaskListener;
 import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XPreemptionPolicy;
+import com.tj.xengine.core.toolkit.taskmgr.XSoftPreemptible;
 import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
 import com.tj.xengine.core.toolkit.taskmgr.XTaskScheduler;
 import com.tj.xengine.core.toolkit.taskmgr.speed.XSpeedMonitor;
 import com.tj.xengine.core.toolkit.taskmgr.speed.calc.DefaultSpeedCalculator;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -29,24 +33,32 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * Time: 下午3:35
  * </pre>
  */
-public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
+public class XSerialMgrImpl<B extends XTaskBean> implements XPreemptiveSerialMgr<B> {
+
 
     protected volatile boolean mIsWorking;// 标识运行状态
     protected volatile boolean mAuto;// 标识是否自动执行
     protected volatile XMgrTaskExecutor<B> mCurrentExecuted;// 当前正在运行的任务
     protected LinkedList<XMgrTaskExecutor<B>> mTobeExecuted;// 待执行的任务队列
+    protected Map<String, XMgrTaskExecutor<B>> mTaskIndex;// 所有任务的索引(任务Id -> 任务)
     protected XTaskScheduler<B> mScheduler;// 任务排序器(外部设置)
     protected XFilter<B> mFilter;// 任务过滤器
     protected Comparator<XMgrTaskExecutor<B>> mInnerComparator;// 实际用来排序的比较器
     protected XSpeedMonitor<XMgrTaskExecutor<B>> mSpeedMonitor;// 速度监视器
     protected List<XTaskMgrListener<B>> mListeners;// 外部监听者
     protected XTaskListener<B> mInnerTaskListener;// 内部管理器对每个Task的监听
+    protected ThreadLocal<List<B>> mStopBatch;// 批量停止中的任务(只对执行批量停止的线程有效)
+    protected XPreemptionPolicy<B> mPreemptionPolicy;// 抢占策略
+    protected XMgrTaskExecutor<B> mPendingTask;// 被推迟执行的任务(在等待队列最前面)
+    protected boolean mDraining;// 是否正在等待当前任务到达安全点
 
     public XSerialMgrImpl() {
         mCurrentExecuted = null;
         mTobeExecuted = new LinkedList<XMgrTaskExecutor<B>>();
+        mTaskIndex = new ConcurrentHashMap<String, XMgrTaskExecutor<B>>();
         mInnerComparator = new InnerTaskComparator();
         mListeners = new CopyOnWriteArrayList<XTaskMgrListener<B>>();
+        mStopBatch = new ThreadLocal<List<B>>();
         mIsWorking = false;
         mAuto = true;
         mInnerTaskListener = new XTaskListener<B>() {
@@ -58,6 +70,12 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
 
             @Override
             public void onPause(B task) {
+                // 批量停止时先收集起来，最后统一回调onStopBatch()
+                List<B> batch = mStopBatch.get();
+                if (batch != null) {
+                    batch.add(task);
+                    return;
+                }
                 for (XTaskMgrListener<B> listener : mListeners)
                     listener.onStop(task);
             }
@@ -103,14 +121,26 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         if (id == null)
             return null;
 
-        if (mCurrentExecuted != null && id.equals(getTaskId(mCurrentExecuted)))
-            return mCurrentExecuted;
+        return mTaskIndex.get(id);
+    }
 
-        for (XMgrTaskExecutor<B> task : mTobeExecuted) {
-            if (id.equals(getTaskId(task)))
-                return task;
-        }
-        return null;
+    /**
+     * 把任务加入索引。
+     * 任务id为null的任务认为是唯一的，不加入索引。
+     */
+    protected void indexTask(XMgrTaskExecutor<B> task) {
+        String taskId = getTaskId(task);
+        if (taskId != null)
+            mTaskIndex.put(taskId, task);
+    }
+
+    /**
+     * 把任务移出索引(任务离开任务管理器时调用)。
+     */
+    protected void unindexTask(XMgrTaskExecutor<B> task) {
+        String taskId = getTaskId(task);
+        if (taskId != null)
+            mTaskIndex.remove(taskId);
     }
 
     @Override
@@ -124,6 +154,7 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         if (task.getSpeedCalculator() == null)
             task.setSpeedCalculator(new DefaultSpeedCalculator());
         mTobeExecuted.offer(task);
+        indexTask(task);
         for (XTaskMgrListener<B> listener : mListeners)
             listener.onAdd(task.getBean());
 
@@ -148,6 +179,7 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
             if (task.getSpeedCalculator() == null)
                 task.setSpeedCalculator(new DefaultSpeedCalculator());
             mTobeExecuted.offer(task);
+            indexTask(task);
         }
         if (added.size() > 0)
             for (XTaskMgrListener<B> listener : mListeners)
@@ -174,9 +206,11 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onStopAll();
         }
-        if (isRemoved)
+        if (isRemoved) {
+            unindexTask(task);
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onRemove(task.getBean());
+        }
     }
 
     @Override
@@ -185,23 +219,61 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
     }
 
     @Override
-    public synchronized void removeTasks(List<XMgrTaskExecutor<B>> tasks) {
-        if (tasks == null || tasks.size() == 0)
+    public void removeTasks(List<XMgrTaskExecutor<B>> tasks) {
+        removeTasksInBatch(tasks);
+    }
+
+    @Override
+    public void removeTasksById(List<String> taskIds) {
+        if (taskIds == null || taskIds.size() == 0)
             return;
 
-        List<B> removed = new ArrayList<B>();
-        for (XMgrTaskExecutor<B> task : tasks) {
-            if (task == null)
-                continue;
-            task.abort();// 终止当前任务
-            if (mCurrentExecuted == task) {// 如果要删除的任务是当前的任务
-                mCurrentExecuted = null;
-                removed.add(task.getBean());
-            } else {
-                if (mTobeExecuted.remove(task))// 如果删除成功，添加进列表
-                    removed.add(task.getBean());
-            }
+        List<XMgrTaskExecutor<B>> tasks = new ArrayList<XMgrTaskExecutor<B>>();
+        for (String taskId : taskIds) {
+            XMgrTaskExecutor<B> task = getTaskById(taskId);
+            if (task != null)
+                tasks.add(task);
         }
+        removeTasksInBatch(tasks);
+    }
+
+    @Override
+    public int removeTasksByFilter(XFilter<B> filter) {
+        if (filter == null)
+            return 0;
+
+        // 在锁外执行过滤，过滤条件再复杂也不会阻塞其他操作
+        List<XMgrTaskExecutor<B>> matched = new ArrayList<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : snapshotTasks()) {
+            if (filter.doFilter(task.getBean()) != null)
+                matched.add(task);
+        }
+        return removeTasksInBatch(matched);
+    }
+
+    /**
+     * 获取所有任务的副本(包括正在执行的任务)。
+     */
+    protected synchronized List<XMgrTaskExecutor<B>> snapshotTasks() {
+        List<XMgrTaskExecutor<B>> tasks = new ArrayList<XMgrTaskExecutor<B>>(mTobeExecuted.size() + 1);
+        if (mCurrentExecuted != null)
+            tasks.add(mCurrentExecuted);
+        tasks.addAll(mTobeExecuted);
+        return tasks;
+    }
+
+    /**
+     * 批量删除任务。在一次加锁中完成，每个队列只遍历一次，
+     * 其他线程不会看到只删除了一部分的中间状态。
+     * 所有任务删除后只回调一次onRemoveAll()。
+     * @return 返回被删除的任务数
+     */
+    protected synchronized int removeTasksInBatch(List<XMgrTaskExecutor<B>> tasks) {
+        if (tasks == null || tasks.size() == 0)
+            return 0;
+
+        List<B> removed = new ArrayList<B>();
+        removeBatch(tasks, removed);
         if (mCurrentExecuted == null) {// 如果当前没有任务运行，则标记结束
             if (mSpeedMonitor != null)
                 mSpeedMonitor.stop();
@@ -212,20 +284,46 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         if (removed.size() > 0)
             for (XTaskMgrListener<B> listener : mListeners)
                 listener.onRemoveAll(removed);
+        return removed.size();
     }
 
-    @Override
-    public synchronized void removeTasksById(List<String> taskIds) {
-        if (taskIds == null || taskIds.size() == 0)
-            return;
+    /**
+     * 删除一批任务(调用时已加锁)。每个队列只遍历一次。
+     * @param batch 待删除的任务
+     * @param removed 被删除的任务添加到此列表
+     */
+    protected void removeBatch(List<XMgrTaskExecutor<B>> batch, List<B> removed) {
+        Set<XMgrTaskExecutor<B>> targets = new HashSet<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : batch) {
+            if (task == null)
+                continue;
+            task.abort();// 终止任务
+            targets.add(task);
+        }
+        // 如果要删除的任务是当前的任务
+        XMgrTaskExecutor<B> current = mCurrentExecuted;
+        if (current != null && targets.remove(current)) {
+            mCurrentExecuted = null;
+            removed.add(current.getBean());
+            unindexTask(current);
+        }
+        removeFromQueue(mTobeExecuted, targets, removed);
+    }
 
-        List<XMgrTaskExecutor<B>> tasks = new ArrayList<XMgrTaskExecutor<B>>();
-        for (String taskId : taskIds) {
-            XMgrTaskExecutor<B> task = getTaskById(taskId);
-            if (task != null)
-                tasks.add(task);
+    /**
+     * 遍历一次队列，删除其中属于targets的任务(同时从targets中移除)。
+     */
+    protected void removeFromQueue(List<XMgrTaskExecutor<B>> queue,
+                                   Set<XMgrTaskExecutor<B>> targets, List<B> removed) {
+        Iterator<XMgrTaskExecutor<B>> iterator = queue.iterator();
+        while (!targets.isEmpty() && iterator.hasNext()) {
+            XMgrTaskExecutor<B> task = iterator.next();
+            if (targets.remove(task)) {
+                iterator.remove();
+                removed.add(task.getBean());
+                unindexTask(task);
+            }
         }
-        removeTasks(tasks);
     }
 
     @Override
@@ -272,6 +370,10 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         return true;
     }
 
+    /**
+     * 启动指定任务。设置了抢占策略，且有其他任务正在执行时，
+     * 由策略决定立即切换、软抢占或推迟切换，后两种情况也返回true。
+     */
     @Override
     public synchronized boolean start(String taskId) {
         XMgrTaskExecutor<B> task = getTaskById(taskId);
@@ -283,10 +385,34 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         if (mFilter != null && mFilter.doFilter(task.getBean()) == null)
             return false;
 
+        // 当前有其他任务正在执行，由抢占策略决定切换的时机
+        XMgrTaskExecutor<B> current = mCurrentExecuted;
+        if (mPreemptionPolicy != null && current != null && current != task
+                && current.getStatus() == XTaskBean.STATUS_DOING) {
+            int decision = mPreemptionPolicy.decide(current, task);
+            if (decision != XPreemptionPolicy.PREEMPT_NOW) {
+                deferTask(task);
+                mIsWorking = true;
+                if (decision == XPreemptionPolicy.PREEMPT_SOFT)
+                    drainCurrent(current, task);
+                return true;
+            }
+        }
+        return switchTo(task);
+    }
+
+    /**
+     * 启动指定任务，并暂停之前的当前任务。
+     */
+    protected boolean switchTo(XMgrTaskExecutor<B> task) {
         // 先尝试启动指定任务
-        if (!task.start())
+        if (!startTask(task))
             return false;
 
+        if (mPendingTask == task) {
+            mPendingTask = null;
+            mDraining = false;
+        }
         mIsWorking = true;
         // 如果当前任务不是指定id任务，暂停当前任务，再指定新的当前任务
         if (mCurrentExecuted != task) {
@@ -297,7 +423,7 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
                 mTobeExecuted.addFirst(mCurrentExecuted);
             }
             // 指定新的当前任务
-            mTobeExecuted.remove(task);// 如果在等待队列中
+            takeFromQueue(task);
             mCurrentExecuted = task;
         }
         if (mSpeedMonitor != null)
@@ -305,6 +431,99 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         return true;
     }
 
+    /**
+     * start(taskId)、resume(taskId)启动指定任务的方式，子类可以重写。
+     * 默认也可以启动被stopTasks()停止的DEFAULT状态的任务。
+     */
+    protected boolean startTask(XMgrTaskExecutor<B> task) {
+        return task.start(XTaskBean.STATUS_DEFAULT);
+    }
+
+    /**
+     * 把任务从所在的队列中移除，子类有其他队列时需要重写。
+     */
+    protected void takeFromQueue(XMgrTaskExecutor<B> task) {
+        mTobeExecuted.remove(task);// 如果在等待队列中
+    }
+
+    /**
+     * 推迟执行任务：放到等待队列最前面，当前任务结束后优先执行。
+     */
+    private void deferTask(XMgrTaskExecutor<B> task) {
+        if (mPendingTask != null && mPendingTask != task)
+            mDraining = false;
+        takeFromQueue(task);
+        if (task.getStatus() == XTaskBean.STATUS_DEFAULT)
+            task.setStatus(XTaskBean.STATUS_TODO);
+        mTobeExecuted.addFirst(task);
+        mPendingTask = task;
+    }
+
+    /**
+     * 请求当前任务到达安全点，之后切换到被推迟的任务。
+     * 当前任务不支持软抢占时，立即切换。
+     */
+    private void drainCurrent(final XMgrTaskExecutor<B> current,
+                              final XMgrTaskExecutor<B> pending) {
+        if (mDraining)
+            return;
+        mDraining = true;
+        boolean requested = current instanceof XSoftPreemptible
+                && ((XSoftPreemptible) current).drain(new Runnable() {
+            @Override
+            public void run() {
+                onDrained(current, pending);
+            }
+        });
+        if (!requested)
+            switchTo(pending);
+    }
+
+    private synchronized void onDrained(XMgrTaskExecutor<B> current,
+                                        XMgrTaskExecutor<B> pending) {
+        if (!mDraining || mCurrentExecuted != current || mPendingTask != pending)
+            return;
+        mDraining = false;
+        if (getTaskById(pending.getId()) == pending)
+            switchTo(pending);
+    }
+
+    @Override
+    public synchronized void setPreemptionPolicy(XPreemptionPolicy<B> policy) {
+        mPreemptionPolicy = policy;
+    }
+
+    @Override
+    public XMgrTaskExecutor<B> getPendingTask() {
+        return mPendingTask;
+    }
+
+    @Override
+    public synchronized boolean preempt() {
+        XMgrTaskExecutor<B> pending = mPendingTask;
+        if (pending == null)
+            return false;
+        // 被推迟的任务已被删除
+        if (getTaskById(pending.getId()) != pending) {
+            mPendingTask = null;
+            mDraining = false;
+            return false;
+        }
+        // 当前没有执行中的任务，等待正常调度(被推迟的任务会被优先选中)
+        XMgrTaskExecutor<B> current = mCurrentExecuted;
+        if (!mIsWorking || current == null || current.getStatus() != XTaskBean.STATUS_DOING)
+            return false;
+        int decision = mPreemptionPolicy == null ? XPreemptionPolicy.PREEMPT_NOW
+                : mPreemptionPolicy.decide(current, pending);
+        // 上一次软抢占的请求一直没有到达安全点(比如任务正在等待重试)，直接切换
+        if (decision == XPreemptionPolicy.PREEMPT_NOW
+                || (decision == XPreemptionPolicy.PREEMPT_SOFT && mDraining))
+            return switchTo(pending);
+        if (decision == XPreemptionPolicy.PREEMPT_SOFT)
+            drainCurrent(current, pending);
+        return mCurrentExecuted == pending;
+    }
+
     @Override
     public synchronized boolean resume() {
         if (mCurrentExecuted == null)
@@ -349,9 +568,9 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
 
         // 如果指定Id的任务存在，且在等待队列中，且运行队列未满，启动该任务
         mIsWorking = true;
-        mTobeExecuted.remove(task);
+        takeFromQueue(task);
         mCurrentExecuted = task;
-        if (mCurrentExecuted.start()) {
+        if (startTask(task)) {
             if (mSpeedMonitor != null)
                 mSpeedMonitor.start();
         }
@@ -465,6 +684,100 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         return true;
     }
 
+    @Override
+    public int stopTasks(XFilter<B> filter) {
+        if (filter == null)
+            return 0;
+
+        // 在锁外执行过滤，过滤条件再复杂也不会阻塞其他操作
+        Set<XMgrTaskExecutor<B>> targets = new HashSet<XMgrTaskExecutor<B>>();
+        for (XMgrTaskExecutor<B> task : snapshotTasks()) {
+            if (filter.doFilter(task.getBean()) != null)
+                targets.add(task);
+        }
+        if (targets.isEmpty())
+            return 0;
+        return stopBatch(targets);
+    }
+
+    /**
+     * 停止一批任务，在一次加锁中完成，等待队列只遍历一次。
+     * 当前任务暂停为DEFAULT状态，等待中的TODO任务直接改为DEFAULT状态，
+     * 然后一起交给{@link #holdStopped(List)}。DEFAULT状态的任务不会被自动执行。
+     */
+    private synchronized int stopBatch(Set<XMgrTaskExecutor<B>> targets) {
+        List<B> stopped = new ArrayList<B>();
+        List<XMgrTaskExecutor<B>> stopTasks = new ArrayList<XMgrTaskExecutor<B>>();
+        boolean currentStopped = false;
+        XMgrTaskExecutor<B> current = mCurrentExecuted;
+        if (current != null && targets.remove(current)) {
+            // 暂停的回调先收集起来
+            mStopBatch.set(stopped);
+            try {
+                currentStopped = current.pause(XTaskBean.STATUS_DEFAULT);
+            } finally {
+                mStopBatch.remove();
+            }
+            // 原地暂停的任务
+            if (!currentStopped && holdTask(current)) {
+                currentStopped = true;
+                stopped.add(current.getBean());
+            }
+            if (currentStopped) {
+                if (mSpeedMonitor != null)
+                    mSpeedMonitor.stop();
+                mIsWorking = false;
+                mCurrentExecuted = null;
+                stopTasks.add(current);
+            }
+        }
+        Iterator<XMgrTaskExecutor<B>> iterator = mTobeExecuted.iterator();
+        while (!targets.isEmpty() && iterator.hasNext()) {
+            XMgrTaskExecutor<B> task = iterator.next();
+            if (targets.remove(task) && holdTask(task)) {
+                iterator.remove();
+                stopTasks.add(task);
+                stopped.add(task.getBean());
+            }
+        }
+        if (stopTasks.size() == 0)
+            return 0;
+        if (mPendingTask != null && mPendingTask.getStatus() == XTaskBean.STATUS_DEFAULT) {
+            mPendingTask = null;
+            mDraining = false;
+        }
+        holdStopped(stopTasks);
+        for (XTaskMgrListener<B> listener : mListeners)
+            listener.onStopBatch(stopped);
+        if (currentStopped) {
+            for (XTaskMgrListener<B> listener : mListeners)
+                listener.onStopAll();
+        }
+        return stopTasks.size();
+    }
+
+    /**
+     * 存放被stopTasks()停止的任务(DEFAULT状态)。
+     * 默认移到等待队列末尾，寻找下一个任务时不用越过它们；子类有其他队列时可以重写。
+     */
+    protected void holdStopped(List<XMgrTaskExecutor<B>> tasks) {
+        mTobeExecuted.addAll(tasks);
+    }
+
+    /**
+     * 把TODO状态的任务改为DEFAULT状态(不再被自动执行)。
+     * @return 任务不是TODO状态返回false
+     */
+    private static boolean holdTask(XMgrTaskExecutor<?> task) {
+        if (task instanceof XBaseTaskExecutor)
+            return ((XBaseTaskExecutor<?>) task).compareAndSetStatus(
+                    XTaskBean.STATUS_TODO, XTaskBean.STATUS_DEFAULT);
+        if (task.getStatus() != XTaskBean.STATUS_TODO)
+            return false;
+        task.setStatus(XTaskBean.STATUS_DEFAULT);
+        return true;
+    }
+
     @Override
     public synchronized void stopAndReset() {
         mIsWorking = false;
@@ -478,6 +791,9 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         }
         // 清空等待队列中的任务
         mTobeExecuted.clear();
+        mPendingTask = null;
+        mDraining = false;
+        mTaskIndex.clear();
         // 通知监听者
         for (XTaskMgrListener<B> listener : mListeners)
             listener.onStopAll();
@@ -515,13 +831,23 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
 
     /**
      * 寻找下一个任务。
-     * 策略：1.将任务排序，过滤，返回第一个是TODO状态的任务(其他状态的任务忽略)
+     * 策略：0.如果有被推迟执行的任务，直接返回该任务
+     *       1.将任务排序，过滤，返回第一个是TODO状态的任务(其他状态的任务忽略)
      *       2.如果没有符合1要求的任务，则返回第一个TODO状态但被过滤的任务
      *       3.如果没有以上的任务，则返回null
      * @return 返回下一个待执行的任务，如果没有符合要求的任务，则返回null
      * @see #setTaskScheduler(XTaskScheduler)
      */
     protected XMgrTaskExecutor<B> findNextTask() {
+        // 被推迟执行的任务优先
+        XMgrTaskExecutor<B> pending = mPendingTask;
+        if (pending != null) {
+            mPendingTask = null;
+            mDraining = false;
+            if (mTobeExecuted.remove(pending))
+                return pending;
+        }
+
         // 用TaskScheduler排序
         if (mScheduler != null)
             Collections.sort(mTobeExecuted, mInnerComparator);
@@ -568,6 +894,7 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
                     mTobeExecuted.offer(task);
             } else {
                 mTobeExecuted.remove(task);// 否则，直接丢弃该任务
+                unindexTask(task);
             }
             return;
         }
@@ -583,13 +910,18 @@ public class XSerialMgrImpl<B extends XTaskBean> implements XSerialMgr<B> {
         // 下一个任务为空，但当前等待队列不为空，则说明等待队列中所有的任务都是异常状态
         boolean allError = (mCurrentExecuted == null && mTobeExecuted.size() > 0);
         // 如果是TODO或ERROR结束的，且addBack为true，添加回等待队列
-        if (addBack && task.getStatus() != XTaskBean.STATUS_DONE
-                && !mTobeExecuted.contains(task))
-            mTobeExecuted.offer(task);
+        if (addBack && task.getStatus() != XTaskBean.STATUS_DONE) {
+            if (!mTobeExecuted.contains(task))
+                mTobeExecuted.offer(task);
+        } else {
+            unindexTask(task);// 否则，直接丢弃该任务
+        }
         // 如果等待队列中所有的任务都是异常状态，则全部重置成TODO，方便下次全部自动执行
         if (allError) {
-            for (XMgrTaskExecutor<B> errorTask : mTobeExecuted)
-                errorTask.setStatus(XTaskBean.STATUS_TODO);
+            for (XMgrTaskExecutor<B> errorTask : mTobeExecuted) {
+                if (errorTask.getStatus() == XTaskBean.STATUS_ERROR)
+                    errorTask.setStatus(XTaskBean.STATUS_TODO);
+            }
         }
 
         // 如果已经标记停止，或者不自动执行，则什么都不做
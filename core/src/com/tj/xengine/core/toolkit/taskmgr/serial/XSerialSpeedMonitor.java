@@ -49,4 +49,11 @@ public class XSerialSpeedMonitor<B extends XTaskBean>
         for (XTaskMgrListener<B> listener : listeners)
             listener.onSpeedUpdate(task.getBean(), speed);
     }
+
+    @Override
+    public void notifyUpdateRemainTime(XMgrTaskExecutor<B> task, long remainTime) {
+        List<XTaskMgrListener<B>> listeners =  task.getTaskMgr().getListeners();
+        for (XTaskMgrListener<B> listener : listeners)
+            listener.onRemainTimeUpdate(task.getBean(), remainTime);
+    }
 }
@@ -1,5 +1,7 @@
 package com.tj.xengine.core.toolkit.taskmgr.speed;
 
+import com.tj.xengine.core.toolkit.taskmgr.speed.calc.RemainTimeEstimator;
+import com.tj.xengine.core.toolkit.taskmgr.speed.calc.XRemainTimeCalculable;
 import com.tj.xengine.core.toolkit.taskmgr.speed.calc.XSpeedCalculable;
 import com.tj.xengine.core.toolkit.taskmgr.speed.calc.XSpeedCalculator;
 
@@ -23,15 +25,26 @@ public abstract class XBaseSpeedMonitor<T extends XSpeedCalculable>
     private int mInterval;// 刷新间隔
     private Timer mMonitorThread;// 监视线程
     private boolean mRunning;// 标识监测线程是否在运行
+    private RemainTimeEstimator mEstimator;// 剩余时间预估器
 
     public XBaseSpeedMonitor() {
         mInterval = DEFAULT_INTERVAL;
+        mEstimator = new RemainTimeEstimator();
     }
 
     public XBaseSpeedMonitor(int interval) {
         mInterval = interval;
         if (interval <= 0)
             mInterval = DEFAULT_INTERVAL;
+        mEstimator = new RemainTimeEstimator();
+    }
+
+    /**
+     * 设置剩余时间预估器。
+     * @param estimator 为null时不再预估剩余时间
+     */
+    public void setRemainTimeEstimator(RemainTimeEstimator estimator) {
+        mEstimator = estimator;
     }
 
     @Override
@@ -78,8 +91,17 @@ public abstract class XBaseSpeedMonitor<T extends XSpeedCalculable>
 
                 XSpeedCalculator calculator = task.getSpeedCalculator();
                 if (calculator != null) {
-                    long speed = calculator.getSpeed(task.getCompleteSize());// 计算速度
+                    long completeSize = task.getCompleteSize();
+                    long speed = calculator.getSpeed(completeSize);// 计算速度
                     notifyUpdateSpeed(task, speed);
+                    // 能提供总大小的任务，再结合速度预估剩余时间
+                    final RemainTimeEstimator estimator = mEstimator;
+                    if (estimator != null && task instanceof XRemainTimeCalculable) {
+                        long totalSize = ((XRemainTimeCalculable) task).getTotalSize();
+                        long remainTime = estimator.estimate(completeSize, totalSize, speed);
+                        if (remainTime != RemainTimeEstimator.UNKNOWN)// 未知时不通知
+                            notifyUpdateRemainTime(task, remainTime);
+                    }
                 }
             }
         }
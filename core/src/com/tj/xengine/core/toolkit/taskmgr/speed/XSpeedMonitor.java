@@ -1,5 +1,6 @@
 package com.tj.xengine.core.toolkit.taskmgr.speed;
 
+import com.tj.xengine.core.toolkit.taskmgr.speed.calc.RemainTimeEstimator;
 import com.tj.xengine.core.toolkit.taskmgr.speed.calc.XSpeedCalculable;
 
 import java.util.List;
@@ -40,4 +41,13 @@ public interface XSpeedMonitor<T extends XSpeedCalculable> {
      * @param speed 当前速度（单位：byte/s）
      */
     void notifyUpdateSpeed(T task, long speed);
+
+    /**
+     * 回调函数：通知对应任务更新预估的剩余时间。
+     * 只有实现了XRemainTimeCalculable的任务才会触发此回调，
+     * 剩余时间未知({@link RemainTimeEstimator#UNKNOWN})时不会回调。
+     * @param task 当前任务
+     * @param remainTime 剩余时间（单位：毫秒），不小于0
+     */
+    void notifyUpdateRemainTime(T task, long remainTime);
 }
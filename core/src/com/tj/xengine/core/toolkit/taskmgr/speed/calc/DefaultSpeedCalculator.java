@@ -22,13 +22,21 @@ public class DefaultSpeedCalculator implements XSpeedCalculator {
 
     @Override
     public long getSpeed(long size) {
+        long curTime = System.currentTimeMillis();
+        // 第一次采样，没有参考点，只记录不计算
+        if (mLastTime == 0) {
+            mLastSize = size;
+            mLastTime = curTime;
+            return 0;
+        }
         // 如果上次的大小小于
         if (size < mLastSize)
             mLastSize = size;
 
-        long curTime = System.currentTimeMillis();
         long deltaSize = size - mLastSize;// 单位：byte
         double deltaTime = (curTime - mLastTime) / 1000.0;// 单位：秒
+        if (deltaTime <= 0)
+            return 0;
         long speed = (long) (deltaSize / deltaTime);// 单位：byte/s
         mLastSize = size;
         mLastTime = curTime;
@@ -0,0 +1,75 @@
+package com.tj.xengine.core.toolkit.taskmgr.speed.calc;
+
+/**
+ * <pre>
+ * 指数加权移动平均(EWMA)的速度计算器。
+ * 每次采样先算出相邻两次的瞬时速度，再按时间衰减融合进平均值:
+ *      alpha = 1 - e^(-deltaTime / timeConstant)
+ *      speed = speed + alpha * (instantSpeed - speed)
+ * 衰减系数与采样间隔相关，所以采样间隔不均匀时结果依然平滑。
+ * timeConstant越大，结果越平滑，但对速度变化的反应越慢。
+ * </pre>
+ */
+public class EwmaSpeedCalculator implements XSpeedCalculator {
+
+    public static final long DEFAULT_TIME_CONSTANT = 3000;// 默认时间常数(单位:毫秒)
+
+    private long mTimeConstant;// 时间常数(单位:毫秒)
+    private long mLastSize;// 上次记录的大小
+    private long mLastTime;// 上次记录的时间
+    private double mSpeed;// 当前的平均速度(单位:byte/s)
+    private boolean mHasSpeed;// 是否已经有过一次有效的速度
+
+    public EwmaSpeedCalculator() {
+        this(DEFAULT_TIME_CONSTANT);
+    }
+
+    public EwmaSpeedCalculator(long timeConstant) {
+        mTimeConstant = timeConstant > 0 ? timeConstant : DEFAULT_TIME_CONSTANT;
+    }
+
+    @Override
+    public synchronized void clear() {
+        mLastSize = 0;
+        mLastTime = 0;
+        mSpeed = 0;
+        mHasSpeed = false;
+    }
+
+    @Override
+    public synchronized long getSpeed(long size) {
+        long curTime = System.currentTimeMillis();
+        // 第一次采样，没有参考点，只记录不计算
+        if (mLastTime == 0) {
+            mLastSize = size;
+            mLastTime = curTime;
+            return 0;
+        }
+        if (size < mLastSize)
+            mLastSize = size;
+
+        long deltaTime = curTime - mLastTime;// 单位：毫秒
+        if (deltaTime <= 0)
+            return (long) mSpeed;
+        double instantSpeed = (size - mLastSize) * 1000.0 / deltaTime;// 单位：byte/s
+        if (!mHasSpeed) {
+            // 第一个有效速度直接作为初始值，避免从0开始爬升
+            mSpeed = instantSpeed;
+            mHasSpeed = true;
+        } else {
+            double alpha = 1 - Math.exp(-(double) deltaTime / mTimeConstant);
+            mSpeed = mSpeed + alpha * (instantSpeed - mSpeed);
+        }
+        mLastSize = size;
+        mLastTime = curTime;
+        return (long) mSpeed;
+    }
+
+    /**
+     * 获取最近一次计算出的平均速度，不会产生新的采样。
+     * @return 返回平均速度(单位:byte/s)
+     */
+    public synchronized long getLastSpeed() {
+        return (long) mSpeed;
+    }
+}
@@ -0,0 +1,85 @@
+package com.tj.xengine.core.toolkit.taskmgr.speed.calc;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * 基于滑动窗口分位数的速度计算器。
+ * 保存最近N次的瞬时速度，getSpeed()返回窗口内的中位数(p50)，
+ * 可以通过getPercentile()获取p95等其他分位数。
+ * 相比于平均值，中位数不受偶发的速度尖峰或停顿影响。
+ * </pre>
+ */
+public class PercentileSpeedCalculator implements XSpeedCalculator {
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+
+    private int mWindowSize;// 窗口大小
+    private long[] mSamples;// 瞬时速度的环形数组
+    private long[] mSorted;// 排序用的临时数组，避免每次计算都分配内存
+    private int mCount;// 窗口中的样本个数
+    private int mCurIndex;// 下一个样本的下标
+    private long mLastSize;// 上次记录的大小
+    private long mLastTime;// 上次记录的时间
+
+    public PercentileSpeedCalculator() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public PercentileSpeedCalculator(int windowSize) {
+        mWindowSize = windowSize < 1 ? DEFAULT_WINDOW_SIZE : windowSize;
+        mSamples = new long[mWindowSize];
+        mSorted = new long[mWindowSize];
+    }
+
+    @Override
+    public synchronized void clear() {
+        mCount = 0;
+        mCurIndex = 0;
+        mLastSize = 0;
+        mLastTime = 0;
+    }
+
+    @Override
+    public synchronized long getSpeed(long size) {
+        long curTime = System.currentTimeMillis();
+        // 第一次采样，没有参考点，只记录不计算
+        if (mLastTime == 0) {
+            mLastSize = size;
+            mLastTime = curTime;
+            return 0;
+        }
+        if (size < mLastSize)
+            mLastSize = size;
+
+        long deltaTime = curTime - mLastTime;// 单位：毫秒
+        if (deltaTime > 0) {
+            mSamples[mCurIndex] = (size - mLastSize) * 1000 / deltaTime;// 单位：byte/s
+            mCurIndex = (mCurIndex + 1) % mWindowSize;
+            mCount = Math.min(mCount + 1, mWindowSize);
+            mLastSize = size;
+            mLastTime = curTime;
+        }
+        return percentile(50);
+    }
+
+    /**
+     * 获取窗口内瞬时速度的分位数，不会产生新的采样。
+     * @param percent 分位值，取值范围[0,100]，比如50表示中位数，95表示p95
+     * @return 返回对应分位的速度(单位:byte/s)；如果还没有样本，返回0
+     */
+    public synchronized long getPercentile(int percent) {
+        return percentile(percent);
+    }
+
+    private long percentile(int percent) {
+        if (mCount == 0)
+            return 0;
+        System.arraycopy(mSamples, 0, mSorted, 0, mCount);
+        Arrays.sort(mSorted, 0, mCount);
+        int p = Math.max(0, Math.min(percent, 100));
+        // nearest-rank算法
+        int rank = (int) Math.ceil(p / 100.0 * mCount);
+        return mSorted[Math.max(rank - 1, 0)];
+    }
+}
@@ -0,0 +1,32 @@
+package com.tj.xengine.core.toolkit.taskmgr.speed.calc;
+
+/**
+ * <pre>
+ * 剩余时间预估器。
+ * 用剩余大小除以当前速度得到剩余时间。
+ * 速度本身的平滑由XSpeedCalculator负责(比如EwmaSpeedCalculator)，
+ * 此处只做边界处理：总大小未知或速度为0时，认为剩余时间未知。
+ * </pre>
+ */
+public class RemainTimeEstimator {
+
+    public static final long UNKNOWN = -1;// 剩余时间未知
+
+    /**
+     * 预估剩余时间。
+     * @param completeSize 已完成大小(单位:byte)
+     * @param totalSize 总大小(单位:byte)，小于等于0表示未知
+     * @param speed 当前速度(单位:byte/s)
+     * @return 返回剩余时间(单位:毫秒)；无法预估时返回{@link #UNKNOWN}
+     */
+    public long estimate(long completeSize, long totalSize, long speed) {
+        if (totalSize <= 0)
+            return UNKNOWN;
+        long remainSize = totalSize - completeSize;
+        if (remainSize <= 0)
+            return 0;
+        if (speed <= 0)
+            return UNKNOWN;
+        return (long) (remainSize * 1000.0 / speed);
+    }
+}
@@ -0,0 +1,17 @@
+package com.tj.xengine.core.toolkit.taskmgr.speed.calc;
+
+/**
+ * <pre>
+ * 可预估剩余时间的接口。
+ * 在XSpeedCalculable的基础上，额外提供任务的总大小，
+ * 速度监视器会结合速度和总大小计算剩余时间。
+ * </pre>
+ */
+public interface XRemainTimeCalculable extends XSpeedCalculable {
+
+    /**
+     * 获取对象的总大小(单位：byte)，用于预估剩余时间
+     * @return 返回总大小；如果总大小未知，返回小于等于0的值
+     */
+    long getTotalSize();
+}
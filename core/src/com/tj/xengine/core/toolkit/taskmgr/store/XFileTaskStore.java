@@ -0,0 +1,592 @@
+package com.tj.xengine.core.toolkit.taskmgr.store;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * <pre>
+ * 基于文件的任务持久化存储，实现XTaskStore接口。
+ * 由两个文件组成：
+ *      快照文件(xxx.snapshot)：某一时刻所有任务的完整数据；
+ *      日志文件(xxx.journal)：快照之后的所有增删和状态变化，只追加写。
+ * 1.每次操作只在日志末尾追加一条记录，写入开销和任务总数无关；
+ * 2.调用者线程只在内存中记录变化(任务数据编码后的副本，不引用调用者的对象)，
+ *   写文件、同步到磁盘(fsync)和压缩都在后台写线程中进行，不阻塞任务管理器的回调；
+ * 3.日志记录数超过阈值(且超过任务总数)时自动压缩：
+ *   把当前所有任务写成新快照(先写临时文件，同步到磁盘后直接重命名覆盖旧快照)，再清空日志；
+ * 4.每条记录带长度和CRC校验，进程崩溃导致的末尾残缺记录会在加载时被截掉，
+ *   压缩过程中崩溃留下的临时快照也会在加载时恢复；
+ * 5.加载时顺序读取快照和日志，在内存中重放，不需要任何网络或外部同步。
+ * 注意：所有操作前会自动调用load()，保证压缩时不会丢失已有数据；
+ * 需要确认数据已落盘时调用{@link #sync()}。
+ * </pre>
+ */
+public class XFileTaskStore<B extends XTaskBean> implements XTaskStore<B> {
+
+    public static final int DEFAULT_COMPACT_THRESHOLD = 10000;// 默认触发压缩的日志记录数
+
+    private static final int MAGIC = 0x58545331;// 文件头标识"XTS1"
+    private static final int HEADER_SIZE = 4;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_STATUS = 3;
+    private static final byte OP_CLEAR = 4;
+    private static final long WRITER_KEEP_ALIVE = 30;// 写线程空闲多久后退出(单位:秒)
+
+    private final File mJournalFile;// 日志文件
+    private final File mSnapshotFile;// 快照文件
+    private final File mTmpSnapshotFile;// 压缩时的临时快照文件
+    private final XTaskCodec<B> mCodec;// 任务数据的编解码器
+    private final LinkedHashMap<String, Entry> mTasks;// 当前所有任务(按添加顺序)
+    private final List<byte[]> mPending;// 还没写入日志的记录
+    private final ExecutorService mWriter;// 后台写线程
+    private final Runnable mWriteTask;
+    private final Object mIoLock;// 保护文件读写，锁顺序：mIoLock -> this
+    private final CRC32 mCrc;// 只在mIoLock内使用
+    private FileOutputStream mJournalStream;// 日志文件，用于同步到磁盘
+    private DataOutputStream mJournal;// 日志文件的输出流
+    private int mJournalOps;// 日志中(含还没写入的)的记录数
+    private int mCompactThreshold;
+    private boolean mForceCompact;// 是否已请求压缩
+    private boolean mWriteScheduled;// 是否已提交写任务
+    private boolean mLoaded;
+
+    /**
+     * @param path 存储路径(不含后缀)，会生成path.snapshot和path.journal两个文件
+     * @param codec 任务数据的编解码器
+     */
+    public XFileTaskStore(String path, XTaskCodec<B> codec) {
+        mJournalFile = new File(path + ".journal");
+        mSnapshotFile = new File(path + ".snapshot");
+        mTmpSnapshotFile = new File(path + ".snapshot.tmp");
+        mCodec = codec;
+        mTasks = new LinkedHashMap<String, Entry>();
+        mPending = new ArrayList<byte[]>();
+        mIoLock = new Object();
+        mCrc = new CRC32();
+        mCompactThreshold = DEFAULT_COMPACT_THRESHOLD;
+        // 最多一个线程，按提交顺序写入，空闲时退出
+        ThreadPoolExecutor writer = new ThreadPoolExecutor(0, 1, WRITER_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "XFileTaskStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mWriter = writer;
+        mWriteTask = new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+            }
+        };
+    }
+
+    /**
+     * 设置触发压缩的日志记录数。
+     */
+    public synchronized void setCompactThreshold(int threshold) {
+        mCompactThreshold = Math.max(threshold, 1);
+    }
+
+    @Override
+    public synchronized void add(B bean) {
+        if (bean == null || bean.getId() == null)
+            return;
+        ensureLoaded();
+        appendAdd(bean);
+        scheduleWrite();
+    }
+
+    @Override
+    public synchronized void addAll(List<B> beans) {
+        if (beans == null || beans.size() == 0)
+            return;
+        ensureLoaded();
+        for (B bean : beans) {
+            if (bean == null || bean.getId() == null)
+                continue;
+            appendAdd(bean);
+        }
+        scheduleWrite();
+    }
+
+    @Override
+    public synchronized void remove(String taskId) {
+        if (taskId == null)
+            return;
+        ensureLoaded();
+        if (mTasks.remove(taskId) == null)
+            return;
+        append(buildRecord(OP_REMOVE, taskId, null, 0));
+        scheduleWrite();
+    }
+
+    @Override
+    public synchronized void removeAll(List<String> taskIds) {
+        if (taskIds == null || taskIds.size() == 0)
+            return;
+        ensureLoaded();
+        for (String taskId : taskIds) {
+            if (taskId != null && mTasks.remove(taskId) != null)
+                append(buildRecord(OP_REMOVE, taskId, null, 0));
+        }
+        scheduleWrite();
+    }
+
+    @Override
+    public synchronized void updateStatus(String taskId, int status) {
+        if (taskId == null)
+            return;
+        ensureLoaded();
+        Entry entry = mTasks.get(taskId);
+        if (entry == null)
+            return;
+        entry.setStatus(status);
+        append(buildRecord(OP_STATUS, taskId, null, status));
+        scheduleWrite();
+    }
+
+    @Override
+    public synchronized void clear() {
+        ensureLoaded();
+        mTasks.clear();
+        append(buildRecord(OP_CLEAR, "", null, 0));
+        scheduleWrite();
+    }
+
+    /**
+     * 加载所有任务。
+     * @return 返回新解码的任务数据(不是之前add()传入的对象)，修改它们不会影响存储
+     */
+    @Override
+    public synchronized List<B> load() {
+        ensureLoaded();
+        List<B> beans = new ArrayList<B>(mTasks.size());
+        for (Entry entry : mTasks.values()) {
+            B bean = entry.decode(mCodec);
+            if (bean != null)
+                beans.add(bean);
+        }
+        return beans;
+    }
+
+    /**
+     * 压缩存储，等待压缩完成后返回。
+     */
+    @Override
+    public void compact() {
+        synchronized (this) {
+            ensureLoaded();
+            mForceCompact = true;
+            scheduleWrite();
+        }
+        sync();
+    }
+
+    /**
+     * 等待之前的所有操作写入文件并同步到磁盘。
+     * 不能在任务管理器的回调中调用，否则会阻塞回调线程。
+     */
+    public void sync() {
+        try {
+            mWriter.submit(new Runnable() {
+                @Override
+                public void run() {}
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 关闭存储，等待还没写入的记录落盘后释放文件。
+     */
+    @Override
+    public void close() {
+        sync();
+        synchronized (mIoLock) {
+            synchronized (this) {
+                // sync()之后其他线程又提交的记录，直接在当前线程写入
+                if (mPending.size() > 0) {
+                    appendToJournal(new ArrayList<byte[]>(mPending));
+                    mPending.clear();
+                }
+                closeJournal();
+                mTasks.clear();
+                mLoaded = false;
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded)
+            return;
+        mLoaded = true;
+        mTasks.clear();
+        mPending.clear();
+        mJournalOps = 0;
+        // 未加载时写线程不会读写文件(见writePending())，这里不需要mIoLock
+        // 压缩时在重命名之前崩溃(旧快照已被删除)，临时快照是完整的，恢复它
+        if (mTmpSnapshotFile.exists()) {
+            if (!mSnapshotFile.exists())
+                mTmpSnapshotFile.renameTo(mSnapshotFile);
+            else
+                mTmpSnapshotFile.delete();
+        }
+        readFile(mSnapshotFile);
+        long validLength = readFile(mJournalFile);
+        // 截掉末尾残缺的记录
+        if (mJournalFile.exists() && validLength < mJournalFile.length()) {
+            truncate(mJournalFile, validLength);
+        }
+        openJournal();
+    }
+
+    /**
+     * 顺序读取并重放文件中的所有记录。
+     * @return 返回最后一条完整记录的结束位置
+     */
+    private long readFile(File file) {
+        if (!file.exists() || file.length() < HEADER_SIZE)
+            return 0;
+        long validLength = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            if (in.readInt() != MAGIC)
+                return 0;
+            validLength = HEADER_SIZE;
+            byte[] buffer = new byte[256];
+            CRC32 crc = new CRC32();
+            long fileLength = file.length();
+            while (validLength + 8 <= fileLength) {
+                int length = in.readInt();
+                long checksum = in.readInt() & 0xffffffffL;
+                if (length <= 0 || validLength + 8 + length > fileLength)
+                    break;
+                if (buffer.length < length)
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                in.readFully(buffer, 0, length);
+                crc.reset();
+                crc.update(buffer, 0, length);
+                if (crc.getValue() != checksum)
+                    break;
+                if (!replay(new DataInputStream(new ByteArrayInputStream(buffer, 0, length))))
+                    break;
+                validLength += 8 + length;
+                if (file == mJournalFile)
+                    mJournalOps++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * 在内存中重放一条记录。任务数据保持编码后的形式，load()时再解码。
+     */
+    private boolean replay(DataInputStream record) {
+        try {
+            byte op = record.readByte();
+            String taskId = record.readUTF();
+            switch (op) {
+                case OP_ADD:
+                    byte[] data = new byte[record.available()];
+                    record.readFully(data);
+                    mTasks.put(taskId, new Entry(data));
+                    return true;
+                case OP_REMOVE:
+                    mTasks.remove(taskId);
+                    return true;
+                case OP_STATUS:
+                    int status = record.readInt();
+                    Entry entry = mTasks.get(taskId);
+                    if (entry != null)
+                        entry.setStatus(status);
+                    return true;
+                case OP_CLEAR:
+                    mTasks.clear();
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 在调用者线程中编码任务数据，之后任务数据的修改不会影响存储。
+     */
+    private void appendAdd(B bean) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            mCodec.encode(bean, out);
+            out.flush();
+            byte[] data = bytes.toByteArray();
+            mTasks.put(bean.getId(), new Entry(data));
+            append(buildRecord(OP_ADD, bean.getId(), data, 0));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void append(byte[] record) {
+        if (record == null)
+            return;
+        mPending.add(record);
+        mJournalOps++;
+    }
+
+    /**
+     * 记录内容格式：[操作][任务Id][任务数据(OP_ADD)或状态(OP_STATUS)]
+     */
+    private static byte[] buildRecord(byte op, String taskId, byte[] data, int status) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data == null ? 32 : data.length + 32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(op);
+            out.writeUTF(taskId);
+            if (op == OP_ADD)
+                out.write(data);
+            else if (op == OP_STATUS)
+                out.writeInt(status);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void scheduleWrite() {
+        if (mWriteScheduled)
+            return;
+        mWriteScheduled = true;
+        mWriter.execute(mWriteTask);
+    }
+
+    /**
+     * 后台写线程：把积攒的记录写入日志，日志过长或请求压缩时改为写新快照。
+     */
+    private void writePending() {
+        synchronized (mIoLock) {
+            List<byte[]> records;
+            List<byte[]> snapshot = null;
+            int journalOps = 0;
+            synchronized (this) {
+                mWriteScheduled = false;
+                if (!mLoaded)
+                    return;
+                records = new ArrayList<byte[]>(mPending);
+                mPending.clear();
+                if (mForceCompact || (mJournalOps > mCompactThreshold && mJournalOps > mTasks.size())) {
+                    mForceCompact = false;
+                    // 快照包含到此刻为止的所有变化，之后的记录写入新日志
+                    snapshot = new ArrayList<byte[]>(mTasks.size() * 2);
+                    for (Map.Entry<String, Entry> item : mTasks.entrySet()) {
+                        Entry entry = item.getValue();
+                        snapshot.add(buildRecord(OP_ADD, item.getKey(), entry.data, 0));
+                        if (entry.hasStatus)
+                            snapshot.add(buildRecord(OP_STATUS, item.getKey(), null, entry.status));
+                    }
+                    journalOps = mJournalOps;
+                    mJournalOps = 0;
+                }
+            }
+            // 压缩时也先把记录追加到旧日志，保证旧日志包含新快照之前的全部变化：
+            // 新快照重命名后、旧日志删除前崩溃时，在新快照上重放旧日志的结果不变
+            boolean appended = appendToJournal(records);
+            if (snapshot == null)
+                return;
+            if (appended && writeSnapshot(snapshot))
+                return;
+            // 压缩失败(或记录没能写入旧日志)，旧日志仍然有效，继续追加
+            synchronized (this) {
+                mJournalOps += journalOps;
+            }
+        }
+    }
+
+    /**
+     * 把记录追加到日志末尾，并同步到磁盘。
+     * @return 成功返回true，否则返回false
+     */
+    private boolean appendToJournal(List<byte[]> records) {
+        if (records.size() == 0)
+            return true;
+        if (mJournal == null)
+            return false;
+        try {
+            for (byte[] record : records)
+                writeRecord(mJournal, record);
+            mJournal.flush();
+            mJournalStream.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 写入新快照并清空日志。
+     * @return 成功返回true；失败时旧快照和日志保持不变，返回false
+     */
+    private boolean writeSnapshot(List<byte[]> records) {
+        FileOutputStream fos = null;
+        try {
+            // 1.先写临时文件，写完同步到磁盘
+            fos = new FileOutputStream(mTmpSnapshotFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            out.writeInt(MAGIC);
+            for (byte[] record : records)
+                writeRecord(out, record);
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            fos = null;
+            // 2.直接重命名覆盖旧快照(原子操作)；不支持覆盖的平台才先删除旧快照，
+            // 此时崩溃的话，加载时会从临时快照恢复
+            if (!mTmpSnapshotFile.renameTo(mSnapshotFile)) {
+                mSnapshotFile.delete();
+                if (!mTmpSnapshotFile.renameTo(mSnapshotFile))
+                    throw new IOException("can not rename snapshot " + mTmpSnapshotFile);
+            }
+            // 3.快照已包含全部数据，清空日志。清空前崩溃的话会在新快照上重放旧日志，
+            // 旧日志已包含快照之前的全部记录(见writePending())，按顺序重放后每个任务的最终状态不变
+            closeJournal();
+            if (mJournalFile.exists())
+                mJournalFile.delete();
+            openJournal();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            mTmpSnapshotFile.delete();
+            return false;
+        } finally {
+            try {
+                if (fos != null)
+                    fos.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 记录格式：[长度][CRC32][记录内容]
+     */
+    private void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        mCrc.reset();
+        mCrc.update(record, 0, record.length);
+        out.writeInt(record.length);
+        out.writeInt((int) mCrc.getValue());
+        out.write(record);
+    }
+
+    private void openJournal() {
+        try {
+            boolean isNew = !mJournalFile.exists() || mJournalFile.length() < HEADER_SIZE;
+            if (isNew && mJournalFile.exists())
+                mJournalFile.delete();
+            File dir = mJournalFile.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.exists())
+                dir.mkdirs();
+            mJournalStream = new FileOutputStream(mJournalFile, true);
+            mJournal = new DataOutputStream(new BufferedOutputStream(mJournalStream, 64 * 1024));
+            if (isNew) {
+                mJournal.writeInt(MAGIC);
+                mJournal.flush();
+                mJournalStream.getFD().sync();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (mJournal == null && mJournalStream == null)
+            return;
+        try {
+            if (mJournal != null)
+                mJournal.close();
+            else
+                mJournalStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mJournal = null;
+        mJournalStream = null;
+    }
+
+    private static void truncate(File file, long length) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (raf != null)
+                    raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 一个任务的存储数据：编码后的任务数据，以及之后记录的状态。
+     */
+    private static class Entry {
+        final byte[] data;
+        int status;
+        boolean hasStatus;
+
+        Entry(byte[] data) {
+            this.data = data;
+        }
+
+        void setStatus(int status) {
+            this.status = status;
+            this.hasStatus = true;
+        }
+
+        <B extends XTaskBean> B decode(XTaskCodec<B> codec) {
+            try {
+                B bean = codec.decode(new DataInputStream(new ByteArrayInputStream(data)));
+                if (bean != null && hasStatus)
+                    bean.setStatus(status);
+                return bean;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+}
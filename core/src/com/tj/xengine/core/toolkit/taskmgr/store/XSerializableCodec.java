@@ -0,0 +1,39 @@
+package com.tj.xengine.core.toolkit.taskmgr.store;
+
+import java.io.*;
+
+/**
+ * <pre>
+ * 基于Java序列化的通用编解码器。
+ * 适用于任何实现了Serializable的任务数据，但速度较慢，
+ * 任务量很大时，建议针对具体类型实现XTaskCodec。
+ * </pre>
+ */
+public class XSerializableCodec<B extends Serializable> implements XTaskCodec<B> {
+
+    @Override
+    public void encode(B bean, DataOutput out) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(bean);
+        oos.close();
+        byte[] bytes = bos.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public B decode(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (B) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.toString());
+        } finally {
+            ois.close();
+        }
+    }
+}
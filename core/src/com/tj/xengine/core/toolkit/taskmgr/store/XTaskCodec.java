@@ -0,0 +1,26 @@
+package com.tj.xengine.core.toolkit.taskmgr.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <pre>
+ * 任务数据的编解码接口。
+ * XFileTaskStore通过此接口读写任务数据，
+ * 针对具体数据类型手写的编解码器比Java序列化快得多，适合大量任务的快速恢复。
+ * B 表示任务数据类的类型
+ * </pre>
+ */
+public interface XTaskCodec<B> {
+
+    /**
+     * 将任务数据写入输出流。
+     */
+    void encode(B bean, DataOutput out) throws IOException;
+
+    /**
+     * 从输入流读出任务数据。
+     */
+    B decode(DataInput in) throws IOException;
+}
@@ -0,0 +1,67 @@
+package com.tj.xengine.core.toolkit.taskmgr.store;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+import java.util.List;
+
+/**
+ * <pre>
+ * 任务持久化存储的接口。
+ * 记录任务管理器中任务的增删和状态变化，进程重启后可以恢复出所有任务。
+ * B 表示任务数据类的类型
+ * </pre>
+ */
+public interface XTaskStore<B extends XTaskBean> {
+
+    /**
+     * 记录添加任务。
+     * 如果任务已存在，则覆盖为新的任务数据(保持原有顺序)。
+     */
+    void add(B bean);
+
+    /**
+     * 批量记录添加任务。
+     */
+    void addAll(List<B> beans);
+
+    /**
+     * 记录删除任务。
+     * @param taskId 任务的唯一Id
+     */
+    void remove(String taskId);
+
+    /**
+     * 批量记录删除任务。
+     * @param taskIds 任务的唯一Id列表
+     */
+    void removeAll(List<String> taskIds);
+
+    /**
+     * 记录任务状态的变化。
+     * @param taskId 任务的唯一Id
+     * @param status 新的状态
+     */
+    void updateStatus(String taskId, int status);
+
+    /**
+     * 清空所有任务。
+     */
+    void clear();
+
+    /**
+     * 加载所有任务。
+     * @return 返回按添加顺序排列的任务列表(状态为最后一次记录的状态)，
+     * 应该是存储中数据的副本，修改它们不影响存储
+     */
+    List<B> load();
+
+    /**
+     * 压缩存储，丢弃已经被覆盖的历史记录。
+     */
+    void compact();
+
+    /**
+     * 关闭存储，释放文件等资源。
+     */
+    void close();
+}
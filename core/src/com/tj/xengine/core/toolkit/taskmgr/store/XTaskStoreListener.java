@@ -0,0 +1,95 @@
+package com.tj.xengine.core.toolkit.taskmgr.store;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * 把任务管理器的变化同步写入XTaskStore的监听器。
+ * 注册到任务管理器后：
+ *      添加任务 -> 记录添加
+ *      删除任务、任务成功完成(完成的任务会被管理器丢弃) -> 记录删除
+ *      启动、停止、失败 -> 记录状态变化
+ * 执行进度和速度等高频回调不会写入存储。
+ * 注意：stopAndReset()不会逐个回调删除，需要外部同时调用XTaskStore.clear()。
+ * </pre>
+ */
+public class XTaskStoreListener<B extends XTaskBean> implements XTaskMgrListener<B> {
+
+    private XTaskStore<B> mStore;
+
+    public XTaskStoreListener(XTaskStore<B> store) {
+        mStore = store;
+    }
+
+    public XTaskStore<B> getStore() {
+        return mStore;
+    }
+
+    @Override
+    public void onAdd(B task) {
+        mStore.add(task);
+    }
+
+    @Override
+    public void onAddAll(List<B> tasks) {
+        mStore.addAll(tasks);
+    }
+
+    @Override
+    public void onRemove(B task) {
+        mStore.remove(task.getId());
+    }
+
+    @Override
+    public void onRemoveAll(List<B> tasks) {
+        List<String> taskIds = new ArrayList<String>(tasks.size());
+        for (B task : tasks)
+            taskIds.add(task.getId());
+        mStore.removeAll(taskIds);
+    }
+
+    @Override
+    public void onStart(B task) {
+        mStore.updateStatus(task.getId(), task.getStatus());
+    }
+
+    @Override
+    public void onStop(B task) {
+        mStore.updateStatus(task.getId(), task.getStatus());
+    }
+
+    @Override
+    public void onStopBatch(List<B> tasks) {
+        for (B task : tasks)
+            mStore.updateStatus(task.getId(), task.getStatus());
+    }
+
+    @Override
+    public void onStopAll() {}
+
+    @Override
+    public void onFinishAll() {}
+
+    @Override
+    public void onDoing(B task, long completeSize) {}
+
+    @Override
+    public void onComplete(B task) {
+        mStore.remove(task.getId());
+    }
+
+    @Override
+    public void onError(B task, String errorCode) {
+        mStore.updateStatus(task.getId(), task.getStatus());
+    }
+
+    @Override
+    public void onSpeedUpdate(B task, long speed) {}
+
+    @Override
+    public void onRemainTimeUpdate(B task, long remainTime) {}
+}
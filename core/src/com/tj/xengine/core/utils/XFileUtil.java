@@ -1,5 +1,7 @@
 package com.tj.xengine.core.utils;
 
+import com.tj.xengine.core.toolkit.pool.XBufferPool;
+
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,10 +32,10 @@ public abstract class XFileUtil {
             return false;
         InputStream is = null;
         FileOutputStream fos = null;
+        byte[] buffer = XBufferPool.getInstance().acquireHeap(BUFFER_SIZE);
         try {
             is = new FileInputStream(oldFile); // 读入原文件
             fos = new FileOutputStream(newFile);
-            byte[] buffer = new byte[BUFFER_SIZE];
             int read;
             while ((read = is.read(buffer)) != -1) {
                 fos.write(buffer, 0, read);
@@ -42,6 +44,7 @@ public abstract class XFileUtil {
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            XBufferPool.getInstance().release(buffer);
             try {
                 if (is != null)
                     is.close();
@@ -59,14 +62,22 @@ public abstract class XFileUtil {
     }
 
     public static boolean stream2File(InputStream is, File file) {
+        return stream2File(is, file, BUFFER_SIZE);
+    }
+
+    /**
+     * 将InputStream写入文件，完成后关闭InputStream。
+     * @param bufferSize 缓存大小，缓存从全局的缓冲区池中申请
+     */
+    public static boolean stream2File(InputStream is, File file, int bufferSize) {
         if (is == null)
             return false;
         OutputStream os = null;
+        byte[] buffer = XBufferPool.getInstance().acquireHeap(bufferSize);
         try {
             os = new FileOutputStream(file);
             int bytesRead = 0;
-            byte[] buffer = new byte[BUFFER_SIZE];
-            while ((bytesRead = is.read(buffer, 0, BUFFER_SIZE)) != -1) {
+            while ((bytesRead = is.read(buffer, 0, buffer.length)) != -1) {
                 os.write(buffer, 0, bytesRead);
             }
             return true;
@@ -77,6 +88,7 @@ public abstract class XFileUtil {
             e.printStackTrace();
             return false;
         } finally {
+            XBufferPool.getInstance().release(buffer);
             try {
                 is.close();
             } catch (IOException e) {
@@ -266,11 +278,11 @@ public abstract class XFileUtil {
         }
         FileOutputStream out = null;
         ZipOutputStream zipOut = null;
+        byte[] buffer = XBufferPool.getInstance().acquireHeap(BUFFER_SIZE);
         try {
             out = new FileOutputStream(zipFilePath);// 根据文件路径构造一个文件输出流
             zipOut = new ZipOutputStream(out);// 创建ZIP数据输出流对象
             // 循环待压缩的文件列表
-            byte[] buffer = new byte[BUFFER_SIZE];
             for (String originFilePath : copyFilePaths) {
                 if (XStringUtil.isEmpty(originFilePath))
                     continue;
@@ -298,6 +310,7 @@ public abstract class XFileUtil {
             e.printStackTrace();
             return false;
         } finally {
+            XBufferPool.getInstance().release(buffer);
             try {
                 if (out != null)
                     out.close();
@@ -351,6 +364,7 @@ public abstract class XFileUtil {
 
         ZipInputStream zis = null;
         BufferedInputStream bis = null;
+        byte[] buffer = XBufferPool.getInstance().acquireHeap(BUFFER_SIZE);
         try {
             zis = new ZipInputStream(zipInput);
             bis = new BufferedInputStream(zis);
@@ -366,7 +380,6 @@ public abstract class XFileUtil {
                 }
                 FileOutputStream out = new FileOutputStream(file);
                 BufferedOutputStream bos = new BufferedOutputStream(out);
-                byte buffer[] = new byte[BUFFER_SIZE];
                 int realLength = 0;
                 while ((realLength = bis.read(buffer)) != -1) {
                     out.write(buffer, 0, realLength);
@@ -379,6 +392,7 @@ public abstract class XFileUtil {
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
+            XBufferPool.getInstance().release(buffer);
             try {
                 if (bis != null)
                     bis.close();
@@ -24,6 +24,7 @@ public abstract class XStringUtil {
     private static final String RANDOM_NUMBERS = "1234567890";
     private static final String RANDOM_CHARS =
             "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final Pattern HOST_PATTERN = Pattern.compile("(?<=//|)((\\w)+\\.)+\\w+");
 
     public static boolean isEmpty(CharSequence s) {
         return s == null || s.length() == 0;
@@ -343,8 +344,7 @@ public abstract class XStringUtil {
         if(url == null || "".equals(url.trim()))
             return null;
 
-        Pattern p =  Pattern.compile("(?<=//|)((\\w)+\\.)+\\w+");
-        Matcher matcher = p.matcher(url);
+        Matcher matcher = HOST_PATTERN.matcher(url);
         if (matcher.find())
             return matcher.group();
         else
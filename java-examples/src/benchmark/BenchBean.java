@@ -0,0 +1,45 @@
+package benchmark;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+
+/**
+ * 基准测试使用的任务数据，带一个可供调度器比较的优先级。
+ */
+public class BenchBean implements XTaskBean {
+    private final String id;
+    private final int priority;
+    private volatile int status;
+
+    public BenchBean(String id) {
+        this(id, 0);
+    }
+
+    public BenchBean(String id, int priority) {
+        this.id = id;
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public int getType() {
+        return 0;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,53 @@
+package benchmark;
+
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgrListener;
+
+import java.util.List;
+
+/**
+ * 空实现的任务管理器监听，基准测试按需重写。
+ */
+public class BenchListener implements XTaskMgrListener<BenchBean> {
+
+    @Override
+    public void onAdd(BenchBean task) {}
+
+    @Override
+    public void onAddAll(List<BenchBean> tasks) {}
+
+    @Override
+    public void onRemove(BenchBean task) {}
+
+    @Override
+    public void onRemoveAll(List<BenchBean> tasks) {}
+
+    @Override
+    public void onStart(BenchBean task) {}
+
+    @Override
+    public void onStop(BenchBean task) {}
+
+    @Override
+    public void onStopBatch(List<BenchBean> tasks) {}
+
+    @Override
+    public void onStopAll() {}
+
+    @Override
+    public void onFinishAll() {}
+
+    @Override
+    public void onDoing(BenchBean task, long completeSize) {}
+
+    @Override
+    public void onComplete(BenchBean task) {}
+
+    @Override
+    public void onError(BenchBean task, String errorCode) {}
+
+    @Override
+    public void onSpeedUpdate(BenchBean task, long speed) {}
+
+    @Override
+    public void onRemainTimeUpdate(BenchBean task, long remainTime) {}
+}
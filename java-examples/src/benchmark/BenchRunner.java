@@ -0,0 +1,71 @@
+package benchmark;
+
+/**
+ * 简易的基准测试运行器(代替JMH)：预热若干轮后测量若干轮，
+ * 输出每秒操作数的平均值和标准差。
+ * 每轮测量前调用setUp()准备数据，准备时间不计入结果。
+ */
+public class BenchRunner {
+
+    private final int warmups;
+    private final int iterations;
+
+    public BenchRunner(int warmups, int iterations) {
+        this.warmups = warmups;
+        this.iterations = iterations;
+    }
+
+    /**
+     * 单个基准测试。
+     */
+    public static abstract class Bench {
+
+        /**
+         * 每轮测量前调用，不计时。
+         */
+        public void setUp() throws Exception {}
+
+        /**
+         * 被测量的操作。
+         * @return 本轮完成的操作数
+         */
+        public abstract long run() throws Exception;
+
+        /**
+         * 每轮测量后调用，不计时。
+         */
+        public void tearDown() throws Exception {}
+    }
+
+    /**
+     * 运行并打印结果。
+     * @return 平均每秒操作数
+     */
+    public double run(String name, Bench bench) throws Exception {
+        for (int i = 0; i < warmups; i++)
+            once(bench);
+        double[] results = new double[iterations];
+        double sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            results[i] = once(bench);
+            sum += results[i];
+        }
+        double mean = sum / iterations;
+        double variance = 0;
+        for (double result : results)
+            variance += (result - mean) * (result - mean);
+        double stdev = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+        System.out.println(String.format("%-48s %14.0f ops/s  +- %5.1f%%",
+                name, mean, mean > 0 ? stdev * 100 / mean : 0));
+        return mean;
+    }
+
+    private static double once(Bench bench) throws Exception {
+        bench.setUp();
+        long start = System.nanoTime();
+        long ops = bench.run();
+        long nanos = Math.max(System.nanoTime() - start, 1);
+        bench.tearDown();
+        return ops * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,61 @@
+package benchmark;
+
+import com.tj.xengine.core.toolkit.taskmgr.XBaseMgrTaskExecutor;
+
+import java.util.Queue;
+
+/**
+ * 由测试代码手动结束的合成任务。
+ * 启动时只记录启动时间并放入started队列(不能在onStart()中同步结束任务)，
+ * 测试线程从队列中取出后再调用endSuccess()，任务管理器会同步启动下一个任务。
+ */
+public class ManualTask extends XBaseMgrTaskExecutor<BenchBean> {
+
+    private final Queue<ManualTask> started;
+    private volatile long startNanos;
+
+    public ManualTask(BenchBean bean, Queue<ManualTask> started) {
+        super(bean);
+        this.started = started;
+    }
+
+    /**
+     * 最近一次启动的时间(System.nanoTime())。
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    @Override
+    protected boolean onStart() {
+        startNanos = System.nanoTime();
+        if (started != null)
+            started.add(this);
+        return true;
+    }
+
+    @Override
+    protected boolean onPause() {
+        return true;
+    }
+
+    @Override
+    protected boolean onAbort() {
+        return true;
+    }
+
+    @Override
+    protected boolean onEndSuccess() {
+        return true;
+    }
+
+    @Override
+    protected boolean onEndError(String errorCode, boolean retry) {
+        return true;
+    }
+
+    @Override
+    public long getCompleteSize() {
+        return 0;
+    }
+}
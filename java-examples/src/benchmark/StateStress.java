@@ -0,0 +1,531 @@
+package benchmark;
+
+import com.tj.xengine.core.toolkit.task.XBaseTaskExecutor;
+import com.tj.xengine.core.toolkit.task.XGradualTaskExecutor;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.task.XTaskListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * XBaseTaskExecutor和XGradualTaskExecutor状态机的并发正确性测试(仿jcstress)。
+ * 每个用例把同一个初始状态的执行器交给2~3个线程同时调用不同的行为方法，
+ * 收集"各行为的返回值 + 最终状态 + 各回调的次数"作为一次结果，
+ * 大量重复后按结果分组计数，并按用例的规则判定为ACCEPTABLE或FORBIDDEN。
+ * 运行：java benchmark.StateStress [每个用例的次数]
+ * 出现FORBIDDEN结果时以非0退出。
+ */
+public class StateStress {
+
+    private static final int BATCH = 1024;// 每批同时竞争的对象数
+
+    public static void main(String[] args) throws Exception {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        List<StressCase> cases = createCases();
+        int forbidden = 0;
+        for (StressCase stressCase : cases)
+            forbidden += run(stressCase, trials);
+        if (forbidden > 0) {
+            System.out.println("FAILED: " + forbidden + " forbidden outcome(s)");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * 一个竞争用例。
+     */
+    private static abstract class StressCase {
+        final String name;
+        final String[] actions;// 每个线程调用的行为，用于输出
+
+        StressCase(String name, String... actions) {
+            this.name = name;
+            this.actions = actions;
+        }
+
+        /**
+         * 创建处于初始状态的执行器。
+         */
+        abstract XBaseTaskExecutor<BenchBean> create(Counter counter);
+
+        /**
+         * 第actor个线程调用的行为。
+         */
+        abstract boolean act(int actor, XBaseTaskExecutor<BenchBean> task);
+
+        /**
+         * 判断一次结果是否合法。
+         */
+        abstract boolean isAcceptable(boolean[] r, int status, Counter c);
+    }
+
+    private static int run(StressCase stressCase, int trials) throws Exception {
+        final int actors = stressCase.actions.length;
+        final StressCase sc = stressCase;
+        final Object[] tasks = new Object[BATCH];
+        final Counter[] counters = new Counter[BATCH];
+        final boolean[][] results = new boolean[actors][BATCH];
+        final CyclicBarrier startBarrier = new CyclicBarrier(actors + 1);
+        final CyclicBarrier endBarrier = new CyclicBarrier(actors + 1);
+        final int batches = (trials + BATCH - 1) / BATCH;
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int a = 0; a < actors; a++) {
+            final int actor = a;
+            Thread thread = new Thread("actor-" + a) {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void run() {
+                    try {
+                        for (int b = 0; b < batches; b++) {
+                            startBarrier.await();
+                            boolean[] result = results[actor];
+                            for (int i = 0; i < BATCH; i++)
+                                result[i] = sc.act(actor, (XBaseTaskExecutor<BenchBean>) tasks[i]);
+                            endBarrier.await();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        Map<String, int[]> outcomes = new TreeMap<String, int[]>();
+        Map<String, Boolean> acceptable = new TreeMap<String, Boolean>();
+        boolean[] r = new boolean[actors];
+        for (int b = 0; b < batches; b++) {
+            for (int i = 0; i < BATCH; i++) {
+                counters[i] = new Counter();
+                tasks[i] = stressCase.create(counters[i]);
+            }
+            startBarrier.await();
+            endBarrier.await();
+            for (int i = 0; i < BATCH; i++) {
+                @SuppressWarnings("unchecked")
+                XBaseTaskExecutor<BenchBean> task = (XBaseTaskExecutor<BenchBean>) tasks[i];
+                StringBuilder key = new StringBuilder();
+                for (int a = 0; a < actors; a++) {
+                    r[a] = results[a][i];
+                    key.append(stressCase.actions[a]).append('=').append(r[a] ? 'T' : 'F').append(' ');
+                }
+                int status = task.getStatus();
+                key.append("-> ").append(statusName(status)).append(' ').append(counters[i]);
+                if (task.getBean().getStatus() != status)
+                    key.append(" bean=").append(statusName(task.getBean().getStatus()));
+                String outcome = key.toString();
+                int[] count = outcomes.get(outcome);
+                if (count == null) {
+                    outcomes.put(outcome, count = new int[1]);
+                    acceptable.put(outcome, task.getBean().getStatus() == status
+                            && stressCase.isAcceptable(r.clone(), status, counters[i]));
+                }
+                count[0]++;
+            }
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        int forbidden = 0;
+        System.out.println("== " + stressCase.name + " ==");
+        for (Map.Entry<String, int[]> entry : outcomes.entrySet()) {
+            boolean ok = acceptable.get(entry.getKey());
+            if (!ok)
+                forbidden++;
+            System.out.println(String.format("  %10d  %-10s %s", entry.getValue()[0],
+                    ok ? "ACCEPTABLE" : "FORBIDDEN", entry.getKey()));
+        }
+        return forbidden;
+    }
+
+    private static String statusName(int status) {
+        switch (status) {
+            case XTaskBean.STATUS_DEFAULT: return "DEFAULT";
+            case XTaskBean.STATUS_TODO: return "TODO";
+            case XTaskBean.STATUS_DOING: return "DOING";
+            case XTaskBean.STATUS_DONE: return "DONE";
+            case XTaskBean.STATUS_ERROR: return "ERROR";
+            case XTaskBean.STATUS_STARTING: return "STARTING";
+            case XTaskBean.STATUS_PAUSING: return "PAUSING";
+            default: return String.valueOf(status);
+        }
+    }
+
+    private static int count(boolean... values) {
+        int count = 0;
+        for (boolean value : values)
+            if (value)
+                count++;
+        return count;
+    }
+
+    private static List<StressCase> createCases() {
+        List<StressCase> cases = new ArrayList<StressCase>();
+
+        cases.add(new StressCase("base: start || start (TODO)", "start", "start") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new BaseTask(XTaskBean.STATUS_TODO, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                return task.start();
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                return count(r) == 1 && status == XTaskBean.STATUS_DOING && c.is(1, 0, 0, 0, 0);
+            }
+        });
+
+        cases.add(new StressCase("base: start || pause (TODO)", "start", "pause") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new BaseTask(XTaskBean.STATUS_TODO, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                return actor == 0 ? task.start() : task.pause();
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                if (!r[0])
+                    return false;
+                if (r[1])// pause在start之后
+                    return status == XTaskBean.STATUS_TODO && c.is(1, 1, 0, 0, 0);
+                return status == XTaskBean.STATUS_DOING && c.is(1, 0, 0, 0, 0);
+            }
+        });
+
+        cases.add(new StressCase("base: pause || start (DOING)", "pause", "start") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new BaseTask(XTaskBean.STATUS_DOING, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                return actor == 0 ? task.pause() : task.start();
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                if (!r[0])
+                    return false;
+                if (r[1])// start在pause之后
+                    return status == XTaskBean.STATUS_DOING && c.is(1, 1, 0, 0, 0);
+                return status == XTaskBean.STATUS_TODO && c.is(0, 1, 0, 0, 0);
+            }
+        });
+
+        cases.add(new StressCase("base: start || endSuccess (TODO)", "start", "endSuccess") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                counter.slowStart = true;
+                return new BaseTask(XTaskBean.STATUS_TODO, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                return actor == 0 ? task.start() : task.endSuccess();
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                if (!r[0] || c.endsBeforeStart > 0)// 监听必须先收到onStart
+                    return false;
+                if (r[1])// endSuccess在start之后
+                    return status == XTaskBean.STATUS_DONE && c.is(1, 0, 0, 1, 0);
+                return status == XTaskBean.STATUS_DOING && c.is(1, 0, 0, 0, 0);
+            }
+        });
+
+        cases.add(new StressCase("base: endSuccess || endError || pause (DOING)",
+                "endSuccess", "endError", "pause") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new BaseTask(XTaskBean.STATUS_DOING, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                switch (actor) {
+                    case 0: return task.endSuccess();
+                    case 1: return task.endError("error", false);
+                    default: return task.pause();
+                }
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                if (count(r) != 1)
+                    return false;
+                if (r[0])
+                    return status == XTaskBean.STATUS_DONE && c.is(0, 0, 0, 1, 0);
+                if (r[1])
+                    return status == XTaskBean.STATUS_ERROR && c.is(0, 0, 0, 0, 1);
+                return status == XTaskBean.STATUS_TODO && c.is(0, 1, 0, 0, 0);
+            }
+        });
+
+        cases.add(new StressCase("base: abort || endSuccess (DOING)", "abort", "endSuccess") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new BaseTask(XTaskBean.STATUS_DOING, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                return actor == 0 ? task.abort() : task.endSuccess();
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                if (count(r) != 1 || status != XTaskBean.STATUS_DONE)
+                    return false;
+                return r[0] ? c.is(0, 0, 1, 0, 0) : c.is(0, 0, 0, 1, 0);
+            }
+        });
+
+        cases.add(new StressCase("gradual: start || start || pause (TODO)", "start", "start", "pause") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new GradualTask(XTaskBean.STATUS_TODO, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                return actor < 2 ? task.start() : task.pause();
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                if (count(r[0], r[1]) != 1 || c.starts != 1)
+                    return false;
+                if (r[2])// pause在start之后
+                    return status == XTaskBean.STATUS_PAUSING && c.doings == 1;
+                return status == XTaskBean.STATUS_STARTING && c.doings == 0;
+            }
+        });
+
+        cases.add(new StressCase("gradual: startFinish || pause (STARTING)", "startFinish", "pause") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new GradualTask(XTaskBean.STATUS_STARTING, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                return actor == 0 ? ((GradualTask) task).startFinish() : task.pause();
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                // pause对STARTING和DOING都有效，一定成功
+                return r[1] && status == XTaskBean.STATUS_PAUSING
+                        && c.doings == count(r) && c.pauses == 0;
+            }
+        });
+
+        cases.add(new StressCase("gradual: pauseFinish || abort (PAUSING)", "pauseFinish", "abort") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new GradualTask(XTaskBean.STATUS_PAUSING, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                return actor == 0 ? ((GradualTask) task).pauseFinish() : task.abort();
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                if (!r[0])
+                    return false;
+                if (r[1])// abort在pauseFinish之后
+                    return status == XTaskBean.STATUS_DONE && c.is(0, 1, 1, 0, 0);
+                return status == XTaskBean.STATUS_TODO && c.is(0, 1, 0, 0, 0);
+            }
+        });
+
+        cases.add(new StressCase("gradual: startFinish || endError || abort (STARTING)",
+                "startFinish", "endError", "abort") {
+            @Override
+            XBaseTaskExecutor<BenchBean> create(Counter counter) {
+                return new GradualTask(XTaskBean.STATUS_STARTING, counter);
+            }
+
+            @Override
+            boolean act(int actor, XBaseTaskExecutor<BenchBean> task) {
+                switch (actor) {
+                    case 0: return ((GradualTask) task).startFinish();
+                    case 1: return task.endError("error", false);
+                    default: return task.abort();
+                }
+            }
+
+            @Override
+            boolean isAcceptable(boolean[] r, int status, Counter c) {
+                // endError和abort对STARTING和DOING都有效，恰好一个成功
+                if (count(r[1], r[2]) != 1 || c.doings != (r[0] ? 1 : 0))
+                    return false;
+                if (r[1])
+                    return status == XTaskBean.STATUS_ERROR && c.is(0, 0, 0, 0, 1);
+                return status == XTaskBean.STATUS_DONE && c.is(0, 0, 1, 0, 0);
+            }
+        });
+        return cases;
+    }
+
+    /**
+     * 记录各回调的次数。
+     */
+    private static class Counter implements XTaskListener<BenchBean> {
+        volatile int starts;
+        volatile int pauses;
+        volatile int aborts;
+        volatile int completes;
+        volatile int errors;
+        volatile int doings;
+        volatile int endsBeforeStart;// 在onStart之前收到的onComplete和onError
+        boolean slowStart;// onStart回调前先让出CPU，放大回调顺序的竞争窗口
+        private final AtomicInteger events = new AtomicInteger();
+
+        boolean is(int starts, int pauses, int aborts, int completes, int errors) {
+            return this.starts == starts && this.pauses == pauses && this.aborts == aborts
+                    && this.completes == completes && this.errors == errors;
+        }
+
+        @Override
+        public void onStart(BenchBean task) {
+            if (slowStart)
+                Thread.yield();
+            starts++;
+            events.incrementAndGet();
+        }
+
+        @Override
+        public void onPause(BenchBean task) {
+            pauses++;
+            events.incrementAndGet();
+        }
+
+        @Override
+        public void onAbort(BenchBean task) {
+            aborts++;
+            events.incrementAndGet();
+        }
+
+        @Override
+        public void onDoing(BenchBean task, long completeSize) {
+            doings++;
+            events.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete(BenchBean task) {
+            if (starts == 0)
+                endsBeforeStart++;
+            completes++;
+            events.incrementAndGet();
+        }
+
+        @Override
+        public void onError(BenchBean task, String errorCode, boolean retry) {
+            if (starts == 0)
+                endsBeforeStart++;
+            errors++;
+            events.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            // 回调可能在不同线程中，非原子的计数如果丢失，总数会对不上
+            int sum = starts + pauses + aborts + doings + completes + errors;
+            return "[start=" + starts + " pause=" + pauses + " abort=" + aborts
+                    + " doing=" + doings + " complete=" + completes + " error=" + errors
+                    + (sum != events.get() ? " events=" + events.get() : "")
+                    + (starts > 0 && endsBeforeStart > 0 ? " endBeforeStart" : "") + "]";
+        }
+    }
+
+    private static class BaseTask extends XBaseTaskExecutor<BenchBean> {
+
+        BaseTask(int status, Counter counter) {
+            super(new BenchBean(null), status);
+            getBean().setStatus(status);
+            setListener(counter);
+        }
+
+        @Override
+        protected boolean onStart() {
+            return true;
+        }
+
+        @Override
+        protected boolean onPause() {
+            return true;
+        }
+
+        @Override
+        protected boolean onAbort() {
+            return true;
+        }
+
+        @Override
+        protected boolean onEndSuccess() {
+            return true;
+        }
+
+        @Override
+        protected boolean onEndError(String errorCode, boolean retry) {
+            return true;
+        }
+    }
+
+    private static class GradualTask extends XGradualTaskExecutor<BenchBean> {
+
+        GradualTask(int status, Counter counter) {
+            super(new BenchBean(null), status);
+            getBean().setStatus(status);
+            setListener(counter);
+        }
+
+        @Override
+        protected boolean onStart() {
+            return true;
+        }
+
+        @Override
+        protected boolean onPause() {
+            return true;
+        }
+
+        @Override
+        protected boolean onAbort() {
+            return true;
+        }
+
+        @Override
+        protected boolean onEndSuccess() {
+            return true;
+        }
+
+        @Override
+        protected boolean onEndError(String errorCode, boolean retry) {
+            return true;
+        }
+    }
+}
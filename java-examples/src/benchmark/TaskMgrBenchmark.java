@@ -0,0 +1,145 @@
+package benchmark;
+
+import com.tj.xengine.core.toolkit.taskmgr.XBaseMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgr;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgrImpl;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XStealingParallelMgr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比XParallelMgrImpl和XStealingParallelMgr在大量短任务下的吞吐量。
+ * 1.add：多个线程并发添加任务；
+ * 2.complete：启动后，任务在线程池中立即完成，测量全部完成所需时间。
+ * 运行：java benchmark.TaskMgrBenchmark [任务数] [添加线程数]
+ */
+public class TaskMgrBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("tasks=" + taskCount + ", producers=" + producers + ", cores=" + cores);
+
+        ExecutorService pool = Executors.newFixedThreadPool(cores);
+        for (int round = 0; round < ROUNDS; round++) {
+            String prefix = round == 0 ? "[warm up] " : "[round " + round + "] ";
+            run(prefix + "XParallelMgrImpl     ",
+                    new XParallelMgrImpl<BenchBean>(cores * 2), taskCount, producers, pool);
+            run(prefix + "XStealingParallelMgr ",
+                    new XStealingParallelMgr<BenchBean>(cores * 2), taskCount, producers, pool);
+        }
+        pool.shutdown();
+    }
+
+    private static void run(String name, final XParallelMgr<BenchBean> taskMgr, int taskCount,
+                            int producers, ExecutorService pool) throws Exception {
+        final CountDownLatch finished = new CountDownLatch(taskCount);
+        taskMgr.registerListener(new CountListener(finished));
+
+        // 并发添加任务
+        final List<List<XMgrTaskExecutor<BenchBean>>> batches = new ArrayList<List<XMgrTaskExecutor<BenchBean>>>();
+        for (int p = 0; p < producers; p++)
+            batches.add(new ArrayList<XMgrTaskExecutor<BenchBean>>());
+        for (int i = 0; i < taskCount; i++)
+            batches.get(i % producers).add(new Task(new BenchBean("task-" + i), pool));
+        final CountDownLatch added = new CountDownLatch(producers);
+        long addStart = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            final List<XMgrTaskExecutor<BenchBean>> batch = batches.get(p);
+            new Thread() {
+                @Override
+                public void run() {
+                    for (XMgrTaskExecutor<BenchBean> task : batch)
+                        taskMgr.addTask(task);
+                    added.countDown();
+                }
+            }.start();
+        }
+        added.await();
+        long addTime = System.nanoTime() - addStart;
+
+        // 启动并等待全部完成
+        long runStart = System.nanoTime();
+        taskMgr.start();
+        if (!finished.await(120, TimeUnit.SECONDS))
+            System.out.println(name + "timeout, remain=" + finished.getCount());
+        long runTime = System.nanoTime() - runStart;
+
+        System.out.println(name + "add: " + opsPerSecond(taskCount, addTime) + " ops/s, "
+                + "complete: " + opsPerSecond(taskCount, runTime) + " ops/s");
+    }
+
+    private static long opsPerSecond(int count, long nanos) {
+        return (long) (count / (nanos / 1e9));
+    }
+
+    /**
+     * 启动后在线程池中立即成功结束的任务。
+     */
+    private static class Task extends XBaseMgrTaskExecutor<BenchBean> {
+        private final ExecutorService pool;
+
+        Task(BenchBean bean, ExecutorService pool) {
+            super(bean);
+            this.pool = pool;
+        }
+
+        @Override
+        protected boolean onStart() {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    endSuccess();
+                }
+            });
+            return true;
+        }
+
+        @Override
+        protected boolean onPause() {
+            return true;
+        }
+
+        @Override
+        protected boolean onAbort() {
+            return true;
+        }
+
+        @Override
+        protected boolean onEndSuccess() {
+            return true;
+        }
+
+        @Override
+        protected boolean onEndError(String errorCode, boolean retry) {
+            return true;
+        }
+
+        @Override
+        public long getCompleteSize() {
+            return 0;
+        }
+    }
+
+    private static class CountListener extends BenchListener {
+        private final CountDownLatch latch;
+
+        CountListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onComplete(BenchBean task) {
+            latch.countDown();
+        }
+    }
+}
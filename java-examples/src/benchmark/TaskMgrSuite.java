@@ -0,0 +1,348 @@
+package benchmark;
+
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgr;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskScheduler;
+import com.tj.xengine.core.toolkit.taskmgr.metrics.XHistogram;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgrImpl;
+import com.tj.xengine.core.toolkit.taskmgr.serial.XRichSerialMgr;
+import com.tj.xengine.core.toolkit.taskmgr.serial.XSerialMgrImpl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务管理器的基准测试和压力测试集合，使用合成的ManualTask，不涉及任何IO。
+ * 1.add/remove：逐个添加、逐个删除、批量删除的吞吐量(10、1万、10万个任务)；
+ * 2.dispatch：设置了XTaskScheduler时，一个任务结束到下一个任务启动的延迟；
+ * 3.complete：注册大量监听时，任务完成回调的吞吐量；
+ * 4.contention：多个线程并发调用start/pause/stop，统计吞吐量并检查：
+ *   没有异常、没有死锁、没有任务丢失、同时执行的任务数不超过上限。
+ * 运行：java benchmark.TaskMgrSuite [-quick]
+ * 结果只用于同一台机器上前后版本的对比，绝对值没有意义。
+ */
+public class TaskMgrSuite {
+
+    private static final int PARALLEL_LIMIT = 4;
+
+    private static boolean sQuick;
+    private static int sFailures;
+
+    public static void main(String[] args) throws Exception {
+        sQuick = args.length > 0 && "-quick".equals(args[0]);
+        System.out.println("cores=" + Runtime.getRuntime().availableProcessors()
+                + (sQuick ? ", quick mode" : ""));
+        BenchRunner runner = sQuick ? new BenchRunner(1, 2) : new BenchRunner(3, 5);
+        List<MgrFactory> factories = new ArrayList<MgrFactory>();
+        factories.add(new MgrFactory("XSerialMgrImpl", 1) {
+            @Override
+            XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> create() {
+                return new XSerialMgrImpl<BenchBean>();
+            }
+        });
+        factories.add(new MgrFactory("XRichSerialMgr", 1) {
+            @Override
+            XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> create() {
+                return new XRichSerialMgr<BenchBean>();
+            }
+        });
+        factories.add(new MgrFactory("XParallelMgrImpl(" + PARALLEL_LIMIT + ")", PARALLEL_LIMIT) {
+            @Override
+            XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> create() {
+                return new XParallelMgrImpl<BenchBean>(PARALLEL_LIMIT);
+            }
+        });
+
+        int[] sizes = sQuick ? new int[]{10, 1000} : new int[]{10, 10000, 100000};
+        System.out.println("== add/remove ==");
+        for (MgrFactory factory : factories)
+            for (int size : sizes)
+                benchAddRemove(runner, factory, size);
+
+        System.out.println("== dispatch latency (with scheduler) ==");
+        for (MgrFactory factory : factories)
+            benchDispatch(factory, sQuick ? 1000 : 10000);
+
+        System.out.println("== completion callbacks ==");
+        int[] listenerCounts = {0, 16, 64};
+        for (MgrFactory factory : factories)
+            for (int listeners : listenerCounts)
+                benchComplete(runner, factory, sQuick ? 2000 : 50000, listeners);
+
+        System.out.println("== contention (start/pause/stop) ==");
+        int[] threadCounts = {1, 2, 4, 8};
+        for (MgrFactory factory : factories)
+            for (int threads : threadCounts)
+                stressContention(factory, 1000, threads, sQuick ? 200 : 2000);
+
+        if (sFailures > 0) {
+            System.out.println("FAILED: " + sFailures + " invariant violation(s)");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static abstract class MgrFactory {
+        final String name;
+        final int limit;// 同时执行的任务数上限
+
+        MgrFactory(String name, int limit) {
+            this.name = name;
+            this.limit = limit;
+        }
+
+        abstract XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> create();
+    }
+
+    private static List<XMgrTaskExecutor<BenchBean>> createTasks(int count, Queue<ManualTask> started) {
+        Random random = new Random(count);
+        List<XMgrTaskExecutor<BenchBean>> tasks = new ArrayList<XMgrTaskExecutor<BenchBean>>(count);
+        for (int i = 0; i < count; i++)
+            tasks.add(new ManualTask(new BenchBean("task-" + i, random.nextInt(1000)), started));
+        return tasks;
+    }
+
+    private static void benchAddRemove(BenchRunner runner, final MgrFactory factory,
+                                       final int size) throws Exception {
+        final List<List<XMgrTaskExecutor<BenchBean>>> tasksHolder =
+                new ArrayList<List<XMgrTaskExecutor<BenchBean>>>();
+        runner.run(factory.name + " add x" + size, new BenchRunner.Bench() {
+            @Override
+            public void setUp() {
+                tasksHolder.clear();
+                tasksHolder.add(createTasks(size, null));
+            }
+
+            @Override
+            public long run() {
+                XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> taskMgr = factory.create();
+                for (XMgrTaskExecutor<BenchBean> task : tasksHolder.get(0))
+                    taskMgr.addTask(task);
+                return size;
+            }
+        });
+
+        final List<XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean>> mgrHolder =
+                new ArrayList<XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean>>();
+        BenchRunner.Bench fill = new BenchRunner.Bench() {
+            @Override
+            public void setUp() {
+                List<XMgrTaskExecutor<BenchBean>> tasks = createTasks(size, null);
+                XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> taskMgr = factory.create();
+                taskMgr.addTasks(tasks);
+                tasksHolder.clear();
+                tasksHolder.add(tasks);
+                mgrHolder.clear();
+                mgrHolder.add(taskMgr);
+            }
+
+            @Override
+            public long run() {
+                return 0;
+            }
+        };
+        // 逐个删除在大队列上是O(n^2)，10万个任务时跳过
+        if (size <= 10000) {
+            runner.run(factory.name + " removeTaskById x" + size, new DelegateBench(fill) {
+                @Override
+                public long run() {
+                    XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> taskMgr = mgrHolder.get(0);
+                    for (XMgrTaskExecutor<BenchBean> task : tasksHolder.get(0))
+                        taskMgr.removeTaskById(task.getId());
+                    return size;
+                }
+            });
+        }
+        runner.run(factory.name + " removeTasks x" + size, new DelegateBench(fill) {
+            @Override
+            public long run() {
+                mgrHolder.get(0).removeTasks(tasksHolder.get(0));
+                return size;
+            }
+        });
+    }
+
+    /**
+     * 复用另一个Bench的setUp()。
+     */
+    private static abstract class DelegateBench extends BenchRunner.Bench {
+        private final BenchRunner.Bench setUp;
+
+        DelegateBench(BenchRunner.Bench setUp) {
+            this.setUp = setUp;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            setUp.setUp();
+        }
+    }
+
+    private static void benchDispatch(MgrFactory factory, int waiting) {
+        Queue<ManualTask> started = new ConcurrentLinkedQueue<ManualTask>();
+        XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> taskMgr = factory.create();
+        taskMgr.setTaskScheduler(new XTaskScheduler<BenchBean>() {
+            @Override
+            public int compare(BenchBean task1, BenchBean task2, BenchBean curTask) {
+                int p1 = task1.getPriority();
+                int p2 = task2.getPriority();
+                return p1 > p2 ? -1 : (p1 < p2 ? 1 : 0);
+            }
+        });
+        taskMgr.addTasks(createTasks(waiting, started));
+        taskMgr.start();
+
+        // 结束一个正在执行的任务，同步触发调度并启动下一个任务
+        int samples = Math.min(waiting / 2, 2000);
+        XHistogram histogram = new XHistogram();
+        for (int i = 0; i < samples; i++) {
+            ManualTask task = started.poll();
+            if (task == null)
+                break;
+            long begin = System.nanoTime();
+            task.endSuccess();
+            ManualTask next = peekLast(started);
+            if (next != null && next != task)
+                histogram.record((next.getStartNanos() - begin) / 1000);
+        }
+        taskMgr.stop();
+        System.out.println(String.format("%-48s %s", factory.name + " waiting=" + waiting
+                + " (us)", histogram.snapshot()));
+    }
+
+    private static ManualTask peekLast(Queue<ManualTask> queue) {
+        ManualTask last = null;
+        for (ManualTask task : queue)
+            last = task;
+        return last;
+    }
+
+    private static void benchComplete(BenchRunner runner, final MgrFactory factory,
+                                      final int count, final int listenerCount) throws Exception {
+        final Queue<ManualTask> started = new ConcurrentLinkedQueue<ManualTask>();
+        final AtomicLong callbacks = new AtomicLong();
+        final List<XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean>> mgrHolder =
+                new ArrayList<XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean>>();
+        runner.run(factory.name + " complete, listeners=" + listenerCount, new BenchRunner.Bench() {
+            @Override
+            public void setUp() {
+                started.clear();
+                XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> taskMgr = factory.create();
+                for (int i = 0; i < listenerCount; i++) {
+                    taskMgr.registerListener(new BenchListener() {
+                        @Override
+                        public void onComplete(BenchBean task) {
+                            callbacks.incrementAndGet();
+                        }
+                    });
+                }
+                taskMgr.addTasks(createTasks(count, started));
+                mgrHolder.clear();
+                mgrHolder.add(taskMgr);
+            }
+
+            @Override
+            public long run() {
+                callbacks.set(0);
+                mgrHolder.get(0).start();
+                long completed = 0;
+                ManualTask task;
+                while ((task = started.poll()) != null) {
+                    if (task.endSuccess())
+                        completed++;
+                }
+                if (completed != count || callbacks.get() != (long) count * listenerCount)
+                    fail(factory.name + " complete: completed=" + completed
+                            + ", callbacks=" + callbacks.get());
+                return completed;
+            }
+        });
+    }
+
+    private static void stressContention(final MgrFactory factory, int taskCount,
+                                         int threadCount, final long durationMs) throws Exception {
+        final XTaskMgr<XMgrTaskExecutor<BenchBean>, BenchBean> taskMgr = factory.create();
+        final List<XMgrTaskExecutor<BenchBean>> tasks = createTasks(taskCount, null);
+        taskMgr.addTasks(tasks);
+        final AtomicLong ops = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch ready = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            final Random random = new Random(t);
+            Thread thread = new Thread("contention-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long count = 0;
+                    while (System.currentTimeMillis() < deadline[0]) {
+                        String taskId = tasks.get(random.nextInt(tasks.size())).getId();
+                        try {
+                            switch (random.nextInt(7)) {
+                                case 0: taskMgr.start(); break;
+                                case 1: taskMgr.pause(); break;
+                                case 2: taskMgr.stop(); break;
+                                case 3: taskMgr.start(taskId); break;
+                                case 4: taskMgr.pause(taskId); break;
+                                case 5: taskMgr.resume(taskId); break;
+                                default: taskMgr.stop(taskId); break;
+                            }
+                        } catch (RuntimeException e) {
+                            if (errors.incrementAndGet() == 1)
+                                e.printStackTrace();
+                        }
+                        count++;
+                    }
+                    ops.addAndGet(count);
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        deadline[0] = System.currentTimeMillis() + durationMs;
+        ready.countDown();
+        for (Thread thread : threads) {
+            thread.join(durationMs + 10000);
+            if (thread.isAlive()) {
+                long[] deadlocked = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+                fail(factory.name + " contention: thread still running"
+                        + (deadlocked != null ? ", deadlocked threads=" + deadlocked.length : ""));
+                return;
+            }
+        }
+
+        // 检查不变量
+        int doing = 0;
+        int lost = 0;
+        for (XMgrTaskExecutor<BenchBean> task : tasks) {
+            if (task.getStatus() == XTaskBean.STATUS_DOING)
+                doing++;
+            if (taskMgr.getTaskById(task.getId()) == null)
+                lost++;
+        }
+        if (errors.get() > 0 || lost > 0 || doing > factory.limit)
+            fail(factory.name + " contention: errors=" + errors.get()
+                    + ", lost=" + lost + ", doing=" + doing + ", limit=" + factory.limit);
+        System.out.println(String.format("%-48s %14.0f ops/s  doing=%d",
+                factory.name + " threads=" + threadCount,
+                ops.get() * 1000.0 / durationMs, doing));
+        taskMgr.stop();
+    }
+
+    private static void fail(String message) {
+        sFailures++;
+        System.out.println("VIOLATION: " + message);
+    }
+}
@@ -0,0 +1,59 @@
+package regression;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 回归测试共用的断言和临时目录工具。
+ * 断言失败时抛出AssertionError，由RegressionRunner统一输出。
+ */
+public class Checks {
+
+    /**
+     * 需要等待成立的条件。
+     */
+    public interface Condition {
+        boolean isTrue();
+    }
+
+    public static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    public static void checkEquals(Object expected, Object actual, String message) {
+        if (expected == null ? actual != null : !expected.equals(actual))
+            throw new AssertionError(message + ": expected " + expected + ", actual " + actual);
+    }
+
+    /**
+     * 轮询等待条件成立，超时后断言失败。
+     * @param timeout 超时时间，单位：毫秒
+     */
+    public static void await(Condition condition, long timeout, String message)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!condition.isTrue()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("timeout: " + message);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * 创建一个空的临时目录，退出时不会自动删除，需要调用{@link #deleteDir(File)}。
+     */
+    public static File createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    public static void deleteDir(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteDir(child);
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,401 @@
+package regression;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tj.xengine.core.network.download.XBaseHttpDownloader;
+import com.tj.xengine.core.network.download.XDownloadBean;
+import com.tj.xengine.core.network.download.XDownloadBeanCodec;
+import com.tj.xengine.core.network.download.XDownloadCache;
+import com.tj.xengine.core.network.download.XDownloadMeta;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.task.runnable.XRetryBackoff;
+import com.tj.xengine.core.toolkit.taskmgr.XMgrTaskExecutor;
+import com.tj.xengine.core.toolkit.taskmgr.XTaskMgr;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XStealingParallelMgr;
+import com.tj.xengine.core.toolkit.taskmgr.store.XFileTaskStore;
+import com.tj.xengine.java.network.download.XHttpDownloadTask;
+import com.tj.xengine.java.network.download.XHttpDownloader;
+import com.tj.xengine.java.network.http.java.XJavaHttpClient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static regression.Checks.await;
+import static regression.Checks.check;
+import static regression.Checks.checkEquals;
+
+/**
+ * 相同内容的下载合并(XDownloadCache的跟随任务)的回归测试，使用本地HTTP服务器。
+ * 覆盖：跟随任务是任务管理器中真正的任务(会写入任务存储，处于停止状态)，
+ * 正在下载的任务成功后跟随任务从缓存获取、只请求一次服务器；
+ * 正在下载的任务失败后加回任务管理器(之后还会重试)时跟随任务继续等待，最终失败后跟随任务改为出错状态并回调onError()；
+ * 正在下载的任务被删除后，跟随任务自己下载；
+ * 任务管理器正在执行且有空位时添加的跟随任务，在得到结果前不会被启动。
+ */
+public class FollowerRegression {
+
+    private static final long TIMEOUT = 30000;
+    private static final int CHUNK = 64 * 1024;
+
+    private static final Map<String, byte[]> sContents = new ConcurrentHashMap<String, byte[]>();
+    private static final Map<String, AtomicInteger> sRequests = new ConcurrentHashMap<String, AtomicInteger>();
+
+    public static void run() throws Exception {
+        sContents.put("/shared", randomBytes(2 * 1024 * 1024, 1));
+        sContents.put("/removed", randomBytes(2 * 1024 * 1024, 2));
+        sContents.put("/running", randomBytes(2 * 1024 * 1024, 4));
+        HttpServer server = startServer();
+        File dir = Checks.createTempDir("xengine-follower");
+        XFileTaskStore<XDownloadBean> store = null;
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            RetryDownloader downloader = new RetryDownloader();
+            downloader.setDownloadCache(new XDownloadCache(new File(dir, "cache").getPath(), 8 * 1024 * 1024));
+            store = new XFileTaskStore<XDownloadBean>(new File(dir, "tasks").getPath(), new XDownloadBeanCodec());
+            downloader.restoreFrom(store);
+            Results results = new Results();
+            downloader.registerListener(results);
+
+            testComplete(downloader, store, results, base, dir);
+            testError(downloader, store, results, base, dir);
+            testLeaderRemoved(downloader, results, base, dir);
+            testAddWhileRunning(results, base, dir);
+        } finally {
+            server.stop(0);
+            if (store != null)
+                store.close();
+            Checks.deleteDir(dir);
+        }
+    }
+
+    private static void testComplete(RetryDownloader downloader, final XFileTaskStore<XDownloadBean> store,
+                                     final Results results, String base, File dir) throws Exception {
+        byte[] content = sContents.get("/shared");
+        final XDownloadBean leader = newBean(base + "/shared?a", new File(dir, "a"), content);
+        final XDownloadBean follower = newBean(base + "/shared?b", new File(dir, "b"), content);
+        check(downloader.addTask(leader), "complete: leader not added");
+        check(downloader.addTask(follower), "complete: follower not added");
+
+        // 跟随任务在任务管理器中，并处于停止状态
+        XDownloadBean stored = find(store.load(), follower.getId());
+        check(stored != null, "complete: follower is not a real task");
+        checkEquals(XTaskBean.STATUS_DEFAULT, stored.getStatus(), "complete: follower status");
+
+        downloader.startDownload();
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return results.isFinished(leader.getId()) && results.isFinished(follower.getId());
+            }
+        }, TIMEOUT, "shared download did not finish");
+        checkEquals(Results.COMPLETE, results.get(leader.getId()), "complete: leader result");
+        checkEquals(Results.COMPLETE, results.get(follower.getId()), "complete: follower result");
+        checkEquals(1, requestCount("/shared"), "complete: server requests");
+        check(Arrays.equals(content, readFile(new File(leader.getFolder(), leader.getFileName()))),
+                "complete: leader content");
+        check(Arrays.equals(content, readFile(new File(follower.getFolder(), follower.getFileName()))),
+                "complete: follower content");
+        check(!XDownloadMeta.exists(new File(leader.getFolder(),
+                leader.getFileName() + XDownloadMeta.META_FILE_SUFFIX)), "complete: meta left behind");
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return store.load().isEmpty();
+            }
+        }, TIMEOUT, "completed tasks are still in the store");
+    }
+
+    private static void testError(final RetryDownloader downloader, final XFileTaskStore<XDownloadBean> store,
+                                  final Results results, String base, File dir) throws Exception {
+        // 服务器上不存在，两个任务预期相同的内容；缩短重试间隔，让正在下载的任务尽快失败
+        downloader.setRetryPolicy(null, new XRetryBackoff(10, 10, 1, 0), null);
+        byte[] expected = randomBytes(1024, 3);
+        final XDownloadBean leader = newBean(base + "/missing?a", new File(dir, "c"), expected);
+        final XDownloadBean follower = newBean(base + "/missing?b", new File(dir, "d"), expected);
+        downloader.addTask(leader);
+        downloader.addTask(follower);
+        downloader.startDownload();
+
+        // 失败后加回任务管理器等待再次启动，跟随任务继续等待
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return results.getErrorCount(leader.getId()) > 0;
+            }
+        }, TIMEOUT, "leader did not fail");
+        check(!results.isFinished(follower.getId()), "error: follower failed while the leader retries");
+        checkEquals(XTaskBean.STATUS_DEFAULT, find(store.load(), follower.getId()).getStatus(),
+                "error: follower status while the leader retries");
+
+        // 再次启动后最终失败(不再加回任务管理器)，跟随任务改为出错状态
+        downloader.setRetryAfterError(false);
+        downloader.startDownload(leader.getId());
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return results.isFinished(follower.getId());
+            }
+        }, TIMEOUT, "follower did not fail with the leader");
+        checkEquals(Results.ERROR, results.get(follower.getId()), "error: follower result");
+        checkEquals(0, requestCount("/missing?b"), "error: follower requested the server");
+        XDownloadBean stored = find(store.load(), follower.getId());
+        check(stored != null, "error: follower dropped from the store");
+        checkEquals(XTaskBean.STATUS_ERROR, stored.getStatus(), "error: follower status");
+        downloader.removeTask(follower.getId());
+        downloader.removeTask(leader.getId());
+        downloader.setRetryAfterError(true);
+    }
+
+    private static void testLeaderRemoved(RetryDownloader downloader, final Results results,
+                                          String base, File dir) throws Exception {
+        byte[] content = sContents.get("/removed");
+        final XDownloadBean leader = newBean(base + "/removed?a", new File(dir, "e"), content);
+        final XDownloadBean follower = newBean(base + "/removed?b", new File(dir, "f"), content);
+        downloader.addTask(leader);
+        downloader.addTask(follower);
+        downloader.startDownload();
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return results.isStarted(leader.getId());
+            }
+        }, TIMEOUT, "leader did not start");
+        // 删除正在执行的任务会让串行任务管理器停止，跟随任务和其他等待中的任务一样需要再次启动
+        downloader.removeTask(leader.getId());
+        downloader.startDownload();
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return results.isFinished(follower.getId());
+            }
+        }, TIMEOUT, "follower did not take over");
+        checkEquals(Results.COMPLETE, results.get(follower.getId()), "removed: follower result");
+        checkEquals(1, requestCount("/removed?b"), "removed: follower requests");
+        check(Arrays.equals(content, readFile(new File(follower.getFolder(), follower.getFileName()))),
+                "removed: follower content");
+    }
+
+    private static void testAddWhileRunning(final Results results, String base, File dir) throws Exception {
+        // 并行的任务管理器有空位时，添加的任务会被立即启动
+        XHttpDownloader downloader = new XHttpDownloader(new XJavaHttpClient()) {
+            @Override
+            protected XTaskMgr<XMgrTaskExecutor<XDownloadBean>, XDownloadBean> createTaskMgr() {
+                return new XStealingParallelMgr<XDownloadBean>(2);
+            }
+        };
+        downloader.setDownloadCache(new XDownloadCache(new File(dir, "cache2").getPath(), 8 * 1024 * 1024));
+        downloader.registerListener(results);
+        byte[] content = sContents.get("/running");
+        final XDownloadBean leader = newBean(base + "/running?a", new File(dir, "g"), content);
+        final XDownloadBean follower = newBean(base + "/running?b", new File(dir, "h"), content);
+        downloader.addTask(leader);
+        downloader.startDownload();
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return results.isStarted(leader.getId());
+            }
+        }, TIMEOUT, "running: leader did not start");
+        check(downloader.addTask(follower), "running: follower not added");
+        check(!results.isStarted(follower.getId()), "running: follower started while the leader downloads");
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return results.isFinished(leader.getId());
+            }
+        }, TIMEOUT, "running: leader did not finish");
+        check(!results.isStarted(follower.getId()), "running: follower started before the leader finished");
+        // 其余任务都停止时该任务管理器会停止运行，重新排队的跟随任务需要再次启动
+        downloader.startDownload();
+        await(new Checks.Condition() {
+            @Override
+            public boolean isTrue() {
+                return results.isFinished(follower.getId());
+            }
+        }, TIMEOUT, "running: follower did not finish");
+        checkEquals(Results.COMPLETE, results.get(follower.getId()), "running: follower result");
+        checkEquals(0, requestCount("/running?b"), "running: follower requested the server");
+        check(Arrays.equals(content, readFile(new File(follower.getFolder(), follower.getFileName()))),
+                "running: follower content");
+    }
+
+    /**
+     * 可以控制失败的任务是否加回任务管理器的下载管理器。
+     */
+    private static class RetryDownloader extends XHttpDownloader {
+        private volatile boolean mRetryAfterError = true;
+
+        RetryDownloader() {
+            super(new XJavaHttpClient());
+        }
+
+        void setRetryAfterError(boolean retry) {
+            mRetryAfterError = retry;
+        }
+
+        @Override
+        protected XMgrTaskExecutor<XDownloadBean> createTask(XDownloadBean bean) {
+            return new XHttpDownloadTask(bean, mHttpClient) {
+                @Override
+                protected boolean backToDownloadMgr() {
+                    return mRetryAfterError;
+                }
+            };
+        }
+    }
+
+    /**
+     * 记录每个任务最后的结果和失败次数。
+     */
+    private static class Results extends XBaseHttpDownloader.ListenerAdapter {
+        static final String STARTED = "started";
+        static final String COMPLETE = "complete";
+        static final String ERROR = "error";
+
+        private final Map<String, String> mResults = new ConcurrentHashMap<String, String>();
+        private final Map<String, Integer> mErrorCounts = new ConcurrentHashMap<String, Integer>();
+
+        String get(String id) {
+            return mResults.get(id);
+        }
+
+        int getErrorCount(String id) {
+            Integer count = mErrorCounts.get(id);
+            return count == null ? 0 : count;
+        }
+
+        boolean isStarted(String id) {
+            return mResults.containsKey(id);
+        }
+
+        boolean isFinished(String id) {
+            String result = mResults.get(id);
+            return COMPLETE.equals(result) || ERROR.equals(result);
+        }
+
+        @Override
+        public void onStart(String id) {
+            mResults.put(id, STARTED);
+        }
+
+        @Override
+        public void onComplete(String id, File file) {
+            mResults.put(id, COMPLETE);
+        }
+
+        @Override
+        public void onError(String id, String errorCode, File file) {
+            mErrorCounts.put(id, getErrorCount(id) + 1);
+            mResults.put(id, ERROR);
+        }
+    }
+
+    private static HttpServer startServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String query = exchange.getRequestURI().getQuery();
+                countRequest(path);
+                countRequest(path + "?" + query);
+                byte[] content = sContents.get(path);
+                if (content == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    // 分块慢速发送，保证跟随任务在下载过程中加入
+                    for (int pos = 0; pos < content.length; pos += CHUNK) {
+                        out.write(content, pos, Math.min(CHUNK, content.length - pos));
+                        Thread.sleep(5);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // 客户端中断了下载
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void countRequest(String key) {
+        AtomicInteger count = sRequests.get(key);
+        if (count == null) {
+            sRequests.put(key, new AtomicInteger());
+            count = sRequests.get(key);
+        }
+        count.incrementAndGet();
+    }
+
+    private static int requestCount(String key) {
+        AtomicInteger count = sRequests.get(key);
+        return count == null ? 0 : count.get();
+    }
+
+    private static XDownloadBean newBean(String url, File folder, byte[] content) throws Exception {
+        XDownloadBean bean = new XDownloadBean(url, folder.getPath(), "data.bin");
+        bean.setExpectedDigest("MD5", md5(content));
+        return bean;
+    }
+
+    private static XDownloadBean find(List<XDownloadBean> beans, String id) {
+        for (XDownloadBean bean : beans) {
+            if (bean.getId().equals(id))
+                return bean;
+        }
+        return null;
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String md5(byte[] content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int pos = 0;
+            while (pos < bytes.length) {
+                int read = in.read(bytes, pos, bytes.length - pos);
+                if (read < 0)
+                    break;
+                pos += read;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,134 @@
+package regression;
+
+import benchmark.BenchBean;
+import benchmark.ManualTask;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.lease.XFileLeaseCoordinator;
+import com.tj.xengine.core.toolkit.taskmgr.lease.XLeaseCoordinator;
+import com.tj.xengine.core.toolkit.taskmgr.lease.XLeaseFilter;
+import com.tj.xengine.core.toolkit.taskmgr.parallel.XParallelMgrImpl;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static regression.Checks.await;
+import static regression.Checks.check;
+import static regression.Checks.checkEquals;
+
+/**
+ * 跨进程任务租约(XFileLeaseCoordinator和XLeaseFilter)的回归测试。
+ * 两个任务管理器共用同一个租约目录，模拟两个进程：
+ * 只在任务真正启动时才认领租约(过滤等待中的任务不能认领)，
+ * 认领失败的一方停止该任务并启动下一个，停止任务后释放租约，完成的任务不能再被认领。
+ * 注意：认领失败的一方在对方的租约到期前不会重新读取租约文件，释放后由新的持有者确认。
+ */
+public class LeaseRegression {
+
+    private static final long LEASE_TIME = 3000;
+    private static final long TIMEOUT = 5000;
+
+    public static void run() throws Exception {
+        File dir = Checks.createTempDir("xengine-lease");
+        try {
+            testCoordinator(dir);
+            testFilter(dir);
+        } finally {
+            Checks.deleteDir(dir);
+        }
+    }
+
+    private static void testCoordinator(File dir) {
+        XFileLeaseCoordinator a = new XFileLeaseCoordinator(dir.getPath(), "A", LEASE_TIME);
+        XFileLeaseCoordinator b = new XFileLeaseCoordinator(dir.getPath(), "B", LEASE_TIME);
+        try {
+            check(a.tryAcquire("x"), "coordinator: A cannot acquire a free lease");
+            check(a.tryAcquire("x"), "coordinator: A cannot re-acquire its own lease");
+            check(!b.tryAcquire("x"), "coordinator: B acquired a lease held by A");
+            check(!b.isAvailable("x"), "coordinator: lease seen by B is still available");
+            a.release("x");
+            check(!a.isHeld("x"), "coordinator: A still holds a released lease");
+            // B在租约到期前不再读取文件，由新的持有者确认租约已释放
+            check(isReleased(dir, "x"), "coordinator: released lease still on disk");
+
+            check(a.tryAcquire("y"), "coordinator: A cannot acquire y");
+            a.complete("y");
+            check(!b.tryAcquire("y"), "coordinator: B acquired a completed task");
+            check(b.isCompleted("y"), "coordinator: completion not visible to B");
+            b.clear("y");
+            check(b.tryAcquire("y"), "coordinator: cleared task cannot be acquired");
+            check(!a.tryAcquire("y"), "coordinator: A acquired a lease held by B");
+            b.release("y");
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    private static void testFilter(File dir) throws Exception {
+        final XParallelMgrImpl<BenchBean> mgrA = new XParallelMgrImpl<BenchBean>(1);
+        final XParallelMgrImpl<BenchBean> mgrB = new XParallelMgrImpl<BenchBean>(1);
+        final XLeaseFilter<BenchBean> filterA = new XLeaseFilter<BenchBean>(
+                new XFileLeaseCoordinator(dir.getPath(), "A", LEASE_TIME), null);
+        final XLeaseFilter<BenchBean> filterB = new XLeaseFilter<BenchBean>(
+                new XFileLeaseCoordinator(dir.getPath(), "B", LEASE_TIME), null);
+        filterA.attach(mgrA);
+        filterB.attach(mgrB);
+        try {
+            // A运行p，q在等待中，只认领p
+            mgrA.addTask(new ManualTask(new BenchBean("p"), null));
+            mgrA.addTask(new ManualTask(new BenchBean("q"), null));
+            mgrA.start();
+            final XLeaseCoordinator coordinatorA = filterA.getCoordinator();
+            await(new Checks.Condition() {
+                @Override
+                public boolean isTrue() {
+                    return coordinatorA.isHeld("p");
+                }
+            }, TIMEOUT, "A never claimed the running task");
+            Thread.sleep(200);
+            checkEquals(Arrays.asList("p"), coordinatorA.getHeld(),
+                    "filter: A claimed a waiting task");
+
+            // B先启动p，认领失败后停止p，改为运行并认领q
+            final ManualTask taskP = new ManualTask(new BenchBean("p"), null);
+            final ManualTask taskQ = new ManualTask(new BenchBean("q"), null);
+            mgrB.addTask(taskP);
+            mgrB.addTask(taskQ);
+            mgrB.start();
+            final XLeaseCoordinator coordinatorB = filterB.getCoordinator();
+            await(new Checks.Condition() {
+                @Override
+                public boolean isTrue() {
+                    return coordinatorB.isHeld("q") && taskQ.getStatus() == XTaskBean.STATUS_DOING;
+                }
+            }, TIMEOUT, "B never moved on to the free task");
+            check(taskP.getStatus() != XTaskBean.STATUS_DOING, "filter: task leased by A still runs in B");
+            checkEquals(Arrays.asList("q"), coordinatorB.getHeld(), "filter: B's leases");
+
+            // A停止p后释放租约
+            mgrA.stop("p");
+            await(new Checks.Condition() {
+                @Override
+                public boolean isTrue() {
+                    return !coordinatorA.isHeld("p");
+                }
+            }, TIMEOUT, "stopping p did not release its lease");
+            check(isReleased(dir, "p"), "filter: stopped task's lease still on disk");
+        } finally {
+            filterA.detach();
+            filterB.detach();
+        }
+    }
+
+    /**
+     * 用一个新的持有者尝试认领，判断租约是否已被释放。
+     */
+    private static boolean isReleased(File dir, String taskId) {
+        XFileLeaseCoordinator other = new XFileLeaseCoordinator(dir.getPath(), "C", LEASE_TIME);
+        try {
+            return other.tryAcquire(taskId);
+        } finally {
+            other.close();
+        }
+    }
+}
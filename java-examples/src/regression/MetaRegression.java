@@ -0,0 +1,66 @@
+package regression;
+
+import com.tj.xengine.core.network.download.XDownloadMeta;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static regression.Checks.check;
+import static regression.Checks.checkEquals;
+
+/**
+ * 分段下载的断点记录(XDownloadMeta)的持久化回归测试。
+ * 覆盖：保存后不留临时文件、删除原记录后崩溃时从临时文件恢复、原记录残缺时从临时文件恢复。
+ */
+public class MetaRegression {
+
+    public static void run() throws Exception {
+        File dir = Checks.createTempDir("xengine-meta");
+        try {
+            testMeta(dir);
+        } finally {
+            Checks.deleteDir(dir);
+        }
+    }
+
+    private static void testMeta(File dir) throws Exception {
+        File file = new File(dir, "a.bin" + XDownloadMeta.META_FILE_SUFFIX);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        XDownloadMeta meta = XDownloadMeta.create("http://host/a.bin", 1000000, 4, null);
+        XDownloadMeta.Segment segment = meta.next(1, 0, 0);
+        check(segment != null, "meta: no segment to download");
+        meta.advance(segment, meta.claim(segment, 4096));
+        long completeSize = meta.getCompleteSize();
+
+        // 保存两次(第二次覆盖已有记录)，都不能留下临时文件
+        check(meta.save(file), "meta: first save failed");
+        check(meta.save(file), "meta: overwrite failed");
+        check(file.exists() && !tmpFile.exists(), "meta: save left a tmp file");
+        XDownloadMeta loaded = XDownloadMeta.load(file);
+        check(loaded != null, "meta: load failed");
+        checkEquals("http://host/a.bin", loaded.getUrl(), "meta: url");
+        checkEquals(1000000L, loaded.getTotalSize(), "meta: total size");
+        checkEquals(completeSize, loaded.getCompleteSize(), "meta: complete size");
+
+        // 删除了原记录、还没重命名时崩溃，只剩下临时文件
+        check(file.renameTo(tmpFile), "meta: cannot simulate crash");
+        check(XDownloadMeta.exists(file), "meta: exists() ignores the tmp file");
+        loaded = XDownloadMeta.load(file);
+        check(loaded != null, "meta: not recovered from the tmp file");
+        checkEquals(completeSize, loaded.getCompleteSize(), "meta: recovered complete size");
+        check(file.exists() && !tmpFile.exists(), "meta: tmp file not renamed back");
+
+        // 原记录残缺(写了一半)，临时文件完整
+        check(meta.save(tmpFile), "meta: cannot write the tmp file");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{0, 0, 0});
+        out.close();
+        loaded = XDownloadMeta.load(file);
+        check(loaded != null, "meta: not recovered from a truncated record");
+        checkEquals(completeSize, loaded.getCompleteSize(), "meta: complete size after truncation");
+
+        XDownloadMeta.delete(file);
+        check(!XDownloadMeta.exists(file), "meta: delete() left files behind");
+        check(XDownloadMeta.load(file) == null, "meta: load() after delete");
+    }
+}
@@ -0,0 +1,60 @@
+package regression;
+
+/**
+ * 回归测试入口，依次执行各个回归测试。
+ * 运行：java regression.RegressionRunner
+ * 有用例失败时以非0退出。
+ */
+public class RegressionRunner {
+
+    public static void main(String[] args) {
+        int failed = 0;
+        failed += run("store", new Case() {
+            @Override
+            public void run() throws Exception {
+                TaskStoreRegression.run();
+            }
+        });
+        failed += run("lease", new Case() {
+            @Override
+            public void run() throws Exception {
+                LeaseRegression.run();
+            }
+        });
+        failed += run("meta", new Case() {
+            @Override
+            public void run() throws Exception {
+                MetaRegression.run();
+            }
+        });
+        failed += run("follower", new Case() {
+            @Override
+            public void run() throws Exception {
+                FollowerRegression.run();
+            }
+        });
+        if (failed > 0) {
+            System.out.println("FAILED: " + failed + " case(s)");
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    private interface Case {
+        void run() throws Exception;
+    }
+
+    private static int run(String name, Case regressionCase) {
+        long start = System.currentTimeMillis();
+        try {
+            regressionCase.run();
+            System.out.println(name + ": passed (" + (System.currentTimeMillis() - start) + "ms)");
+            return 0;
+        } catch (Throwable e) {
+            System.out.println(name + ": " + e);
+            e.printStackTrace();
+            return 1;
+        }
+    }
+}
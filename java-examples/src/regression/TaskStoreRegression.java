@@ -0,0 +1,128 @@
+package regression;
+
+import com.tj.xengine.core.network.download.XDownloadBean;
+import com.tj.xengine.core.network.download.XDownloadBeanCodec;
+import com.tj.xengine.core.toolkit.task.XTaskBean;
+import com.tj.xengine.core.toolkit.taskmgr.store.XFileTaskStore;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static regression.Checks.check;
+import static regression.Checks.checkEquals;
+
+/**
+ * 任务日志(XFileTaskStore)的持久化回归测试。
+ * 覆盖：增删和状态变化在重新打开后重放、末尾残缺记录被截掉、压缩后用快照恢复、
+ * 压缩时崩溃留下的临时快照被恢复、新快照已写入但旧日志还没删除时崩溃(在新快照上重放旧日志)。
+ */
+public class TaskStoreRegression {
+
+    public static void run() throws Exception {
+        File dir = Checks.createTempDir("xengine-store");
+        try {
+            testReplay(dir);
+            testCompactCrash(dir);
+        } finally {
+            Checks.deleteDir(dir);
+        }
+    }
+
+    private static void testReplay(File dir) throws Exception {
+        String path = new File(dir, "tasks").getPath();
+        XFileTaskStore<XDownloadBean> store = openStore(path);
+        List<XDownloadBean> beans = new ArrayList<XDownloadBean>();
+        for (int i = 0; i < 5; i++)
+            beans.add(new XDownloadBean("http://host/" + i, dir.getPath()));
+        store.addAll(beans);
+        store.add(new XDownloadBean("http://host/5", dir.getPath()));
+        store.remove("http://host/1");
+        store.removeAll(ids("http://host/3"));
+        store.updateStatus("http://host/2", XTaskBean.STATUS_ERROR);
+        store.close();
+        List<String> expected = ids("http://host/0", "http://host/2", "http://host/4", "http://host/5");
+
+        // 重新打开后重放日志
+        store = openStore(path);
+        List<XDownloadBean> loaded = store.load();
+        checkEquals(expected, idsOf(loaded), "store: replayed tasks");
+        checkEquals(XTaskBean.STATUS_ERROR, loaded.get(1).getStatus(), "store: replayed status");
+        store.close();
+
+        // 进程崩溃导致日志末尾只写了一半的记录
+        RandomAccessFile journal = new RandomAccessFile(path + ".journal", "rw");
+        journal.seek(journal.length());
+        journal.write(new byte[]{0, 0, 0, 50, 1, 2});
+        journal.close();
+        store = openStore(path);
+        checkEquals(expected, idsOf(store.load()), "store: tasks after a torn journal record");
+        // 截掉残缺记录后继续追加，新记录不能被残缺记录吞掉
+        store.add(new XDownloadBean("http://host/6", dir.getPath()));
+        store.close();
+        store = openStore(path);
+        List<String> expectedAfterAdd = new ArrayList<String>(expected);
+        expectedAfterAdd.add("http://host/6");
+        checkEquals(expectedAfterAdd, idsOf(store.load()), "store: append after a torn record");
+
+        // 压缩后用快照恢复
+        store.compact();
+        store.close();
+        store = openStore(path);
+        checkEquals(expectedAfterAdd, idsOf(store.load()), "store: tasks after compaction");
+        store.close();
+
+        // 压缩时删除了旧快照、还没重命名时崩溃，只剩下临时快照
+        File snapshot = new File(path + ".snapshot");
+        check(snapshot.renameTo(new File(path + ".snapshot.tmp")), "store: cannot simulate crash");
+        store = openStore(path);
+        checkEquals(expectedAfterAdd, idsOf(store.load()), "store: tasks from the tmp snapshot");
+        store.close();
+    }
+
+    private static void testCompactCrash(File dir) throws Exception {
+        String path = new File(dir, "compact").getPath();
+        File journalFile = new File(path + ".journal");
+        File oldJournal = new File(path + ".journal.old");
+        XFileTaskStore<XDownloadBean> store = openStore(path);
+        store.add(new XDownloadBean("http://host/x", dir.getPath()));
+        store.add(new XDownloadBean("http://host/y", dir.getPath()));
+        store.remove("http://host/x");
+        store.sync();
+
+        // 硬链接保留旧日志的内容，压缩删除旧日志后仍然可以读到
+        Files.createLink(oldJournal.toPath(), journalFile.toPath());
+        // 重新添加被删除的任务，这条记录和压缩在同一次写入中完成
+        store.setCompactThreshold(1);
+        store.add(new XDownloadBean("http://host/x", dir.getPath()));
+        store.close();
+        check(new File(path + ".snapshot").exists(), "compact: no snapshot was written");
+
+        // 新快照已重命名、旧日志还没删除时崩溃
+        check(journalFile.delete() && oldJournal.renameTo(journalFile), "compact: cannot simulate crash");
+        store = openStore(path);
+        checkEquals(ids("http://host/y", "http://host/x"), idsOf(store.load()),
+                "compact: tasks after replaying the old journal on the new snapshot");
+        store.close();
+    }
+
+    private static XFileTaskStore<XDownloadBean> openStore(String path) {
+        return new XFileTaskStore<XDownloadBean>(path, new XDownloadBeanCodec());
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> list = new ArrayList<String>();
+        for (String id : ids)
+            list.add(id);
+        return list;
+    }
+
+    private static List<String> idsOf(List<XDownloadBean> beans) {
+        List<String> ids = new ArrayList<String>(beans.size());
+        for (XDownloadBean bean : beans)
+            ids.add(bean.getId());
+        return ids;
+    }
+}
@@ -195,6 +195,7 @@ public class XApacheHttpClient extends XBaseHttp {
                 apacheResponse.setStatusCode(response.getStatusLine().getStatusCode());
             // 设置Entity
             apacheResponse.setEntity(response.getEntity());
+            apacheResponse.setRequest(request);
             if (response.getEntity() != null) {
                 // 如果response是压缩的，则自动用GZIPInputStream转换一下
                 Header contentEncoding = response.getFirstHeader(HTTP.CONTENT_ENCODING);
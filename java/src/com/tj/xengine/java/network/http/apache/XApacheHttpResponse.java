@@ -7,6 +7,7 @@ import org.apache.http.Header;
 import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
@@ -22,11 +23,16 @@ import java.nio.charset.Charset;
 class XApacheHttpResponse extends XBaseHttpResponse {
 
     private HttpEntity mEntity;
+    private HttpUriRequest mRequest;
 
     protected void setEntity(HttpEntity entity) {
         mEntity = entity;
     }
 
+    protected void setRequest(HttpUriRequest request) {
+        mRequest = request;
+    }
+
     @Override
     public void consumeContent() {
         super.consumeContent();
@@ -38,6 +44,14 @@ class XApacheHttpResponse extends XBaseHttpResponse {
             }
     }
 
+    @Override
+    public void abort() {
+        // 先中止请求，关闭InputStream时不会再读取剩余的内容
+        if (mRequest != null)
+            mRequest.abort();
+        super.abort();
+    }
+
     @Override
     public Charset getContentType() {
         if (mEntity == null)
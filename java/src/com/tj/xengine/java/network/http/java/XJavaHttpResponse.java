@@ -32,6 +32,14 @@ class XJavaHttpResponse extends XBaseHttpResponse {
             mConnection.disconnect();
     }
 
+    @Override
+    public void abort() {
+        // 先断开连接，关闭InputStream时不会再读取剩余的内容
+        if (mConnection != null)
+            mConnection.disconnect();
+        super.abort();
+    }
+
     @Override
     public Charset getContentType() {
         return mCharset;
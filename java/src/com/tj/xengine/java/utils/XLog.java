@@ -2,6 +2,9 @@ package com.tj.xengine.java.utils;
 
 /**
  * 全局log类，简单封装一下，可以手动开关各个log级别的日志。
+ * 带格式参数的方法只在该级别的日志打开时才格式化字符串，
+ * 频繁调用的地方(例如下载循环中)应使用这些方法，或者先用{@link #isLoggable(int)}判断，
+ * 避免日志关闭时仍然拼接字符串。
  * Created by 赵之韵.
  * Email: ttxzmorln@163.com
  * Date: 11-11-13
@@ -9,10 +12,22 @@ package com.tj.xengine.java.utils;
  */
 public abstract class XLog {
 
+    // 日志级别，与android.util.Log一致
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
     /**
      * 是否打开的标志
      */
-    private static boolean enabled = true;
+    private static volatile boolean enabled = true;
+
+    /**
+     * 输出日志的最低级别，默认输出DEBUG及以上的日志
+     */
+    private static volatile int level = DEBUG;
 
     /**
      * 设置是否开启
@@ -22,10 +37,84 @@ public abstract class XLog {
         enabled = enable;
     }
 
+    /**
+     * 设置输出日志的最低级别，低于该级别的日志被忽略，默认为DEBUG
+     * @param minLevel VERBOSE、DEBUG、INFO、WARN或ERROR
+     */
+    public static void setLevel(int minLevel) {
+        level = minLevel;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
 
+    /**
+     * 判断该级别的日志是否会输出
+     */
+    public static boolean isLoggable(int logLevel) {
+        return enabled && logLevel >= level;
+    }
+
+    /**
+     * 输出DEBUG级别的日志
+     */
     public static void log(String tag, String msg) {
-        if(enabled) {
+        log(DEBUG, tag, msg);
+    }
+
+    public static void log(int logLevel, String tag, String msg) {
+        if (isLoggable(logLevel)) {
             System.out.println("[" + tag + "]" + msg);
         }
     }
+
+    /**
+     * 该级别的日志打开时，才用String.format()格式化并输出日志
+     */
+    public static void log(int logLevel, String tag, String format, Object arg) {
+        if (isLoggable(logLevel)) {
+            log(logLevel, tag, String.format(format, arg));
+        }
+    }
+
+    public static void log(int logLevel, String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(logLevel)) {
+            log(logLevel, tag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public static void log(int logLevel, String tag, String format, Object... args) {
+        if (isLoggable(logLevel)) {
+            log(logLevel, tag, String.format(format, args));
+        }
+    }
+
+    public static void v(String tag, String msg) {
+        log(VERBOSE, tag, msg);
+    }
+
+    public static void d(String tag, String msg) {
+        log(DEBUG, tag, msg);
+    }
+
+    public static void d(String tag, String format, Object arg) {
+        log(DEBUG, tag, format, arg);
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        log(DEBUG, tag, format, arg1, arg2);
+    }
+
+    public static void i(String tag, String msg) {
+        log(INFO, tag, msg);
+    }
+
+    public static void w(String tag, String msg) {
+        log(WARN, tag, msg);
+    }
+
+    public static void e(String tag, String msg) {
+        log(ERROR, tag, msg);
+    }
 }